@@ -15,11 +15,15 @@
 package com.google.sample.beaconservice;
 
 import android.app.Activity;
+import android.app.Dialog;
+import android.content.Intent;
 import android.os.AsyncTask;
 import android.util.Log;
 import com.google.android.gms.auth.GoogleAuthException;
 import com.google.android.gms.auth.GoogleAuthUtil;
+import com.google.android.gms.auth.GooglePlayServicesAvailabilityException;
 import com.google.android.gms.auth.UserRecoverableAuthException;
+import com.google.android.gms.common.GooglePlayServicesUtil;
 
 import java.io.IOException;
 
@@ -46,7 +50,7 @@ class AuthorizedServiceTask extends AsyncTask<Void, Void, Void> {
     } catch (UserRecoverableAuthException e) {
       // GooglePlayServices.apk is either old, disabled, or not present
       // so we need to show the user some UI in the activity to recover.
-      Utils.handleAuthException(activity, e);
+      handleAuthException(activity, e);
     } catch (GoogleAuthException e) {
       // Some other type of unrecoverable exception has occurred.
       // Report and log the error as appropriate for your app.
@@ -59,4 +63,28 @@ class AuthorizedServiceTask extends AsyncTask<Void, Void, Void> {
     return null;
   }
 
+  private static void handleAuthException(final Activity activity, final Exception e) {
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (e instanceof GooglePlayServicesAvailabilityException) {
+          // The Google Play services APK is old, disabled, or not present.
+          // Show a dialog created by Google Play services that allows
+          // the user to update the APK
+          int statusCode = ((GooglePlayServicesAvailabilityException)e).getConnectionStatusCode();
+          Dialog dialog = GooglePlayServicesUtil.getErrorDialog(
+            statusCode, activity, Constants.REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
+          dialog.show();
+        }
+        else if (e instanceof UserRecoverableAuthException) {
+          // Unable to authenticate, such as when the user has not yet granted
+          // the app access to the account, but the user can fix this.
+          // Forward the user to an activity in Google Play services.
+          Intent intent = ((UserRecoverableAuthException)e).getIntent();
+          activity.startActivityForResult(
+            intent, Constants.REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
+        }
+      }
+    });
+  }
 }
@@ -16,9 +16,8 @@ package com.google.sample.beaconservice;
 
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.support.annotation.Nullable;
 
-import com.google.android.gms.maps.model.LatLng;
+import com.google.sample.libproximitybeacon.BeaconRecord;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -35,6 +34,12 @@ public class Beacon implements Parcelable {
   static final String STATUS_DECOMMISSIONED = "DECOMMISSIONED";
   static final String STABILITY_UNSPECIFIED = "STABILITY_UNSPECIFIED";
 
+  // These constants are in the Proximity Service AdvertisedId Type enum:
+  static final String TYPE_EDDYSTONE = "EDDYSTONE";
+  static final String TYPE_EDDYSTONE_EID = "EDDYSTONE_EID";
+  static final String TYPE_IBEACON = "IBEACON";
+  static final String TYPE_ALTBEACON = "ALTBEACON";
+
   // These constants are convenience for this app:
   static final String UNREGISTERED = "UNREGISTERED";
   static final String NOT_AUTHORIZED = "NOT_AUTHORIZED";
@@ -66,47 +71,39 @@ public class Beacon implements Parcelable {
   }
 
   public Beacon(JSONObject response) {
-    try {
-      JSONObject json = response.getJSONObject("advertisedId");
-      type = json.getString("type");
-      id = Utils.base64Decode(json.getString("id"));
-    } catch (JSONException e) {
-      // NOP
-    }
-
-    try {
-      status = response.getString("status");
-    } catch (JSONException e) {
-      status = STATUS_UNSPECIFIED;
-    }
-
-    try {
-      placeId = response.getString("placeId");
-    } catch (JSONException e) {
-      // NOP
+    // Optional fields are read with opt* so that an absent field costs a lookup rather than a
+    // thrown and discarded JSONException.
+    JSONObject json = response.optJSONObject("advertisedId");
+    if (json != null) {
+      type = json.optString("type", null);
+      String encodedId = json.optString("id", null);
+      if (encodedId != null) {
+        id = Utils.base64Decode(encodedId);
+      }
     }
 
-    try {
-      JSONObject latLngJson = response.getJSONObject("latLng");
-      latitude = latLngJson.getDouble("latitude");
-      longitude = latLngJson.getDouble("longitude");
-    } catch (JSONException e) {
-      latitude = null;
-      longitude = null;
-    }
+    status = response.optString("status", STATUS_UNSPECIFIED);
+    placeId = response.optString("placeId", null);
 
-    try {
-      expectedStability = response.getString("expectedStability");
-    } catch (JSONException e) {
-      // NOP
+    JSONObject latLngJson = response.optJSONObject("latLng");
+    if (latLngJson != null && latLngJson.has("latitude") && latLngJson.has("longitude")) {
+      latitude = latLngJson.optDouble("latitude");
+      longitude = latLngJson.optDouble("longitude");
     }
 
-    try {
-      description = response.getString("description");
-    } catch (JSONException e) {
-      // NOP
-    }
+    expectedStability = response.optString("expectedStability", null);
+    description = response.optString("description", null);
+  }
 
+  public Beacon(BeaconRecord record) {
+    type = record.getType();
+    id = record.getId();
+    status = record.getStatus();
+    placeId = record.getPlaceId();
+    latitude = record.getLatitude();
+    longitude = record.getLongitude();
+    expectedStability = record.getExpectedStability();
+    description = record.getDescription();
   }
 
   public JSONObject toJson() throws JSONException {
@@ -137,24 +134,61 @@ public class Beacon implements Parcelable {
     return json;
   }
 
+  /**
+   * The library's view of this beacon, for the typed register and update calls, which stream it
+   * straight into the request body.
+   */
+  public BeaconRecord toRecord() {
+    return new BeaconRecord(getBeaconName(), type, id, status, placeId, latitude, longitude,
+        expectedStability, description);
+  }
+
+  /**
+   * A copy of this beacon with a new signal strength, for lists whose beacons mustn't change once
+   * they've been handed to another thread.
+   */
+  Beacon withRssi(int rssi) {
+    Beacon copy = new Beacon(type, id, status, rssi);
+    copy.placeId = placeId;
+    copy.latitude = latitude;
+    copy.longitude = longitude;
+    copy.expectedStability = expectedStability;
+    copy.description = description;
+    return copy;
+  }
+
   public String getHexId() {
     return Utils.toHexString(id);
   }
 
   /**
    * The beaconName is formatted as "beacons/%d!%s" where %d is an integer representing the
-   * beacon ID type. For Eddystone this is 3. The %s is the base16 (hex) ASCII for the ID bytes.
+   * beacon ID type, from {@link #typeCode}. The %s is the base16 (hex) ASCII for the ID bytes.
    */
   public String getBeaconName() {
-    return String.format("beacons/3!%s", getHexId());
+    return String.format("beacons/%d!%s", typeCode(type), getHexId());
   }
 
-  @Nullable
-  public LatLng getLatLng() {
-    if (latitude == null || longitude == null) {
-      return null;
+  /**
+   * The number the API uses for an advertised ID type in beacon names: 3 for Eddystone, 4 for
+   * Eddystone-EID, 1 for iBeacon and 5 for AltBeacon. Unknown types are 0, TYPE_UNSPECIFIED.
+   */
+  static int typeCode(String type) {
+    if (type == null) {
+      return 0;
+    }
+    switch (type) {
+      case TYPE_IBEACON:
+        return 1;
+      case TYPE_EDDYSTONE:
+        return 3;
+      case TYPE_EDDYSTONE_EID:
+        return 4;
+      case TYPE_ALTBEACON:
+        return 5;
+      default:
+        return 0;
     }
-    return new LatLng(latitude, longitude);
   }
 
   @Override
@@ -0,0 +1,168 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+/**
+ * A reusable, caller-owned view of one beacon advertisement. {@link #parse} walks the raw
+ * advertising data from {@code ScanRecord.getBytes()} once, finds the first Eddystone,
+ * iBeacon or AltBeacon payload in it and decodes that in place: the beacon ID is left where it is
+ * in the raw bytes and described by {@link #idOffset} and {@link #idLength}, so a scan callback
+ * can look it up in a {@link BeaconIdIndex} and drop a known beacon without copying anything.
+ *
+ * <p>Formats:
+ * <ul>
+ * <li>Eddystone: service data for UUID 0xFEAA, decoded by {@link #eddystone}. Only UID frames
+ *     carry a beacon ID that can be registered directly.
+ * <li>iBeacon: Apple (0x004C) manufacturer data starting 0x02 0x15, then the 16-byte proximity
+ *     UUID, 2-byte major, 2-byte minor and the measured power. The ID is UUID, major and minor.
+ * <li>AltBeacon: manufacturer data from any company starting 0xBE 0xAC, then the 20-byte beacon
+ *     ID, the reference RSSI and one byte reserved for the manufacturer.
+ * </ul>
+ */
+final class BeaconAdvertisement {
+  private static final int AD_TYPE_SERVICE_DATA_16_BIT = 0x16;
+  private static final int AD_TYPE_MANUFACTURER_DATA = 0xff;
+
+  private static final int EDDYSTONE_SERVICE_UUID = 0xfeaa;
+  private static final int APPLE_COMPANY_ID = 0x004c;
+
+  private static final int IBEACON_ID_LENGTH = 20;
+  private static final int IBEACON_DATA_LENGTH = 4 + IBEACON_ID_LENGTH + 1;
+  private static final int ALTBEACON_ID_LENGTH = 20;
+  private static final int ALTBEACON_DATA_LENGTH = 4 + ALTBEACON_ID_LENGTH + 2;
+
+  /** The advertised ID type, e.g. {@link Beacon#TYPE_IBEACON}, or null if parsing failed. */
+  String type;
+
+  /** {@link #type}'s number in beacon names; see {@link Beacon#typeCode}. */
+  int typeCode;
+
+  /** The raw advertisement last parsed; the ID, if any, is inside it. */
+  byte[] bytes;
+
+  /** Where the beacon ID starts in {@link #bytes}. */
+  int idOffset;
+
+  /** The beacon ID's length, or 0 if the advertisement doesn't carry one, e.g. Eddystone TLM. */
+  int idLength;
+
+  /**
+   * Calibrated signal strength in dBm: at 0 m for Eddystone UID, URL and EID frames, at 1 m for
+   * iBeacon and AltBeacon.
+   */
+  int txPower;
+
+  /** The Eddystone frame, when {@link #type} is {@link Beacon#TYPE_EDDYSTONE}. */
+  final EddystoneFrame eddystone = new EddystoneFrame();
+
+  /**
+   * Decodes the first beacon payload in {@code scanRecord}, returning false, with {@link #type}
+   * set to null, if there is none or the advertising data is malformed.
+   */
+  boolean parse(byte[] scanRecord) {
+    return parse(scanRecord, scanRecord != null ? scanRecord.length : 0);
+  }
+
+  /**
+   * Decodes the first beacon payload in {@code scanRecord[0..recordLength)}, for records held in
+   * reused buffers that are longer than the record.
+   */
+  boolean parse(byte[] scanRecord, int recordLength) {
+    type = null;
+    typeCode = 0;
+    idLength = 0;
+    bytes = scanRecord;
+    if (scanRecord == null) {
+      return false;
+    }
+    // A sequence of [length][AD type][data] structures; a zero length pads out the rest.
+    int i = 0;
+    while (i < recordLength) {
+      int length = scanRecord[i] & 0xff;
+      if (length == 0 || i + 1 + length > recordLength) {
+        return false;
+      }
+      int adType = scanRecord[i + 1] & 0xff;
+      int data = i + 2;
+      int dataLength = length - 1;
+      if (adType == AD_TYPE_SERVICE_DATA_16_BIT) {
+        if (parseServiceData(scanRecord, data, dataLength)) {
+          return true;
+        }
+      } else if (adType == AD_TYPE_MANUFACTURER_DATA) {
+        if (parseManufacturerData(scanRecord, data, dataLength)) {
+          return true;
+        }
+      }
+      i += 1 + length;
+    }
+    return false;
+  }
+
+  /**
+   * A copy of the beacon ID, for a beacon seen for the first time.
+   */
+  byte[] copyId() {
+    byte[] id = new byte[idLength];
+    System.arraycopy(bytes, idOffset, id, 0, idLength);
+    return id;
+  }
+
+  private boolean parseServiceData(byte[] data, int offset, int length) {
+    if (length < 2 || readUint16LittleEndian(data, offset) != EDDYSTONE_SERVICE_UUID
+        || !eddystone.parse(data, offset + 2, length - 2)) {
+      return false;
+    }
+    setType(Beacon.TYPE_EDDYSTONE);
+    if (eddystone.type == EddystoneFrame.TYPE_UID) {
+      // The UID follows the frame type and Tx power.
+      idOffset = offset + 4;
+      idLength = EddystoneFrame.UID_LENGTH;
+    }
+    txPower = eddystone.txPower;
+    return true;
+  }
+
+  private boolean parseManufacturerData(byte[] data, int offset, int length) {
+    if (length < 4) {
+      return false;
+    }
+    // The company ID is little-endian; the beacon code after it is big-endian.
+    int companyId = readUint16LittleEndian(data, offset);
+    int beaconCode = (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    if (companyId == APPLE_COMPANY_ID && beaconCode == 0x0215
+        && length >= IBEACON_DATA_LENGTH) {
+      setType(Beacon.TYPE_IBEACON);
+      idLength = IBEACON_ID_LENGTH;
+    } else if (beaconCode == 0xbeac && length >= ALTBEACON_DATA_LENGTH) {
+      setType(Beacon.TYPE_ALTBEACON);
+      idLength = ALTBEACON_ID_LENGTH;
+    } else {
+      return false;
+    }
+    idOffset = offset + 4;
+    txPower = data[idOffset + idLength];
+    return true;
+  }
+
+  private void setType(String type) {
+    this.type = type;
+    typeCode = Beacon.typeCode(type);
+  }
+
+  private static int readUint16LittleEndian(byte[] data, int offset) {
+    return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+  }
+}
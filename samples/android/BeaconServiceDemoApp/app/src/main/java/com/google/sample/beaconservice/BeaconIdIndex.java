@@ -0,0 +1,191 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import java.util.Arrays;
+
+/**
+ * A map keyed on advertised beacon IDs, such as 16-byte Eddystone UIDs or 20-byte iBeacon and
+ * AltBeacon IDs, that finds an ID in place, straight out of the advertisement it arrived in. Each
+ * key is held as three longs in an open-addressing table with linear probing: the first 16 bytes
+ * of the ID, then its last 4 together with the ID type and length, so IDs of different types or
+ * lengths never match. A lookup is a hash and a few array reads: no key objects, no copies of the
+ * ID and no boxing. Inserts allocate only when the table grows.
+ *
+ * <p>Values must be non-null; an empty slot is one without a value. Not thread-safe.
+ */
+final class BeaconIdIndex<V> {
+  static final int MAX_ID_LENGTH = 20;
+
+  private static final int MIN_CAPACITY = 16;
+
+  // Parallel arrays; slot i holds (highs[i], lows[i], tails[i]) -> values[i] when values[i] is
+  // non-null.
+  private long[] highs;
+  private long[] lows;
+  private long[] tails;
+  private Object[] values;
+  private int mask;
+  private int size;
+
+  BeaconIdIndex() {
+    this(MIN_CAPACITY / 2);
+  }
+
+  /**
+   * An index that holds {@code expectedSize} IDs without growing.
+   */
+  BeaconIdIndex(int expectedSize) {
+    // At most half full, which keeps probe sequences short.
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean containsKey(int type, byte[] id, int offset, int length) {
+    return get(type, id, offset, length) != null;
+  }
+
+  /**
+   * The value for the ID of {@code type} in {@code id[offset..offset + length)}, or null if there
+   * isn't one. {@code type} is any small non-negative number, such as the registry's type code.
+   */
+  @SuppressWarnings("unchecked")
+  V get(int type, byte[] id, int offset, int length) {
+    checkKey(type, id, offset, length);
+    long high = readBytes(id, offset, Math.min(length, 8));
+    long low = readBytes(id, offset + 8, Math.min(length - 8, 8));
+    long tail = tail(type, id, offset, length);
+    for (int i = slot(high, low, tail); ; i = (i + 1) & mask) {
+      Object value = values[i];
+      if (value == null) {
+        return null;
+      }
+      if (highs[i] == high && lows[i] == low && tails[i] == tail) {
+        return (V) value;
+      }
+    }
+  }
+
+  /**
+   * Maps the ID of {@code type} in {@code id[offset..offset + length)} to {@code value}, returning
+   * the value it replaced, if any. The ID bytes are copied in, so {@code id} may be reused
+   * afterwards.
+   */
+  @SuppressWarnings("unchecked")
+  V put(int type, byte[] id, int offset, int length, V value) {
+    if (value == null) {
+      throw new NullPointerException("value == null");
+    }
+    checkKey(type, id, offset, length);
+    long high = readBytes(id, offset, Math.min(length, 8));
+    long low = readBytes(id, offset + 8, Math.min(length - 8, 8));
+    long tail = tail(type, id, offset, length);
+    int i = slot(high, low, tail);
+    while (values[i] != null) {
+      if (highs[i] == high && lows[i] == low && tails[i] == tail) {
+        V previous = (V) values[i];
+        values[i] = value;
+        return previous;
+      }
+      i = (i + 1) & mask;
+    }
+    highs[i] = high;
+    lows[i] = low;
+    tails[i] = tail;
+    values[i] = value;
+    if (++size * 2 > values.length) {
+      grow();
+    }
+    return null;
+  }
+
+  void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  private void grow() {
+    long[] oldHighs = highs;
+    long[] oldLows = lows;
+    long[] oldTails = tails;
+    Object[] oldValues = values;
+    allocate(oldValues.length * 2);
+    for (int j = 0; j < oldValues.length; j++) {
+      if (oldValues[j] != null) {
+        int i = slot(oldHighs[j], oldLows[j], oldTails[j]);
+        while (values[i] != null) {
+          i = (i + 1) & mask;
+        }
+        highs[i] = oldHighs[j];
+        lows[i] = oldLows[j];
+        tails[i] = oldTails[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    highs = new long[capacity];
+    lows = new long[capacity];
+    tails = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  // Beacons in a fleet usually share a namespace or UUID, the high bytes, and differ in the low
+  // ones, so every part of the key is mixed into every bit of the hash (the MurmurHash3
+  // finalizer).
+  private int slot(long high, long low, long tail) {
+    long h = (high * 0x9e3779b97f4a7c15L + low) * 0x9e3779b97f4a7c15L + tail;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h & mask;
+  }
+
+  // Bytes 16 and up, with the type and length above them.
+  private static long tail(int type, byte[] id, int offset, int length) {
+    return (long) type << 40 | (long) length << 32
+        | readBytes(id, offset + 16, Math.min(length - 16, 4));
+  }
+
+  private static void checkKey(int type, byte[] id, int offset, int length) {
+    if (type < 0 || type > 0xffff || length < 0 || length > MAX_ID_LENGTH) {
+      throw new IllegalArgumentException("type " + type + ", length " + length);
+    }
+    if (offset < 0 || offset + length > id.length) {
+      throw new IndexOutOfBoundsException(
+          "offset " + offset + " and length " + length + " in array of length " + id.length);
+    }
+  }
+
+  // Up to 8 bytes, big-endian; none if count is zero or less.
+  private static long readBytes(byte[] bytes, int offset, int count) {
+    long value = 0;
+    for (int i = 0; i < count; i++) {
+      value = value << 8 | (bytes[offset + i] & 0xffL);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sighted beacons, strongest signal first, kept in order as beacons are added and replaced
+ * rather than re-sorted, with every edit recorded in a {@link ListUpdate} for the UI's copy of the
+ * list. Beacons with equal RSSI are listed in the order they reached it. Not thread-safe.
+ */
+final class BeaconListModel {
+  private final List<Beacon> beacons = new ArrayList<>();
+  private ListUpdate<Beacon> pending = new ListUpdate<>();
+
+  int size() {
+    return beacons.size();
+  }
+
+  void add(Beacon beacon) {
+    int position = insertionPoint(beacon.rssi);
+    beacons.add(position, beacon);
+    pending.insert(position, beacon);
+  }
+
+  /**
+   * Puts {@code replacement} where {@code beacon} is, moving it if its RSSI is different. Returns
+   * false, and does nothing, if {@code beacon} isn't in the list.
+   */
+  boolean replace(Beacon beacon, Beacon replacement) {
+    int from = positionOf(beacon);
+    if (from < 0) {
+      return false;
+    }
+    if (replacement.rssi == beacon.rssi) {
+      beacons.set(from, replacement);
+      pending.change(from, replacement);
+      return true;
+    }
+    beacons.remove(from);
+    int to = insertionPoint(replacement.rssi);
+    beacons.add(to, replacement);
+    pending.move(from, to);
+    pending.change(to, replacement);
+    return true;
+  }
+
+  /**
+   * Empties the list. Edits not yet taken are dropped; the UI's copy must be cleared too.
+   */
+  void clear() {
+    beacons.clear();
+    pending = new ListUpdate<>();
+  }
+
+  /**
+   * The edits since the last call, or null if there are none.
+   */
+  ListUpdate<Beacon> takeUpdate() {
+    if (pending.isEmpty()) {
+      return null;
+    }
+    ListUpdate<Beacon> update = pending;
+    pending = new ListUpdate<>();
+    return update;
+  }
+
+  // The first position with a weaker signal than rssi.
+  private int insertionPoint(int rssi) {
+    int low = 0;
+    int high = beacons.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (beacons.get(mid).rssi >= rssi) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int positionOf(Beacon beacon) {
+    // The first position with a signal no stronger than beacon's, then along its equals.
+    int low = 0;
+    int high = beacons.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (beacons.get(mid).rssi > beacon.rssi) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    for (int i = low; i < beacons.size() && beacons.get(i).rssi == beacon.rssi; i++) {
+      if (beacons.get(i) == beacon) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
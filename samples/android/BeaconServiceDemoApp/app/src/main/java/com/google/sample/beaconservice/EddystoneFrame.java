@@ -0,0 +1,203 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+/**
+ * A reusable, caller-owned view of one Eddystone frame. {@link #parse} decodes service data
+ * straight into this object's fields and buffers, so a scan callback that keeps one frame around
+ * decodes every packet without allocating. Only the fields of the parsed frame's type are
+ * meaningful afterwards; the others keep whatever the last frame of their type left in them.
+ *
+ * <p>See https://github.com/google/eddystone/blob/master/protocol-specification.md for the frame
+ * layouts.
+ */
+final class EddystoneFrame {
+  static final int TYPE_INVALID = -1;
+  static final int TYPE_UID = 0x00;
+  static final int TYPE_URL = 0x10;
+  static final int TYPE_TLM = 0x20;
+  static final int TYPE_EID = 0x30;
+
+  static final int UID_LENGTH = 16;
+  static final int NAMESPACE_LENGTH = 10;
+  static final int EID_LENGTH = 8;
+
+  // TLM version 0 is plain; version 1 is encrypted, and only its version is decoded.
+  static final int TLM_VERSION_PLAIN = 0x00;
+  static final int TLM_VERSION_ENCRYPTED = 0x01;
+
+  private static final int UID_FRAME_LENGTH = 18;  // The two reserved bytes are often left off.
+  private static final int URL_FRAME_MIN_LENGTH = 3;
+  private static final int TLM_FRAME_LENGTH = 14;
+  private static final int EID_FRAME_LENGTH = 10;
+
+  private static final String[] URL_SCHEMES = {
+      "http://www.", "https://www.", "http://", "https://"};
+  private static final String[] URL_EXPANSIONS = {
+      ".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+      ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"};
+
+  // The longest URL a frame can encode: a scheme and 17 bytes, each at most ".info/".
+  private static final int MAX_URL_LENGTH = 12 + 17 * 6;
+
+  /** The frame type of the last parse, or {@link #TYPE_INVALID} if it failed. */
+  int type = TYPE_INVALID;
+
+  /** Calibrated Tx power at 0 m, in dBm, for UID, URL and EID frames. */
+  int txPower;
+
+  /** A UID frame's beacon ID: the 10-byte namespace, then the 6-byte instance. */
+  final byte[] uid = new byte[UID_LENGTH];
+
+  /** A URL frame's URL, with its scheme and any expansion codes spelled out. */
+  final StringBuilder url = new StringBuilder(MAX_URL_LENGTH);
+
+  /** A TLM frame's version; the fields below are only set for {@link #TLM_VERSION_PLAIN}. */
+  int tlmVersion;
+
+  /** Battery voltage in mV, or 0 if the beacon doesn't report it. */
+  int batteryMillivolts;
+
+  /** Beacon temperature in degrees Celsius, or NaN if the beacon doesn't report it. */
+  float temperature;
+
+  /** Frames advertised since power-on or reboot. */
+  long advertisingCount;
+
+  /** Time since power-on or reboot, in tenths of a second. */
+  long uptimeDeciseconds;
+
+  /** An EID frame's current ephemeral identifier. */
+  final byte[] eid = new byte[EID_LENGTH];
+
+  /**
+   * Decodes Eddystone service data, returning false, with {@link #type} set to
+   * {@link #TYPE_INVALID}, if it is truncated, malformed or of an unknown type.
+   */
+  boolean parse(byte[] serviceData) {
+    return serviceData != null && parse(serviceData, 0, serviceData.length);
+  }
+
+  /**
+   * Decodes the Eddystone service data in {@code data[offset..offset + length)}, such as the
+   * payload of a service data structure inside a raw advertisement, without copying it out first.
+   */
+  boolean parse(byte[] data, int offset, int length) {
+    type = TYPE_INVALID;
+    if (length < 2) {
+      return false;
+    }
+    int frameType = data[offset] & 0xff;
+    boolean valid;
+    switch (frameType) {
+      case TYPE_UID:
+        valid = parseUid(data, offset, length);
+        break;
+      case TYPE_URL:
+        valid = parseUrl(data, offset, length);
+        break;
+      case TYPE_TLM:
+        valid = parseTlm(data, offset, length);
+        break;
+      case TYPE_EID:
+        valid = parseEid(data, offset, length);
+        break;
+      default:
+        valid = false;
+        break;
+    }
+    if (valid) {
+      type = frameType;
+    }
+    return valid;
+  }
+
+  /**
+   * Copies the UID's 10-byte namespace into {@code dest} at {@code offset}.
+   */
+  void getNamespace(byte[] dest, int offset) {
+    System.arraycopy(uid, 0, dest, offset, NAMESPACE_LENGTH);
+  }
+
+  /**
+   * Copies the UID's 6-byte instance into {@code dest} at {@code offset}.
+   */
+  void getInstance(byte[] dest, int offset) {
+    System.arraycopy(uid, NAMESPACE_LENGTH, dest, offset, UID_LENGTH - NAMESPACE_LENGTH);
+  }
+
+  private boolean parseUid(byte[] data, int offset, int length) {
+    if (length < UID_FRAME_LENGTH) {
+      return false;
+    }
+    txPower = data[offset + 1];
+    System.arraycopy(data, offset + 2, uid, 0, UID_LENGTH);
+    return true;
+  }
+
+  private boolean parseUrl(byte[] data, int offset, int length) {
+    if (length < URL_FRAME_MIN_LENGTH || (data[offset + 2] & 0xff) >= URL_SCHEMES.length) {
+      return false;
+    }
+    txPower = data[offset + 1];
+    url.setLength(0);
+    url.append(URL_SCHEMES[data[offset + 2]]);
+    for (int i = offset + 3; i < offset + length; i++) {
+      int b = data[i] & 0xff;
+      if (b < URL_EXPANSIONS.length) {
+        url.append(URL_EXPANSIONS[b]);
+      } else if (b > 0x20 && b < 0x7f) {
+        url.append((char) b);
+      } else {
+        return false;  // Reserved.
+      }
+    }
+    return true;
+  }
+
+  private boolean parseTlm(byte[] data, int offset, int length) {
+    tlmVersion = data[offset + 1] & 0xff;
+    if (tlmVersion == TLM_VERSION_ENCRYPTED) {
+      return true;
+    }
+    if (tlmVersion != TLM_VERSION_PLAIN || length < TLM_FRAME_LENGTH) {
+      return false;
+    }
+    batteryMillivolts = readUint16(data, offset + 2);
+    // Signed 8.8 fixed point; 0x8000 means not supported.
+    int rawTemperature = (short) readUint16(data, offset + 4);
+    temperature = rawTemperature == Short.MIN_VALUE ? Float.NaN : rawTemperature / 256f;
+    advertisingCount = readUint32(data, offset + 6);
+    uptimeDeciseconds = readUint32(data, offset + 10);
+    return true;
+  }
+
+  private boolean parseEid(byte[] data, int offset, int length) {
+    if (length < EID_FRAME_LENGTH) {
+      return false;
+    }
+    txPower = data[offset + 1];
+    System.arraycopy(data, offset + 2, eid, 0, EID_LENGTH);
+    return true;
+  }
+
+  private static int readUint16(byte[] data, int offset) {
+    return (data[offset] & 0xff) << 8 | (data[offset + 1] & 0xff);
+  }
+
+  private static long readUint32(byte[] data, int offset) {
+    return (long) readUint16(data, offset) << 16 | readUint16(data, offset + 2);
+  }
+}
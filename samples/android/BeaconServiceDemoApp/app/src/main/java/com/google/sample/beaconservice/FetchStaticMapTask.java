@@ -20,39 +20,88 @@ import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.ImageView;
 
+import com.google.sample.libproximitybeacon.Cancellable;
+import com.google.sample.libproximitybeacon.RequestScope;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 
 /**
- * Simple AsyncTask to fetch an image from the Static Maps API.
+ * Simple AsyncTask to fetch an image from the Static Maps API. It belongs to the screen's
+ * {@link RequestScope}, so the download is abandoned if the screen goes away first.
  */
-class FetchStaticMapTask extends AsyncTask<String, Void, Bitmap> {
+class FetchStaticMapTask extends AsyncTask<String, Void, Bitmap> implements Cancellable {
   private static final String TAG = FetchStaticMapTask.class.getSimpleName();
 
   private final ImageView view;
+  private final RequestScope scope;
+  private volatile HttpURLConnection connection;
 
-  FetchStaticMapTask(ImageView view) {
+  FetchStaticMapTask(ImageView view, RequestScope scope) {
     this.view = view;
+    this.scope = scope;
+    scope.add(this);
+  }
+
+  /**
+   * Stops the download. The connection is closed off the main thread, as closing a TLS socket
+   * may write to it.
+   */
+  @Override
+  public void cancel() {
+    cancel(false);
+    final HttpURLConnection connection = this.connection;
+    if (connection != null) {
+      AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+        @Override
+        public void run() {
+          connection.disconnect();
+        }
+      });
+    }
   }
 
   @Override
   protected Bitmap doInBackground(String... urls) {
+    if (isCancelled()) {
+      return null;
+    }
     String url = urls[0];
     Bitmap image = null;
     try {
-      InputStream in = new java.net.URL(url).openStream();
+      connection = (HttpURLConnection) new URL(url).openConnection();
+      // A cancel() that ran before the connection was published couldn't reach it.
+      if (isCancelled()) {
+        return null;
+      }
+      InputStream in = connection.getInputStream();
       image = BitmapFactory.decodeStream(in);
     }
     catch (IOException e) {
-      Log.e(TAG, "IOException fetching map view", e);
+      if (!isCancelled()) {
+        Log.e(TAG, "IOException fetching map view", e);
+      }
+    }
+    finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
     }
     return image;
   }
 
   @Override
   protected void onPostExecute(Bitmap bitmap) {
+    scope.remove(this);
     if (bitmap != null) {
       view.setImageBitmap(bitmap);
     }
   }
+
+  @Override
+  protected void onCancelled(Bitmap bitmap) {
+    scope.remove(this);
+  }
 }
@@ -0,0 +1,118 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of incremental edits to a list: inserts, moves and in-place changes, in the order they
+ * were made. Applying a batch to a copy of the list it was recorded against brings the copy up to
+ * date in one pass over the edits, without rebuilding or re-sorting it.
+ */
+final class ListUpdate<T> {
+  static final int INSERT = 0;
+  static final int MOVE = 1;
+  static final int CHANGE = 2;
+
+  // Parallel arrays; edit i is (kinds[i], positions[i], targets[i], items[i]). A move's target is
+  // its destination; inserts and changes carry an item instead.
+  private int[] kinds = new int[16];
+  private int[] positions = new int[16];
+  private int[] targets = new int[16];
+  private Object[] items = new Object[16];
+  private int size;
+  private int structuralEdits;
+
+  /** {@code item} was inserted at {@code position}. */
+  void insert(int position, T item) {
+    add(INSERT, position, position, item);
+    structuralEdits++;
+  }
+
+  /** The item at {@code from} was removed and reinserted at {@code to}. */
+  void move(int from, int to) {
+    if (from != to) {
+      add(MOVE, from, to, null);
+      structuralEdits++;
+    }
+  }
+
+  /** The item at {@code position} was replaced by {@code item}. */
+  void change(int position, T item) {
+    add(CHANGE, position, position, item);
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Whether any edit inserts or moves an item. Without one, every item keeps its position and
+   * only those at {@link #position}s of changes need redrawing.
+   */
+  boolean isStructural() {
+    return structuralEdits > 0;
+  }
+
+  int kind(int i) {
+    return kinds[i];
+  }
+
+  int position(int i) {
+    return positions[i];
+  }
+
+  /**
+   * Applies every edit to {@code list}, which must be the list this batch was recorded against.
+   */
+  @SuppressWarnings("unchecked")
+  void applyTo(List<T> list) {
+    for (int i = 0; i < size; i++) {
+      switch (kinds[i]) {
+        case INSERT:
+          list.add(positions[i], (T) items[i]);
+          break;
+        case MOVE:
+          list.add(targets[i], list.remove(positions[i]));
+          break;
+        case CHANGE:
+          list.set(positions[i], (T) items[i]);
+          break;
+        default:
+          throw new AssertionError(kinds[i]);
+      }
+    }
+  }
+
+  private void add(int kind, int position, int target, T item) {
+    if (size == kinds.length) {
+      int capacity = size * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      positions = Arrays.copyOf(positions, capacity);
+      targets = Arrays.copyOf(targets, capacity);
+      items = Arrays.copyOf(items, capacity);
+    }
+    kinds[size] = kind;
+    positions[size] = position;
+    targets[size] = target;
+    items[size] = item;
+    size++;
+  }
+}
@@ -23,7 +23,6 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
-import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
@@ -32,12 +31,14 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.CountDownTimer;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.ParcelUuid;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -49,18 +50,14 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.android.gms.common.AccountPicker;
-import com.google.sample.libproximitybeacon.ProximityBeacon;
 import com.google.sample.libproximitybeacon.ProximityBeaconImpl;
-import com.squareup.okhttp.Callback;
-
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.google.sample.libproximitybeacon.RegistrySnapshot;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * The MainActivityFragment is responsible for launching the account picker, ensuring the user has
@@ -74,6 +71,12 @@ public class MainActivityFragment extends Fragment {
   // Receives the runnable that stops scanning after SCAN_TIME_MILLIS.
   private static final Handler handler = new Handler(Looper.getMainLooper());
 
+  // The list is updated at most once per display frame. Raise this to update it less often.
+  private static final long LIST_UPDATE_INTERVAL_MILLIS = 0;
+
+  // Loads and writes the registry snapshot, in order, off the main thread.
+  private static final Executor diskExecutor = AsyncTask.SERIAL_EXECUTOR;
+
   // An aggressive scan for nearby devices that reports immediately.
   private static final ScanSettings SCAN_SETTINGS =
     new ScanSettings.Builder().
@@ -81,10 +84,6 @@ public class MainActivityFragment extends Fragment {
       .setReportDelay(0)
       .build();
 
-  // The Eddystone-UID frame type byte.
-  // See https://github.com/google/eddystone for more information.
-  private static final byte EDDYSTONE_UID_FRAME_TYPE = 0x00;
-
   // The Eddystone Service UUID, 0xFEAA.
   private static final ParcelUuid EDDYSTONE_SERVICE_UUID =
     ParcelUuid.fromString("0000FEAA-0000-1000-8000-00805F9B34FB");
@@ -94,71 +93,67 @@ public class MainActivityFragment extends Fragment {
     .setServiceUuid(EDDYSTONE_SERVICE_UUID)
     .build();
 
-  private static final List<ScanFilter> SCAN_FILTERS = buildScanFilters();
+  // A filter for iBeacons: Apple manufacturer data starting with the iBeacon type and length.
+  private static final ScanFilter IBEACON_SCAN_FILTER = new ScanFilter.Builder()
+    .setManufacturerData(0x004c, new byte[] {0x02, 0x15}, new byte[] {(byte) 0xff, (byte) 0xff})
+    .build();
 
-  private static List<ScanFilter> buildScanFilters() {
+  // Manufacturer data filters need a company ID, and any company may advertise AltBeacons, so
+  // there is one AltBeacon filter for each ID in R.array.altbeacon_company_ids.
+  private static List<ScanFilter> buildScanFilters(int[] altBeaconCompanyIds) {
     List<ScanFilter> scanFilters = new ArrayList<>();
     scanFilters.add(EDDYSTONE_SCAN_FILTER);
+    scanFilters.add(IBEACON_SCAN_FILTER);
+    for (int companyId : altBeaconCompanyIds) {
+      scanFilters.add(new ScanFilter.Builder()
+          .setManufacturerData(companyId, new byte[] {(byte) 0xbe, (byte) 0xac},
+              new byte[] {(byte) 0xff, (byte) 0xff})
+          .build());
+    }
     return scanFilters;
   }
 
-  private static final Comparator<Beacon> RSSI_COMPARATOR = new Comparator<Beacon>() {
-    @Override
-    public int compare(Beacon lhs, Beacon rhs) {
-      return ((Integer) rhs.rssi).compareTo(lhs.rssi);
-    }
-  };
-
+  private List<ScanFilter> scanFilters;
   private SharedPreferences sharedPreferences;
   private ArrayList<Beacon> arrayList;
   private BeaconArrayAdapter arrayAdapter;
+  private ListView listView;
+  // Decodes scan results and fetches the registration status of each newly sighted beacon, off
+  // the main thread.
+  private ScanProcessor scanProcessor;
   private ScanCallback scanCallback;
   private BluetoothLeScanner scanner;
   private Button scanButton;
   private TextView accountNameView;
 
-  ProximityBeacon client;
+  // The last known state of beacons resolved on previous scans, for the current account.
+  private RegistrySnapshot snapshot;
+  private String snapshotAccountName;
+
+  // A client per scan session; cancelling its scope drops the session's outstanding lookups.
+  ProximityBeaconImpl client;
 
   @Override
   public void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    scanFilters = buildScanFilters(getResources().getIntArray(R.array.altbeacon_company_ids));
     sharedPreferences = getActivity().getSharedPreferences(Constants.PREFS_NAME, 0);
     arrayList = new ArrayList<>();
     arrayAdapter = new BeaconArrayAdapter(getActivity(), R.layout.beacon_list_item, arrayList);
+    scanProcessor = new ScanProcessor(Choreographer.getInstance(), LIST_UPDATE_INTERVAL_MILLIS,
+        diskExecutor, new ScanProcessor.Listener() {
+          @Override
+          public void onUpdate(ListUpdate<Beacon> update) {
+            applyListUpdate(update);
+          }
+        });
 
+    // Scan results are delivered on the main thread, so they're handed straight to the
+    // processor.
     scanCallback = new ScanCallback() {
       @Override
       public void onScanResult(int callbackType, ScanResult result) {
-        ScanRecord scanRecord = result.getScanRecord();
-        if (scanRecord == null) {
-          Log.w(TAG, "Null ScanRecord for device " + result.getDevice().getAddress());
-          return;
-        }
-
-        byte[] serviceData = scanRecord.getServiceData(EDDYSTONE_SERVICE_UUID);
-        if (serviceData == null) {
-          return;
-        }
-
-        // We're only interested in the UID frame time since we need the beacon ID to register.
-        if (serviceData[0] != EDDYSTONE_UID_FRAME_TYPE) {
-          return;
-        }
-
-        // Extract the beacon ID from the service data. Offset 0 is the frame type, 1 is the
-        // Tx power, and the next 16 are the ID.
-        // See https://github.com/google/eddystone/eddystone-uid for more information.
-        byte[] id = Arrays.copyOfRange(serviceData, 2, 18);
-        if (arrayListContainsId(arrayList, id)) {
-          return;
-        }
-
-        // Draw it immediately and kick off a async request to fetch the registration status,
-        // redrawing when the server returns.
-        Log.i(TAG, "id " + Utils.toHexString(id) + ", rssi " + result.getRssi());
-
-        Beacon beacon = new Beacon("EDDYSTONE", id, Beacon.STATUS_UNSPECIFIED, result.getRssi());
-        insertIntoListAndFetchStatus(beacon);
+        scanProcessor.offer(result);
       }
 
       @Override
@@ -170,60 +165,45 @@ public class MainActivityFragment extends Fragment {
     createScanner();
   }
 
-  private boolean arrayListContainsId(ArrayList<Beacon> list, byte[] id) {
-    for (Beacon beacon : list) {
-      if (Arrays.equals(beacon.id, id)) {
-        return true;
-      }
+  // The edits go straight into the adapter's list. ListView can't animate or lay out single rows,
+  // so inserts and moves still invalidate it, once per update; an update that only changes rows in
+  // place redraws just those that are on screen.
+  private void applyListUpdate(ListUpdate<Beacon> update) {
+    update.applyTo(arrayList);
+    if (update.isStructural() || listView == null) {
+      arrayAdapter.notifyDataSetChanged();
+      return;
     }
-    return false;
-  }
-
-  private void insertIntoListAndFetchStatus(final Beacon beacon) {
-    arrayAdapter.add(beacon);
-    arrayAdapter.sort(RSSI_COMPARATOR);
-    Callback getBeaconCallback = new Callback() {
-      @Override
-      public void onFailure(com.squareup.okhttp.Request request, IOException e) {
-        Log.e(TAG, String.format("Failed request: %s, IOException %s", request, e));
-      }
-
-      @Override
-      public void onResponse(com.squareup.okhttp.Response response) throws IOException {
-        Beacon fetchedBeacon;
-        switch (response.code()) {
-          case 200:
-            try {
-              String body = response.body().string();
-              fetchedBeacon = new Beacon(new JSONObject(body));
-            } catch (JSONException e) {
-              Log.e(TAG, "JSONException", e);
-              return;
-            }
-            break;
-          case 403:
-            fetchedBeacon = new Beacon(beacon.type, beacon.id, Beacon.NOT_AUTHORIZED, beacon.rssi);
-            break;
-          case 404:
-            fetchedBeacon = new Beacon(beacon.type, beacon.id, Beacon.UNREGISTERED, beacon.rssi);
-            break;
-          default:
-            Log.e(TAG, "Unhandled beacon service response: " + response);
-            return;
-        }
-        int pos = arrayAdapter.getPosition(beacon);
-        arrayList.set(pos, fetchedBeacon);
-        updateArrayAdapter();
+    int first = listView.getFirstVisiblePosition();
+    for (int i = 0; i < update.size(); i++) {
+      int position = update.position(i);
+      View row = listView.getChildAt(position - first);
+      if (row != null) {
+        arrayAdapter.getView(position, row, listView);
       }
-    };
-    client.getBeacon(getBeaconCallback, beacon.getBeaconName());
+    }
   }
 
-  private void updateArrayAdapter() {
-    getActivity().runOnUiThread(new Runnable() {
+  private void openSnapshot(String accountName) {
+    if (accountName.equals(snapshotAccountName)) {
+      return;
+    }
+    final RegistrySnapshot previous = snapshot;
+    final RegistrySnapshot next =
+        new RegistrySnapshot(new File(getActivity().getFilesDir(), "registry-" + accountName));
+    snapshot = next;
+    snapshotAccountName = accountName;
+    diskExecutor.execute(new Runnable() {
       @Override
       public void run() {
-        arrayAdapter.notifyDataSetChanged();
+        try {
+          if (previous != null) {
+            previous.close();
+          }
+          next.load();
+        } catch (IOException e) {
+          Log.w(TAG, "Couldn't load registry snapshot", e);
+        }
       }
     });
   }
@@ -244,6 +224,15 @@ public class MainActivityFragment extends Fragment {
     scanner = btAdapter.getBluetoothLeScanner();
   }
 
+  @Override
+  public void onDestroy() {
+    if (client != null) {
+      client.getScope().cancel();
+    }
+    scanProcessor.quit();
+    super.onDestroy();
+  }
+
   @Override
   public void onResume() {
     super.onResume();
@@ -300,9 +289,16 @@ public class MainActivityFragment extends Fragment {
       public void onClick(View v) {
         Utils.setEnabledViews(false, scanButton);
         arrayAdapter.clear();
-        scanner.startScan(SCAN_FILTERS, SCAN_SETTINGS, scanCallback);
+        String accountName = accountNameView.getText().toString();
+        openSnapshot(accountName);
+        // The last session's lookups are for beacons no longer in the list.
+        if (client != null) {
+          client.getScope().cancel();
+        }
+        client = new ProximityBeaconImpl(getActivity(), accountName);
+        scanProcessor.startSession(client, snapshot);
+        scanner.startScan(scanFilters, SCAN_SETTINGS, scanCallback);
         Log.i(TAG, "starting scan");
-        client = new ProximityBeaconImpl(getActivity(), accountNameView.getText().toString());
         CountDownTimer countDownTimer = new CountDownTimer(SCAN_TIME_MILLIS, 100) {
           @Override
           public void onTick(long millisUntilFinished) {
@@ -322,6 +318,7 @@ public class MainActivityFragment extends Fragment {
           public void run() {
             scanner.stopScan(scanCallback);
             Log.i(TAG, "stopped scan");
+            scanProcessor.logSessionStats();
             Utils.setEnabledViews(true, scanButton);
           }
         };
@@ -345,7 +342,7 @@ public class MainActivityFragment extends Fragment {
       pickUserAccount();
     }
 
-    ListView listView = (ListView)rootView.findViewById(R.id.listView);
+    listView = (ListView)rootView.findViewById(R.id.listView);
     listView.setAdapter(arrayAdapter);
     listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
       @Override
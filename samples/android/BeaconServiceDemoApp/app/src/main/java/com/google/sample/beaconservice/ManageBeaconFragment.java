@@ -19,6 +19,7 @@ import android.app.AlertDialog;
 import android.app.Fragment;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -40,17 +41,24 @@ import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
-import com.google.sample.libproximitybeacon.ProximityBeacon;
+import com.google.sample.libproximitybeacon.ApiException;
+import com.google.sample.libproximitybeacon.ApiFuture;
+import com.google.sample.libproximitybeacon.Attachment;
+import com.google.sample.libproximitybeacon.BeaconRecord;
+import com.google.sample.libproximitybeacon.MainThreadExecutor;
+import com.google.sample.libproximitybeacon.Namespace;
 import com.google.sample.libproximitybeacon.ProximityBeaconImpl;
+import com.google.sample.libproximitybeacon.ResultCallback;
 import com.squareup.okhttp.Callback;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * The main beacon management UI. Depending on the status of the beacon, presents the
@@ -66,6 +74,9 @@ public class ManageBeaconFragment extends Fragment {
   private static final TableLayout.LayoutParams BUTTON_COL_LAYOUT =
     new TableLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1.0f);
 
+  // Receives decoded results for callbacks that update the views.
+  private static final Executor mainThreadExecutor = new MainThreadExecutor();
+
   private Beacon beacon;
   private String namespace;
 
@@ -83,15 +94,18 @@ public class ManageBeaconFragment extends Fragment {
   private TextView attachmentsLabel;
   private TableLayout attachmentsTable;
 
-  private ProximityBeacon client;
+  private String accountName;
+  // A client per view, so that cancelling its scope when the view goes away stops everything the
+  // view started, the map download included.
+  private ProximityBeaconImpl client;
+  private FetchStaticMapTask mapTask;
 
   @Override
   public void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     Bundle b = this.getArguments();
     beacon = b.getParcelable("beacon");
-    String accountName = b.getString("accountName");
-    client = new ProximityBeaconImpl(getActivity(), accountName);
+    accountName = b.getString("accountName");
   }
 
   @Override
@@ -99,6 +113,7 @@ public class ManageBeaconFragment extends Fragment {
                            ViewGroup container,
                            Bundle savedInstanceState) {
     View rootView = inflater.inflate(R.layout.fragment_manage_beacon, container, false);
+    client = new ProximityBeaconImpl(getActivity(), accountName);
 
     advertisedId_Type = (TextView)rootView.findViewById(R.id.advertisedId_Type);
     advertisedId_Id = (TextView)rootView.findViewById(R.id.advertisedId_Id);
@@ -240,40 +255,45 @@ public class ManageBeaconFragment extends Fragment {
     attachmentsLabel = (TextView)rootView.findViewById(R.id.attachmentsLabel);
     attachmentsTable = (TableLayout)rootView.findViewById(R.id.attachmentsTableLayout);
 
-    // Fetch the namespace for the developer console project ID. We redraw the UI once that
-    // request completes.
+    // Draw what we already know, including the map, straight away. The attachment rows need the
+    // namespace, but fetching it and the attachments together costs one round-trip, not two.
+    drawBeacon();
+    loadNamespaceAndAttachments();
+    return rootView;
+  }
+
+  @Override
+  public void onDestroyView() {
+    client.getScope().cancel();
+    super.onDestroyView();
+  }
+
+  private void loadNamespaceAndAttachments() {
+    // Fetch the namespace for the developer console project ID.
     // TODO: cache this.
-    Callback listNamespacesCallback = new Callback() {
+    final ApiFuture<List<Namespace>> namespaces = client.listNamespaces();
+    final ApiFuture<List<Attachment>> attachments = beacon.status.equals(Beacon.UNREGISTERED)
+        ? ApiFuture.<List<Attachment>>completed(null)
+        : client.listAttachments(beacon.getBeaconName());
+    ApiFuture.allOf(namespaces, attachments).addCallback(new ResultCallback<Void>() {
       @Override
-      public void onFailure(Request request, IOException e) {
-        logErrorAndToast("Failed request: " + request, e);
+      public void onSuccess(Void result) {
+        if (namespaces.getResult().isEmpty()) {
+          logErrorAndToast("No namespaces found for this project");
+          return;
+        }
+        // At present there can be only one namespace.
+        namespace = namespaces.getResult().get(0).getId();
+        if (attachments.getResult() != null) {
+          showAttachments(attachments.getResult());
+        }
       }
 
       @Override
-      public void onResponse(Response response) throws IOException {
-        String body = response.body().string();
-        if (response.isSuccessful()) {
-          try {
-            JSONObject json = new JSONObject(body);
-            JSONArray namespaces = json.getJSONArray("namespaces");
-            // At present there can be only one namespace.
-            String tmp = namespaces.getJSONObject(0).getString("namespaceName");
-            if (tmp.startsWith("namespaces/")) {
-              namespace = tmp.substring("namespaces/".length());
-            } else {
-              namespace = tmp;
-            }
-            redraw();
-          } catch (JSONException e) {
-            Log.e(TAG, "JSONException", e);
-          }
-        } else {
-          logErrorAndToast("Unsuccessful listNamespaces request: " + body);
-        }
+      public void onFailure(ApiException e) {
+        logErrorAndToast("Unsuccessful request: " + e.getMessage(), e);
       }
-    };
-    client.listNamespaces(listNamespacesCallback);
-    return rootView;
+    }, mainThreadExecutor);
   }
 
   @Override
@@ -311,8 +331,8 @@ public class ManageBeaconFragment extends Fragment {
 
   private void editLatLngAction() {
     PlacePicker.IntentBuilder builder = new PlacePicker.IntentBuilder();
-    if (beacon.getLatLng() != null) {
-      builder.setLatLngBounds(new LatLngBounds(beacon.getLatLng(), beacon.getLatLng()));
+    if (getLatLng(beacon) != null) {
+      builder.setLatLngBounds(new LatLngBounds(getLatLng(beacon), getLatLng(beacon)));
     }
     try {
       startActivityForResult(builder.build(getActivity()), Constants.REQUEST_CODE_PLACE_PICKER);
@@ -334,38 +354,21 @@ public class ManageBeaconFragment extends Fragment {
       return;
     }
 
-    Callback updateBeaconCallback = new Callback() {
+    ResultCallback<BeaconRecord> updateBeaconCallback = new ResultCallback<BeaconRecord>() {
       @Override
-      public void onFailure(Request request, IOException e) {
-        logErrorAndToast("Failed request: " + request, e);
+      public void onSuccess(BeaconRecord record) {
+        beacon = new Beacon(record);
+        redraw();
       }
 
       @Override
-      public void onResponse(Response response) throws IOException {
-        String body = response.body().string();
-        if (response.isSuccessful()) {
-          try {
-            beacon = new Beacon(new JSONObject(body));
-          } catch (JSONException e) {
-            logErrorAndToast("Failed JSON creation from response: " + body, e);
-            return;
-          }
-          redraw();
-        } else {
-          logErrorAndToast("Unsuccessful updateBeacon request: " + body);
-        }
+      public void onFailure(ApiException e) {
+        logErrorAndToast("Unsuccessful updateBeacon request: " + e.getMessage(), e);
       }
     };
 
-    JSONObject json;
-    try {
-      json = beacon.toJson();
-    } catch (JSONException e) {
-      logErrorAndToast("JSONException in creating update request", e);
-      return;
-    }
-
-    client.updateBeacon(updateBeaconCallback, beacon.getBeaconName(), json);
+    client.updateBeacon(updateBeaconCallback, mainThreadExecutor, beacon.getBeaconName(),
+        beacon.toRecord());
   }
 
   private View.OnClickListener createActionButtonOnClickListener(final String status) {
@@ -464,6 +467,13 @@ public class ManageBeaconFragment extends Fragment {
   }
 
   private void redraw() {
+    drawBeacon();
+    if (!beacon.status.equals(Beacon.UNREGISTERED)) {
+      listAttachments();
+    }
+  }
+
+  private void drawBeacon() {
     advertisedId_Type.setText(beacon.type);
     advertisedId_Id.setText(beacon.getHexId());
 
@@ -497,13 +507,18 @@ public class ManageBeaconFragment extends Fragment {
       placeId.setText(R.string.click_to_set);
     }
 
-    if (beacon.getLatLng() != null) {
+    if (getLatLng(beacon) != null) {
       latLng.setText(
-        String.format("%.6f, %.6f", beacon.getLatLng().latitude, beacon.getLatLng().longitude));
+        String.format("%.6f, %.6f", getLatLng(beacon).latitude, getLatLng(beacon).longitude));
       String url = String.format(
         "https://maps.googleapis.com/maps/api/staticmap?size=500x200&scale=2&markers=%.6f,%.6f",
-        beacon.getLatLng().latitude, beacon.getLatLng().longitude);
-      new FetchStaticMapTask(mapView).execute(url);
+        getLatLng(beacon).latitude, getLatLng(beacon).longitude);
+      // Redrawn after every edit; only the latest map is wanted.
+      if (mapTask != null) {
+        mapTask.cancel();
+      }
+      mapTask = new FetchStaticMapTask(mapView, client.getScope());
+      mapTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, url);
     }
 
     if (beacon.expectedStability != null) {
@@ -519,10 +534,14 @@ public class ManageBeaconFragment extends Fragment {
     else {
       description.setText(R.string.click_to_set);
     }
+  }
 
-    if (!beacon.status.equals(Beacon.UNREGISTERED)) {
-      listAttachments();
+  // Kept out of Beacon so the model doesn't depend on the Maps API.
+  private static LatLng getLatLng(Beacon beacon) {
+    if (beacon.latitude == null || beacon.longitude == null) {
+      return null;
     }
+    return new LatLng(beacon.latitude, beacon.longitude);
   }
 
   private TextView makeTextView(String text) {
@@ -594,36 +613,26 @@ public class ManageBeaconFragment extends Fragment {
         Utils.setEnabledViews(false, insertButton);
         JSONObject body = buildCreateAttachmentJsonBody(namespace, type, data);
 
-        Callback createAttachmentCallback = new Callback() {
+        ResultCallback<Attachment> createAttachmentCallback = new ResultCallback<Attachment>() {
           @Override
-          public void onFailure(Request request, IOException e) {
-            logErrorAndToast("Failed request: " + request, e);
-            Utils.setEnabledViews(false, insertButton);
+          public void onSuccess(Attachment attachment) {
+            attachmentsTable.addView(makeAttachmentRow(attachment), 2);
+            namespaceTextView.setText(namespace);
+            typeEditText.setText("");
+            typeEditText.requestFocus();
+            dataEditText.setText("");
+            Utils.setEnabledViews(true, insertButton);
           }
 
           @Override
-          public void onResponse(Response response) throws IOException {
-            String body = response.body().string();
-            if (response.isSuccessful()) {
-              try {
-                JSONObject json = new JSONObject(body);
-                attachmentsTable.addView(makeAttachmentRow(json), 2);
-                namespaceTextView.setText(namespace);
-                typeEditText.setText("");
-                typeEditText.requestFocus();
-                dataEditText.setText("");
-                insertButton.setEnabled(true);
-              } catch (JSONException e) {
-                logErrorAndToast("JSONException in building attachment data", e);
-              }
-            } else {
-              logErrorAndToast("Unsuccessful createAttachment request: " + body);
-            }
+          public void onFailure(ApiException e) {
+            logErrorAndToast("Unsuccessful createAttachment request: " + e.getMessage(), e);
             Utils.setEnabledViews(true, insertButton);
           }
         };
 
-        client.createAttachment(createAttachmentCallback, beacon.getBeaconName(), body);
+        client.createAttachment(createAttachmentCallback, mainThreadExecutor,
+            beacon.getBeaconName(), body);
       }
     };
   }
@@ -642,38 +651,28 @@ public class ManageBeaconFragment extends Fragment {
   // Fetches attachments for this beacon and builds the list view showing the existing attachments
   // and a row to add more.
   private void listAttachments() {
-    Callback listAttachmentsCallback = new Callback() {
-      @Override
-      public void onFailure(Request request, IOException e) {
-        logErrorAndToast("Failed request: " + request, e);
-      }
+    ResultCallback<List<Attachment>> listAttachmentsCallback =
+        new ResultCallback<List<Attachment>>() {
+          @Override
+          public void onSuccess(List<Attachment> attachments) {
+            showAttachments(attachments);
+          }
 
-      @Override
-      public void onResponse(Response response) throws IOException {
-        String body = response.body().string();
-        if (response.isSuccessful()) {
-          try {
-            JSONObject json = new JSONObject(body);
-            attachmentsTable.removeAllViews();
-            attachmentsTable.addView(makeAttachmentTableHeader());
-            attachmentsTable.addView(makeAttachmentInsertRow());
-            if (json.length() == 0) {  // No attachment data
-              return;
-            }
-            JSONArray attachments = json.getJSONArray("attachments");
-            for (int i = 0; i < attachments.length(); i++) {
-              JSONObject attachment = attachments.getJSONObject(i);
-              attachmentsTable.addView(makeAttachmentRow(attachment));
-            }
-          } catch (JSONException e) {
-            Log.e(TAG, "JSONException in fetching attachments", e);
+          @Override
+          public void onFailure(ApiException e) {
+            logErrorAndToast("Unsuccessful listAttachments request: " + e.getMessage(), e);
           }
-        } else {
-          logErrorAndToast("Unsuccessful listAttachments request: " + body);
-        }
-      }
-    };
-    client.listAttachments(listAttachmentsCallback, beacon.getBeaconName());
+        };
+    client.listAttachments(listAttachmentsCallback, mainThreadExecutor, beacon.getBeaconName());
+  }
+
+  private void showAttachments(List<Attachment> attachments) {
+    attachmentsTable.removeAllViews();
+    attachmentsTable.addView(makeAttachmentTableHeader());
+    attachmentsTable.addView(makeAttachmentInsertRow());
+    for (Attachment attachment : attachments) {
+      attachmentsTable.addView(makeAttachmentRow(attachment));
+    }
   }
 
   private LinearLayout makeAttachmentTableHeader() {
@@ -712,17 +711,15 @@ public class ManageBeaconFragment extends Fragment {
     return insertRow;
   }
 
-  private LinearLayout makeAttachmentRow(JSONObject attachment) throws JSONException {
+  private LinearLayout makeAttachmentRow(Attachment attachment) {
     LinearLayout row = new LinearLayout(getActivity());
     int id = View.generateViewId();
     row.setId(id);
-    String[] namespacedType = attachment.getString("namespacedType").split("/");
+    String[] namespacedType = attachment.getNamespacedType().split("/");
     row.addView(makeTextView(namespacedType[0]));
     row.addView(makeTextView(namespacedType[1]));
-    String dataStr = attachment.getString("data");
-    String base64Decoded = new String(Utils.base64Decode(dataStr));
-    row.addView(makeTextView(base64Decoded));
-    row.addView(createAttachmentDeleteButton(id, attachment.getString("attachmentName")));
+    row.addView(makeTextView(new String(attachment.getData())));
+    row.addView(createAttachmentDeleteButton(id, attachment.getAttachmentName()));
     return row;
   }
 
@@ -732,6 +729,10 @@ public class ManageBeaconFragment extends Fragment {
   }
 
   private void logErrorAndToast(String message, Exception e) {
+    // Calls are cancelled when the view goes away; there is nobody left to tell.
+    if (e instanceof ApiException && ((ApiException) e).isCanceled()) {
+      return;
+    }
     Log.e(TAG, message, e);
     toast(message);
   }
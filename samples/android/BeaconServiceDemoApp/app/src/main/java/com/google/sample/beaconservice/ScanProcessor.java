@@ -0,0 +1,374 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.google.sample.libproximitybeacon.ApiException;
+import com.google.sample.libproximitybeacon.BeaconLookupPipeline;
+import com.google.sample.libproximitybeacon.BeaconRecord;
+import com.google.sample.libproximitybeacon.ProximityBeacon;
+import com.google.sample.libproximitybeacon.RegistrySnapshot;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Turns a scan's raw results into the list of sighted beacons on a thread of its own. The scan
+ * callback, on the main thread, only copies each result into a {@link ScanRingBuffer}. This
+ * processor's thread drains the buffer, decodes and deduplicates the advertisements, fetches the
+ * registration status of each new beacon and merges the results in, keeping the list in order of
+ * signal strength as it goes. The main thread is handed the edits to its copy of the list in
+ * batches: at most one per display frame, or per a longer interval if one is configured, however
+ * quickly beacons are sighted and resolved.
+ *
+ * <p>Main-thread time is accounted for per scan and logged when it finishes, as milliseconds per
+ * second of scanning: the callback's copy into the buffer plus applying updates.
+ */
+final class ScanProcessor {
+  private static final String TAG = ScanProcessor.class.getSimpleName();
+
+  // Enough for a dense scan to run well ahead of a busy processor thread; 64 KB of slots.
+  private static final int RING_CAPACITY = 1024;
+
+  // A listed beacon moves when its signal changes by this much. RSSI readings of a stationary
+  // beacon jitter by a few dB from packet to packet, which would otherwise keep the list moving.
+  static final int RSSI_CHANGE_THRESHOLD = 6;
+
+  /**
+   * Receives edits to the beacon list on the main thread, at the start of a display frame.
+   */
+  interface Listener {
+    /**
+     * The edits to apply to the list this session's previous updates built, which is strongest
+     * first. None of the beacons in it change afterwards.
+     */
+    void onUpdate(ListUpdate<Beacon> update);
+  }
+
+  private final Choreographer choreographer;
+  private final long minUpdateIntervalMillis;
+  private final Listener listener;
+  private final Executor diskExecutor;
+  private final HandlerThread thread;
+  private final Handler handler;
+  private final Executor executor;
+  private final ScanRingBuffer ring = new ScanRingBuffer(RING_CAPACITY);
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+  // Main thread only.
+  private int mainSession;
+  private long sessionStartMillis;
+  private long mainThreadNanos;
+  private int resultsOffered;
+  private long droppedAtStart;
+  private int updatesApplied;
+
+  // Processor thread only.
+  private int session;
+  private RegistrySnapshot registry;
+  private BeaconLookupPipeline lookupPipeline;
+  private final BeaconAdvertisement advertisement = new BeaconAdvertisement();
+  // The listed beacons by ID, so a sighting is checked against the list in constant time.
+  private final BeaconIdIndex<Beacon> sightings = new BeaconIdIndex<>();
+  private final BeaconListModel list = new BeaconListModel();
+  private final Map<String, Beacon> pendingLookups = new HashMap<>();
+  private boolean updateInFlight;
+  private boolean updateScheduled;
+  private long lastUpdateMillis;
+
+  /**
+   * Starts the processor's thread. Updates are delivered in {@code choreographer}'s frames, the
+   * main thread's, at least {@code minUpdateIntervalMillis} apart; 0 allows one every frame.
+   * {@code diskExecutor} writes lookup results to each session's registry snapshot.
+   */
+  ScanProcessor(Choreographer choreographer, long minUpdateIntervalMillis, Executor diskExecutor,
+                Listener listener) {
+    this.choreographer = choreographer;
+    this.minUpdateIntervalMillis = minUpdateIntervalMillis;
+    this.diskExecutor = diskExecutor;
+    this.listener = listener;
+    thread = new HandlerThread(TAG);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        handler.post(command);
+      }
+    };
+  }
+
+  /**
+   * Begins a new list of beacons, looked up with {@code client} and shown with what
+   * {@code registry} knew of them last time. The caller clears its copy of the list. Results
+   * offered before this may still be counted in the new session; updates of earlier sessions are
+   * no longer delivered. Main thread only.
+   */
+  void startSession(ProximityBeacon client, final RegistrySnapshot registry) {
+    final int next = ++mainSession;
+    final BeaconLookupPipeline pipeline =
+        new BeaconLookupPipeline(client, executor, createLookupListener());
+    sessionStartMillis = SystemClock.elapsedRealtime();
+    mainThreadNanos = 0;
+    resultsOffered = 0;
+    droppedAtStart = ring.getDroppedCount();
+    updatesApplied = 0;
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        session = next;
+        ScanProcessor.this.registry = registry;
+        lookupPipeline = pipeline;
+        sightings.clear();
+        list.clear();
+        pendingLookups.clear();
+      }
+    });
+  }
+
+  /**
+   * Hands one scan result to the processor thread. This is all the main thread does per result.
+   */
+  void offer(ScanResult result) {
+    long start = System.nanoTime();
+    ScanRecord scanRecord = result.getScanRecord();
+    if (scanRecord == null) {
+      Log.w(TAG, "Null ScanRecord for device " + result.getDevice().getAddress());
+    } else if (ring.offer(scanRecord.getBytes(), result.getRssi())
+        && !drainScheduled.getAndSet(true)) {
+      // Once posted, the drain picks up everything offered until it runs, so a burst of results
+      // costs one message.
+      handler.post(drain);
+    }
+    resultsOffered++;
+    mainThreadNanos += System.nanoTime() - start;
+  }
+
+  /**
+   * Logs the current session's load on the main thread. Main thread only.
+   */
+  void logSessionStats() {
+    long elapsedMillis = Math.max(SystemClock.elapsedRealtime() - sessionStartMillis, 1);
+    Log.i(TAG, String.format("%d results in %d ms, %d dropped, %d list updates;"
+            + " main thread %.2f ms/s", resultsOffered, elapsedMillis,
+        ring.getDroppedCount() - droppedAtStart, updatesApplied,
+        mainThreadNanos / 1e6 / (elapsedMillis / 1e3)));
+  }
+
+  /**
+   * Stops the processor's thread; results offered afterwards are ignored.
+   */
+  void quit() {
+    thread.quitSafely();
+  }
+
+  private final Runnable drain = new Runnable() {
+    @Override
+    public void run() {
+      // Cleared before draining, with a read of the flag that pairs with the producer's, so a
+      // result offered after this is either drained now or schedules another drain.
+      drainScheduled.getAndSet(false);
+      ring.drain(sink);
+      publishUpdate();
+    }
+  };
+
+  private final ScanRingBuffer.Sink sink = new ScanRingBuffer.Sink() {
+    @Override
+    public void onRecord(byte[] record, int length, int rssi) {
+      // Eddystone, iBeacon and AltBeacon advertisements are all decoded here, in one pass over
+      // the raw bytes.
+      if (!advertisement.parse(record, length)) {
+        return;
+      }
+
+      // We're only interested in frames that carry a beacon ID since we need it to register.
+      if (advertisement.idLength == 0) {
+        return;
+      }
+      // Nearly every packet is from a beacon that's already listed, and is dropped here without
+      // its ID ever being copied out of the advertisement, unless its signal has changed enough
+      // to move it.
+      Beacon listed = sightings.get(advertisement.typeCode, advertisement.bytes,
+          advertisement.idOffset, advertisement.idLength);
+      if (listed != null) {
+        if (movesInList(listed.rssi, rssi)) {
+          replace(listed, listed.withRssi(rssi));
+        }
+        return;
+      }
+      byte[] id = advertisement.copyId();
+      Log.i(TAG, advertisement.type + " id " + Utils.toHexString(id) + ", rssi " + rssi
+          + ", tx power " + advertisement.txPower);
+      insertAndFetchStatus(new Beacon(advertisement.type, id, Beacon.STATUS_UNSPECIFIED, rssi));
+    }
+  };
+
+  /**
+   * Whether a listed beacon's new signal strength is far enough from the one it is listed with
+   * to move it.
+   */
+  static boolean movesInList(int listedRssi, int rssi) {
+    return Math.abs(rssi - listedRssi) >= RSSI_CHANGE_THRESHOLD;
+  }
+
+  private void insertAndFetchStatus(Beacon beacon) {
+    String beaconName = beacon.getBeaconName();
+    // Show what we knew last time while the lookup revalidates it. This may wait briefly for the
+    // snapshot to finish loading if the scan started moments ago.
+    RegistrySnapshot.Entry known = registry.get(beaconName);
+    if (known != null) {
+      Beacon lastKnown = new Beacon(known.getBeacon());
+      lastKnown.rssi = beacon.rssi;
+      beacon = lastKnown;
+    }
+    list.add(beacon);
+    sightings.put(Beacon.typeCode(beacon.type), beacon.id, 0, beacon.id.length, beacon);
+    pendingLookups.put(beaconName, beacon);
+    lookupPipeline.submit(beaconName);
+  }
+
+  private BeaconLookupPipeline.Listener createLookupListener() {
+    return new BeaconLookupPipeline.Listener() {
+      @Override
+      public void onResolved(String beaconName, BeaconRecord record, long latencyMillis) {
+        Beacon listed = takePendingLookup(beaconName);
+        if (listed != null) {
+          Beacon fetchedBeacon = new Beacon(record);
+          fetchedBeacon.rssi = listed.rssi;
+          resolve(listed, fetchedBeacon);
+        }
+      }
+
+      @Override
+      public void onFailed(String beaconName, ApiException e, long latencyMillis) {
+        Beacon listed = takePendingLookup(beaconName);
+        if (listed == null || e.isCanceled()) {
+          return;
+        }
+        switch (e.getHttpCode()) {
+          case 403:
+            resolve(listed, new Beacon(listed.type, listed.id, Beacon.NOT_AUTHORIZED, listed.rssi));
+            break;
+          case 404:
+            resolve(listed, new Beacon(listed.type, listed.id, Beacon.UNREGISTERED, listed.rssi));
+            break;
+          default:
+            Log.e(TAG, "Unhandled beacon service response", e);
+            break;
+        }
+      }
+    };
+  }
+
+  // The beacon as it's listed now, which may have been replaced since the lookup was submitted.
+  // Null if the list was cleared by a new scan.
+  private Beacon takePendingLookup(String beaconName) {
+    Beacon beacon = pendingLookups.remove(beaconName);
+    return beacon != null
+        ? sightings.get(Beacon.typeCode(beacon.type), beacon.id, 0, beacon.id.length)
+        : null;
+  }
+
+  private void resolve(Beacon listed, Beacon fetchedBeacon) {
+    replace(listed, fetchedBeacon);
+    remember(fetchedBeacon);
+    publishUpdate();
+  }
+
+  // Beacons already handed to the main thread are never modified, only replaced.
+  private void replace(Beacon listed, Beacon replacement) {
+    if (list.replace(listed, replacement)) {
+      sightings.put(Beacon.typeCode(listed.type), listed.id, 0, listed.id.length, replacement);
+    }
+  }
+
+  private void remember(Beacon beacon) {
+    final RegistrySnapshot target = registry;
+    final BeaconRecord record = beacon.toRecord();
+    final long fetchedAtMillis = System.currentTimeMillis();
+    diskExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          target.append(record, fetchedAtMillis);
+        } catch (IOException e) {
+          Log.w(TAG, "Couldn't update registry snapshot", e);
+        }
+      }
+    });
+  }
+
+  // Edits made while an update is on its way to the main thread go out in the next one, once that
+  // has been applied, so the main thread never has a queue of them to work through and gets at
+  // most one per frame.
+  private void publishUpdate() {
+    if (updateInFlight || updateScheduled) {
+      return;
+    }
+    long now = SystemClock.uptimeMillis();
+    if (now < lastUpdateMillis + minUpdateIntervalMillis) {
+      updateScheduled = true;
+      handler.postAtTime(scheduledUpdate, lastUpdateMillis + minUpdateIntervalMillis);
+      return;
+    }
+    final ListUpdate<Beacon> update = list.takeUpdate();
+    if (update == null) {
+      return;
+    }
+    updateInFlight = true;
+    lastUpdateMillis = now;
+    final int updateSession = session;
+    // Choreographer takes callbacks from any thread; this one runs on the main thread's next frame.
+    choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        if (updateSession == mainSession) {
+          long start = System.nanoTime();
+          listener.onUpdate(update);
+          updatesApplied++;
+          mainThreadNanos += System.nanoTime() - start;
+        }
+        handler.post(updateApplied);
+      }
+    });
+  }
+
+  private final Runnable scheduledUpdate = new Runnable() {
+    @Override
+    public void run() {
+      updateScheduled = false;
+      publishUpdate();
+    }
+  };
+
+  private final Runnable updateApplied = new Runnable() {
+    @Override
+    public void run() {
+      updateInFlight = false;
+      publishUpdate();
+    }
+  };
+}
@@ -0,0 +1,108 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of raw scan results from one producer thread, the scan callback, to one consumer
+ * thread, the scan processor. Every slot's record buffer is allocated up front, so offering a
+ * result is a copy of its bytes into the next free slot and an ordered write of the tail; nothing
+ * is allocated and nothing blocks. When the consumer falls behind and the buffer is full, new
+ * results are dropped and counted rather than queued: the scan keeps repeating every beacon, so a
+ * later packet will bring it back.
+ */
+final class ScanRingBuffer {
+  /**
+   * The longest record a slot holds: a legacy advertisement and its scan response, 31 bytes each.
+   * Longer records are dropped.
+   */
+  static final int MAX_RECORD_LENGTH = 62;
+
+  /** Receives each record drained from the buffer. */
+  interface Sink {
+    /**
+     * Called on the consumer thread with a record in place. {@code record} is the slot's own
+     * buffer, valid only until this returns, and may be longer than {@code length}.
+     */
+    void onRecord(byte[] record, int length, int rssi);
+  }
+
+  private final byte[][] records;
+  private final int[] lengths;
+  private final int[] rssis;
+  private final int mask;
+
+  // The next slot to read and to write. Each is written by one thread only; lazySet publishes the
+  // slot's contents before the index that covers them.
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  // Producer-side only.
+  private long dropped;
+
+  /**
+   * A buffer of {@code capacity} slots, rounded up to a power of two.
+   */
+  ScanRingBuffer(int capacity) {
+    int slots = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    records = new byte[slots][MAX_RECORD_LENGTH];
+    lengths = new int[slots];
+    rssis = new int[slots];
+    mask = slots - 1;
+  }
+
+  /**
+   * Copies {@code record} into the buffer, returning false if it was dropped because the buffer is
+   * full or the record doesn't fit a slot. Producer thread only.
+   */
+  boolean offer(byte[] record, int rssi) {
+    long t = tail.get();
+    if (record == null || record.length > MAX_RECORD_LENGTH || t - head.get() > mask) {
+      dropped++;
+      return false;
+    }
+    int slot = (int) t & mask;
+    System.arraycopy(record, 0, records[slot], 0, record.length);
+    lengths[slot] = record.length;
+    rssis[slot] = rssi;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * Hands every record in the buffer to {@code sink}, oldest first, and returns how many there
+   * were. Slots are released as they are consumed. Consumer thread only.
+   */
+  int drain(Sink sink) {
+    long h = head.get();
+    long t = tail.get();
+    for (long i = h; i < t; i++) {
+      int slot = (int) i & mask;
+      sink.onRecord(records[slot], lengths[slot], rssis[slot]);
+      head.lazySet(i + 1);
+    }
+    return (int) (t - h);
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  /** Records dropped so far. Producer thread only. */
+  long getDroppedCount() {
+    return dropped;
+  }
+}
@@ -14,28 +14,27 @@
 
 package com.google.sample.beaconservice;
 
-import android.app.Activity;
-import android.app.Dialog;
-import android.content.Intent;
-import android.util.Base64;
 import android.view.View;
 
-import com.google.android.gms.auth.GooglePlayServicesAvailabilityException;
-import com.google.android.gms.auth.UserRecoverableAuthException;
-import com.google.android.gms.common.GooglePlayServicesUtil;
-
+import okio.ByteString;
 
 class Utils {
   private Utils() {}  // static functions only
 
   private static final char[] HEX = "0123456789ABCDEF".toCharArray();
 
+  // okio's codec, as in the library, rather than android.util.Base64: it runs off-device too, and
+  // doesn't wrap long values onto several lines.
   static byte[] base64Decode(String s) {
-    return Base64.decode(s, Base64.DEFAULT);
+    ByteString bytes = ByteString.decodeBase64(s);
+    if (bytes == null) {
+      throw new IllegalArgumentException("bad base-64");
+    }
+    return bytes.toByteArray();
   }
 
   static String base64Encode(byte[] b) {
-    return Base64.encodeToString(b, Base64.DEFAULT).trim();
+    return ByteString.of(b).base64();
   }
 
   static String toHexString(byte[] bytes) {
@@ -48,31 +47,6 @@ class Utils {
     return new String(chars).toLowerCase();
   }
 
-  static void handleAuthException(final Activity activity, final Exception e) {
-    activity.runOnUiThread(new Runnable() {
-      @Override
-      public void run() {
-        if (e instanceof GooglePlayServicesAvailabilityException) {
-          // The Google Play services APK is old, disabled, or not present.
-          // Show a dialog created by Google Play services that allows
-          // the user to update the APK
-          int statusCode = ((GooglePlayServicesAvailabilityException)e).getConnectionStatusCode();
-          Dialog dialog = GooglePlayServicesUtil.getErrorDialog(
-            statusCode, activity, Constants.REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
-          dialog.show();
-        }
-        else if (e instanceof UserRecoverableAuthException) {
-          // Unable to authenticate, such as when the user has not yet granted
-          // the app access to the account, but the user can fix this.
-          // Forward the user to an activity in Google Play services.
-          Intent intent = ((UserRecoverableAuthException)e).getIntent();
-          activity.startActivityForResult(
-            intent, Constants.REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
-        }
-      }
-    });
-  }
-
   static void setEnabledViews(boolean enabled, View... views) {
     if (views == null || views.length == 0) {
       return;
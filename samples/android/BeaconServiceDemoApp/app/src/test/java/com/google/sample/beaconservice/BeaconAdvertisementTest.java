@@ -0,0 +1,222 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Decodes raw advertising data, as {@code ScanRecord.getBytes()} returns it, for each beacon
+ * format and for records that only look like one.
+ */
+public class BeaconAdvertisementTest {
+  private static final byte[] FLAGS = bytes(0x02, 0x01, 0x06);
+  private static final byte[] EDDYSTONE_UUID_LIST = bytes(0x03, 0x03, 0xaa, 0xfe);
+
+  private static final byte[] UID = bytes(
+      0xed, 0xd1, 0xeb, 0xea, 0xc0, 0x4e, 0x5d, 0xef, 0xa0, 0x17,
+      0xa6, 0xb2, 0xc3, 0xd4, 0xe5, 0xf6);
+  private static final byte[] EDDYSTONE_UID = concat(
+      bytes(0x17, 0x16, 0xaa, 0xfe, 0x00, 0xee), UID, bytes(0x00, 0x00));
+  private static final byte[] EDDYSTONE_TLM = bytes(0x11, 0x16, 0xaa, 0xfe,
+      0x20, 0x00, 0x0b, 0xb8, 0x17, 0x80, 0x00, 0x01, 0x23, 0x45, 0x00, 0x06, 0x78, 0x9a);
+
+  // UUID f7826da6-4fa2-4e98-8024-bc5b71e0893e, major 0x1234, minor 0x5678.
+  private static final byte[] IBEACON_ID = bytes(
+      0xf7, 0x82, 0x6d, 0xa6, 0x4f, 0xa2, 0x4e, 0x98,
+      0x80, 0x24, 0xbc, 0x5b, 0x71, 0xe0, 0x89, 0x3e,
+      0x12, 0x34, 0x56, 0x78);
+  // Apple's company ID, then the iBeacon code, the ID and -59 dBm at 1 m.
+  private static final byte[] IBEACON = concat(
+      bytes(0x1a, 0xff, 0x4c, 0x00, 0x02, 0x15), IBEACON_ID, bytes(0xc5));
+
+  private static final byte[] ALTBEACON_ID = bytes(
+      0x2f, 0x23, 0x44, 0x54, 0xcf, 0x6d, 0x4a, 0x0f, 0xad, 0xf2,
+      0xf4, 0x91, 0x1b, 0xa9, 0xff, 0xa6, 0x00, 0x01, 0x00, 0x02);
+
+  private final BeaconAdvertisement advertisement = new BeaconAdvertisement();
+
+  @Test
+  public void eddystoneUid() {
+    byte[] record = advertisement(FLAGS, EDDYSTONE_UUID_LIST, EDDYSTONE_UID);
+
+    assertTrue(advertisement.parse(record));
+
+    assertEquals(Beacon.TYPE_EDDYSTONE, advertisement.type);
+    assertEquals(Beacon.typeCode(Beacon.TYPE_EDDYSTONE), advertisement.typeCode);
+    assertEquals(EddystoneFrame.TYPE_UID, advertisement.eddystone.type);
+    assertEquals(-18, advertisement.txPower);
+    assertArrayEquals(UID, advertisement.copyId());
+    assertSame(record, advertisement.bytes);
+  }
+
+  @Test
+  public void eddystoneTlmHasNoId() {
+    assertTrue(advertisement.parse(advertisement(FLAGS, EDDYSTONE_UUID_LIST, EDDYSTONE_TLM)));
+
+    assertEquals(Beacon.TYPE_EDDYSTONE, advertisement.type);
+    assertEquals(EddystoneFrame.TYPE_TLM, advertisement.eddystone.type);
+    assertEquals(0, advertisement.idLength);
+    assertEquals(3000, advertisement.eddystone.batteryMillivolts);
+  }
+
+  @Test
+  public void iBeacon() {
+    assertTrue(advertisement.parse(advertisement(FLAGS, IBEACON)));
+
+    assertEquals(Beacon.TYPE_IBEACON, advertisement.type);
+    assertEquals(Beacon.typeCode(Beacon.TYPE_IBEACON), advertisement.typeCode);
+    assertEquals(-59, advertisement.txPower);
+    assertArrayEquals(IBEACON_ID, advertisement.copyId());
+  }
+
+  @Test
+  public void appleDataWithoutTheIBeaconCodeIsNotABeacon() {
+    // Apple's company ID followed by another of its types, e.g. a nearby-device announcement.
+    byte[] other = IBEACON.clone();
+    other[4] = 0x10;
+    other[5] = 0x05;
+
+    assertFalse(advertisement.parse(advertisement(FLAGS, other)));
+    assertNull(advertisement.type);
+    assertEquals(0, advertisement.idLength);
+  }
+
+  @Test
+  public void altBeaconFromAnotherCompany() {
+    // Radius Networks, company ID 0x0118.
+    byte[] altBeacon = concat(bytes(0x1b, 0xff, 0x18, 0x01, 0xbe, 0xac), ALTBEACON_ID,
+        bytes(0xc3, 0x00));
+
+    assertTrue(advertisement.parse(advertisement(FLAGS, altBeacon)));
+
+    assertEquals(Beacon.TYPE_ALTBEACON, advertisement.type);
+    assertEquals(Beacon.typeCode(Beacon.TYPE_ALTBEACON), advertisement.typeCode);
+    assertEquals(-61, advertisement.txPower);
+    assertArrayEquals(ALTBEACON_ID, advertisement.copyId());
+  }
+
+  @Test
+  public void altBeaconFromApple() {
+    byte[] altBeacon = concat(bytes(0x1b, 0xff, 0x4c, 0x00, 0xbe, 0xac), ALTBEACON_ID,
+        bytes(0xc3, 0x00));
+
+    assertTrue(advertisement.parse(advertisement(FLAGS, altBeacon)));
+    assertEquals(Beacon.TYPE_ALTBEACON, advertisement.type);
+  }
+
+  @Test
+  public void shortManufacturerDataIsNotABeacon() {
+    // An iBeacon cut off before its measured power, with its AD length to match.
+    byte[] shortIBeacon = Arrays.copyOf(IBEACON, IBEACON.length - 1);
+    shortIBeacon[0] = (byte) (shortIBeacon.length - 1);
+    assertFalse(advertisement.parse(advertisement(FLAGS, shortIBeacon)));
+
+    // Too short even for a company ID and beacon code.
+    assertFalse(advertisement.parse(advertisement(FLAGS, bytes(0x03, 0xff, 0x4c, 0x00))));
+    assertFalse(advertisement.parse(advertisement(FLAGS, bytes(0x01, 0xff))));
+    assertNull(advertisement.type);
+  }
+
+  @Test
+  public void beaconAfterOtherStructuresIsFound() {
+    byte[] name = bytes(0x05, 0x09, 'T', 'e', 's', 't');
+    byte[] otherManufacturer = bytes(0x05, 0xff, 0x59, 0x00, 0x01, 0x02);
+
+    assertTrue(advertisement.parse(advertisement(FLAGS, name, otherManufacturer, IBEACON)));
+    assertArrayEquals(IBEACON_ID, advertisement.copyId());
+  }
+
+  @Test
+  public void zeroLengthStructureEndsTheRecord() {
+    // A zero length marks the rest of the record as padding, so nothing after it is read.
+    byte[] record = advertisement(FLAGS, bytes(0x00), IBEACON);
+
+    assertFalse(advertisement.parse(record));
+    assertNull(advertisement.type);
+  }
+
+  @Test
+  public void beaconBeforeAZeroLengthStructureIsFound() {
+    assertTrue(advertisement.parse(advertisement(FLAGS, IBEACON, bytes(0x00), EDDYSTONE_UID)));
+    assertEquals(Beacon.TYPE_IBEACON, advertisement.type);
+  }
+
+  @Test
+  public void structureRunningPastTheRecordIsRejected() {
+    byte[] record = advertisement(FLAGS, IBEACON);
+
+    assertFalse(advertisement.parse(record, FLAGS.length + IBEACON.length - 1));
+    assertTrue(advertisement.parse(record, FLAGS.length + IBEACON.length));
+  }
+
+  @Test
+  public void recordWithoutABeacon() {
+    assertFalse(advertisement.parse(advertisement(FLAGS, EDDYSTONE_UUID_LIST)));
+    assertFalse(advertisement.parse(new byte[0]));
+    assertFalse(advertisement.parse(null));
+    assertNull(advertisement.type);
+  }
+
+  @Test
+  public void reusedAdvertisementForgetsThePreviousId() {
+    assertTrue(advertisement.parse(advertisement(FLAGS, IBEACON)));
+    assertTrue(advertisement.parse(advertisement(FLAGS, EDDYSTONE_UUID_LIST, EDDYSTONE_TLM)));
+
+    assertEquals(Beacon.TYPE_EDDYSTONE, advertisement.type);
+    assertEquals(0, advertisement.idLength);
+  }
+
+  // The AD structures in a zero-padded 62-byte record.
+  private static byte[] advertisement(byte[]... structures) {
+    byte[] bytes = new byte[62];
+    int offset = 0;
+    for (byte[] structure : structures) {
+      System.arraycopy(structure, 0, bytes, offset, structure.length);
+      offset += structure.length;
+    }
+    return bytes;
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    int length = 0;
+    for (byte[] part : parts) {
+      length += part.length;
+    }
+    byte[] bytes = new byte[length];
+    int offset = 0;
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, bytes, offset, part.length);
+      offset += part.length;
+    }
+    return bytes;
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
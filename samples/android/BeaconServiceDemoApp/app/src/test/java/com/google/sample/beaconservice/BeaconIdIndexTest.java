@@ -0,0 +1,190 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks {@link BeaconIdIndex} against the IDs a scan turns up, including whole fleets that share
+ * a namespace.
+ */
+public class BeaconIdIndexTest {
+  private static final int EDDYSTONE = 3;
+  private static final int IBEACON = 1;
+
+  @Test
+  public void findsIdsInPlace() {
+    BeaconIdIndex<String> index = new BeaconIdIndex<>();
+    byte[] uid = uid(7);
+    index.put(EDDYSTONE, uid, 0, 16, "seven");
+
+    // The same ID in the middle of a larger buffer, as in a scan record.
+    byte[] record = new byte[40];
+    System.arraycopy(uid, 0, record, 13, 16);
+
+    assertEquals("seven", index.get(EDDYSTONE, record, 13, 16));
+    assertTrue(index.containsKey(EDDYSTONE, record, 13, 16));
+    assertNull(index.get(EDDYSTONE, record, 12, 16));
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  public void putReplacesAndReturnsThePreviousValue() {
+    BeaconIdIndex<String> index = new BeaconIdIndex<>();
+
+    assertNull(index.put(EDDYSTONE, uid(1), 0, 16, "first"));
+    assertEquals("first", index.put(EDDYSTONE, uid(1), 0, 16, "second"));
+
+    assertEquals("second", index.get(EDDYSTONE, uid(1), 0, 16));
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  public void keysAreCopiedIn() {
+    BeaconIdIndex<String> index = new BeaconIdIndex<>();
+    byte[] buffer = uid(1);
+    index.put(EDDYSTONE, buffer, 0, 16, "one");
+
+    buffer[15] = 2;
+
+    assertNull(index.get(EDDYSTONE, buffer, 0, 16));
+    assertEquals("one", index.get(EDDYSTONE, uid(1), 0, 16));
+  }
+
+  @Test
+  public void typeAndLengthArePartOfTheKey() {
+    BeaconIdIndex<String> index = new BeaconIdIndex<>();
+    byte[] id = new byte[20];
+    System.arraycopy(uid(5), 0, id, 0, 16);
+
+    index.put(EDDYSTONE, id, 0, 16, "uid");
+    index.put(IBEACON, id, 0, 16, "other type");
+    // The same first 16 bytes followed by four zeros.
+    index.put(IBEACON, id, 0, 20, "longer");
+
+    assertEquals("uid", index.get(EDDYSTONE, id, 0, 16));
+    assertEquals("other type", index.get(IBEACON, id, 0, 16));
+    assertEquals("longer", index.get(IBEACON, id, 0, 20));
+    assertNull(index.get(EDDYSTONE, id, 0, 20));
+    assertEquals(3, index.size());
+  }
+
+  @Test
+  public void twentyByteIdsDifferingOnlyInTheirTail() {
+    BeaconIdIndex<Integer> index = new BeaconIdIndex<>();
+    byte[] id = new byte[20];
+    for (int i = 0; i < 256; i++) {
+      id[19] = (byte) i;
+      index.put(IBEACON, id, 0, 20, i);
+    }
+
+    assertEquals(256, index.size());
+    for (int i = 0; i < 256; i++) {
+      id[19] = (byte) i;
+      assertEquals(Integer.valueOf(i), index.get(IBEACON, id, 0, 20));
+    }
+  }
+
+  @Test
+  public void shortIds() {
+    BeaconIdIndex<String> index = new BeaconIdIndex<>();
+    byte[] id = {1, 2, 3};
+
+    index.put(EDDYSTONE, id, 0, 0, "empty");
+    index.put(EDDYSTONE, id, 0, 3, "three");
+
+    assertEquals("empty", index.get(EDDYSTONE, id, 0, 0));
+    assertEquals("three", index.get(EDDYSTONE, id, 0, 3));
+    assertNull(index.get(EDDYSTONE, id, 0, 2));
+  }
+
+  @Test
+  public void growsToHoldAFleetSharingOneNamespace() {
+    BeaconIdIndex<Integer> index = new BeaconIdIndex<>();
+    for (int i = 0; i < 10000; i++) {
+      index.put(EDDYSTONE, uid(i), 0, 16, i);
+    }
+
+    assertEquals(10000, index.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(Integer.valueOf(i), index.get(EDDYSTONE, uid(i), 0, 16));
+    }
+    assertNull(index.get(EDDYSTONE, uid(10000), 0, 16));
+  }
+
+  @Test
+  public void randomIdsMatchAfterGrowth() {
+    Random random = new Random(42);
+    byte[][] ids = new byte[2000][20];
+    BeaconIdIndex<Integer> index = new BeaconIdIndex<>(10);
+    for (int i = 0; i < ids.length; i++) {
+      random.nextBytes(ids[i]);
+      index.put(IBEACON, ids[i], 0, 20, i);
+    }
+
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(Integer.valueOf(i), index.get(IBEACON, ids[i], 0, 20));
+    }
+  }
+
+  @Test
+  public void clearRemovesEverything() {
+    BeaconIdIndex<String> index = new BeaconIdIndex<>();
+    index.put(EDDYSTONE, uid(1), 0, 16, "one");
+    index.put(EDDYSTONE, uid(2), 0, 16, "two");
+
+    index.clear();
+
+    assertEquals(0, index.size());
+    assertFalse(index.containsKey(EDDYSTONE, uid(1), 0, 16));
+    assertNull(index.put(EDDYSTONE, uid(1), 0, 16, "again"));
+    assertEquals("again", index.get(EDDYSTONE, uid(1), 0, 16));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void rejectsNullValues() {
+    new BeaconIdIndex<String>().put(EDDYSTONE, uid(1), 0, 16, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsIdsLongerThanTwentyBytes() {
+    new BeaconIdIndex<String>().get(IBEACON, new byte[21], 0, 21);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void rejectsIdsRunningPastTheArray() {
+    new BeaconIdIndex<String>().get(EDDYSTONE, new byte[20], 8, 16);
+  }
+
+  // An Eddystone UID in a fixed namespace, with the instance numbered n.
+  private static byte[] uid(int n) {
+    byte[] uid = new byte[16];
+    for (int i = 0; i < 10; i++) {
+      uid[i] = (byte) (0xa0 + i);
+    }
+    uid[12] = (byte) (n >>> 24);
+    uid[13] = (byte) (n >>> 16);
+    uid[14] = (byte) (n >>> 8);
+    uid[15] = (byte) n;
+    return uid;
+  }
+}
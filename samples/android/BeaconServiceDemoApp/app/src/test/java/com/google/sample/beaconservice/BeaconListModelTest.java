@@ -0,0 +1,265 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays the edits a {@link BeaconListModel} records onto a plain list, as the UI does, and
+ * checks the copy against a list kept in order the slow way.
+ */
+public class BeaconListModelTest {
+  private final BeaconListModel model = new BeaconListModel();
+  // The UI's copy, built only from the model's updates.
+  private final List<Beacon> copy = new ArrayList<>();
+  private int nextId;
+
+  @Test
+  public void addsAreInsertedStrongestFirst() {
+    Beacon far = beacon(-80);
+    Beacon near = beacon(-50);
+    Beacon middle = beacon(-65);
+    Beacon alsoMiddle = beacon(-65);
+    model.add(far);
+    model.add(near);
+    model.add(middle);
+    model.add(alsoMiddle);
+
+    ListUpdate<Beacon> update = model.takeUpdate();
+    assertEquals(4, update.size());
+    for (int i = 0; i < update.size(); i++) {
+      assertEquals(ListUpdate.INSERT, update.kind(i));
+    }
+    assertEquals(Arrays.asList(0, 0, 1, 2), positions(update));
+    assertTrue(update.isStructural());
+
+    update.applyTo(copy);
+    // Equal signals in the order they reached it.
+    assertEquals(Arrays.asList(near, middle, alsoMiddle, far), copy);
+    assertEquals(4, model.size());
+  }
+
+  @Test
+  public void sameRssiReplacementIsAChangeInPlace() {
+    Beacon first = beacon(-60);
+    Beacon second = beacon(-70);
+    model.add(first);
+    model.add(second);
+    sync();
+
+    Beacon resolved = new Beacon(second.type, second.id, Beacon.STATUS_ACTIVE, second.rssi);
+    assertTrue(model.replace(second, resolved));
+
+    ListUpdate<Beacon> update = model.takeUpdate();
+    assertEquals(1, update.size());
+    assertEquals(ListUpdate.CHANGE, update.kind(0));
+    assertEquals(1, update.position(0));
+    assertFalse(update.isStructural());
+    update.applyTo(copy);
+    assertEquals(Arrays.asList(first, resolved), copy);
+  }
+
+  @Test
+  public void newRssiMovesAndChanges() {
+    Beacon a = beacon(-50);
+    Beacon b = beacon(-60);
+    Beacon c = beacon(-70);
+    model.add(a);
+    model.add(b);
+    model.add(c);
+    sync();
+
+    Beacon closer = c.withRssi(-40);
+    assertTrue(model.replace(c, closer));
+
+    ListUpdate<Beacon> update = model.takeUpdate();
+    assertEquals(2, update.size());
+    assertEquals(ListUpdate.MOVE, update.kind(0));
+    assertEquals(2, update.position(0));
+    assertEquals(ListUpdate.CHANGE, update.kind(1));
+    assertEquals(0, update.position(1));
+    assertTrue(update.isStructural());
+    update.applyTo(copy);
+    assertEquals(Arrays.asList(closer, a, b), copy);
+  }
+
+  @Test
+  public void rssiChangeThatKeepsThePositionIsNotAMove() {
+    Beacon a = beacon(-50);
+    Beacon b = beacon(-70);
+    model.add(a);
+    model.add(b);
+    sync();
+
+    assertTrue(model.replace(b, b.withRssi(-60)));
+
+    ListUpdate<Beacon> update = model.takeUpdate();
+    assertEquals(1, update.size());
+    assertEquals(ListUpdate.CHANGE, update.kind(0));
+    assertFalse(update.isStructural());
+  }
+
+  @Test
+  public void replacingAnUnlistedBeaconDoesNothing() {
+    Beacon listed = beacon(-60);
+    model.add(listed);
+    sync();
+
+    // Equal to a listed beacon's signal but not the same object.
+    assertFalse(model.replace(beacon(-60), beacon(-50)));
+    assertFalse(model.replace(listed.withRssi(-60), beacon(-50)));
+
+    assertNull(model.takeUpdate());
+  }
+
+  @Test
+  public void clearDropsUntakenEdits() {
+    model.add(beacon(-60));
+    model.clear();
+
+    assertNull(model.takeUpdate());
+    assertEquals(0, model.size());
+  }
+
+  @Test
+  public void replayedUpdatesMatchTheModel() {
+    Random random = new Random(42);
+    // Kept in order by a linear scan rather than the model's binary searches.
+    List<Beacon> expected = new ArrayList<>();
+    for (int step = 0; step < 5000; step++) {
+      if (expected.isEmpty() || random.nextInt(4) == 0) {
+        Beacon beacon = beacon(-40 - random.nextInt(50));
+        model.add(beacon);
+        expected.add(insertionPoint(expected, beacon.rssi), beacon);
+      } else {
+        Beacon listed = expected.get(random.nextInt(expected.size()));
+        // Often a reading as strong as before, since RSSIs are whole dB.
+        int rssi = random.nextBoolean() ? listed.rssi : -40 - random.nextInt(50);
+        Beacon replacement = listed.withRssi(rssi);
+        assertTrue(model.replace(listed, replacement));
+        int from = expected.indexOf(listed);
+        if (rssi == listed.rssi) {
+          expected.set(from, replacement);
+        } else {
+          expected.remove(from);
+          expected.add(insertionPoint(expected, rssi), replacement);
+        }
+      }
+      // The UI takes updates at whatever pace its frames come.
+      if (random.nextInt(10) == 0) {
+        sync();
+        assertListEquals(expected, copy);
+      }
+    }
+    sync();
+    assertListEquals(expected, copy);
+    assertEquals(expected.size(), model.size());
+  }
+
+  @Test
+  public void jitterBelowTheThresholdLeavesTheListAlone() {
+    Beacon a = beacon(-60);
+    Beacon b = beacon(-62);
+    model.add(a);
+    model.add(b);
+    sync();
+    int jitter = ScanProcessor.RSSI_CHANGE_THRESHOLD - 1;
+
+    // Readings of a stationary beacon, as the scan processor filters them.
+    for (int rssi : new int[] {-62 + jitter, -62 - jitter, -61, -63, -62 + jitter}) {
+      sight(b, rssi);
+    }
+
+    assertNull(model.takeUpdate());
+    assertEquals(Arrays.asList(a, b), copy);
+  }
+
+  @Test
+  public void changeAtTheThresholdMovesTheBeacon() {
+    Beacon a = beacon(-60);
+    Beacon b = beacon(-62);
+    model.add(a);
+    model.add(b);
+    sync();
+
+    Beacon moved = sight(b, -62 + ScanProcessor.RSSI_CHANGE_THRESHOLD);
+
+    ListUpdate<Beacon> update = model.takeUpdate();
+    assertTrue(update.isStructural());
+    update.applyTo(copy);
+    assertEquals(Arrays.asList(moved, a), copy);
+  }
+
+  // A sighting of a listed beacon, replacing it only if the scan processor would.
+  private Beacon sight(Beacon listed, int rssi) {
+    if (!ScanProcessor.movesInList(listed.rssi, rssi)) {
+      return listed;
+    }
+    Beacon replacement = listed.withRssi(rssi);
+    assertTrue(model.replace(listed, replacement));
+    return replacement;
+  }
+
+  private void sync() {
+    ListUpdate<Beacon> update = model.takeUpdate();
+    if (update != null) {
+      update.applyTo(copy);
+    }
+  }
+
+  private Beacon beacon(int rssi) {
+    byte[] id = new byte[16];
+    id[15] = (byte) nextId;
+    id[14] = (byte) (nextId >>> 8);
+    nextId++;
+    return new Beacon(Beacon.TYPE_EDDYSTONE, id, Beacon.STATUS_UNSPECIFIED, rssi);
+  }
+
+  // After the last beacon at least as strong as rssi.
+  private static int insertionPoint(List<Beacon> beacons, int rssi) {
+    int position = 0;
+    while (position < beacons.size() && beacons.get(position).rssi >= rssi) {
+      position++;
+    }
+    return position;
+  }
+
+  private static List<Integer> positions(ListUpdate<?> update) {
+    List<Integer> positions = new ArrayList<>();
+    for (int i = 0; i < update.size(); i++) {
+      positions.add(update.position(i));
+    }
+    return positions;
+  }
+
+  // Beacon doesn't override equals, so this compares by identity.
+  private static void assertListEquals(List<Beacon> expected, List<Beacon> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSame("Position " + i, expected.get(i), actual.get(i));
+    }
+  }
+}
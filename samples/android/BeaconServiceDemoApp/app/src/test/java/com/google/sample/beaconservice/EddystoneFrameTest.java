@@ -0,0 +1,209 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Decodes captured and hand-built Eddystone service data of every frame type, whole and cut
+ * short.
+ */
+public class EddystoneFrameTest {
+  private static final byte[] UID_FRAME = bytes(
+      0x00, 0xee,
+      0xed, 0xd1, 0xeb, 0xea, 0xc0, 0x4e, 0x5d, 0xef, 0xa0, 0x17,
+      0xa6, 0xb2, 0xc3, 0xd4, 0xe5, 0xf6,
+      0x00, 0x00);
+  // https://goo.gl/S6zT6P
+  private static final byte[] URL_FRAME = bytes(
+      0x10, 0xeb, 0x03, 'g', 'o', 'o', '.', 'g', 'l', '/', 'S', '6', 'z', 'T', '6', 'P');
+  // 3000 mV, 23.5 C, 0x12345 frames, 0x6789a deciseconds.
+  private static final byte[] TLM_FRAME = bytes(
+      0x20, 0x00, 0x0b, 0xb8, 0x17, 0x80, 0x00, 0x01, 0x23, 0x45, 0x00, 0x06, 0x78, 0x9a);
+  private static final byte[] EID_FRAME = bytes(
+      0x30, 0xf0, 0x5a, 0x1f, 0x0c, 0x99, 0x2e, 0x7b, 0x44, 0xd3);
+
+  private final EddystoneFrame frame = new EddystoneFrame();
+
+  @Test
+  public void uid() {
+    assertTrue(frame.parse(UID_FRAME));
+
+    assertEquals(EddystoneFrame.TYPE_UID, frame.type);
+    assertEquals(-18, frame.txPower);
+    assertArrayEquals(Arrays.copyOfRange(UID_FRAME, 2, 18), frame.uid);
+    byte[] namespace = new byte[EddystoneFrame.NAMESPACE_LENGTH];
+    frame.getNamespace(namespace, 0);
+    assertArrayEquals(Arrays.copyOfRange(UID_FRAME, 2, 12), namespace);
+    byte[] instance = new byte[8];
+    frame.getInstance(instance, 2);
+    assertArrayEquals(bytes(0, 0, 0xa6, 0xb2, 0xc3, 0xd4, 0xe5, 0xf6), instance);
+  }
+
+  @Test
+  public void uidWithoutItsReservedBytes() {
+    assertTrue(frame.parse(Arrays.copyOf(UID_FRAME, 18)));
+    assertArrayEquals(Arrays.copyOfRange(UID_FRAME, 2, 18), frame.uid);
+  }
+
+  @Test
+  public void url() {
+    assertTrue(frame.parse(URL_FRAME));
+
+    assertEquals(EddystoneFrame.TYPE_URL, frame.type);
+    assertEquals(-21, frame.txPower);
+    assertEquals("https://goo.gl/S6zT6P", frame.url.toString());
+  }
+
+  @Test
+  public void urlExpansions() {
+    // "example" .com/ "a" .net/ "b" .org
+    assertTrue(frame.parse(bytes(0x10, 0x00, 0x00,
+        'e', 'x', 'a', 'm', 'p', 'l', 'e', 0x00, 'a', 0x03, 'b', 0x08)));
+
+    assertEquals("http://www.example.com/a.net/b.org", frame.url.toString());
+  }
+
+  @Test
+  public void urlWithOnlyAScheme() {
+    assertTrue(frame.parse(bytes(0x10, 0x00, 0x02)));
+    assertEquals("http://", frame.url.toString());
+  }
+
+  @Test
+  public void urlRejectsReservedBytes() {
+    // Past the expansion codes, below printable ASCII.
+    assertFalse(frame.parse(bytes(0x10, 0x00, 0x02, 'a', 0x0e)));
+    assertEquals(EddystoneFrame.TYPE_INVALID, frame.type);
+    assertFalse(frame.parse(bytes(0x10, 0x00, 0x02, 'a', ' ')));
+    assertFalse(frame.parse(bytes(0x10, 0x00, 0x02, 'a', 0x7f)));
+    assertFalse(frame.parse(bytes(0x10, 0x00, 0x02, 'a', 0xff)));
+    // An unknown scheme.
+    assertFalse(frame.parse(bytes(0x10, 0x00, 0x04, 'a')));
+  }
+
+  @Test
+  public void plainTlm() {
+    assertTrue(frame.parse(TLM_FRAME));
+
+    assertEquals(EddystoneFrame.TYPE_TLM, frame.type);
+    assertEquals(EddystoneFrame.TLM_VERSION_PLAIN, frame.tlmVersion);
+    assertEquals(3000, frame.batteryMillivolts);
+    assertEquals(23.5f, frame.temperature, 0f);
+    assertEquals(0x12345, frame.advertisingCount);
+    assertEquals(0x6789a, frame.uptimeDeciseconds);
+  }
+
+  @Test
+  public void tlmNegativeTemperatureAndUnsignedCounters() {
+    assertTrue(frame.parse(bytes(
+        0x20, 0x00, 0x00, 0x00, 0xf6, 0x40, 0xff, 0xff, 0xff, 0xff, 0x80, 0x00, 0x00, 0x00)));
+
+    assertEquals(0, frame.batteryMillivolts);
+    assertEquals(-9.75f, frame.temperature, 0f);
+    assertEquals(0xffffffffL, frame.advertisingCount);
+    assertEquals(0x80000000L, frame.uptimeDeciseconds);
+  }
+
+  @Test
+  public void tlmWithoutTemperature() {
+    byte[] data = TLM_FRAME.clone();
+    data[4] = (byte) 0x80;
+    data[5] = 0x00;
+
+    assertTrue(frame.parse(data));
+    assertTrue(Float.isNaN(frame.temperature));
+  }
+
+  @Test
+  public void encryptedTlmReportsOnlyItsVersion() {
+    frame.parse(TLM_FRAME);
+
+    assertTrue(frame.parse(bytes(0x20, 0x01, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, 0x88,
+        0x99, 0xaa, 0xbb, 0xcc, 0xdd, 0xee, 0x01, 0x02)));
+
+    assertEquals(EddystoneFrame.TYPE_TLM, frame.type);
+    assertEquals(EddystoneFrame.TLM_VERSION_ENCRYPTED, frame.tlmVersion);
+  }
+
+  @Test
+  public void tlmOfAnUnknownVersion() {
+    byte[] data = TLM_FRAME.clone();
+    data[1] = 0x02;
+
+    assertFalse(frame.parse(data));
+  }
+
+  @Test
+  public void eid() {
+    assertTrue(frame.parse(EID_FRAME));
+
+    assertEquals(EddystoneFrame.TYPE_EID, frame.type);
+    assertEquals(-16, frame.txPower);
+    assertArrayEquals(Arrays.copyOfRange(EID_FRAME, 2, 10), frame.eid);
+  }
+
+  @Test
+  public void truncatedFramesAreRejected() {
+    assertFalse(frame.parse(Arrays.copyOf(UID_FRAME, 17)));
+    assertFalse(frame.parse(Arrays.copyOf(URL_FRAME, 2)));
+    assertFalse(frame.parse(Arrays.copyOf(TLM_FRAME, 13)));
+    assertFalse(frame.parse(Arrays.copyOf(EID_FRAME, 9)));
+    assertFalse(frame.parse(bytes(0x00)));
+    assertFalse(frame.parse(new byte[0]));
+    assertFalse(frame.parse(null));
+    assertEquals(EddystoneFrame.TYPE_INVALID, frame.type);
+  }
+
+  @Test
+  public void unknownFrameTypeIsRejected() {
+    assertFalse(frame.parse(bytes(0x40, 0x00, 0x00, 0x00)));
+    assertEquals(EddystoneFrame.TYPE_INVALID, frame.type);
+  }
+
+  @Test
+  public void parsesInPlace() {
+    byte[] record = new byte[EID_FRAME.length + 7];
+    System.arraycopy(EID_FRAME, 0, record, 5, EID_FRAME.length);
+
+    assertTrue(frame.parse(record, 5, EID_FRAME.length));
+    assertArrayEquals(Arrays.copyOfRange(EID_FRAME, 2, 10), frame.eid);
+    // Cut short at the structure's length, whatever follows in the record.
+    assertFalse(frame.parse(record, 5, EID_FRAME.length - 1));
+  }
+
+  @Test
+  public void reusedFrameTakesEachNewPacket() {
+    assertTrue(frame.parse(URL_FRAME));
+    assertTrue(frame.parse(bytes(0x10, 0x00, 0x01, 'x', 0x07)));
+
+    assertEquals("https://www.x.com", frame.url.toString());
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Offers and drains records on one thread for the buffer's accounting, and on two for the
+ * ordering it promises its single producer and single consumer.
+ */
+public class ScanRingBufferTest {
+
+  @Test
+  public void capacityIsRoundedUpToAPowerOfTwo() {
+    assertEquals(2, new ScanRingBuffer(1).capacity());
+    assertEquals(4, new ScanRingBuffer(4).capacity());
+    assertEquals(8, new ScanRingBuffer(5).capacity());
+    assertEquals(256, new ScanRingBuffer(256).capacity());
+  }
+
+  @Test
+  public void fullBufferDropsAndCounts() {
+    ScanRingBuffer buffer = new ScanRingBuffer(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer(record(i, 10), -50 - i));
+    }
+
+    assertFalse(buffer.offer(record(4, 10), -60));
+    assertFalse(buffer.offer(record(5, 10), -60));
+    assertEquals(2, buffer.getDroppedCount());
+
+    Collector collector = new Collector();
+    assertEquals(4, buffer.drain(collector));
+    assertEquals(Arrays.asList(0, 1, 2, 3), collector.sequence);
+    assertEquals(Arrays.asList(-50, -51, -52, -53), collector.rssis);
+    // Draining frees every slot.
+    assertTrue(buffer.offer(record(6, 10), -60));
+  }
+
+  @Test
+  public void recordsThatDoNotFitAreDropped() {
+    ScanRingBuffer buffer = new ScanRingBuffer(4);
+
+    assertFalse(buffer.offer(null, -50));
+    assertFalse(buffer.offer(new byte[ScanRingBuffer.MAX_RECORD_LENGTH + 1], -50));
+    assertTrue(buffer.offer(new byte[ScanRingBuffer.MAX_RECORD_LENGTH], -50));
+
+    assertEquals(2, buffer.getDroppedCount());
+    assertEquals(1, buffer.drain(new Collector()));
+  }
+
+  @Test
+  public void slotsAreReusedAcrossTheWrap() {
+    ScanRingBuffer buffer = new ScanRingBuffer(4);
+    Collector collector = new Collector();
+    int next = 0;
+    // Three at a time into four slots, so every round starts at a different slot, and lengths
+    // alternate so a short record lands on top of a longer one.
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 3; i++, next++) {
+        assertTrue(buffer.offer(record(next, next % 2 == 0 ? 30 : 8), -40));
+      }
+      assertEquals(3, buffer.drain(collector));
+    }
+
+    assertEquals(30, collector.sequence.size());
+    for (int i = 0; i < 30; i++) {
+      assertEquals(i, (int) collector.sequence.get(i));
+      assertArrayEquals(record(i, i % 2 == 0 ? 30 : 8), collector.records.get(i));
+    }
+    assertEquals(0, buffer.getDroppedCount());
+  }
+
+  @Test
+  public void emptyBufferDrainsNothing() {
+    ScanRingBuffer buffer = new ScanRingBuffer(4);
+    Collector collector = new Collector();
+
+    assertEquals(0, buffer.drain(collector));
+    assertTrue(collector.sequence.isEmpty());
+  }
+
+  @Test(timeout = 30000)
+  public void consumerSeesTheProducersOrder() throws Exception {
+    final ScanRingBuffer buffer = new ScanRingBuffer(16);
+    final int count = 200000;
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          buffer.offer(record(i, 4 + i % 20), i % 100);
+        }
+      }
+    });
+    Collector collector = new Collector();
+
+    producer.start();
+    while (producer.isAlive()) {
+      buffer.drain(collector);
+    }
+    producer.join();
+    buffer.drain(collector);
+
+    // Some are dropped while the consumer falls behind, but none are lost, repeated, reordered
+    // or read half-written.
+    int previous = -1;
+    for (int i = 0; i < collector.sequence.size(); i++) {
+      int n = collector.sequence.get(i);
+      assertTrue(n + " after " + previous, n > previous);
+      assertArrayEquals(record(n, 4 + n % 20), collector.records.get(i));
+      assertEquals(n % 100, (int) collector.rssis.get(i));
+      previous = n;
+    }
+    assertEquals(count, collector.sequence.size() + buffer.getDroppedCount());
+  }
+
+  // A record of length bytes that starts with n, big-endian, and repeats its low byte after.
+  private static byte[] record(int n, int length) {
+    byte[] record = new byte[length];
+    record[0] = (byte) (n >>> 24);
+    record[1] = (byte) (n >>> 16);
+    record[2] = (byte) (n >>> 8);
+    record[3] = (byte) n;
+    Arrays.fill(record, 4, length, (byte) n);
+    return record;
+  }
+
+  private static class Collector implements ScanRingBuffer.Sink {
+    final List<Integer> sequence = new ArrayList<>();
+    final List<byte[]> records = new ArrayList<>();
+    final List<Integer> rssis = new ArrayList<>();
+
+    @Override
+    public void onRecord(byte[] record, int length, int rssi) {
+      sequence.add(((record[0] & 0xff) << 24) | ((record[1] & 0xff) << 16)
+          | ((record[2] & 0xff) << 8) | (record[3] & 0xff));
+      // The slot's buffer is reused, so keep a copy.
+      records.add(Arrays.copyOf(record, length));
+      rssis.add(rssi);
+    }
+  }
+}
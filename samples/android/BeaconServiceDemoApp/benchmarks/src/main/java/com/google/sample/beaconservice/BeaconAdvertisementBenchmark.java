@@ -0,0 +1,140 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding raw advertisements of each beacon format into a reused {@link BeaconAdvertisement},
+ * which should allocate nothing, and the scan callback's whole per-packet path for a mix of
+ * formats from beacons that are already listed. Comparable with {@link EddystoneFrameBenchmark},
+ * which decodes the Eddystone service data alone.
+ *
+ * <p>The framework's own ScanRecord parsing, which this bypasses, can't run off-device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeaconAdvertisementBenchmark {
+  // Raw advertising data as ScanRecord.getBytes() returns it: the AD structures, zero-padded.
+  static final byte[] EDDYSTONE_UID = advertisement(
+      bytes(0x02, 0x01, 0x06),
+      bytes(0x03, 0x03, 0xaa, 0xfe),
+      concat(bytes(0x17, 0x16, 0xaa, 0xfe), EddystoneFrameBenchmark.UID_FRAME));
+  static final byte[] EDDYSTONE_TLM = advertisement(
+      bytes(0x02, 0x01, 0x06),
+      bytes(0x03, 0x03, 0xaa, 0xfe),
+      concat(bytes(0x11, 0x16, 0xaa, 0xfe), EddystoneFrameBenchmark.TLM_FRAME));
+  // UUID f7826da6-4fa2-4e98-8024-bc5b71e0893e, major 0x1234, minor 0x5678, -59 dBm at 1 m.
+  static final byte[] IBEACON = advertisement(
+      bytes(0x02, 0x01, 0x06),
+      bytes(0x1a, 0xff, 0x4c, 0x00, 0x02, 0x15,
+          0xf7, 0x82, 0x6d, 0xa6, 0x4f, 0xa2, 0x4e, 0x98,
+          0x80, 0x24, 0xbc, 0x5b, 0x71, 0xe0, 0x89, 0x3e,
+          0x12, 0x34, 0x56, 0x78, 0xc5));
+  static final byte[] ALTBEACON = advertisement(
+      bytes(0x02, 0x01, 0x06),
+      bytes(0x1b, 0xff, 0x18, 0x01, 0xbe, 0xac,
+          0x2f, 0x23, 0x44, 0x54, 0xcf, 0x6d, 0x4a, 0x0f, 0xad, 0xf2,
+          0xf4, 0x91, 0x1b, 0xa9, 0xff, 0xa6, 0x00, 0x01, 0x00, 0x02,
+          0xc5, 0x00));
+
+  private static final byte[][] MIXED = {EDDYSTONE_UID, IBEACON, EDDYSTONE_TLM, ALTBEACON};
+
+  private final BeaconAdvertisement advertisement = new BeaconAdvertisement();
+  private final BeaconIdIndex<Beacon> sightings = new BeaconIdIndex<>();
+  private int next;
+
+  @Setup
+  public void setUp() {
+    for (byte[] bytes : MIXED) {
+      advertisement.parse(bytes);
+      if (advertisement.idLength > 0) {
+        sightings.put(advertisement.typeCode, advertisement.bytes, advertisement.idOffset,
+            advertisement.idLength, new Beacon(advertisement.type, advertisement.copyId(),
+                Beacon.STATUS_UNSPECIFIED, -60));
+      }
+    }
+  }
+
+  @Benchmark
+  public int parseEddystoneUid() {
+    advertisement.parse(EDDYSTONE_UID);
+    return advertisement.idOffset;
+  }
+
+  @Benchmark
+  public long parseEddystoneTlm() {
+    advertisement.parse(EDDYSTONE_TLM);
+    return advertisement.eddystone.advertisingCount;
+  }
+
+  @Benchmark
+  public int parseIBeacon() {
+    advertisement.parse(IBEACON);
+    return advertisement.idOffset;
+  }
+
+  @Benchmark
+  public int parseAltBeacon() {
+    advertisement.parse(ALTBEACON);
+    return advertisement.idOffset;
+  }
+
+  // As the scan callback does it: decode whichever format arrived, then drop it if it's listed.
+  @Benchmark
+  public boolean mixedFormatsSighted() {
+    byte[] bytes = MIXED[next];
+    next = (next + 1) & (MIXED.length - 1);
+    return advertisement.parse(bytes) && (advertisement.idLength == 0
+        || sightings.containsKey(advertisement.typeCode, advertisement.bytes,
+            advertisement.idOffset, advertisement.idLength));
+  }
+
+  private static byte[] advertisement(byte[]... structures) {
+    byte[] bytes = new byte[62];
+    int offset = 0;
+    for (byte[] structure : structures) {
+      System.arraycopy(structure, 0, bytes, offset, structure.length);
+      offset += structure.length;
+    }
+    return bytes;
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] bytes = new byte[a.length + b.length];
+    System.arraycopy(a, 0, bytes, 0, a.length);
+    System.arraycopy(b, 0, bytes, a.length, b.length);
+    return bytes;
+  }
+
+  private static byte[] bytes(int... values) {
+    return EddystoneFrameBenchmark.bytes(values);
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import com.google.sample.libproximitybeacon.BeaconRecord;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link Beacon} model: decoding a beacon resource from JSON, encoding one for a register or
+ * update request, naming it, and converting to and from the library's record.
+ *
+ * <p>Parcelling isn't measured: {@code android.os.Parcel} is backed by native code, so it only
+ * runs on a device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeaconBenchmark {
+  // A registered beacon as beacons.get returns it, with every field set.
+  static final String BEACON_JSON = "{"
+      + "\"beaconName\":\"beacons/3!edd1ebeac04e5defa017a6b2c3d4e5f6\","
+      + "\"advertisedId\":{\"type\":\"EDDYSTONE\",\"id\":\"7dHr6sBOXe+gF6ayw9Tl9g==\"},"
+      + "\"status\":\"ACTIVE\","
+      + "\"placeId\":\"ChIJj61dQgK6j4AR4GeTYWZsKWw\","
+      + "\"latLng\":{\"latitude\":37.4220041,\"longitude\":-122.0862462},"
+      + "\"expectedStability\":\"STABLE\","
+      + "\"description\":\"Lobby, north entrance\""
+      + "}";
+
+  private JSONObject json;
+  private Beacon beacon;
+  private BeaconRecord record;
+
+  @Setup
+  public void setUp() throws JSONException {
+    json = new JSONObject(BEACON_JSON);
+    beacon = new Beacon(json);
+    record = beacon.toRecord();
+  }
+
+  @Benchmark
+  public Beacon fromJsonObject() {
+    return new Beacon(json);
+  }
+
+  // As a response is handled: parse the body, then read the beacon out of it.
+  @Benchmark
+  public Beacon fromJsonString() throws JSONException {
+    return new Beacon(new JSONObject(BEACON_JSON));
+  }
+
+  @Benchmark
+  public JSONObject toJson() throws JSONException {
+    return beacon.toJson();
+  }
+
+  // As a request body is built.
+  @Benchmark
+  public String toJsonString() throws JSONException {
+    return beacon.toJson().toString();
+  }
+
+  @Benchmark
+  public String getBeaconName() {
+    return beacon.getBeaconName();
+  }
+
+  @Benchmark
+  public BeaconRecord toRecord() {
+    return beacon.toRecord();
+  }
+
+  @Benchmark
+  public Beacon fromRecord() {
+    return new Beacon(record);
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-packet cost of deciding whether a sighted beacon is already listed, as the list grows:
+ * the {@link BeaconIdIndex} the scan callback uses, against the linear scan of the list it
+ * replaced. Packets cycle through every listed beacon, all in one namespace as in a real fleet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeaconIdIndexBenchmark {
+  private static final int EDDYSTONE = Beacon.typeCode(Beacon.TYPE_EDDYSTONE);
+
+  @Param({"10", "100", "1000", "10000"})
+  int beacons;
+
+  private byte[][] frames;
+  private byte[] unknownFrame;
+  private final EddystoneFrame frame = new EddystoneFrame();
+  private BeaconIdIndex<Beacon> index;
+  private List<Beacon> list;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(1);
+    byte[] namespace = new byte[10];
+    random.nextBytes(namespace);
+    frames = new byte[beacons][];
+    index = new BeaconIdIndex<>();
+    list = new ArrayList<>();
+    for (int i = 0; i < beacons; i++) {
+      frames[i] = uidFrame(namespace, random);
+      byte[] id = Arrays.copyOfRange(frames[i], 2, 2 + EddystoneFrame.UID_LENGTH);
+      Beacon beacon = new Beacon(Beacon.TYPE_EDDYSTONE, id, Beacon.STATUS_UNSPECIFIED, -60);
+      index.put(EDDYSTONE, id, 0, id.length, beacon);
+      list.add(beacon);
+    }
+    // Shuffled, so the scan's expected position is mid-list rather than following insertion.
+    Collections.shuffle(list, random);
+    unknownFrame = uidFrame(namespace, random);
+  }
+
+  // As the scan callback does it: decode the frame, then look its ID up.
+  @Benchmark
+  public boolean indexedLookup() {
+    return frame.parse(nextFrame()) && frame.type == EddystoneFrame.TYPE_UID
+        && index.containsKey(EDDYSTONE, frame.uid, 0, EddystoneFrame.UID_LENGTH);
+  }
+
+  // A new beacon: the case the linear scan had to walk the whole list for.
+  @Benchmark
+  public boolean indexedMiss() {
+    return index.containsKey(EDDYSTONE, unknownFrame, 2, EddystoneFrame.UID_LENGTH);
+  }
+
+  // What the scan callback did before: copy the ID out, then compare it with every entry.
+  @Benchmark
+  public boolean linearScan() {
+    byte[] id = Arrays.copyOfRange(nextFrame(), 2, 2 + EddystoneFrame.UID_LENGTH);
+    for (Beacon beacon : list) {
+      if (Arrays.equals(beacon.id, id)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private byte[] nextFrame() {
+    byte[] frame = frames[next];
+    next = next + 1 == frames.length ? 0 : next + 1;
+    return frame;
+  }
+
+  private static byte[] uidFrame(byte[] namespace, Random random) {
+    byte[] frame = new byte[20];
+    frame[1] = (byte) 0xee;
+    System.arraycopy(namespace, 0, frame, 2, namespace.length);
+    byte[] instance = new byte[6];
+    random.nextBytes(instance);
+    System.arraycopy(instance, 0, frame, 12, instance.length);
+    return frame;
+  }
+}
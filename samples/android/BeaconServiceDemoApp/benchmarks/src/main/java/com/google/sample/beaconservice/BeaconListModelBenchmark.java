@@ -0,0 +1,114 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeping the listed beacons in RSSI order as one of them changes signal strength, as the list
+ * grows: recording the move in a {@link BeaconListModel} and applying it to the UI's copy, against
+ * replacing it in place and re-sorting the whole list, as the adapter used to for every sighting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeaconListModelBenchmark {
+  private static final Comparator<Beacon> RSSI_COMPARATOR = new Comparator<Beacon>() {
+    @Override
+    public int compare(Beacon lhs, Beacon rhs) {
+      return ((Integer) rhs.rssi).compareTo(lhs.rssi);
+    }
+  };
+
+  @Param({"100", "1000"})
+  int beacons;
+
+  private final BeaconListModel model = new BeaconListModel();
+  private final List<Beacon> uiList = new ArrayList<>();
+  private final List<Beacon> sortedList = new ArrayList<>();
+  // Each beacon at two signal strengths; every change swaps one for the other.
+  private Beacon[] current;
+  private Beacon[] other;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(1);
+    current = new Beacon[beacons];
+    other = new Beacon[beacons];
+    for (int i = 0; i < beacons; i++) {
+      byte[] id = new byte[16];
+      random.nextBytes(id);
+      current[i] = new Beacon(Beacon.TYPE_EDDYSTONE, id, Beacon.STATUS_ACTIVE,
+          -40 - random.nextInt(60));
+      other[i] = current[i].withRssi(-40 - random.nextInt(60));
+      model.add(current[i]);
+      sortedList.add(current[i]);
+    }
+    model.takeUpdate().applyTo(uiList);
+    Collections.sort(sortedList, RSSI_COMPARATOR);
+  }
+
+  @Benchmark
+  public int incrementalMove() {
+    int i = nextBeacon();
+    model.replace(current[i], other[i]);
+    swap(i);
+    ListUpdate<Beacon> update = model.takeUpdate();
+    update.applyTo(uiList);
+    return update.size();
+  }
+
+  @Benchmark
+  public int setAndResort() {
+    int i = nextBeacon();
+    sortedList.set(sortedList.indexOf(current[i]), other[i]);
+    swap(i);
+    Collections.sort(sortedList, RSSI_COMPARATOR);
+    return sortedList.size();
+  }
+
+  private int nextBeacon() {
+    int i = next;
+    next = next + 1 == beacons ? 0 : next + 1;
+    return i;
+  }
+
+  private void swap(int i) {
+    Beacon beacon = current[i];
+    current[i] = other[i];
+    other[i] = beacon;
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding each Eddystone frame type into a reused {@link EddystoneFrame}, which should allocate
+ * nothing, against what the scan callback used to do for every UID packet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EddystoneFrameBenchmark {
+  // Service data as captured from beacons, one of each frame type.
+  static final byte[] UID_FRAME = bytes(
+      0x00, 0xee,
+      0xed, 0xd1, 0xeb, 0xea, 0xc0, 0x4e, 0x5d, 0xef, 0xa0, 0x17,
+      0xa6, 0xb2, 0xc3, 0xd4, 0xe5, 0xf6,
+      0x00, 0x00);
+  // https://goo.gl/S6zT6P
+  static final byte[] URL_FRAME = bytes(
+      0x10, 0xeb, 0x03, 'g', 'o', 'o', '.', 'g', 'l', '/', 'S', '6', 'z', 'T', '6', 'P');
+  // 3000 mV, 23.5 C, 0x12345 frames, 0x6789a deciseconds.
+  static final byte[] TLM_FRAME = bytes(
+      0x20, 0x00, 0x0b, 0xb8, 0x17, 0x80, 0x00, 0x01, 0x23, 0x45, 0x00, 0x06, 0x78, 0x9a);
+  static final byte[] EID_FRAME = bytes(
+      0x30, 0xf0, 0x5a, 0x1f, 0x0c, 0x99, 0x2e, 0x7b, 0x44, 0xd3);
+
+  private final EddystoneFrame frame = new EddystoneFrame();
+
+  @Benchmark
+  public int parseUid() {
+    frame.parse(UID_FRAME);
+    return frame.uid[15];
+  }
+
+  @Benchmark
+  public int parseUrl() {
+    frame.parse(URL_FRAME);
+    return frame.url.length();
+  }
+
+  @Benchmark
+  public long parseTlm() {
+    frame.parse(TLM_FRAME);
+    return frame.advertisingCount;
+  }
+
+  @Benchmark
+  public int parseEid() {
+    frame.parse(EID_FRAME);
+    return frame.eid[7];
+  }
+
+  // The callback before: copy the ID out and wrap it in a Beacon, for every UID packet.
+  @Benchmark
+  public Beacon copyUidIntoBeacon() {
+    byte[] id = Arrays.copyOfRange(UID_FRAME, 2, 18);
+    return new Beacon(Beacon.TYPE_EDDYSTONE, id, Beacon.STATUS_UNSPECIFIED, -60);
+  }
+
+  static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
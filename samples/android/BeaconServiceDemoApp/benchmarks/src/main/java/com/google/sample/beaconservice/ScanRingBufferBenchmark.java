@@ -0,0 +1,114 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.beaconservice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hand-off between the scan callback and the scan processor's thread. {@code offer} is what
+ * the main thread now pays per scan result, in place of decoding, deduplicating and updating the
+ * list itself; in the {@code handOff} group one thread offers while another drains and decodes,
+ * as on a device during a dense scan. Results offered to a full buffer are dropped, so the
+ * offering thread never waits for the draining one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ScanRingBufferBenchmark {
+  private static final byte[][] RECORDS = {
+      BeaconAdvertisementBenchmark.EDDYSTONE_UID, BeaconAdvertisementBenchmark.IBEACON,
+      BeaconAdvertisementBenchmark.EDDYSTONE_TLM, BeaconAdvertisementBenchmark.ALTBEACON};
+
+  private final ScanRingBuffer ring = new ScanRingBuffer(1024);
+
+  /** The consumer's state, as the scan processor holds it. */
+  @State(Scope.Thread)
+  public static class Processor implements ScanRingBuffer.Sink {
+    final BeaconAdvertisement advertisement = new BeaconAdvertisement();
+    final BeaconIdIndex<Beacon> sightings = new BeaconIdIndex<>();
+    int sighted;
+
+    @Setup
+    public void setUp() {
+      for (byte[] record : RECORDS) {
+        advertisement.parse(record);
+        if (advertisement.idLength > 0) {
+          sightings.put(advertisement.typeCode, advertisement.bytes, advertisement.idOffset,
+              advertisement.idLength, new Beacon(advertisement.type, advertisement.copyId(),
+                  Beacon.STATUS_UNSPECIFIED, -60));
+        }
+      }
+    }
+
+    @Override
+    public void onRecord(byte[] record, int length, int rssi) {
+      if (advertisement.parse(record, length) && advertisement.idLength > 0
+          && sightings.containsKey(advertisement.typeCode, advertisement.bytes,
+              advertisement.idOffset, advertisement.idLength)) {
+        sighted++;
+      }
+    }
+  }
+
+  /** The producer's position in the record stream. */
+  @State(Scope.Thread)
+  public static class Producer {
+    int next;
+
+    byte[] nextRecord() {
+      byte[] record = RECORDS[next];
+      next = (next + 1) & (RECORDS.length - 1);
+      return record;
+    }
+  }
+
+  // One result in and straight out again on the same thread: the buffer's own overhead.
+  @Benchmark
+  @Group("roundTrip")
+  public int offerAndDrain(Producer producer, Processor processor) {
+    ring.offer(producer.nextRecord(), -60);
+    return ring.drain(processor);
+  }
+
+  @Benchmark
+  @Group("handOff")
+  @GroupThreads(1)
+  public boolean offer(Producer producer) {
+    return ring.offer(producer.nextRecord(), -60);
+  }
+
+  @Benchmark
+  @Group("handOff")
+  @GroupThreads(1)
+  public int drain(Processor processor) {
+    return ring.drain(processor);
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The streaming codec the client decodes responses and encodes request bodies with, for a beacon
+ * with every field set and for one with only the required ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonCodecBenchmark {
+  private static final String FULL_JSON = "{"
+      + "\"beaconName\":\"beacons/3!edd1ebeac04e5defa017a6b2c3d4e5f6\","
+      + "\"advertisedId\":{\"type\":\"EDDYSTONE\",\"id\":\"7dHr6sBOXe+gF6ayw9Tl9g==\"},"
+      + "\"status\":\"ACTIVE\","
+      + "\"placeId\":\"ChIJj61dQgK6j4AR4GeTYWZsKWw\","
+      + "\"latLng\":{\"latitude\":37.4220041,\"longitude\":-122.0862462},"
+      + "\"expectedStability\":\"STABLE\","
+      + "\"description\":\"Lobby, north entrance\""
+      + "}";
+
+  private static final String SPARSE_JSON = "{"
+      + "\"beaconName\":\"beacons/3!edd1ebeac04e5defa017a6b2c3d4e5f6\","
+      + "\"advertisedId\":{\"type\":\"EDDYSTONE\",\"id\":\"7dHr6sBOXe+gF6ayw9Tl9g==\"},"
+      + "\"status\":\"INACTIVE\""
+      + "}";
+
+  private BeaconRecord full;
+  private BeaconRecord sparse;
+
+  @Setup
+  public void setUp() throws IOException {
+    full = readBeacon(FULL_JSON);
+    sparse = readBeacon(SPARSE_JSON);
+  }
+
+  @Benchmark
+  public BeaconRecord readFull() throws IOException {
+    return readBeacon(FULL_JSON);
+  }
+
+  @Benchmark
+  public BeaconRecord readSparse() throws IOException {
+    return readBeacon(SPARSE_JSON);
+  }
+
+  @Benchmark
+  public String writeFull() throws IOException {
+    return writeBeacon(full);
+  }
+
+  @Benchmark
+  public String writeSparse() throws IOException {
+    return writeBeacon(sparse);
+  }
+
+  private static BeaconRecord readBeacon(String json) throws IOException {
+    return JsonCodec.readBeacon(new JsonReader(new StringReader(json)));
+  }
+
+  private static String writeBeacon(BeaconRecord beacon) throws IOException {
+    StringWriter out = new StringWriter();
+    JsonWriter writer = new JsonWriter(out);
+    JsonCodec.writeBeacon(writer, beacon);
+    writer.flush();
+    return out.toString();
+  }
+}
@@ -0,0 +1,117 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FakeRegistry;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second through a {@link RequestDispatcher} allowing {@code concurrency} requests
+ * at a time, against a local fake server that takes {@value #LATENCY_MILLIS}ms to answer each.
+ * Every invocation looks up {@value #REQUESTS} different beacons at once and waits for them all,
+ * so the score is in requests rather than invocations.
+ *
+ * <p>The fake server runs on the JDK's HttpServer, which writes a response's headers and body
+ * separately; without TCP_NODELAY, Nagle's algorithm and delayed ACKs would add about 40ms to
+ * every request and swamp the latency being measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class RequestDispatcherBenchmark {
+  private static final long LATENCY_MILLIS = 10;
+  private static final int REQUESTS = 64;
+
+  private static final AuthProvider AUTH = new AuthProvider() {
+    @Override
+    public String getToken() {
+      return "benchmark-token";
+    }
+
+    @Override
+    public void invalidateToken(String token) {
+    }
+  };
+
+  @Param({"1", "8", "32"})
+  public int concurrency;
+
+  private FakeProximityBeaconServer server;
+  private ProximityBeaconClient client;
+  private final List<String> names = new ArrayList<>();
+
+  @Setup
+  public void setUp() throws IOException {
+    server = new FakeProximityBeaconServer.Builder()
+        .setFaultModel(new FaultModel.Builder().setLatency(LATENCY_MILLIS, 0).build())
+        .build()
+        .start();
+    for (int i = 0; i < REQUESTS; i++) {
+      byte[] id = new byte[16];
+      id[15] = (byte) i;
+      server.getRegistry().putBeacon(new BeaconRecord(null, "EDDYSTONE", id, "ACTIVE", null,
+          null, null, null, "Benchmark beacon #" + i));
+      names.add(FakeRegistry.beaconName("EDDYSTONE", id));
+    }
+    client = new ProximityBeaconClient.Builder(AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .setDispatcher(new RequestDispatcher(concurrency, concurrency, REQUESTS))
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(REQUESTS)
+  public BeaconRecord getBeacons() throws Exception {
+    // Every lookup has to reach the server.
+    client.getRegistryCache().clear();
+    List<ApiFuture<BeaconRecord>> futures = new ArrayList<>(REQUESTS);
+    for (String name : names) {
+      futures.add(client.getBeacon(name));
+    }
+    BeaconRecord last = null;
+    for (ApiFuture<BeaconRecord> future : futures) {
+      last = future.get(30, TimeUnit.SECONDS);
+    }
+    return last;
+  }
+}
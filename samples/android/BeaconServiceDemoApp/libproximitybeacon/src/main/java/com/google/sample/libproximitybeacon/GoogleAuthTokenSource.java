@@ -0,0 +1,71 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.GoogleAuthUtil;
+import com.google.android.gms.auth.UserRecoverableAuthException;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * A {@link TokenSource} backed by {@link GoogleAuthUtil}.
+ */
+public class GoogleAuthTokenSource implements TokenSource {
+  private static final String TAG = GoogleAuthTokenSource.class.getSimpleName();
+  static final String SCOPE = "oauth2:https://www.googleapis.com/auth/userlocation.beacon.registry";
+
+  // Tokens are issued for an hour, but GoogleAuthUtil may hand back one it has had cached for a
+  // while and doesn't tell us when it expires. Assume half that; a 401 will catch the rest.
+  private static final long ASSUMED_LIFETIME_MILLIS = 30 * 60 * 1000;
+
+  private final Context ctx;
+  private final String account;
+
+  public GoogleAuthTokenSource(Context ctx, String account) {
+    this.ctx = ctx.getApplicationContext();
+    this.account = account;
+  }
+
+  @Override
+  public AccessToken fetchToken() throws IOException {
+    try {
+      String token = GoogleAuthUtil.getToken(ctx, account, SCOPE);
+      return new AccessToken(token, System.currentTimeMillis() + ASSUMED_LIFETIME_MILLIS);
+    } catch (UserRecoverableAuthException e) {
+      // GooglePlayServices.apk is either old, disabled, or not present
+      // so we need to show the user some UI in the activity to recover.
+      Log.e(TAG, "UserRecoverableAuthException", e);
+      throw new AuthException("Unable to get token for " + account, e);
+    } catch (GoogleAuthException e) {
+      // Some other type of unrecoverable exception has occurred.
+      // Report and log the error as appropriate for your app.
+      Log.e(TAG, "GoogleAuthException", e);
+      throw new AuthException("Unable to get token for " + account, e);
+    }
+  }
+
+  @Override
+  public void clearToken(String token) throws IOException {
+    try {
+      GoogleAuthUtil.clearToken(ctx, token);
+    } catch (GoogleAuthException e) {
+      throw new AuthException("Unable to clear token for " + account, e);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+/**
+ * An OAuth access token and the wall-clock time at which it stops being valid.
+ */
+public final class AccessToken {
+  private final String value;
+  private final long expiresAtMillis;
+
+  public AccessToken(String value, long expiresAtMillis) {
+    this.value = value;
+    this.expiresAtMillis = expiresAtMillis;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public long getExpiresAtMillis() {
+    return expiresAtMillis;
+  }
+}
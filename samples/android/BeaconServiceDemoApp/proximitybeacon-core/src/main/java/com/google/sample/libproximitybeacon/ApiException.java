@@ -0,0 +1,88 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.google.gson.stream.JsonReader;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A failed request. Either the server returned an error, in which case {@link #getHttpCode()} and
+ * usually {@link #getStatus()} are set, or the request never got a usable response and the cause
+ * is the underlying exception. A call that was cancelled fails with one whose cause is a
+ * {@link CancellationException}; see {@link #isCanceled()}.
+ */
+public class ApiException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  private final int httpCode;
+  private final String status;
+
+  public ApiException(int httpCode, String status, String message) {
+    super(message);
+    this.httpCode = httpCode;
+    this.status = status;
+  }
+
+  public ApiException(String message, Throwable cause) {
+    super(message, cause);
+    this.httpCode = 0;
+    this.status = null;
+  }
+
+  /**
+   * The exception a {@link ResultCallback} is given for a call that was cancelled.
+   */
+  static ApiException canceled() {
+    return new ApiException("Canceled", new CancellationException());
+  }
+
+  /**
+   * Builds an exception from an unsuccessful response, using the message from the standard
+   * Google API error body if there is one. Consumes the response body.
+   */
+  static ApiException fromResponse(Response response) {
+    try (JsonReader reader = new JsonReader(response.body().charStream())) {
+      return JsonCodec.readError(reader, response.code(), response.message());
+    } catch (IOException | IllegalStateException e) {
+      // Not a JSON error body; fall back to the HTTP status line.
+      return new ApiException(response.code(), null, response.message());
+    }
+  }
+
+  /**
+   * The HTTP status code, or 0 if there was no response.
+   */
+  public int getHttpCode() {
+    return httpCode;
+  }
+
+  /**
+   * The canonical error status from the response body, e.g. "NOT_FOUND", or null.
+   */
+  public String getStatus() {
+    return status;
+  }
+
+  /**
+   * Whether the call was cancelled rather than failed, e.g. because its {@link RequestScope}
+   * ended. Such a failure usually needs no more than cleaning up.
+   */
+  public boolean isCanceled() {
+    return getCause() instanceof CancellationException;
+  }
+}
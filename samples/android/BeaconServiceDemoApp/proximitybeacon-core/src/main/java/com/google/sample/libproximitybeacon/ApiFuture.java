@@ -0,0 +1,465 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The eventual result of a {@link ProximityBeaconAsync} call: a decoded value, an
+ * {@link ApiException}, or nothing because it was cancelled.
+ *
+ * <p>This follows Java 8's {@code CompletableFuture}, which isn't available to this library,
+ * closely enough that independent calls can be started together and their results combined with
+ * {@link #thenCombine} or {@link #allOf} rather than made one after another. Functions passed to
+ * {@link #thenApply} and friends run on whichever thread completes the future, usually an OkHttp
+ * thread, so they should be quick and not touch views; use {@link #addCallback} with a main-thread
+ * executor for that.
+ *
+ * <p>Cancelling a future aborts the request behind it. Cancelling a future derived from others
+ * cancels each of those once nothing else consumes it: every future derived from it and every
+ * {@link #addCallback callback} on it counts, and a source stays alive while any of them hasn't
+ * been cancelled. So one {@code cancel} tears down a whole screen's worth of calls, but not a
+ * request that another part of the screen is still waiting on. Threads blocked in {@link #get}
+ * aren't counted; cancel the source itself to stop them waiting.
+ */
+public class ApiFuture<T> implements Future<T>, Cancellable {
+
+  /**
+   * Maps the result of one future to the result of another.
+   */
+  public interface Function<A, R> {
+    R apply(A input);
+  }
+
+  /**
+   * Merges the results of two futures.
+   */
+  public interface Combiner<A, B, R> {
+    R combine(A first, B second);
+  }
+
+  private static final int PENDING = 0;
+  private static final int SUCCEEDED = 1;
+  private static final int FAILED = 2;
+  private static final int CANCELLED = 3;
+
+  private int state = PENDING;  // guarded by this
+  private T result;  // guarded by this
+  private ApiException error;  // guarded by this
+  private List<Runnable> listeners = new ArrayList<>();  // guarded by this; null once done
+  private Cancellable canceler;  // guarded by this
+  private int consumers;  // guarded by this
+  private int cancelledConsumers;  // guarded by this
+
+  ApiFuture() {
+  }
+
+  /**
+   * A future that has already succeeded with {@code value}.
+   */
+  public static <T> ApiFuture<T> completed(T value) {
+    ApiFuture<T> future = new ApiFuture<>();
+    future.complete(value);
+    return future;
+  }
+
+  /**
+   * A future that succeeds once all of {@code futures} have, or fails as soon as any one of them
+   * fails. Cancelling it cancels those of them that nothing else consumes. Read the individual
+   * results with {@link #getResult()} once it has succeeded.
+   */
+  public static ApiFuture<Void> allOf(final ApiFuture<?>... futures) {
+    final ApiFuture<Void> all = new ApiFuture<>();
+    for (ApiFuture<?> future : futures) {
+      future.addConsumer();
+    }
+    all.setCanceler(new Cancellable() {
+      @Override
+      public void cancel() {
+        for (ApiFuture<?> future : futures) {
+          future.releaseConsumer();
+        }
+      }
+    });
+    final AtomicInteger remaining = new AtomicInteger(futures.length);
+    if (futures.length == 0) {
+      all.complete(null);
+    }
+    for (final ApiFuture<?> future : futures) {
+      future.addListener(new Runnable() {
+        @Override
+        public void run() {
+          if (future.isCancelled()) {
+            all.cancel(false);
+          } else if (future.getError() != null) {
+            all.fail(future.getError());
+          } else if (remaining.decrementAndGet() == 0) {
+            all.complete(null);
+          }
+        }
+      });
+    }
+    return all;
+  }
+
+  /**
+   * A future for the result of {@code fn} applied to this one's result. If this future fails or
+   * is cancelled, so is the returned one. Cancelling the returned future cancels this one if
+   * nothing else consumes it.
+   */
+  public <R> ApiFuture<R> thenApply(final Function<? super T, ? extends R> fn) {
+    final ApiFuture<R> next = dependentOn(this);
+    addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (propagateFailure(ApiFuture.this, next)) {
+          return;
+        }
+        try {
+          next.complete(fn.apply(getResult()));
+        } catch (RuntimeException e) {
+          next.fail(new ApiException("Failed to transform result", e));
+        }
+      }
+    });
+    return next;
+  }
+
+  /**
+   * A future for the result of the call that {@code fn} starts with this one's result, e.g. to
+   * list the attachments of a beacon once it has been registered.
+   */
+  public <R> ApiFuture<R> thenCompose(final Function<? super T, ApiFuture<R>> fn) {
+    final ApiFuture<R> next = dependentOn(this);
+    addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (propagateFailure(ApiFuture.this, next)) {
+          return;
+        }
+        final ApiFuture<R> inner;
+        try {
+          inner = fn.apply(getResult());
+        } catch (RuntimeException e) {
+          next.fail(new ApiException("Failed to start dependent call", e));
+          return;
+        }
+        next.setCanceler(new Cancellable() {
+          @Override
+          public void cancel() {
+            inner.cancel(false);
+          }
+        });
+        inner.addListener(new Runnable() {
+          @Override
+          public void run() {
+            if (!propagateFailure(inner, next)) {
+              next.complete(inner.getResult());
+            }
+          }
+        });
+      }
+    });
+    return next;
+  }
+
+  /**
+   * A future for both this one's result and {@code other}'s, merged by {@code combiner} once both
+   * are in. Both requests proceed at the same time, so this takes as long as the slower of the
+   * two rather than their sum.
+   */
+  public <U, R> ApiFuture<R> thenCombine(
+      final ApiFuture<U> other, final Combiner<? super T, ? super U, ? extends R> combiner) {
+    final ApiFuture<R> next = new ApiFuture<>();
+    final ApiFuture<Void> both = allOf(this, other);
+    next.setCanceler(both);
+    both.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (propagateFailure(ApiFuture.this, next) || propagateFailure(other, next)) {
+          return;
+        }
+        try {
+          next.complete(combiner.combine(getResult(), other.getResult()));
+        } catch (RuntimeException e) {
+          next.fail(new ApiException("Failed to combine results", e));
+        }
+      }
+    });
+    return next;
+  }
+
+  /**
+   * Runs {@code callback} on {@code executor} once this future succeeds, fails or is cancelled,
+   * straight away if it already has. A cancelled future fails the callback with an
+   * {@link ApiException} for which {@link ApiException#isCanceled()} is true, so that code waiting
+   * on the callback is always released; a screen that cancels its requests when it goes away
+   * should ignore those. Returns this future, as the handle for the call.
+   */
+  public ApiFuture<T> addCallback(final ResultCallback<? super T> callback,
+                                  final Executor executor) {
+    // A callback can't be withdrawn, so it keeps the future from being cancelled on behalf of
+    // any future derived from it.
+    addConsumer();
+    addListener(new Runnable() {
+      @Override
+      public void run() {
+        final ApiException e = isCancelled() ? ApiException.canceled() : getError();
+        final T value = e == null ? getResult() : null;
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            if (e != null) {
+              callback.onFailure(e);
+            } else {
+              callback.onSuccess(value);
+            }
+          }
+        });
+      }
+    });
+    return this;
+  }
+
+  /**
+   * The result of a future that has succeeded, without blocking.
+   *
+   * @throws IllegalStateException if it hasn't succeeded
+   */
+  public synchronized T getResult() {
+    if (state != SUCCEEDED) {
+      throw new IllegalStateException("Future has not succeeded");
+    }
+    return result;
+  }
+
+  /**
+   * Cancels the request behind this future, or if it was derived from others, those of them that
+   * nothing else consumes. {@code mayInterruptIfRunning} is ignored: an OkHttp call is always
+   * aborted.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    Cancellable canceler;
+    List<Runnable> toRun;
+    synchronized (this) {
+      if (state != PENDING) {
+        return false;
+      }
+      canceler = this.canceler;
+      toRun = settle(CANCELLED, null, null);
+    }
+    if (canceler != null) {
+      canceler.cancel();
+    }
+    runAll(toRun);
+    return true;
+  }
+
+  @Override
+  public void cancel() {
+    cancel(false);
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return state == CANCELLED;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return state != PENDING;
+  }
+
+  @Override
+  public synchronized T get() throws InterruptedException, ExecutionException {
+    while (state == PENDING) {
+      wait();
+    }
+    return report();
+  }
+
+  @Override
+  public synchronized T get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (state == PENDING) {
+      long remainingNanos = deadline - System.nanoTime();
+      if (remainingNanos <= 0) {
+        throw new TimeoutException();
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+    }
+    return report();
+  }
+
+  boolean complete(T value) {
+    return transition(SUCCEEDED, value, null);
+  }
+
+  boolean fail(ApiException e) {
+    return transition(FAILED, null, e);
+  }
+
+  /**
+   * Sets what {@link #cancel} stops. If the future was cancelled already, {@code canceler} is
+   * run straight away.
+   */
+  void setCanceler(Cancellable canceler) {
+    synchronized (this) {
+      if (state == PENDING) {
+        this.canceler = canceler;
+        return;
+      }
+      if (state != CANCELLED) {
+        return;
+      }
+    }
+    canceler.cancel();
+  }
+
+  /**
+   * A {@link ResultCallback} that completes this future, for the callback-based code paths.
+   */
+  ResultCallback<T> asCallback() {
+    return new ResultCallback<T>() {
+      @Override
+      public void onSuccess(T result) {
+        complete(result);
+      }
+
+      @Override
+      public void onFailure(ApiException e) {
+        fail(e);
+      }
+    };
+  }
+
+  private synchronized ApiException getError() {
+    return error;
+  }
+
+  private T report() throws ExecutionException {
+    if (state == CANCELLED) {
+      throw new CancellationException();
+    }
+    if (state == FAILED) {
+      throw new ExecutionException(error);
+    }
+    return result;
+  }
+
+  /**
+   * Runs {@code listener} on the completing thread once this future is done, or on the calling
+   * thread if it already is.
+   */
+  void addListener(Runnable listener) {
+    synchronized (this) {
+      if (listeners != null) {
+        listeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  private boolean transition(int newState, T value, ApiException e) {
+    List<Runnable> toRun;
+    synchronized (this) {
+      if (state != PENDING) {
+        return false;
+      }
+      toRun = settle(newState, value, e);
+    }
+    runAll(toRun);
+    return true;
+  }
+
+  /**
+   * Moves a pending future to its final state and returns the listeners to run, which the caller
+   * must do after releasing the lock.
+   */
+  private List<Runnable> settle(int newState, T value, ApiException e) {
+    state = newState;
+    result = value;
+    error = e;
+    canceler = null;
+    List<Runnable> toRun = listeners;
+    listeners = null;
+    notifyAll();
+    return toRun;
+  }
+
+  private static void runAll(List<Runnable> listeners) {
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+
+  private static <R> ApiFuture<R> dependentOn(final ApiFuture<?> source) {
+    ApiFuture<R> next = new ApiFuture<>();
+    source.addConsumer();
+    next.setCanceler(new Cancellable() {
+      @Override
+      public void cancel() {
+        source.releaseConsumer();
+      }
+    });
+    return next;
+  }
+
+  private synchronized void addConsumer() {
+    consumers++;
+  }
+
+  /**
+   * Records that a future derived from this one was cancelled, and cancels this one too if that
+   * leaves nothing consuming it.
+   */
+  private void releaseConsumer() {
+    synchronized (this) {
+      cancelledConsumers++;
+      if (state != PENDING || cancelledConsumers < consumers) {
+        return;
+      }
+    }
+    cancel(false);
+  }
+
+  /**
+   * Passes a failure or cancellation of {@code source}, which is done, on to {@code next}.
+   * Returns false if {@code source} succeeded.
+   */
+  private static boolean propagateFailure(ApiFuture<?> source, ApiFuture<?> next) {
+    if (source.isCancelled()) {
+      next.cancel(false);
+      return true;
+    }
+    ApiException e = source.getError();
+    if (e != null) {
+      next.fail(e);
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+/**
+ * Data attached to a beacon.
+ * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments
+ */
+public final class Attachment {
+  private final String attachmentName;
+  private final String namespacedType;
+  private final byte[] data;
+
+  public Attachment(String attachmentName, String namespacedType, byte[] data) {
+    this.attachmentName = attachmentName;
+    this.namespacedType = namespacedType;
+    this.data = data;
+  }
+
+  /**
+   * The resource name, formatted as "beacons/%d!%s/attachments/%s".
+   */
+  public String getAttachmentName() {
+    return attachmentName;
+  }
+
+  /**
+   * The namespace and type of the data, formatted as "namespace/type".
+   */
+  public String getNamespacedType() {
+    return namespacedType;
+  }
+
+  /**
+   * The attachment payload, already base64-decoded.
+   */
+  public byte[] getData() {
+    return data;
+  }
+}
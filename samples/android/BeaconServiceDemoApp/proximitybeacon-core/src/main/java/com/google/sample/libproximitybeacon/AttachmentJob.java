@@ -0,0 +1,295 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes an attachment to, or purges attachments from, many beacons at once.
+ *
+ * <p>The beacons are either a given list of names or everything matching a {@code listBeacons}
+ * query, which is paged through as the job goes. Up to {@code maxInFlight} beacons are worked on
+ * at a time. A push can first delete the beacon's attachments of a namespaced type, usually the
+ * one being pushed, so that new content replaces the old rather than sitting beside it; a beacon
+ * whose delete fails is not pushed to.
+ *
+ * <pre>
+ * AttachmentJob.Report report = AttachmentJob.forQuery(client, "status:active")
+ *     .push("my-project/menu", menuBytes, "my-project/menu");
+ * </pre>
+ */
+public class AttachmentJob {
+  public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+  // Each step starts the next on the thread that delivered the previous one's result.
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  /**
+   * Hears about each beacon as it finishes, on whichever thread finished it.
+   */
+  public interface Listener {
+    void onProgress(int completed, int failed);
+  }
+
+  /**
+   * The outcome of a job.
+   */
+  public static final class Report {
+    private final int succeeded;
+    private final int deleted;
+    private final Map<String, ApiException> failures;
+    private final long elapsedMillis;
+
+    Report(int succeeded, int deleted, Map<String, ApiException> failures, long elapsedMillis) {
+      this.succeeded = succeeded;
+      this.deleted = deleted;
+      this.failures = Collections.unmodifiableMap(failures);
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    /** The number of beacons on which every step succeeded. */
+    public int getSucceeded() {
+      return succeeded;
+    }
+
+    /** The total number of attachments deleted. */
+    public int getDeleted() {
+      return deleted;
+    }
+
+    /** The error for each beacon that failed, by beacon name, in the order they failed. */
+    public Map<String, ApiException> getFailures() {
+      return failures;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+  }
+
+  private final ProximityBeacon client;
+  private final List<String> beaconNames;
+  private final String query;
+  private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  private Listener listener;
+
+  private AttachmentJob(ProximityBeacon client, List<String> beaconNames, String query) {
+    this.client = client;
+    this.beaconNames = beaconNames;
+    this.query = query;
+  }
+
+  public static AttachmentJob forBeacons(ProximityBeacon client, List<String> beaconNames) {
+    return new AttachmentJob(client, beaconNames, null);
+  }
+
+  /**
+   * Selects every beacon matching {@code query}, in {@code listBeacons} syntax.
+   */
+  public static AttachmentJob forQuery(ProximityBeacon client, String query) {
+    return new AttachmentJob(client, null, query);
+  }
+
+  public AttachmentJob setMaxInFlight(int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight < 1");
+    }
+    this.maxInFlight = maxInFlight;
+    return this;
+  }
+
+  public AttachmentJob setListener(Listener listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  /**
+   * Creates an attachment of {@code namespacedType} holding {@code data} on every selected beacon,
+   * blocking until done.
+   *
+   * @param deleteType if not null, the namespaced type of attachments to delete from each beacon
+   *     first
+   * @throws ApiException if the beacons to work on couldn't be listed, or the job's requests were
+   *     cancelled, e.g. with the client's scope ({@link ApiException#isCanceled()}); beacons
+   *     already started are finished first
+   */
+  public Report push(String namespacedType, byte[] data, String deleteType)
+      throws ApiException, InterruptedException {
+    JSONObject attachment;
+    try {
+      attachment = new JSONObject()
+          .put("namespacedType", namespacedType)
+          .put("data", JsonCodec.base64Encode(data));
+    } catch (JSONException e) {
+      throw new IllegalArgumentException(e);
+    }
+    return new Run(deleteType, attachment).execute();
+  }
+
+  /**
+   * Deletes the attachments of {@code namespacedType} from every selected beacon, blocking until
+   * done.
+   *
+   * @throws ApiException as for {@link #push}
+   */
+  public Report purge(String namespacedType) throws ApiException, InterruptedException {
+    if (namespacedType == null) {
+      throw new IllegalArgumentException("namespacedType == null");
+    }
+    return new Run(namespacedType, null).execute();
+  }
+
+  private class Run {
+    private final String deleteType;
+    private final JSONObject attachment;
+    private final Semaphore permits = new Semaphore(maxInFlight);
+    private final long startNanos = System.nanoTime();
+
+    // All guarded by this.
+    private int succeeded;
+    private int deleted;
+    private final Map<String, ApiException> failures = new LinkedHashMap<>();
+    private boolean canceled;
+
+    Run(String deleteType, JSONObject attachment) {
+      this.deleteType = deleteType;
+      this.attachment = attachment;
+    }
+
+    Report execute() throws ApiException, InterruptedException {
+      Iterator<String> names = beaconNames != null ? beaconNames.iterator() : null;
+      BeaconCursor cursor = query != null ? new BeaconCursor(client, query) : null;
+      try {
+        while (true) {
+          String beaconName;
+          if (names != null) {
+            if (!names.hasNext()) {
+              break;
+            }
+            beaconName = names.next();
+          } else {
+            BeaconRecord beacon = cursor.next();
+            if (beacon == null) {
+              break;
+            }
+            beaconName = beacon.getBeaconName();
+          }
+          permits.acquire();
+          if (isCanceled()) {
+            permits.release();
+            break;
+          }
+          start(beaconName);
+        }
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+        permits.acquireUninterruptibly(maxInFlight);
+        permits.release(maxInFlight);
+      }
+      if (isCanceled()) {
+        throw ApiException.canceled();
+      }
+      synchronized (this) {
+        return new Report(succeeded, deleted, new LinkedHashMap<>(failures),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+      }
+    }
+
+    private void start(final String beaconName) {
+      if (deleteType == null) {
+        create(beaconName);
+        return;
+      }
+      client.batchDeleteAttachments(new ResultCallback<Integer>() {
+        @Override
+        public void onSuccess(Integer numDeleted) {
+          synchronized (Run.this) {
+            deleted += numDeleted;
+          }
+          if (attachment != null) {
+            create(beaconName);
+          } else {
+            finish(beaconName, null);
+          }
+        }
+
+        @Override
+        public void onFailure(ApiException e) {
+          finish(beaconName, e);
+        }
+      }, DIRECT, beaconName, deleteType);
+    }
+
+    private void create(final String beaconName) {
+      client.createAttachment(new ResultCallback<Attachment>() {
+        @Override
+        public void onSuccess(Attachment result) {
+          finish(beaconName, null);
+        }
+
+        @Override
+        public void onFailure(ApiException e) {
+          finish(beaconName, e);
+        }
+      }, DIRECT, beaconName, attachment);
+    }
+
+    private synchronized boolean isCanceled() {
+      return canceled;
+    }
+
+    // A cancelled beacon isn't counted either way; the job stops starting new ones instead.
+    private void finish(String beaconName, ApiException e) {
+      int completed;
+      int failed;
+      synchronized (this) {
+        if (e != null && e.isCanceled()) {
+          canceled = true;
+          permits.release();
+          return;
+        }
+        if (e == null) {
+          succeeded++;
+        } else {
+          failures.put(beaconName, e);
+        }
+        failed = failures.size();
+        completed = succeeded + failed;
+      }
+      // Reported before the permit goes back, so that the job doesn't return ahead of it.
+      if (listener != null) {
+        listener.onProgress(completed, failed);
+      }
+      permits.release();
+    }
+  }
+}
@@ -0,0 +1,29 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a token could not be obtained for reasons other than I/O, e.g. the user has not
+ * yet granted the app access to their account. The original exception is the cause.
+ */
+public class AuthException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public AuthException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
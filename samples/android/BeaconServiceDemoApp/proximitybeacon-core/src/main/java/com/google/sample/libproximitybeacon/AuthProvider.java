@@ -0,0 +1,36 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.IOException;
+
+/**
+ * Supplies OAuth bearer tokens for requests to the Proximity Beacon API.
+ */
+public interface AuthProvider {
+
+  /**
+   * Returns a token that is valid for at least the next request. May block, so it must not be
+   * called on the UI thread.
+   */
+  String getToken() throws IOException;
+
+  /**
+   * Called when the server rejected {@code token} with a 401. The next call to
+   * {@link #getToken()} must not return it again.
+   */
+  void invalidateToken(String token) throws IOException;
+
+}
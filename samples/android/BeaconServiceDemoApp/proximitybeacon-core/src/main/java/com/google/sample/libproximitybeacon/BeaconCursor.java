@@ -0,0 +1,166 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Walks every beacon matching a query, one page at a time, on a background thread.
+ *
+ * <p>While the caller works through a page, the request for the following page is already in
+ * flight, so at most two pages are held in memory however large the fleet is. {@link #next()}
+ * blocks only when the caller gets ahead of the network. {@link #close()} may be called from
+ * another thread to stop a {@code next()} that is waiting.
+ *
+ * <pre>
+ * BeaconCursor cursor = new BeaconCursor(client, "status:active", 500);
+ * for (BeaconRecord beacon = cursor.next(); beacon != null; beacon = cursor.next()) {
+ *   ...
+ * }
+ * </pre>
+ */
+public class BeaconCursor implements Closeable {
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  // Decoded pages are handed over on the OkHttp thread; the waiting caller picks them up.
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private final ProximityBeacon client;
+  private final String query;
+  private final int pageSize;
+
+  private Iterator<BeaconRecord> current;
+  private volatile PendingPage pending;
+  private long totalCount;
+  private volatile boolean closed;
+
+  public BeaconCursor(ProximityBeacon client, String query) {
+    this(client, query, DEFAULT_PAGE_SIZE);
+  }
+
+  public BeaconCursor(ProximityBeacon client, String query, int pageSize) {
+    this.client = client;
+    this.query = query;
+    this.pageSize = pageSize;
+    this.pending = fetch(null);
+  }
+
+  /**
+   * Returns the next beacon, or null once every page has been consumed or the cursor has been
+   * closed.
+   *
+   * @throws ApiException if a page couldn't be fetched, or its request was cancelled other than
+   *     by {@link #close()}
+   */
+  public BeaconRecord next() throws ApiException {
+    if (closed) {
+      return null;
+    }
+    while (current == null || !current.hasNext()) {
+      PendingPage pending = this.pending;
+      if (pending == null) {
+        return null;
+      }
+      BeaconPage page;
+      try {
+        page = pending.await();
+      } catch (ApiException e) {
+        if (closed) {
+          return null;
+        }
+        throw e;
+      }
+      if (closed) {
+        return null;
+      }
+      totalCount = page.getTotalCount();
+      this.pending = page.getNextPageToken() != null ? fetch(page.getNextPageToken()) : null;
+      current = page.getBeacons().iterator();
+      // A close() on another thread may have missed the page just requested.
+      if (closed) {
+        close();
+        return null;
+      }
+    }
+    return current.next();
+  }
+
+  /**
+   * The server's estimate of the total number of matches, as of the last page received.
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * Stops fetching further pages and cancels the request for a page in flight.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    PendingPage pending = this.pending;
+    this.pending = null;
+    if (pending != null) {
+      pending.request.cancel();
+    }
+  }
+
+  private PendingPage fetch(String pageToken) {
+    PendingPage page = new PendingPage();
+    page.request = client.listBeacons(page, DIRECT, query, pageSize, pageToken);
+    return page;
+  }
+
+  private static class PendingPage implements ResultCallback<BeaconPage> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Cancellable request;
+    private BeaconPage page;
+    private ApiException error;
+
+    @Override
+    public void onSuccess(BeaconPage result) {
+      page = result;
+      done.countDown();
+    }
+
+    @Override
+    public void onFailure(ApiException e) {
+      error = e;
+      done.countDown();
+    }
+
+    BeaconPage await() throws ApiException {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ApiException("Interrupted waiting for page", new InterruptedIOException());
+      }
+      if (error != null) {
+        throw error;
+      }
+      return page;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the registration of beacons as their names arrive, e.g. from a BLE scan.
+ *
+ * <p>Each name is looked up at most once per pipeline, and no more than {@code maxInFlight}
+ * getBeacon requests run at a time; the rest wait in arrival order. Results are delivered to the
+ * {@link Listener} in the order they complete, not the order they were submitted. A lookup whose
+ * request is cancelled, e.g. with the client's scope, is reported as failed with an
+ * {@link ApiException} for which {@link ApiException#isCanceled()} is true.
+ */
+public class BeaconLookupPipeline {
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+  // Completions are handled on the OkHttp thread; only the listener call goes to the executor.
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  /**
+   * Receives lookup results on the pipeline's executor.
+   */
+  public interface Listener {
+
+    void onResolved(String beaconName, BeaconRecord beacon, long latencyMillis);
+
+    void onFailed(String beaconName, ApiException e, long latencyMillis);
+
+  }
+
+  private final ProximityBeacon client;
+  private final int maxInFlight;
+  private final Executor executor;
+  private final Listener listener;
+
+  private final Set<String> seen = new HashSet<>();  // guarded by this
+  private final ArrayDeque<String> waiting = new ArrayDeque<>();  // guarded by this
+  private int inFlight;  // guarded by this
+  private boolean pumping;  // guarded by this
+
+  public BeaconLookupPipeline(ProximityBeacon client, Executor executor, Listener listener) {
+    this(client, DEFAULT_MAX_IN_FLIGHT, executor, listener);
+  }
+
+  public BeaconLookupPipeline(ProximityBeacon client, int maxInFlight, Executor executor,
+                              Listener listener) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight < 1");
+    }
+    this.client = client;
+    this.maxInFlight = maxInFlight;
+    this.executor = executor;
+    this.listener = listener;
+  }
+
+  /**
+   * Queues a lookup for {@code beaconName}. Returns false, and does nothing, if the name has
+   * already been submitted to this pipeline.
+   */
+  public boolean submit(String beaconName) {
+    synchronized (this) {
+      if (!seen.add(beaconName)) {
+        return false;
+      }
+      waiting.add(beaconName);
+    }
+    pump();
+    return true;
+  }
+
+  /**
+   * The number of submitted lookups that have not yet completed.
+   */
+  public synchronized int getPendingCount() {
+    return waiting.size() + inFlight;
+  }
+
+  /**
+   * Resolves every name in {@code beaconNames} and blocks until all have completed. Must not be
+   * called on the UI thread.
+   */
+  public static LookupReport resolveAll(ProximityBeacon client, Collection<String> beaconNames,
+                                        int maxInFlight) throws InterruptedIOException {
+    final LookupReport report = new LookupReport();
+    final Set<String> unique = new HashSet<>(beaconNames);
+    final CountDownLatch done = new CountDownLatch(unique.size());
+    BeaconLookupPipeline pipeline =
+        new BeaconLookupPipeline(client, maxInFlight, DIRECT, new Listener() {
+          @Override
+          public void onResolved(String beaconName, BeaconRecord beacon, long latencyMillis) {
+            report.addResolved(beaconName, beacon, latencyMillis);
+            done.countDown();
+          }
+
+          @Override
+          public void onFailed(String beaconName, ApiException e, long latencyMillis) {
+            report.addFailure(beaconName, e, latencyMillis);
+            done.countDown();
+          }
+        });
+    long start = System.nanoTime();
+    for (String beaconName : unique) {
+      pipeline.submit(beaconName);
+    }
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted resolving beacons");
+    }
+    report.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return report;
+  }
+
+  private void pump() {
+    synchronized (this) {
+      // A lookup that fails straight away, e.g. in a cancelled scope, finishes inside getBeacon.
+      // The pump already under way starts the next one rather than recursing.
+      if (pumping) {
+        return;
+      }
+      pumping = true;
+    }
+    while (true) {
+      String beaconName;
+      synchronized (this) {
+        if (inFlight >= maxInFlight || waiting.isEmpty()) {
+          pumping = false;
+          return;
+        }
+        beaconName = waiting.poll();
+        inFlight++;
+      }
+      client.getBeacon(new Lookup(beaconName), DIRECT, beaconName);
+    }
+  }
+
+  private void finished() {
+    synchronized (this) {
+      inFlight--;
+    }
+    pump();
+  }
+
+  private class Lookup implements ResultCallback<BeaconRecord> {
+    private final String beaconName;
+    private final long startNanos = System.nanoTime();
+
+    Lookup(String beaconName) {
+      this.beaconName = beaconName;
+    }
+
+    @Override
+    public void onSuccess(final BeaconRecord beacon) {
+      finished();
+      final long latencyMillis = elapsedMillis();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          listener.onResolved(beaconName, beacon, latencyMillis);
+        }
+      });
+    }
+
+    @Override
+    public void onFailure(final ApiException e) {
+      finished();
+      final long latencyMillis = elapsedMillis();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          listener.onFailed(beaconName, e, latencyMillis);
+        }
+      });
+    }
+
+    private long elapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of results from beacons.list.
+ */
+public final class BeaconPage {
+  private final List<BeaconRecord> beacons;
+  private final String nextPageToken;
+  private final long totalCount;
+
+  public BeaconPage(List<BeaconRecord> beacons, String nextPageToken, long totalCount) {
+    this.beacons = Collections.unmodifiableList(beacons);
+    this.nextPageToken = nextPageToken;
+    this.totalCount = totalCount;
+  }
+
+  public List<BeaconRecord> getBeacons() {
+    return beacons;
+  }
+
+  /**
+   * The token to pass to fetch the following page, or null if this is the last page.
+   */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+
+  /**
+   * The server's estimate of the total number of matching beacons, or 0 if not reported.
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+}
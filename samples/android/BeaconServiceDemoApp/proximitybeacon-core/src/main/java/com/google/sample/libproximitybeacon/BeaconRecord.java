@@ -0,0 +1,93 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+/**
+ * A beacon as returned by the registry.
+ * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons
+ */
+public final class BeaconRecord {
+  public static final String STATUS_UNSPECIFIED = "STATUS_UNSPECIFIED";
+  public static final String STABILITY_UNSPECIFIED = "STABILITY_UNSPECIFIED";
+
+  private final String beaconName;
+  private final String type;
+  private final byte[] id;
+  private final String status;
+  private final String placeId;
+  private final Double latitude;
+  private final Double longitude;
+  private final String expectedStability;
+  private final String description;
+
+  public BeaconRecord(String beaconName, String type, byte[] id, String status, String placeId,
+                      Double latitude, Double longitude, String expectedStability,
+                      String description) {
+    this.beaconName = beaconName;
+    this.type = type;
+    this.id = id;
+    this.status = status != null ? status : STATUS_UNSPECIFIED;
+    this.placeId = placeId;
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.expectedStability = expectedStability;
+    this.description = description;
+  }
+
+  /**
+   * The resource name, formatted as "beacons/%d!%s": the advertised ID type and the ID in hex.
+   */
+  public String getBeaconName() {
+    return beaconName;
+  }
+
+  /**
+   * The advertised ID type, e.g. "EDDYSTONE".
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * The advertised ID bytes.
+   */
+  public byte[] getId() {
+    return id;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public String getPlaceId() {
+    return placeId;
+  }
+
+  public Double getLatitude() {
+    return latitude;
+  }
+
+  public Double getLongitude() {
+    return longitude;
+  }
+
+  public String getExpectedStability() {
+    return expectedStability;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of beacon definitions, each turned into a {@code beacons.register} request body.
+ * Rows are numbered from 0 in the order they are read, and a source must number the same input
+ * the same way every time so that {@link BulkRegistration} can resume part way through.
+ */
+public interface BeaconSource extends Closeable {
+  /**
+   * Returns the next row's request body, or null at the end of the input.
+   *
+   * @throws InvalidRowException if the row can't be turned into a request; the source is left
+   *     positioned at the following row
+   */
+  JSONObject next() throws IOException;
+
+  /**
+   * Reads past the next row without building its request. Returns false at the end of the input.
+   */
+  boolean skip() throws IOException;
+}
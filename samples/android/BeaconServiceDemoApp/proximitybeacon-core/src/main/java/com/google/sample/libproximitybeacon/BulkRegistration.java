@@ -0,0 +1,370 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers every beacon from a {@link BeaconSource}, a bounded number at a time.
+ *
+ * <p>{@link #run} reads the source on the calling thread and blocks once {@code maxInFlight}
+ * registrations are outstanding, so memory use doesn't grow with the input. Each row's outcome is
+ * written to {@code results} as a CSV line {@code row,outcome,beaconName,message}, in the order
+ * rows complete. Outcomes are:
+ * <ul>
+ *   <li>{@code REGISTERED}</li>
+ *   <li>{@code EXISTS}, if the beacon was already registered</li>
+ *   <li>{@code FAILED}</li>
+ *   <li>{@code INVALID}, if the row couldn't be made into a request</li>
+ * </ul>
+ *
+ * <p>If given a checkpoint file, the run records in it every so often the first row not yet
+ * finished, and a later run over the same input with the same file starts from there. Rows after
+ * that point may already have been registered; they come back as {@code EXISTS}. Open
+ * {@code results} for appending when resuming.
+ */
+public class BulkRegistration {
+  public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+  private static final int CHECKPOINT_INTERVAL = 100;
+  private static final int HTTP_CONFLICT = 409;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Results are recorded on whichever thread delivers them.
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  /**
+   * Hears about progress every {@code CHECKPOINT_INTERVAL} rows and once at the end, on the
+   * thread that called {@link #run}.
+   */
+  public interface Listener {
+    void onProgress(Report report);
+  }
+
+  /**
+   * Counts for one run. Rows skipped because an earlier run finished them are not counted.
+   */
+  public static final class Report {
+    private final long firstRow;
+    private final long registered;
+    private final long alreadyRegistered;
+    private final long failed;
+    private final long invalid;
+    private final long elapsedMillis;
+
+    Report(long firstRow, long registered, long alreadyRegistered, long failed, long invalid,
+           long elapsedMillis) {
+      this.firstRow = firstRow;
+      this.registered = registered;
+      this.alreadyRegistered = alreadyRegistered;
+      this.failed = failed;
+      this.invalid = invalid;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    /** The row this run started from: 0, or where a checkpoint left off. */
+    public long getFirstRow() {
+      return firstRow;
+    }
+
+    public long getRegistered() {
+      return registered;
+    }
+
+    public long getAlreadyRegistered() {
+      return alreadyRegistered;
+    }
+
+    public long getFailed() {
+      return failed;
+    }
+
+    public long getInvalid() {
+      return invalid;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    public double getRegistrationsPerSecond() {
+      return elapsedMillis == 0 ? 0 : registered * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d registered, %d already registered, %d failed, %d invalid "
+          + "in %.1f s (%.1f/s)", registered, alreadyRegistered, failed, invalid,
+          elapsedMillis / 1000.0, getRegistrationsPerSecond());
+    }
+  }
+
+  private final ProximityBeacon client;
+  private final int maxInFlight;
+  private Listener listener;
+
+  public BulkRegistration(ProximityBeacon client) {
+    this(client, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  public BulkRegistration(ProximityBeacon client, int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight < 1");
+    }
+    this.client = client;
+    this.maxInFlight = maxInFlight;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Registers everything in {@code source}, returning once every request has finished. If
+   * interrupted, waits for outstanding requests and saves the checkpoint before throwing.
+   *
+   * @param checkpoint where to record progress, or null to always start from the first row
+   * @throws CancellationException if the client's requests were cancelled, e.g. with its scope.
+   *     The run stops reading rows, and the checkpoint is saved with the first cancelled row
+   *     still to do, so a later run picks up from there.
+   */
+  public Report run(BeaconSource source, Writer results, File checkpoint)
+      throws IOException, InterruptedException {
+    return new Run(results, checkpoint).execute(source);
+  }
+
+  private class Run {
+    private final Writer results;
+    private final File checkpoint;
+    private final Semaphore permits = new Semaphore(maxInFlight);
+    private final long startNanos = System.nanoTime();
+    private long firstRow;
+
+    // All guarded by this.
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+    private long nextRow;
+    private long registered;
+    private long alreadyRegistered;
+    private long failed;
+    private long invalid;
+    private IOException writeError;
+    private boolean canceled;
+
+    Run(Writer results, File checkpoint) {
+      this.results = results;
+      this.checkpoint = checkpoint;
+    }
+
+    Report execute(BeaconSource source) throws IOException, InterruptedException {
+      firstRow = readCheckpoint();
+      for (long row = 0; row < firstRow; row++) {
+        if (!source.skip()) {
+          break;
+        }
+      }
+      nextRow = firstRow;
+      try {
+        long lastCheckpoint = firstRow;
+        while (true) {
+          JSONObject body;
+          try {
+            body = source.next();
+          } catch (InvalidRowException e) {
+            recordInvalid(e);
+            continue;
+          }
+          if (body == null) {
+            break;
+          }
+          permits.acquire();
+          if (isCanceled()) {
+            permits.release();
+            break;
+          }
+          submit(body);
+          checkWriteError();
+          if (nextRow - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+            saveCheckpoint();
+            lastCheckpoint = nextRow;
+          }
+        }
+      } finally {
+        // Let whatever is in flight land in the results and the checkpoint.
+        permits.acquireUninterruptibly(maxInFlight);
+        permits.release(maxInFlight);
+        saveCheckpoint();
+      }
+      checkWriteError();
+      if (isCanceled()) {
+        throw new CancellationException("Registration canceled at row " + firstUnfinishedRow());
+      }
+      return report();
+    }
+
+    private void submit(JSONObject body) {
+      final long row;
+      synchronized (this) {
+        row = nextRow++;
+        inFlight.add(row);
+      }
+      client.registerBeacon(new ResultCallback<BeaconRecord>() {
+        @Override
+        public void onSuccess(BeaconRecord beacon) {
+          finish(row, "REGISTERED", beacon.getBeaconName(), null);
+        }
+
+        @Override
+        public void onFailure(ApiException e) {
+          if (e.isCanceled()) {
+            abandon();
+          } else if (e.getHttpCode() == HTTP_CONFLICT) {
+            finish(row, "EXISTS", null, e.getMessage());
+          } else {
+            finish(row, "FAILED", null, e.getMessage());
+          }
+        }
+      }, DIRECT, body);
+    }
+
+    private synchronized void recordInvalid(InvalidRowException e) {
+      long row = nextRow++;
+      invalid++;
+      writeResult(row, "INVALID", null, e.getMessage());
+    }
+
+    private void finish(long row, String outcome, String beaconName, String message) {
+      synchronized (this) {
+        inFlight.remove(row);
+        switch (outcome) {
+          case "REGISTERED":
+            registered++;
+            break;
+          case "EXISTS":
+            alreadyRegistered++;
+            break;
+          default:
+            failed++;
+            break;
+        }
+        writeResult(row, outcome, beaconName, message);
+      }
+      permits.release();
+    }
+
+    // Leaves a cancelled row unfinished, so that the checkpoint doesn't move past it.
+    private void abandon() {
+      synchronized (this) {
+        canceled = true;
+      }
+      permits.release();
+    }
+
+    private synchronized boolean isCanceled() {
+      return canceled;
+    }
+
+    // Called with the lock held.
+    private void writeResult(long row, String outcome, String beaconName, String message) {
+      if (writeError != null) {
+        return;
+      }
+      try {
+        results.write(row + "," + outcome + "," + csvField(beaconName) + "," + csvField(message)
+            + "\n");
+      } catch (IOException e) {
+        writeError = e;
+      }
+    }
+
+    private synchronized void checkWriteError() throws IOException {
+      if (writeError != null) {
+        throw writeError;
+      }
+    }
+
+    private synchronized long firstUnfinishedRow() {
+      return inFlight.isEmpty() ? nextRow : inFlight.first();
+    }
+
+    private synchronized Report report() {
+      return new Report(firstRow, registered, alreadyRegistered, failed, invalid,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private long readCheckpoint() throws IOException {
+      if (checkpoint == null || !checkpoint.exists()) {
+        return 0;
+      }
+      try (BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(checkpoint), UTF_8))) {
+        String line = reader.readLine();
+        return line == null ? 0 : Long.parseLong(line.trim());
+      } catch (NumberFormatException e) {
+        throw new IOException("Unreadable checkpoint " + checkpoint, e);
+      }
+    }
+
+    // Records the first row not yet finished, after making sure every result before it is out.
+    private void saveCheckpoint() throws IOException {
+      long resumeRow;
+      synchronized (this) {
+        resumeRow = firstUnfinishedRow();
+        results.flush();
+      }
+      if (checkpoint != null) {
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), UTF_8)) {
+          writer.write(resumeRow + "\n");
+        }
+        if (!tmp.renameTo(checkpoint)) {
+          throw new IOException("Couldn't replace " + checkpoint);
+        }
+      }
+      if (listener != null) {
+        listener.onProgress(report());
+      }
+    }
+  }
+
+  private static String csvField(String value) {
+    if (value == null) {
+      return "";
+    }
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+}
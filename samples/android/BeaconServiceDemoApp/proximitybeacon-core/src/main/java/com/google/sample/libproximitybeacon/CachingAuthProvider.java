@@ -0,0 +1,140 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An {@link AuthProvider} that caches the token from a {@link TokenSource} until shortly before
+ * it expires.
+ *
+ * <p>Once a cached token is within {@code refreshMarginMillis} of expiring, the next caller gets
+ * the still-valid token immediately and a replacement is fetched in the background. If there is
+ * no usable token at all, callers block on a single shared fetch rather than each asking the
+ * source for their own.
+ */
+public class CachingAuthProvider implements AuthProvider {
+  static final long DEFAULT_REFRESH_MARGIN_MILLIS = 5 * 60 * 1000;
+
+  private static final ExecutorService REFRESH_EXECUTOR =
+      Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "TokenRefresh");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final TokenSource source;
+  private final long refreshMarginMillis;
+  private final Executor refreshExecutor;
+
+  private final Object lock = new Object();
+  private AccessToken token;  // guarded by lock
+  private FutureTask<AccessToken> refresh;  // guarded by lock
+
+  public CachingAuthProvider(TokenSource source) {
+    this(source, DEFAULT_REFRESH_MARGIN_MILLIS, REFRESH_EXECUTOR);
+  }
+
+  public CachingAuthProvider(TokenSource source, long refreshMarginMillis,
+                             Executor refreshExecutor) {
+    this.source = source;
+    this.refreshMarginMillis = refreshMarginMillis;
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  @Override
+  public String getToken() throws IOException {
+    FutureTask<AccessToken> pending;
+    boolean runOnThisThread = false;
+    synchronized (lock) {
+      long now = currentTimeMillis();
+      if (token != null && now < token.getExpiresAtMillis()) {
+        if (refresh == null && now >= token.getExpiresAtMillis() - refreshMarginMillis) {
+          refreshExecutor.execute(startRefreshLocked());
+        }
+        return token.getValue();
+      }
+      pending = refresh;
+      if (pending == null) {
+        pending = startRefreshLocked();
+        runOnThisThread = true;
+      }
+    }
+    if (runOnThisThread) {
+      pending.run();
+    }
+    return await(pending).getValue();
+  }
+
+  @Override
+  public void invalidateToken(String rejected) throws IOException {
+    synchronized (lock) {
+      if (token != null && token.getValue().equals(rejected)) {
+        token = null;
+      }
+    }
+    source.clearToken(rejected);
+  }
+
+  long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private FutureTask<AccessToken> startRefreshLocked() {
+    refresh = new FutureTask<>(new Callable<AccessToken>() {
+      @Override
+      public AccessToken call() throws IOException {
+        try {
+          AccessToken fresh = source.fetchToken();
+          synchronized (lock) {
+            token = fresh;
+          }
+          return fresh;
+        } finally {
+          synchronized (lock) {
+            refresh = null;
+          }
+        }
+      }
+    });
+    return refresh;
+  }
+
+  private static AccessToken await(FutureTask<AccessToken> pending) throws IOException {
+    try {
+      return pending.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for token");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Token refresh failed", cause);
+    }
+  }
+}
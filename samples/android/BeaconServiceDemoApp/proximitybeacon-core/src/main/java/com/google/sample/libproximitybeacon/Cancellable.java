@@ -0,0 +1,28 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+/**
+ * Something in progress that can be told to stop, e.g. a {@link ProximityBeacon} call or an
+ * {@link ApiFuture}. Group handles in a {@link RequestScope} to stop them all at once.
+ */
+public interface Cancellable {
+
+  /**
+   * Stops the work if it hasn't finished. Safe to call more than once, or after it has finished.
+   */
+  void cancel();
+
+}
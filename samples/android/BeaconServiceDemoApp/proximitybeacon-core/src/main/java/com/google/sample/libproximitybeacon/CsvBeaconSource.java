@@ -0,0 +1,253 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Reads beacons from CSV, laid out as for the Python sample's {@code bulk-register} command.
+ *
+ * <p>The first line names the columns. Each row needs an {@code id} (an Eddystone UID as 32 hex
+ * digits, dashes optional) or, for {@code type} IBEACON, a {@code uuid}, {@code major} and
+ * {@code minor}. {@code type} defaults to EDDYSTONE, {@code status} to ACTIVE and
+ * {@code expected_stability} to STABLE. {@code place_id}, {@code description},
+ * {@code indoor_level}, {@code latitude} and {@code longitude} fill in the matching fields, and
+ * any other column becomes a property. Column names may be snake_case or camelCase; empty cells
+ * are ignored. Fields follow RFC 4180 quoting, so may contain commas, quotes and line breaks.
+ */
+public class CsvBeaconSource implements BeaconSource {
+  private static final String EDDYSTONE = "EDDYSTONE";
+  private static final String IBEACON = "IBEACON";
+
+  private final BufferedReader reader;
+  private List<String> header;
+
+  public CsvBeaconSource(Reader reader) {
+    this.reader = new BufferedReader(reader);
+  }
+
+  @Override
+  public JSONObject next() throws IOException {
+    readHeader();
+    List<String> record = readRecord();
+    if (record == null) {
+      return null;
+    }
+    if (record.size() != header.size()) {
+      throw new InvalidRowException(
+          "Expected " + header.size() + " fields but found " + record.size());
+    }
+    Map<String, String> row = new LinkedHashMap<>();
+    for (int i = 0; i < record.size(); i++) {
+      if (!record.get(i).isEmpty()) {
+        row.put(header.get(i), record.get(i));
+      }
+    }
+    return toRequestBody(row);
+  }
+
+  @Override
+  public boolean skip() throws IOException {
+    readHeader();
+    return readRecord() != null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private void readHeader() throws IOException {
+    if (header != null) {
+      return;
+    }
+    List<String> names = readRecord();
+    if (names == null) {
+      throw new IOException("Empty CSV");
+    }
+    header = new ArrayList<>();
+    for (String name : names) {
+      header.add(snakeCase(name.trim()));
+    }
+    if (!header.contains("id") && !header.contains("uuid")) {
+      throw new IOException("CSV needs an id or uuid column");
+    }
+  }
+
+  // Builds the request body, consuming the columns it recognizes from row.
+  private static JSONObject toRequestBody(Map<String, String> row) throws InvalidRowException {
+    try {
+      String type = remove(row, "type", EDDYSTONE).toUpperCase(Locale.US);
+      byte[] id;
+      if (type.equals(IBEACON)) {
+        String uuid = remove(row, "uuid", remove(row, "id", null));
+        String major = remove(row, "major", null);
+        String minor = remove(row, "minor", null);
+        if (uuid == null || major == null || minor == null) {
+          throw new InvalidRowException("IBEACON rows need uuid, major and minor");
+        }
+        id = new Buffer()
+            .write(decodeHex(uuid, 16))
+            .writeShort(parseUnsignedShort(major))
+            .writeShort(parseUnsignedShort(minor))
+            .readByteArray();
+        row.put("ibeacon_uuid", uuid.replace("-", "").toLowerCase(Locale.US));
+        row.put("ibeacon_major", major);
+        row.put("ibeacon_minor", minor);
+      } else {
+        String hexId = remove(row, "id", null);
+        if (hexId == null) {
+          throw new InvalidRowException("Missing id");
+        }
+        id = decodeHex(hexId, 16);
+      }
+
+      JSONObject body = new JSONObject()
+          .put("advertisedId", new JSONObject()
+              .put("type", type)
+              .put("id", JsonCodec.base64Encode(id)))
+          .put("status", remove(row, "status", "ACTIVE"))
+          .put("expectedStability", remove(row, "expected_stability", "STABLE"));
+      String placeId = remove(row, "place_id", null);
+      if (placeId != null) {
+        body.put("placeId", placeId);
+      }
+      String description = remove(row, "description", null);
+      if (description != null) {
+        body.put("description", description);
+      }
+      String indoorLevel = remove(row, "indoor_level", null);
+      if (indoorLevel != null) {
+        body.put("indoorLevel", new JSONObject().put("name", indoorLevel));
+      }
+      if (row.containsKey("latitude") && row.containsKey("longitude")) {
+        body.put("latLng", new JSONObject()
+            .put("latitude", Double.parseDouble(remove(row, "latitude", null)))
+            .put("longitude", Double.parseDouble(remove(row, "longitude", null))));
+      }
+      if (!row.isEmpty()) {
+        JSONObject properties = new JSONObject();
+        for (Map.Entry<String, String> property : row.entrySet()) {
+          properties.put(property.getKey(), property.getValue());
+        }
+        body.put("properties", properties);
+      }
+      return body;
+    } catch (NumberFormatException | JSONException e) {
+      throw new InvalidRowException(e.getMessage(), e);
+    }
+  }
+
+  private static String remove(Map<String, String> row, String column, String defaultValue) {
+    String value = row.remove(column);
+    return value != null ? value : defaultValue;
+  }
+
+  private static byte[] decodeHex(String hex, int length) throws InvalidRowException {
+    ByteString bytes;
+    try {
+      bytes = ByteString.decodeHex(hex.replace("-", "").toLowerCase(Locale.US));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidRowException("Not a hex ID: " + hex, e);
+    }
+    if (bytes.size() != length) {
+      throw new InvalidRowException("Expected a " + length + " byte ID: " + hex);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static int parseUnsignedShort(String s) {
+    int value = Integer.parseInt(s.trim());
+    if (value < 0 || value > 0xffff) {
+      throw new NumberFormatException("Out of range: " + s);
+    }
+    return value;
+  }
+
+  // indoorLevel -> indoor_level, so either spelling of a column is recognized.
+  private static String snakeCase(String name) {
+    StringBuilder result = new StringBuilder(name.length() + 4);
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isUpperCase(c)) {
+        if (i > 0) {
+          result.append('_');
+        }
+        result.append(Character.toLowerCase(c));
+      } else {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
+
+  // Returns the fields of the next non-blank record, or null at the end of the input.
+  private List<String> readRecord() throws IOException {
+    List<String> fields;
+    do {
+      fields = readLine();
+    } while (fields != null && fields.size() == 1 && fields.get(0).isEmpty());
+    return fields;
+  }
+
+  private List<String> readLine() throws IOException {
+    int c = reader.read();
+    if (c == -1) {
+      return null;
+    }
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    while (true) {
+      if (quoted) {
+        if (c == -1) {
+          throw new IOException("Unterminated quoted field");
+        }
+        if (c == '"') {
+          c = reader.read();
+          if (c != '"') {
+            quoted = false;
+            continue;  // c is the character after the closing quote
+          }
+        }
+        field.append((char) c);
+      } else if (c == '"' && field.length() == 0) {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\n' || c == -1) {
+        fields.add(field.toString());
+        return fields;
+      } else if (c != '\r') {
+        field.append((char) c);
+      }
+      c = reader.read();
+    }
+  }
+}
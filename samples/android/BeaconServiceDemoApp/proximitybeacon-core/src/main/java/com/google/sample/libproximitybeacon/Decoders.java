@@ -0,0 +1,152 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decoders for the response types the API returns. Each streams its result off the response body
+ * with {@link JsonCodec}.
+ */
+class Decoders {
+  private Decoders() {}  // static members only
+
+  static final ResponseDecoder<BeaconRecord> BEACON = new JsonDecoder<BeaconRecord>() {
+    @Override
+    BeaconRecord read(JsonReader reader) throws IOException {
+      return JsonCodec.readBeacon(reader);
+    }
+  };
+
+  static final ResponseDecoder<BeaconPage> BEACON_PAGE = new JsonDecoder<BeaconPage>() {
+    @Override
+    BeaconPage read(JsonReader reader) throws IOException {
+      return JsonCodec.readBeaconPage(reader);
+    }
+  };
+
+  static final ResponseDecoder<Attachment> ATTACHMENT = new JsonDecoder<Attachment>() {
+    @Override
+    Attachment read(JsonReader reader) throws IOException {
+      return JsonCodec.readAttachment(reader);
+    }
+  };
+
+  static final ResponseDecoder<Integer> NUM_DELETED = new JsonDecoder<Integer>() {
+    @Override
+    Integer read(JsonReader reader) throws IOException {
+      return JsonCodec.readNumDeleted(reader);
+    }
+  };
+
+  static final ResponseDecoder<List<Attachment>> ATTACHMENTS =
+      new ListDecoder<Attachment>("attachments") {
+        @Override
+        Attachment readItem(JsonReader reader) throws IOException {
+          return JsonCodec.readAttachment(reader);
+        }
+      };
+
+  static final ResponseDecoder<List<Namespace>> NAMESPACES =
+      new ListDecoder<Namespace>("namespaces") {
+        @Override
+        Namespace readItem(JsonReader reader) throws IOException {
+          return JsonCodec.readNamespace(reader);
+        }
+      };
+
+  static final ResponseDecoder<List<Diagnostics>> DIAGNOSTICS =
+      new ListDecoder<Diagnostics>("diagnostics") {
+        @Override
+        Diagnostics readItem(JsonReader reader) throws IOException {
+          return JsonCodec.readDiagnostics(reader);
+        }
+      };
+
+  static final ResponseDecoder<List<ObservedBeacon>> OBSERVED_BEACONS =
+      new ListDecoder<ObservedBeacon>("beacons") {
+        @Override
+        ObservedBeacon readItem(JsonReader reader) throws IOException {
+          return JsonCodec.readObservedBeacon(reader);
+        }
+      };
+
+  /**
+   * For calls whose response body is an empty object. The body is closed unread.
+   */
+  static final ResponseDecoder<Void> EMPTY = new ResponseDecoder<Void>() {
+    @Override
+    public Void decode(ResponseBody body) {
+      return null;
+    }
+  };
+
+  /**
+   * Reads a JSON body, reporting structurally unexpected input as an IOException like any other
+   * malformed response.
+   */
+  abstract static class JsonDecoder<T> implements ResponseDecoder<T> {
+
+    abstract T read(JsonReader reader) throws IOException;
+
+    @Override
+    public T decode(ResponseBody body) throws IOException {
+      try (JsonReader reader = new JsonReader(body.charStream())) {
+        return read(reader);
+      } catch (IllegalStateException | NumberFormatException e) {
+        throw new IOException("Malformed response", e);
+      }
+    }
+  }
+
+  /**
+   * Reads the array held in {@code field} of the top-level object. The API omits empty arrays,
+   * so a missing field decodes as an empty list.
+   */
+  abstract static class ListDecoder<T> extends JsonDecoder<List<T>> {
+    private final String field;
+
+    ListDecoder(String field) {
+      this.field = field;
+    }
+
+    abstract T readItem(JsonReader reader) throws IOException;
+
+    @Override
+    List<T> read(JsonReader reader) throws IOException {
+      List<T> items = new ArrayList<>();
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (reader.nextName().equals(field) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            items.add(readItem(reader));
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return items;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Adapts a {@link ResultCallback} to OkHttp's {@link Callback}. The response is read and decoded
+ * on the thread OkHttp calls back on, and only the finished result is handed to the executor.
+ */
+class DecodingCallback<T> implements Callback {
+  private final ResponseDecoder<T> decoder;
+  private final Executor executor;
+  private final ResultCallback<T> delegate;
+
+  DecodingCallback(ResponseDecoder<T> decoder, Executor executor, ResultCallback<T> delegate) {
+    this.decoder = decoder;
+    this.executor = executor;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void onFailure(Request request, IOException e) {
+    // The request is null when the call was refused or cancelled before it was built.
+    String message = request != null ? "Failed request: " + request : "Failed request";
+    deliverFailure(new ApiException(message, e));
+  }
+
+  @Override
+  public void onResponse(Response response) throws IOException {
+    if (!response.isSuccessful()) {
+      deliverFailure(ApiException.fromResponse(response));
+      return;
+    }
+    final T result;
+    try {
+      result = decoder.decode(response.body());
+    } catch (IOException e) {
+      deliverFailure(new ApiException("Failed to decode response", e));
+      return;
+    } finally {
+      response.body().close();
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        delegate.onSuccess(result);
+      }
+    });
+  }
+
+  private void deliverFailure(final ApiException e) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        delegate.onFailure(e);
+      }
+    });
+  }
+}
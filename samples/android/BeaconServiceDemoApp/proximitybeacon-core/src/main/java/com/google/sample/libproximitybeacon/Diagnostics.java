@@ -0,0 +1,52 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Diagnostic information reported for a beacon.
+ * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.diagnostics
+ */
+public final class Diagnostics {
+  private final String beaconName;
+  private final String estimatedLowBatteryDate;
+  private final List<String> alerts;
+
+  public Diagnostics(String beaconName, String estimatedLowBatteryDate, List<String> alerts) {
+    this.beaconName = beaconName;
+    this.estimatedLowBatteryDate = estimatedLowBatteryDate;
+    this.alerts = Collections.unmodifiableList(alerts);
+  }
+
+  public String getBeaconName() {
+    return beaconName;
+  }
+
+  /**
+   * The date the battery is expected to run low, formatted as "yyyy-MM-dd", or null if unknown.
+   */
+  public String getEstimatedLowBatteryDate() {
+    return estimatedLowBatteryDate;
+  }
+
+  /**
+   * Active alerts, e.g. "WRONG_LOCATION" or "LOW_BATTERY".
+   */
+  public List<String> getAlerts() {
+    return alerts;
+  }
+}
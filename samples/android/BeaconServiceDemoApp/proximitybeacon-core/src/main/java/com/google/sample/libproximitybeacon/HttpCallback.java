@@ -14,30 +14,29 @@
 
 package com.google.sample.libproximitybeacon;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import com.squareup.okhttp.Callback;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
- * A wrapper around OkHttp's Callback class that runs its methods on the UI thread.
+ * A wrapper around OkHttp's Callback class that runs its methods on the given executor, e.g. the
+ * UI thread.
  */
 class HttpCallback implements Callback {
   private final Callback delegate;
-  private final Handler handler;
+  private final Executor executor;
 
-  public HttpCallback(Callback delegate) {
+  public HttpCallback(Callback delegate, Executor executor) {
     this.delegate = delegate;
-    this.handler = new Handler(Looper.getMainLooper());
+    this.executor = executor;
   }
 
   @Override
   public void onFailure(final Request request, final IOException e) {
-    handler.post(new Runnable() {
+    executor.execute(new Runnable() {
       @Override
       public void run() {
         delegate.onFailure(request, e);
@@ -47,7 +46,7 @@ class HttpCallback implements Callback {
 
   @Override
   public void onResponse(final Response response) throws IOException {
-    handler.post(new Runnable() {
+    executor.execute(new Runnable() {
       @Override
       public void run() {
         try {
@@ -0,0 +1,33 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link BeaconSource} for a row that it read but couldn't make sense of. Unlike
+ * other {@link IOException}s, it affects only that row.
+ */
+public class InvalidRowException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public InvalidRowException(String message) {
+    super(message);
+  }
+
+  public InvalidRowException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
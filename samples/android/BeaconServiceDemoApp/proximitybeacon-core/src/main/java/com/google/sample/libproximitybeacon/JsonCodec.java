@@ -0,0 +1,425 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.RequestBody;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * Streaming JSON encoding and decoding for the API's resource types.
+ *
+ * <p>Readers pull fields straight off the response stream without building an intermediate
+ * document, and skip anything they don't recognise. Optional fields that are absent are simply
+ * left null; nothing is thrown for them.
+ */
+class JsonCodec {
+  private JsonCodec() {}  // static functions only
+
+  static BeaconRecord readBeacon(JsonReader reader) throws IOException {
+    String beaconName = null;
+    String type = null;
+    byte[] id = null;
+    String status = null;
+    String placeId = null;
+    Double latitude = null;
+    Double longitude = null;
+    String expectedStability = null;
+    String description = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue();
+        continue;
+      }
+      switch (name) {
+        case "beaconName":
+          beaconName = reader.nextString();
+          break;
+        case "advertisedId":
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String idField = reader.nextName();
+            if (idField.equals("type")) {
+              type = reader.nextString();
+            } else if (idField.equals("id")) {
+              id = base64Decode(reader.nextString());
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+          break;
+        case "status":
+          status = reader.nextString();
+          break;
+        case "placeId":
+          placeId = reader.nextString();
+          break;
+        case "latLng":
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String latLngField = reader.nextName();
+            if (latLngField.equals("latitude")) {
+              latitude = reader.nextDouble();
+            } else if (latLngField.equals("longitude")) {
+              longitude = reader.nextDouble();
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+          break;
+        case "expectedStability":
+          expectedStability = reader.nextString();
+          break;
+        case "description":
+          description = reader.nextString();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+
+    if (latitude == null || longitude == null) {
+      latitude = null;
+      longitude = null;
+    }
+    return new BeaconRecord(beaconName, type, id, status, placeId, latitude, longitude,
+        expectedStability, description);
+  }
+
+  /**
+   * Writes the fields of {@code beacon} that a register or update request accepts. Output-only
+   * and unspecified values are left out.
+   */
+  static void writeBeacon(JsonWriter writer, BeaconRecord beacon) throws IOException {
+    writer.beginObject();
+    writer.name("advertisedId").beginObject()
+        .name("type").value(beacon.getType())
+        .name("id").value(base64Encode(beacon.getId()))
+        .endObject();
+    if (!BeaconRecord.STATUS_UNSPECIFIED.equals(beacon.getStatus())) {
+      writer.name("status").value(beacon.getStatus());
+    }
+    if (beacon.getPlaceId() != null) {
+      writer.name("placeId").value(beacon.getPlaceId());
+    }
+    if (beacon.getLatitude() != null && beacon.getLongitude() != null) {
+      writer.name("latLng").beginObject()
+          .name("latitude").value(beacon.getLatitude().doubleValue())
+          .name("longitude").value(beacon.getLongitude().doubleValue())
+          .endObject();
+    }
+    if (beacon.getExpectedStability() != null
+        && !beacon.getExpectedStability().equals(BeaconRecord.STABILITY_UNSPECIFIED)) {
+      writer.name("expectedStability").value(beacon.getExpectedStability());
+    }
+    if (beacon.getDescription() != null) {
+      writer.name("description").value(beacon.getDescription());
+    }
+    writer.endObject();
+  }
+
+  /**
+   * A request body that encodes {@code beacon} directly into the connection's sink each time it
+   * is written, so no intermediate string is built and the body can be replayed on retry.
+   */
+  static RequestBody beaconRequestBody(final BeaconRecord beacon) {
+    return new RequestBody() {
+      @Override
+      public MediaType contentType() {
+        return ProximityBeaconClient.MEDIA_TYPE_JSON;
+      }
+
+      @Override
+      public void writeTo(BufferedSink sink) throws IOException {
+        JsonWriter writer =
+            new JsonWriter(new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8));
+        writeBeacon(writer, beacon);
+        writer.flush();
+      }
+    };
+  }
+
+  static BeaconPage readBeaconPage(JsonReader reader) throws IOException {
+    List<BeaconRecord> beacons = new ArrayList<>();
+    String nextPageToken = null;
+    long totalCount = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue();
+        continue;
+      }
+      switch (name) {
+        case "beacons":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            beacons.add(readBeacon(reader));
+          }
+          reader.endArray();
+          break;
+        case "nextPageToken":
+          nextPageToken = reader.nextString();
+          break;
+        case "totalCount":
+          // int64 values arrive as JSON strings; nextLong() accepts either form.
+          totalCount = reader.nextLong();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    if (nextPageToken != null && nextPageToken.isEmpty()) {
+      nextPageToken = null;
+    }
+    return new BeaconPage(beacons, nextPageToken, totalCount);
+  }
+
+  static Attachment readAttachment(JsonReader reader) throws IOException {
+    String attachmentName = null;
+    String namespacedType = null;
+    byte[] data = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue();
+        continue;
+      }
+      switch (name) {
+        case "attachmentName":
+          attachmentName = reader.nextString();
+          break;
+        case "namespacedType":
+          namespacedType = reader.nextString();
+          break;
+        case "data":
+          data = base64Decode(reader.nextString());
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return new Attachment(attachmentName, namespacedType, data);
+  }
+
+  static Namespace readNamespace(JsonReader reader) throws IOException {
+    String namespaceName = null;
+    String servingVisibility = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("namespaceName") && reader.peek() != JsonToken.NULL) {
+        namespaceName = reader.nextString();
+      } else if (name.equals("servingVisibility") && reader.peek() != JsonToken.NULL) {
+        servingVisibility = reader.nextString();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new Namespace(namespaceName, servingVisibility);
+  }
+
+  /**
+   * Reads a batchDelete response. The count is left out when nothing was deleted.
+   */
+  static int readNumDeleted(JsonReader reader) throws IOException {
+    int numDeleted = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName().equals("numDeleted") && reader.peek() != JsonToken.NULL) {
+        numDeleted = reader.nextInt();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return numDeleted;
+  }
+
+  static Diagnostics readDiagnostics(JsonReader reader) throws IOException {
+    String beaconName = null;
+    String lowBatteryDate = null;
+    List<String> alerts = new ArrayList<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue();
+        continue;
+      }
+      switch (name) {
+        case "beaconName":
+          beaconName = reader.nextString();
+          break;
+        case "estimatedLowBatteryDate":
+          lowBatteryDate = readDate(reader);
+          break;
+        case "alerts":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            alerts.add(reader.nextString());
+          }
+          reader.endArray();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return new Diagnostics(beaconName, lowBatteryDate, alerts);
+  }
+
+  /**
+   * Reads one of the beacons in a getforobserved response. The API omits empty attachment
+   * lists, so a missing field reads as none.
+   */
+  static ObservedBeacon readObservedBeacon(JsonReader reader) throws IOException {
+    String beaconName = null;
+    String type = null;
+    byte[] id = null;
+    String description = null;
+    List<Attachment> attachments = new ArrayList<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue();
+        continue;
+      }
+      switch (name) {
+        case "beaconName":
+          beaconName = reader.nextString();
+          break;
+        case "advertisedId":
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String idField = reader.nextName();
+            if (idField.equals("type")) {
+              type = reader.nextString();
+            } else if (idField.equals("id")) {
+              id = base64Decode(reader.nextString());
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+          break;
+        case "description":
+          description = reader.nextString();
+          break;
+        case "attachments":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            attachments.add(readAttachment(reader));
+          }
+          reader.endArray();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return new ObservedBeacon(beaconName, type, id, description, attachments);
+  }
+
+  // Dates are {"year": ..., "month": ..., "day": ...}; formatted as yyyy-MM-dd.
+  private static String readDate(JsonReader reader) throws IOException {
+    int year = 0;
+    int month = 0;
+    int day = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("year")) {
+        year = reader.nextInt();
+      } else if (name.equals("month")) {
+        month = reader.nextInt();
+      } else if (name.equals("day")) {
+        day = reader.nextInt();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return String.format("%04d-%02d-%02d", year, month, day);
+  }
+
+  /**
+   * Reads the standard error body, {"error": {"code": ..., "message": ..., "status": ...}}, into
+   * an exception for {@code httpCode}. Missing fields fall back to {@code defaultMessage} and a
+   * null status.
+   */
+  static ApiException readError(JsonReader reader, int httpCode, String defaultMessage)
+      throws IOException {
+    String message = defaultMessage;
+    String status = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!reader.nextName().equals("error") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("message") && reader.peek() == JsonToken.STRING) {
+          message = reader.nextString();
+        } else if (name.equals("status") && reader.peek() == JsonToken.STRING) {
+          status = reader.nextString();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    }
+    reader.endObject();
+    return new ApiException(httpCode, status, message);
+  }
+
+  static byte[] base64Decode(String s) {
+    ByteString bytes = ByteString.decodeBase64(s);
+    return bytes != null ? bytes.toByteArray() : null;
+  }
+
+  static String base64Encode(byte[] bytes) {
+    return bytes != null ? ByteString.of(bytes).base64() : null;
+  }
+}
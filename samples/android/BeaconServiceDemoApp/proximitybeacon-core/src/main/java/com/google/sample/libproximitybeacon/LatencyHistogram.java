@@ -0,0 +1,113 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of latencies in the style of HdrHistogram: each power of two is split
+ * into 32 linear sub-buckets, so any recorded value is known to within about 3% however large
+ * it is. Recording is a few arithmetic operations and one atomic increment, with no locks and no
+ * allocation, so it is cheap enough to leave on. Values from a microsecond to about half an hour
+ * are kept; longer ones are counted as the maximum.
+ *
+ * <p>Reads aren't atomic with respect to concurrent recording, so a percentile taken while
+ * requests are completing may be off by the few values recorded meanwhile.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // The largest power of two kept, in microseconds: 2^31 us is about 36 minutes.
+  private static final int MAX_EXPONENT = 31;
+  private static final long MAX_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+  private static final int BUCKETS =
+      SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS) + 2 * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sumMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  public void record(long latencyNanos) {
+    long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(latencyNanos), 0), MAX_MICROS);
+    counts.incrementAndGet(bucketOf(micros));
+    count.incrementAndGet();
+    sumMicros.addAndGet(micros);
+    long max;
+    while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+      // Lost a race with another recording; try again against its maximum.
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  public long getMeanMicros() {
+    long n = count.get();
+    return n == 0 ? 0 : sumMicros.get() / n;
+  }
+
+  /**
+   * The latency that {@code percentile} percent of recorded values are at or below, e.g. 99 for
+   * the p99, rounded up to the top of its bucket. Returns 0 if nothing has been recorded.
+   */
+  public long getPercentileMicros(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+    }
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueIn(i), getMaxMicros());
+      }
+    }
+    return getMaxMicros();
+  }
+
+  // Values below 2 * SUB_BUCKETS get a bucket each. Above that, a value whose highest set bit is
+  // k goes in sub-bucket (value >>> (k - SUB_BUCKET_BITS)) of that power of two's range.
+  static int bucketOf(long micros) {
+    if (micros < 2 * SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+    return SUB_BUCKETS * shift + (int) (micros >>> shift);
+  }
+
+  static long highestValueIn(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+}
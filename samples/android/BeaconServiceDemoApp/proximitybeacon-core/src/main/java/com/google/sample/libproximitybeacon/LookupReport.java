@@ -0,0 +1,75 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The outcome of {@link BeaconLookupPipeline#resolveAll}: every beacon that was found, every one
+ * that failed (including 404 for unregistered and 403 for beacons owned by someone else), and
+ * the latency of the batch as a whole.
+ */
+public class LookupReport {
+  private final Map<String, BeaconRecord> resolved = new HashMap<>();
+  private final Map<String, ApiException> failures = new HashMap<>();
+  private long totalLatencyMillis;
+  private long maxLatencyMillis;
+  private long elapsedMillis;
+
+  synchronized void addResolved(String beaconName, BeaconRecord beacon, long latencyMillis) {
+    resolved.put(beaconName, beacon);
+    addLatency(latencyMillis);
+  }
+
+  synchronized void addFailure(String beaconName, ApiException e, long latencyMillis) {
+    failures.put(beaconName, e);
+    addLatency(latencyMillis);
+  }
+
+  private void addLatency(long latencyMillis) {
+    totalLatencyMillis += latencyMillis;
+    maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+  }
+
+  synchronized void setElapsedMillis(long elapsedMillis) {
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  public synchronized Map<String, BeaconRecord> getResolved() {
+    return Collections.unmodifiableMap(new HashMap<>(resolved));
+  }
+
+  public synchronized Map<String, ApiException> getFailures() {
+    return Collections.unmodifiableMap(new HashMap<>(failures));
+  }
+
+  /**
+   * Wall-clock time from the first request to the last response.
+   */
+  public synchronized long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  public synchronized long getMeanLatencyMillis() {
+    int count = resolved.size() + failures.size();
+    return count == 0 ? 0 : totalLatencyMillis / count;
+  }
+
+  public synchronized long getMaxLatencyMillis() {
+    return maxLatencyMillis;
+  }
+}
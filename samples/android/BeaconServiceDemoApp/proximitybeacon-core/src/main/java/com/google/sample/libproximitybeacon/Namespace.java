@@ -0,0 +1,51 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+/**
+ * A namespace the caller's project may use for attachments.
+ * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/namespaces
+ */
+public final class Namespace {
+  private final String namespaceName;
+  private final String servingVisibility;
+
+  public Namespace(String namespaceName, String servingVisibility) {
+    this.namespaceName = namespaceName;
+    this.servingVisibility = servingVisibility;
+  }
+
+  /**
+   * The resource name, formatted as "namespaces/%s".
+   */
+  public String getNamespaceName() {
+    return namespaceName;
+  }
+
+  /**
+   * The namespace with the "namespaces/" prefix removed, as used in an attachment's
+   * namespaced type.
+   */
+  public String getId() {
+    if (namespaceName != null && namespaceName.startsWith("namespaces/")) {
+      return namespaceName.substring("namespaces/".length());
+    }
+    return namespaceName;
+  }
+
+  public String getServingVisibility() {
+    return servingVisibility;
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads one beacon per line, each a JSON object in the form {@code beacons.register} takes. Blank
+ * lines are ignored and don't count as rows.
+ */
+public class NdjsonBeaconSource implements BeaconSource {
+  private final BufferedReader reader;
+
+  public NdjsonBeaconSource(Reader reader) {
+    this.reader = new BufferedReader(reader);
+  }
+
+  @Override
+  public JSONObject next() throws IOException {
+    String line = nextLine();
+    if (line == null) {
+      return null;
+    }
+    try {
+      return new JSONObject(line);
+    } catch (JSONException e) {
+      throw new InvalidRowException("Malformed JSON: " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public boolean skip() throws IOException {
+    return nextLine() != null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private String nextLine() throws IOException {
+    String line;
+    do {
+      line = reader.readLine();
+    } while (line != null && line.trim().isEmpty());
+    return line;
+  }
+}
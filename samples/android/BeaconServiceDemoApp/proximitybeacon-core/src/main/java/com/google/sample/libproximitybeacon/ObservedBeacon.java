@@ -0,0 +1,71 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A registered beacon that matched an observation, as getforobserved returns it.
+ * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beaconinfo/getforobserved
+ */
+public final class ObservedBeacon {
+  private final String beaconName;
+  private final String type;
+  private final byte[] id;
+  private final String description;
+  private final List<Attachment> attachments;
+
+  public ObservedBeacon(String beaconName, String type, byte[] id, String description,
+                        List<Attachment> attachments) {
+    this.beaconName = beaconName;
+    this.type = type;
+    this.id = id;
+    this.description = description;
+    this.attachments = Collections.unmodifiableList(attachments);
+  }
+
+  /**
+   * The resource name, formatted as "beacons/%d!%s".
+   */
+  public String getBeaconName() {
+    return beaconName;
+  }
+
+  /**
+   * The advertised ID type, e.g. "EDDYSTONE".
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * The advertised ID bytes.
+   */
+  public byte[] getId() {
+    return id;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * The attachments of the requested namespaced types. These carry no attachment name.
+   */
+  public List<Attachment> getAttachments() {
+    return attachments;
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.squareup.okhttp.Callback;
+
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous HTTP library for the ProximityBeacon API.
+ * https://developers.google.com/beacons/proximity/reference/rest/
+ *
+ * <p>Methods taking an OkHttp {@link Callback} deliver the raw response on the client's callback
+ * executor, e.g. the UI thread. Methods taking a {@link ResultCallback} read and decode the
+ * response on a background thread and deliver only the typed result, or an {@link ApiException},
+ * on the given executor. {@link ProximityBeaconAsync} offers the typed calls as futures.
+ *
+ * <p>Every call returns a handle that cancels it: the request is aborted and its dispatcher slot is
+ * given back at once. A {@link ResultCallback} is then failed with an {@link ApiException} for
+ * which {@link ApiException#isCanceled()} is true, so nothing waiting on it is left hanging; a raw
+ * {@link Callback} isn't run. The calls of a client are also kept in its
+ * {@link RequestScope}, to cancel everything a scan session or screen has outstanding at once.
+ */
+public interface ProximityBeacon {
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beaconinfo/getforobserved
+   */
+  Cancellable getForObserved(Callback callback, JSONObject requestBody, String apiKey);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/activate
+   */
+  Cancellable activateBeacon(Callback callback, String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/deactivate
+   */
+  Cancellable deactivateBeacon(Callback callback, String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/decommission
+   */
+  Cancellable decommissionBeacon(Callback callback, String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/get
+   */
+  Cancellable getBeacon(Callback callback, String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/get
+   */
+  Cancellable getBeacon(ResultCallback<BeaconRecord> callback, Executor executor,
+                        String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/list
+   */
+  Cancellable listBeacons(Callback callback, String query);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/list
+   *
+   * <p>Fetches a single page of at most {@code pageSize} beacons. Pass null as the page token for
+   * the first page, then each page's {@link BeaconPage#getNextPageToken()}. {@link BeaconCursor}
+   * does this for you.
+   */
+  Cancellable listBeacons(ResultCallback<BeaconPage> callback, Executor executor, String query,
+                          int pageSize, String pageToken);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/register
+   */
+  Cancellable registerBeacon(Callback callback, JSONObject requestBody);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/register
+   */
+  Cancellable registerBeacon(ResultCallback<BeaconRecord> callback, Executor executor,
+                             BeaconRecord beacon);
+
+  /**
+   * Registers a beacon described by a full JSON body, for fields that {@link BeaconRecord} doesn't
+   * carry such as properties and indoor level.
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/register
+   */
+  Cancellable registerBeacon(ResultCallback<BeaconRecord> callback, Executor executor,
+                             JSONObject requestBody);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/update
+   */
+  Cancellable updateBeacon(Callback callback, String beaconName, JSONObject requestBody);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/update
+   */
+  Cancellable updateBeacon(ResultCallback<BeaconRecord> callback, Executor executor,
+                           String beaconName, BeaconRecord beacon);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/batchDelete
+   */
+  Cancellable batchDeleteAttachments(Callback callback, String beaconName);
+
+  /**
+   * Deletes the beacon's attachments of {@code namespacedType}, which may use {@code *} wildcards
+   * as in {@code listAttachments}, or all of them if it is null. Yields the number deleted.
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/batchDelete
+   */
+  Cancellable batchDeleteAttachments(ResultCallback<Integer> callback, Executor executor,
+                                     String beaconName, String namespacedType);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/create
+   */
+  Cancellable createAttachment(Callback callback, String beaconName, JSONObject requestBody);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/create
+   */
+  Cancellable createAttachment(ResultCallback<Attachment> callback, Executor executor,
+                               String beaconName, JSONObject requestBody);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/delete
+   */
+  Cancellable deleteAttachment(Callback callback, String attachmentName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/list
+   */
+  Cancellable listAttachments(Callback callback, String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/list
+   */
+  Cancellable listAttachments(ResultCallback<List<Attachment>> callback, Executor executor,
+                              String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.diagnostics/list
+   */
+  Cancellable listDiagnostics(Callback callback, String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.diagnostics/list
+   */
+  Cancellable listDiagnostics(ResultCallback<List<Diagnostics>> callback, Executor executor,
+                              String beaconName);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/namespaces/list
+   */
+  Cancellable listNamespaces(Callback callback);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/namespaces/list
+   */
+  Cancellable listNamespaces(ResultCallback<List<Namespace>> callback, Executor executor);
+
+}
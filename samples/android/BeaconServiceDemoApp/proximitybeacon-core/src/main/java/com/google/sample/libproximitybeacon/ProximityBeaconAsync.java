@@ -14,84 +14,92 @@
 
 package com.google.sample.libproximitybeacon;
 
-import com.squareup.okhttp.Callback;
-
 import org.json.JSONObject;
 
+import java.util.List;
+
 /**
- * Asynchronous HTTP library for the ProximityBeacon API.
+ * The typed calls of {@link ProximityBeacon}, returning an {@link ApiFuture} instead of taking a
+ * callback. Each call is sent as soon as it is made, so calls that don't depend on one another
+ * can all be started up front and their futures combined, and a screen loads in the time of its
+ * slowest request rather than the sum of them. Cancelling a future aborts its request.
  * https://developers.google.com/beacons/proximity/reference/rest/
  */
-public interface ProximityBeacon {
+public interface ProximityBeaconAsync {
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beaconinfo/getforobserved
    */
-  void getForObserved(Callback callback, JSONObject requestBody, String apiKey);
+  ApiFuture<List<ObservedBeacon>> getForObserved(JSONObject requestBody, String apiKey);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/activate
    */
-  void activateBeacon(Callback callback, String beaconName);
+  ApiFuture<Void> activateBeacon(String beaconName);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/deactivate
    */
-  void deactivateBeacon(Callback callback, String beaconName);
+  ApiFuture<Void> deactivateBeacon(String beaconName);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/decommission
    */
-  void decommissionBeacon(Callback callback, String beaconName);
+  ApiFuture<Void> decommissionBeacon(String beaconName);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/get
    */
-  void getBeacon(Callback callback, String beaconName);
+  ApiFuture<BeaconRecord> getBeacon(String beaconName);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/list
    */
-  void listBeacons(Callback callback, String query);
+  ApiFuture<BeaconPage> listBeacons(String query, int pageSize, String pageToken);
+
+  /**
+   * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/register
+   */
+  ApiFuture<BeaconRecord> registerBeacon(BeaconRecord beacon);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/register
    */
-  void registerBeacon(Callback callback, JSONObject requestBody);
+  ApiFuture<BeaconRecord> registerBeacon(JSONObject requestBody);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons/update
    */
-  void updateBeacon(Callback callback, String beaconName, JSONObject requestBody);
+  ApiFuture<BeaconRecord> updateBeacon(String beaconName, BeaconRecord beacon);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/batchDelete
    */
-  void batchDeleteAttachments(Callback callback, String beaconName);
+  ApiFuture<Integer> batchDeleteAttachments(String beaconName, String namespacedType);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/create
    */
-  void createAttachment(Callback callback, String beaconName, JSONObject requestBody);
+  ApiFuture<Attachment> createAttachment(String beaconName, JSONObject requestBody);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/delete
    */
-  void deleteAttachment(Callback callback, String attachmentName);
+  ApiFuture<Void> deleteAttachment(String attachmentName);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.attachments/list
    */
-  void listAttachments(Callback callback, String beaconName);
+  ApiFuture<List<Attachment>> listAttachments(String beaconName);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/beacons.diagnostics/list
    */
-  void listDiagnostics(Callback callback, String beaconName);
+  ApiFuture<List<Diagnostics>> listDiagnostics(String beaconName);
 
   /**
    * https://developers.google.com/beacons/proximity/reference/rest/v1beta1/namespaces/list
    */
-  void listNamespaces(Callback callback);
+  ApiFuture<List<Namespace>> listNamespaces();
 
 }
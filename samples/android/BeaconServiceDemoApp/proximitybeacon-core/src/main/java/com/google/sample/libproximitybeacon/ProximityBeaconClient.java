@@ -0,0 +1,1380 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * A {@link ProximityBeacon} over OkHttp that needs nothing from Android, so it runs as well in a
+ * command-line tool or on a server as it does in an app. Raw callbacks are run on the executor
+ * given to {@link Builder#setCallbackExecutor}, or on an OkHttp thread if none was given. The
+ * typed calls are also offered as futures through {@link ProximityBeaconAsync}.
+ */
+public class ProximityBeaconClient implements ProximityBeacon, ProximityBeaconAsync {
+  private static final Logger logger = Logger.getLogger(ProximityBeaconClient.class.getName());
+  private static final String ENDPOINT = "https://proximitybeacon.googleapis.com/v1beta1/";
+  public static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=utf-8");
+
+  private static final int GET = 0;
+  private static final int PUT = 1;
+  private static final int POST = 2;
+  private static final int DELETE = 3;
+
+  private static final int HTTP_UNAUTHORIZED = 401;
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  // POSTs that are safe to repeat: a lookup, and state changes that end in the same state.
+  private static final Set<String> IDEMPOTENT_POSTS = new HashSet<>(Arrays.asList(
+      "beaconinfo.getforobserved", "beacons.activate", "beacons.deactivate",
+      "beacons.decommission", "beacons.attachments.batchDelete"));
+
+  // Enough idle connections to serve a full dispatcher's worth of HTTP/1.1 requests to the API.
+  public static final int DEFAULT_MAX_IDLE_CONNECTIONS =
+      RequestDispatcher.DEFAULT_MAX_REQUESTS_PER_HOST;
+  public static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+  public static final List<Protocol> DEFAULT_PROTOCOLS =
+      Collections.unmodifiableList(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+
+  private static final RequestDispatcher defaultDispatcher = new RequestDispatcher();
+
+  private static final Executor directExecutor = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  // By default all clients report into one set of metrics.
+  private static final RequestMetrics defaultRequestMetrics = new RequestMetrics();
+
+  // Every client is cloned from this one unless told otherwise, so they all share its connection
+  // pool and TLS session cache and a new client doesn't mean a new handshake.
+  private static final OkHttpClient defaultHttpClient = createDefaultHttpClient();
+
+  private final AuthProvider authProvider;
+  private final String baseUrl;
+  private final RequestDispatcher dispatcher;
+  private final Executor callbackExecutor;
+  private final OkHttpClient httpClient;
+  private final RegistryCache cache;
+  private final RetryPolicy retryPolicy;
+  private final RateLimiter rateLimiter;  // null if requests aren't rate limited
+  private final RetryStats retryStats = new RetryStats();
+  private final RequestListener requestListener;
+  private final long slowRequestNanos;
+  private final SingleFlight inFlightGets = new SingleFlight();
+  private final RequestScope scope;
+
+  public ProximityBeaconClient(AuthProvider authProvider) {
+    this(new Builder(authProvider));
+  }
+
+  public ProximityBeaconClient(AuthProvider authProvider, RequestDispatcher dispatcher) {
+    this(new Builder(authProvider).setDispatcher(dispatcher));
+  }
+
+  public ProximityBeaconClient(AuthProvider authProvider, RequestDispatcher dispatcher,
+                               RegistryCache cache) {
+    this(new Builder(authProvider).setDispatcher(dispatcher).setRegistryCache(cache));
+  }
+
+  protected ProximityBeaconClient(Builder builder) {
+    this.authProvider = builder.authProvider;
+    this.baseUrl = builder.baseUrl;
+    this.callbackExecutor = builder.callbackExecutor;
+    this.dispatcher = builder.dispatcher;
+    this.cache = builder.cache != null ? builder.cache : new RegistryCache();
+    this.retryPolicy = builder.retryPolicy;
+    this.rateLimiter = builder.rateLimiter;
+    this.requestListener = builder.requestListener;
+    this.slowRequestNanos = builder.slowRequestNanos;
+    this.scope = builder.scope != null ? builder.scope : new RequestScope();
+    // A clone shares the template's pool and TLS state but keeps its own settings.
+    this.httpClient = builder.httpClient.clone();
+    this.httpClient.setDispatcher(dispatcher.getHttpDispatcher());
+    if (builder.connectionPool != null) {
+      httpClient.setConnectionPool(builder.connectionPool);
+    }
+    if (builder.connectTimeoutMillis >= 0) {
+      httpClient.setConnectTimeout(builder.connectTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    if (builder.readTimeoutMillis >= 0) {
+      httpClient.setReadTimeout(builder.readTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    if (builder.writeTimeoutMillis >= 0) {
+      httpClient.setWriteTimeout(builder.writeTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    if (builder.protocols != null) {
+      httpClient.setProtocols(builder.protocols);
+    }
+    // The clone has its own interceptor lists, so these don't touch the template's. The call
+    // timer goes first so that it sees the call start before any other interceptor runs.
+    httpClient.interceptors().add(0, new CallTimer());
+    httpClient.networkInterceptors().add(new NetworkObserver());
+    // Wrapped factories compare equal to one another, so connections are still pooled across
+    // clients.
+    httpClient.setSocketFactory(TimingSocketFactory.wrap(httpClient.getSocketFactory()));
+    httpClient.setSslSocketFactory(TimingSslSocketFactory.wrap(httpClient.getSslSocketFactory()));
+  }
+
+  private static OkHttpClient createDefaultHttpClient() {
+    OkHttpClient client = new OkHttpClient();
+    client.setConnectionPool(
+        new ConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_MILLIS));
+    client.setProtocols(DEFAULT_PROTOCOLS);
+    client.setConnectTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    client.setReadTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    client.setWriteTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    return client;
+  }
+
+  /**
+   * The connection pool shared by every client not given a pool or template client of its own.
+   */
+  public static ConnectionPool getDefaultConnectionPool() {
+    return defaultHttpClient.getConnectionPool();
+  }
+
+  /**
+   * The metrics every client reports into unless given a {@link RequestListener} of its own.
+   */
+  public static RequestMetrics getDefaultRequestMetrics() {
+    return defaultRequestMetrics;
+  }
+
+  @Override
+  public Cancellable getForObserved(Callback callback, JSONObject requestBody, String apiKey) {
+    // The authorization step here isn't strictly necessary. The API key is enough.
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beaconinfo.getforobserved",
+        "beaconinfo:getforobserved?key=" + apiKey, POST, requestBody.toString(), call));
+  }
+
+  @Override
+  public ApiFuture<List<ObservedBeacon>> getForObserved(JSONObject requestBody, String apiKey) {
+    ApiFuture<List<ObservedBeacon>> future = new ApiFuture<>();
+    return send(future, new AuthTask("beaconinfo.getforobserved",
+        "beaconinfo:getforobserved?key=" + apiKey, POST, requestBody.toString(),
+        decoding(Decoders.OBSERVED_BEACONS, future.asCallback())));
+  }
+
+  @Override
+  public Cancellable activateBeacon(Callback callback, String beaconName) {
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beacons.activate", beaconName + ":activate", POST, "",
+        invalidatingBeacon(beaconName, call)));
+  }
+
+  @Override
+  public ApiFuture<Void> activateBeacon(String beaconName) {
+    ApiFuture<Void> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.activate", beaconName + ":activate", POST, "",
+        invalidatingBeacon(beaconName, decoding(Decoders.EMPTY, future.asCallback()))));
+  }
+
+  @Override
+  public Cancellable deactivateBeacon(Callback callback, String beaconName) {
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beacons.deactivate", beaconName + ":deactivate", POST, "",
+        invalidatingBeacon(beaconName, call)));
+  }
+
+  @Override
+  public ApiFuture<Void> deactivateBeacon(String beaconName) {
+    ApiFuture<Void> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.deactivate", beaconName + ":deactivate", POST, "",
+        invalidatingBeacon(beaconName, decoding(Decoders.EMPTY, future.asCallback()))));
+  }
+
+  @Override
+  public Cancellable decommissionBeacon(Callback callback, String beaconName) {
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beacons.decommission", beaconName + ":decommission", POST, "",
+        invalidatingBeacon(beaconName, call)));
+  }
+
+  @Override
+  public ApiFuture<Void> decommissionBeacon(String beaconName) {
+    ApiFuture<Void> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.decommission", beaconName + ":decommission", POST,
+        "", invalidatingBeacon(beaconName, decoding(Decoders.EMPTY, future.asCallback()))));
+  }
+
+  @Override
+  public Cancellable getBeacon(Callback callback, String beaconName) {
+    return new RawCall(callback).get("beacons.get", beaconName);
+  }
+
+  @Override
+  public Cancellable getBeacon(ResultCallback<BeaconRecord> callback, Executor executor,
+                               String beaconName) {
+    return getBeacon(beaconName).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<BeaconRecord> getBeacon(final String beaconName) {
+    RegistryCache.Entry<BeaconRecord> cached = cache.getBeacon(beaconName);
+    if (cached != null) {
+      return completed(cached);
+    }
+    final ApiFuture<BeaconRecord> future = new ApiFuture<>();
+    final long generation = cache.getGeneration();
+    get("beacons.get", beaconName, future, decoding(Decoders.BEACON,
+        new ResultCallback<BeaconRecord>() {
+          @Override
+          public void onSuccess(BeaconRecord beacon) {
+            cache.putBeacon(beaconName, beacon, generation);
+            future.complete(beacon);
+          }
+
+          @Override
+          public void onFailure(ApiException e) {
+            cache.putBeaconError(beaconName, e, generation);
+            future.fail(e);
+          }
+        }));
+    return future;
+  }
+
+  @Override
+  public Cancellable listBeacons(Callback callback, String query) {
+    return new RawCall(callback).get("beacons.list", "beacons" + "?q=" + query);
+  }
+
+  @Override
+  public Cancellable listBeacons(ResultCallback<BeaconPage> callback, Executor executor,
+                                 String query, int pageSize, String pageToken) {
+    return listBeacons(query, pageSize, pageToken).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<BeaconPage> listBeacons(String query, int pageSize, String pageToken) {
+    StringBuilder urlPart = new StringBuilder("beacons?pageSize=").append(pageSize);
+    if (query != null) {
+      urlPart.append("&q=").append(urlEncode(query));
+    }
+    if (pageToken != null) {
+      urlPart.append("&pageToken=").append(urlEncode(pageToken));
+    }
+    ApiFuture<BeaconPage> future = new ApiFuture<>();
+    get("beacons.list", urlPart.toString(), future,
+        decoding(Decoders.BEACON_PAGE, future.asCallback()));
+    return future;
+  }
+
+  @Override
+  public Cancellable registerBeacon(Callback callback, JSONObject requestBody) {
+    // The beacon's name isn't known until the response is read, so drop everything rather than
+    // risk serving a cached UNREGISTERED for it.
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beacons.register", "beacons:register", POST,
+        requestBody.toString(), new WriteThrough(call) {
+          @Override
+          void onSuccess() {
+            cache.clear();
+          }
+        }));
+  }
+
+  @Override
+  public Cancellable registerBeacon(ResultCallback<BeaconRecord> callback, Executor executor,
+                                    BeaconRecord beacon) {
+    return registerBeacon(beacon).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<BeaconRecord> registerBeacon(BeaconRecord beacon) {
+    ApiFuture<BeaconRecord> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.register", "beacons:register", POST,
+        JsonCodec.beaconRequestBody(beacon),
+        decoding(Decoders.BEACON, updatingBeacon(future.asCallback()))));
+  }
+
+  @Override
+  public Cancellable registerBeacon(ResultCallback<BeaconRecord> callback, Executor executor,
+                                    JSONObject requestBody) {
+    return registerBeacon(requestBody).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<BeaconRecord> registerBeacon(JSONObject requestBody) {
+    ApiFuture<BeaconRecord> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.register", "beacons:register", POST,
+        requestBody.toString(), decoding(Decoders.BEACON, updatingBeacon(future.asCallback()))));
+  }
+
+  @Override
+  public Cancellable updateBeacon(Callback callback, String beaconName, JSONObject requestBody) {
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beacons.update", beaconName, PUT, requestBody.toString(),
+        invalidatingBeacon(beaconName, call)));
+  }
+
+  @Override
+  public Cancellable updateBeacon(ResultCallback<BeaconRecord> callback, Executor executor,
+                                  String beaconName, BeaconRecord beacon) {
+    return updateBeacon(beaconName, beacon).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<BeaconRecord> updateBeacon(String beaconName, BeaconRecord beacon) {
+    ApiFuture<BeaconRecord> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.update", beaconName, PUT,
+        JsonCodec.beaconRequestBody(beacon), invalidatingBeacon(beaconName,
+            decoding(Decoders.BEACON, updatingBeacon(future.asCallback())))));
+  }
+
+  @Override
+  public Cancellable batchDeleteAttachments(Callback callback, String beaconName) {
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beacons.attachments.batchDelete",
+        beaconName + "/attachments:batchDelete", POST, "",
+        invalidatingAttachments(beaconName, call)));
+  }
+
+  @Override
+  public Cancellable batchDeleteAttachments(ResultCallback<Integer> callback, Executor executor,
+                                            String beaconName, String namespacedType) {
+    return batchDeleteAttachments(beaconName, namespacedType).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<Integer> batchDeleteAttachments(String beaconName, String namespacedType) {
+    String urlPart = beaconName + "/attachments:batchDelete";
+    if (namespacedType != null) {
+      urlPart += "?namespacedType=" + urlEncode(namespacedType);
+    }
+    ApiFuture<Integer> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.attachments.batchDelete", urlPart, POST, "",
+        invalidatingAttachments(beaconName,
+            decoding(Decoders.NUM_DELETED, future.asCallback()))));
+  }
+
+  @Override
+  public Cancellable createAttachment(Callback callback, String beaconName,
+                                      JSONObject requestBody) {
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beacons.attachments.create", beaconName + "/attachments",
+        POST, requestBody.toString(), invalidatingAttachments(beaconName, call)));
+  }
+
+  @Override
+  public Cancellable createAttachment(ResultCallback<Attachment> callback, Executor executor,
+                                      String beaconName, JSONObject requestBody) {
+    return createAttachment(beaconName, requestBody).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<Attachment> createAttachment(String beaconName, JSONObject requestBody) {
+    ApiFuture<Attachment> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.attachments.create", beaconName + "/attachments",
+        POST, requestBody.toString(), invalidatingAttachments(beaconName,
+            decoding(Decoders.ATTACHMENT, future.asCallback()))));
+  }
+
+  @Override
+  public Cancellable deleteAttachment(Callback callback, String attachmentName) {
+    RawCall call = new RawCall(callback);
+    return call.send(new AuthTask("beacons.attachments.delete", attachmentName, DELETE, "",
+        invalidatingAttachments(beaconNameOf(attachmentName), call)));
+  }
+
+  @Override
+  public ApiFuture<Void> deleteAttachment(String attachmentName) {
+    ApiFuture<Void> future = new ApiFuture<>();
+    return send(future, new AuthTask("beacons.attachments.delete", attachmentName, DELETE, "",
+        invalidatingAttachments(beaconNameOf(attachmentName),
+            decoding(Decoders.EMPTY, future.asCallback()))));
+  }
+
+  @Override
+  public Cancellable listAttachments(Callback callback, String beaconName) {
+    return new RawCall(callback).get("beacons.attachments.list",
+        beaconName + "/attachments?namespacedType=*/*");
+  }
+
+  @Override
+  public Cancellable listAttachments(ResultCallback<List<Attachment>> callback, Executor executor,
+                                     String beaconName) {
+    return listAttachments(beaconName).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<List<Attachment>> listAttachments(final String beaconName) {
+    RegistryCache.Entry<List<Attachment>> cached = cache.getAttachments(beaconName);
+    if (cached != null) {
+      return completed(cached);
+    }
+    final ApiFuture<List<Attachment>> future = new ApiFuture<>();
+    final long generation = cache.getGeneration();
+    get("beacons.attachments.list", beaconName + "/attachments?namespacedType=*/*", future,
+        decoding(Decoders.ATTACHMENTS, new ResultCallback<List<Attachment>>() {
+          @Override
+          public void onSuccess(List<Attachment> attachments) {
+            // The same list may be handed out again from the cache.
+            attachments = Collections.unmodifiableList(attachments);
+            cache.putAttachments(beaconName, attachments, generation);
+            future.complete(attachments);
+          }
+
+          @Override
+          public void onFailure(ApiException e) {
+            future.fail(e);
+          }
+        }));
+    return future;
+  }
+
+  @Override
+  public Cancellable listDiagnostics(Callback callback, String beaconName) {
+    return new RawCall(callback).get("beacons.diagnostics.list", beaconName + "/diagnostics");
+  }
+
+  @Override
+  public Cancellable listDiagnostics(ResultCallback<List<Diagnostics>> callback,
+                                     Executor executor, String beaconName) {
+    return listDiagnostics(beaconName).addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<List<Diagnostics>> listDiagnostics(String beaconName) {
+    ApiFuture<List<Diagnostics>> future = new ApiFuture<>();
+    get("beacons.diagnostics.list", beaconName + "/diagnostics", future,
+        decoding(Decoders.DIAGNOSTICS, future.asCallback()));
+    return future;
+  }
+
+  @Override
+  public Cancellable listNamespaces(Callback callback) {
+    return new RawCall(callback).get("namespaces.list", "namespaces");
+  }
+
+  @Override
+  public Cancellable listNamespaces(ResultCallback<List<Namespace>> callback, Executor executor) {
+    return listNamespaces().addCallback(callback, executor);
+  }
+
+  @Override
+  public ApiFuture<List<Namespace>> listNamespaces() {
+    ApiFuture<List<Namespace>> future = new ApiFuture<>();
+    get("namespaces.list", "namespaces", future,
+        decoding(Decoders.NAMESPACES, future.asCallback()));
+    return future;
+  }
+
+  /**
+   * The cache that typed and future {@code getBeacon} and {@code listAttachments} calls are
+   * served from.
+   * Raw {@link Callback} reads always go to the network.
+   */
+  public RegistryCache getRegistryCache() {
+    return cache;
+  }
+
+  /**
+   * The scope every call made through this client is kept in until it completes. Cancelling it
+   * cancels them all, and any made afterwards.
+   */
+  public RequestScope getScope() {
+    return scope;
+  }
+
+  /**
+   * Per-endpoint retry and rate limiting figures for requests made through this client.
+   */
+  public RetryStats getRetryStats() {
+    return retryStats;
+  }
+
+  /**
+   * The number of GET requests made through this client, including collapsed ones.
+   */
+  public long getGetRequestCount() {
+    return inFlightGets.getRequestCount();
+  }
+
+  /**
+   * The number of GET requests that were answered by an identical call already in flight rather
+   * than going to the network themselves.
+   */
+  public long getCollapsedRequestCount() {
+    return inFlightGets.getCollapsedCount();
+  }
+
+  // GETs are idempotent, so identical ones in flight at the same time share a single call.
+  // Cancelling a shared GET only detaches this caller; the call goes on while others wait on it.
+  private Cancellable get(String endpoint, final String urlPart, final Callback callback) {
+    SingleFlight.FanOut leader = inFlightGets.join(urlPart, callback);
+    if (leader != null) {
+      AuthTask task = new AuthTask(endpoint, urlPart, leader);
+      leader.setCanceler(task);
+      task.execute();
+    }
+    return new Cancellable() {
+      @Override
+      public void cancel() {
+        inFlightGets.leave(urlPart, callback);
+      }
+    };
+  }
+
+  // Futures are scoped before their requests start, so that a cancelled scope stops them from
+  // going out.
+
+  private void get(String endpoint, String urlPart, ApiFuture<?> future, Callback callback) {
+    scoped(future);
+    if (!future.isCancelled()) {
+      future.setCanceler(get(endpoint, urlPart, callback));
+    }
+  }
+
+  private <T> ApiFuture<T> send(ApiFuture<T> future, AuthTask task) {
+    scoped(future);
+    future.setCanceler(task);
+    task.execute();
+    return future;
+  }
+
+  // Keeps a future in the client's scope until it is done.
+  private <T> ApiFuture<T> scoped(final ApiFuture<T> future) {
+    scope.add(future);
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        scope.remove(future);
+      }
+    });
+    return future;
+  }
+
+  private static String urlEncode(String s) {
+    try {
+      return URLEncoder.encode(s, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);  // UTF-8 is always supported
+    }
+  }
+
+  // Attachment names have the form beacons/{beacon}/attachments/{attachment}.
+  private static String beaconNameOf(String attachmentName) {
+    int end = attachmentName.indexOf("/attachments/");
+    return end < 0 ? attachmentName : attachmentName.substring(0, end);
+  }
+
+  private static <T> ApiFuture<T> completed(RegistryCache.Entry<T> entry) {
+    ApiFuture<T> future = new ApiFuture<>();
+    if (entry.error != null) {
+      future.fail(entry.error);
+    } else {
+      future.complete(entry.value);
+    }
+    return future;
+  }
+
+  private ResultCallback<BeaconRecord> updatingBeacon(final ResultCallback<BeaconRecord> callback) {
+    return new ResultCallback<BeaconRecord>() {
+      @Override
+      public void onSuccess(BeaconRecord beacon) {
+        if (beacon.getBeaconName() != null) {
+          cache.updateBeacon(beacon.getBeaconName(), beacon);
+        }
+        callback.onSuccess(beacon);
+      }
+
+      @Override
+      public void onFailure(ApiException e) {
+        callback.onFailure(e);
+      }
+    };
+  }
+
+  private Callback invalidatingBeacon(final String beaconName, Callback callback) {
+    return new WriteThrough(callback) {
+      @Override
+      void onSuccess() {
+        cache.invalidateBeacon(beaconName);
+      }
+    };
+  }
+
+  private Callback invalidatingAttachments(final String beaconName, Callback callback) {
+    return new WriteThrough(callback) {
+      @Override
+      void onSuccess() {
+        cache.invalidateAttachments(beaconName);
+      }
+    };
+  }
+
+  /**
+   * A raw call's handle and the end of its callback chain. Cancelling it aborts the request and
+   * drops the caller's callback, even if the response is already queued on the callback executor,
+   * so a screen that has gone away never hears back. It stays in the client's scope until it has
+   * been delivered or cancelled.
+   */
+  private class RawCall implements Callback, Cancellable {
+    private final HttpCallback delivery;
+    private volatile boolean canceled;
+    private volatile Cancellable request;
+
+    RawCall(final Callback callback) {
+      this.delivery = new HttpCallback(new Callback() {
+        @Override
+        public void onFailure(Request request, IOException e) {
+          if (!canceled) {
+            callback.onFailure(request, e);
+          }
+        }
+
+        @Override
+        public void onResponse(Response response) throws IOException {
+          if (canceled) {
+            response.body().close();
+            return;
+          }
+          callback.onResponse(response);
+        }
+      }, callbackExecutor);
+    }
+
+    // Each call is scoped before it starts, so that a cancelled scope stops it from going out.
+
+    Cancellable send(AuthTask task) {
+      request = task;
+      scope.add(this);
+      task.execute();
+      return this;
+    }
+
+    Cancellable get(String endpoint, String urlPart) {
+      scope.add(this);
+      if (!canceled) {
+        Cancellable request = ProximityBeaconClient.this.get(endpoint, urlPart, this);
+        this.request = request;
+        // A cancel() that ran before the request was published couldn't reach it.
+        if (canceled) {
+          request.cancel();
+        }
+      }
+      return this;
+    }
+
+    @Override
+    public void cancel() {
+      canceled = true;
+      scope.remove(this);
+      Cancellable request = this.request;
+      if (request != null) {
+        request.cancel();
+      }
+    }
+
+    @Override
+    public void onFailure(Request request, IOException e) {
+      scope.remove(this);
+      delivery.onFailure(request, e);
+    }
+
+    @Override
+    public void onResponse(Response response) throws IOException {
+      scope.remove(this);
+      delivery.onResponse(response);
+    }
+  }
+
+  /**
+   * Passes a response through, first calling {@link #onSuccess} if it is a 2xx. This runs on the
+   * OkHttp thread, so the cache no longer holds the old state by the time the caller hears back.
+   */
+  private abstract static class WriteThrough implements Callback {
+    private final Callback delegate;
+
+    WriteThrough(Callback delegate) {
+      this.delegate = delegate;
+    }
+
+    abstract void onSuccess();
+
+    @Override
+    public void onFailure(Request request, IOException e) {
+      delegate.onFailure(request, e);
+    }
+
+    @Override
+    public void onResponse(Response response) throws IOException {
+      if (response.isSuccessful()) {
+        onSuccess();
+      }
+      delegate.onResponse(response);
+    }
+  }
+
+  // Decodes on the OkHttp thread and completes the caller's future there; the future's own
+  // callbacks take care of moving to the caller's executor.
+  private static <T> Callback decoding(ResponseDecoder<T> decoder, ResultCallback<T> callback) {
+    return new DecodingCallback<>(decoder, directExecutor, callback);
+  }
+
+  /**
+   * Configures a {@link ProximityBeaconClient}. Anything left unset comes from a template client
+   * shared by all instances, so building a client per screen or per scan costs no new
+   * connections. Settings made here apply only to the client being built.
+   */
+  public static final class Builder {
+    private final AuthProvider authProvider;
+    private String baseUrl = ENDPOINT;
+    private RequestDispatcher dispatcher = defaultDispatcher;
+    private Executor callbackExecutor = directExecutor;
+    private RegistryCache cache;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private RateLimiter rateLimiter;
+    private RequestListener requestListener = defaultRequestMetrics;
+    private long slowRequestNanos = -1;
+    private RequestScope scope;
+    private OkHttpClient httpClient = defaultHttpClient;
+    private ConnectionPool connectionPool;
+    private long connectTimeoutMillis = -1;
+    private long readTimeoutMillis = -1;
+    private long writeTimeoutMillis = -1;
+    private List<Protocol> protocols;
+
+    public Builder(AuthProvider authProvider) {
+      this.authProvider = authProvider;
+    }
+
+    /**
+     * A builder with the same settings as {@code other}, which is left untouched by changes to
+     * this one.
+     */
+    public Builder(Builder other) {
+      this.authProvider = other.authProvider;
+      this.baseUrl = other.baseUrl;
+      this.dispatcher = other.dispatcher;
+      this.callbackExecutor = other.callbackExecutor;
+      this.cache = other.cache;
+      this.retryPolicy = other.retryPolicy;
+      this.rateLimiter = other.rateLimiter;
+      this.requestListener = other.requestListener;
+      this.slowRequestNanos = other.slowRequestNanos;
+      this.scope = other.scope;
+      this.httpClient = other.httpClient;
+      this.connectionPool = other.connectionPool;
+      this.connectTimeoutMillis = other.connectTimeoutMillis;
+      this.readTimeoutMillis = other.readTimeoutMillis;
+      this.writeTimeoutMillis = other.writeTimeoutMillis;
+      this.protocols = other.protocols;
+    }
+
+    /**
+     * Sends requests to {@code baseUrl} instead of the production API, e.g. to a local fake
+     * server. Resource paths are appended to it, so it should end in {@code /v1beta1/}.
+     */
+    public Builder setBaseUrl(String baseUrl) {
+      this.baseUrl = baseUrl;
+      return this;
+    }
+
+    public Builder setDispatcher(RequestDispatcher dispatcher) {
+      this.dispatcher = dispatcher;
+      return this;
+    }
+
+    public Builder setRegistryCache(RegistryCache cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * Where raw {@link Callback}s are run. Defaults to the OkHttp thread that read the response;
+     * an app would pass a main-thread executor here.
+     */
+    public Builder setCallbackExecutor(Executor executor) {
+      this.callbackExecutor = executor;
+      return this;
+    }
+
+    public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Spaces requests out through {@code rateLimiter}, e.g. to stay under a project's quota. Off
+     * by default, since the retry policy already backs off when the server answers 429. Quota is
+     * per project, so pass the same limiter to every client for a project.
+     */
+    public Builder setRateLimiter(RateLimiter rateLimiter) {
+      this.rateLimiter = rateLimiter;
+      return this;
+    }
+
+    /**
+     * Reports requests to {@code requestListener} instead of the shared
+     * {@link #getDefaultRequestMetrics() default metrics}.
+     */
+    public Builder setRequestListener(RequestListener requestListener) {
+      this.requestListener = requestListener;
+      return this;
+    }
+
+    /**
+     * Logs the {@link RequestTiming} of every request that takes at least {@code threshold}, to
+     * see which phase a slow request spent its time in. Off by default.
+     */
+    public Builder setSlowRequestThreshold(long threshold, TimeUnit unit) {
+      this.slowRequestNanos = unit.toNanos(threshold);
+      return this;
+    }
+
+    /**
+     * Keeps calls in {@code scope} rather than a scope of the client's own, e.g. so that one
+     * scope spans several clients and other work of a screen.
+     */
+    public Builder setScope(RequestScope scope) {
+      this.scope = scope;
+      return this;
+    }
+
+    /**
+     * Uses a clone of {@code httpClient} in place of the default template, e.g. to share an app's
+     * existing connection pool, interceptors or certificate pins. Its dispatcher is replaced.
+     */
+    public Builder setHttpClient(OkHttpClient httpClient) {
+      this.httpClient = httpClient;
+      return this;
+    }
+
+    /**
+     * Uses {@code connectionPool} instead of the template's. A pool only saves handshakes if it
+     * is shared, so pass the same one to every client that should reuse connections.
+     */
+    public Builder setConnectionPool(ConnectionPool connectionPool) {
+      this.connectionPool = connectionPool;
+      return this;
+    }
+
+    public Builder setConnectTimeout(long timeout, TimeUnit unit) {
+      this.connectTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    public Builder setReadTimeout(long timeout, TimeUnit unit) {
+      this.readTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    public Builder setWriteTimeout(long timeout, TimeUnit unit) {
+      this.writeTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    /**
+     * The protocols to offer, in order of preference; must include HTTP/1.1. With HTTP/2,
+     * concurrent requests are multiplexed over a single connection.
+     */
+    public Builder setProtocols(List<Protocol> protocols) {
+      this.protocols = protocols;
+      return this;
+    }
+
+    public ProximityBeaconClient build() {
+      if (authProvider == null) {
+        throw new IllegalStateException("authProvider == null");
+      }
+      return new ProximityBeaconClient(this);
+    }
+  }
+
+  /**
+   * Fetches a token and issues the request, retrying it as the {@link RetryPolicy} allows. The
+   * callback is invoked once, on an OkHttp thread or, if no response was received, possibly on a
+   * dispatcher thread. Cancelling gives the request's dispatcher slot back straight away and
+   * fails the callback with an IOException, on the cancelling thread; the call in progress is
+   * aborted and nothing is retried.
+   */
+  private class AuthTask implements Runnable, Cancellable {
+
+    public static final String AUTHORIZATION = "Authorization";
+    public static final String BEARER = "Bearer ";
+    public static final String RETRY_AFTER = "Retry-After";
+    private final String endpoint;
+    private final String urlPart;
+    private final int method;
+    private final RequestBody body;
+    private final boolean idempotent;
+    private final Callback callback;
+
+    // Only one attempt is ever underway, so these are touched by one thread at a time.
+    private int attempts;
+    private boolean reauthorized;
+    // Whether the next run already holds a rate limiter permit it was made to wait for.
+    private boolean permitReserved;
+
+    private long startNanos;
+    private final RequestTiming timing;
+    // Set once the final response has been handed over; its timing is then reported once the
+    // body has been read.
+    private volatile int finalHttpCode = -1;
+
+    private volatile boolean canceled;
+    private volatile Call call;
+    // Whether the task holds a dispatcher slot, and whether it has given it back. Cancelling
+    // races the task's own completion to do that.
+    private boolean accepted;  // guarded by this
+    private boolean released;  // guarded by this
+
+    AuthTask(String endpoint, String urlPart, Callback callback) {
+      this(endpoint, urlPart, GET, "", callback);
+    }
+
+    AuthTask(String endpoint, String urlPart, int method, String json, Callback callback) {
+      this(endpoint, urlPart, method, RequestBody.create(MEDIA_TYPE_JSON, json), callback);
+    }
+
+    AuthTask(String endpoint, String urlPart, int method, RequestBody body, Callback callback) {
+      this.endpoint = endpoint;
+      this.urlPart = urlPart;
+      this.method = method;
+      this.body = body;
+      this.idempotent = method != POST || IDEMPOTENT_POSTS.contains(endpoint);
+      this.callback = callback;
+      this.timing = new RequestTiming(endpoint);
+    }
+
+    void execute() {
+      synchronized (this) {
+        // Cancelled before it was made, e.g. by a scope that has already been cancelled.
+        if (canceled) {
+          return;
+        }
+        startNanos = System.nanoTime();
+        timing.mark(startNanos);
+        requestListener.onRequestStart(endpoint);
+        accepted = dispatcher.submit(this);
+      }
+      if (!accepted) {
+        requestListener.onRequestEnd(endpoint, 0, System.nanoTime() - startNanos);
+        reportTiming(0);
+        callback.onFailure(null, new IOException("Too many outstanding requests"));
+      }
+    }
+
+    @Override
+    public void cancel() {
+      canceled = true;
+      Call call = this.call;
+      if (call != null) {
+        call.cancel();
+      }
+      dispatcher.withdraw(this);
+      // The attempt under way, if any, winds down on its own and is ignored. Its timing isn't
+      // reported, since it may still be updating it.
+      if (release(0)) {
+        callback.onFailure(null, canceledException());
+      }
+    }
+
+    @Override
+    public void run() {
+      if (canceled) {
+        return;  // cancel() has already finished the request
+      }
+      timing.endPhase(RequestTiming.Phase.QUEUE);
+      if (rateLimiter != null && !permitReserved && holdBackForRateLimit()) {
+        return;
+      }
+      permitReserved = false;
+      attempts++;
+      try {
+        timing.mark(System.nanoTime());
+        String token = authProvider.getToken();
+        timing.endPhase(RequestTiming.Phase.TOKEN);
+        enqueue(buildRequest(token), new Attempt(token));
+      } catch (AuthException e) {
+        // The token source has already logged the details; the caller decides how to recover.
+        logger.log(Level.WARNING, "Unable to authorize " + endpoint, e);
+        fail(null, e);
+      } catch (IOException e) {
+        // The fetchToken() method handles Google-specific exceptions,
+        // so this indicates something went wrong at a higher level.
+        // TIP: Check for network connectivity before starting the request.
+        logger.log(Level.WARNING, "Unable to send " + endpoint, e);
+        retryOrFail(null, e);
+      }
+    }
+
+    /**
+     * Takes a permit for the attempt about to be made. If it can't be used yet, puts the task back
+     * on the dispatcher's timer until it can, rather than holding a dispatcher thread, and returns
+     * true.
+     */
+    private boolean holdBackForRateLimit() {
+      long waitNanos = rateLimiter.reserve();
+      if (waitNanos == 0) {
+        return false;
+      }
+      permitReserved = true;
+      retryStats.recordLimiterWait(endpoint, waitNanos);
+      timing.add(RequestTiming.Phase.RATE_LIMIT, waitNanos);
+      // As with a backoff, any wait beyond the limiter's own is spent queueing.
+      timing.mark(System.nanoTime() + waitNanos);
+      long nanosPerMilli = TimeUnit.MILLISECONDS.toNanos(1);
+      dispatcher.resubmit(this, (waitNanos + nanosPerMilli - 1) / nanosPerMilli);
+      return true;
+    }
+
+    private void enqueue(Request request, Callback attempt) {
+      timing.mark(System.nanoTime());
+      Call call = httpClient.newCall(request);
+      this.call = call;
+      // A cancel() that ran before the call was published couldn't reach it.
+      if (canceled) {
+        call.cancel();
+      }
+      call.enqueue(attempt);
+    }
+
+    private IOException canceledException() {
+      return new IOException("Canceled " + endpoint);
+    }
+
+    private void retryOrFail(Request request, IOException e) {
+      long delayMillis = canceled ? -1 : retryPolicy.delayAfterFailure(attempts, idempotent);
+      if (delayMillis < 0) {
+        fail(request, e);
+        return;
+      }
+      retryStats.recordRetry(endpoint);
+      resubmit(delayMillis);
+    }
+
+    private void resubmit(long delayMillis) {
+      long delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+      timing.add(RequestTiming.Phase.BACKOFF, delayNanos);
+      // Whatever the wait beyond the backoff itself, it is spent queueing.
+      timing.mark(System.nanoTime() + delayNanos);
+      dispatcher.resubmit(this, delayMillis);
+    }
+
+    private void fail(Request request, IOException e) {
+      if (release(0)) {
+        reportTiming(0);
+        callback.onFailure(request, e);
+      }
+    }
+
+    /**
+     * Gives back the task's dispatcher slot, unless that has been done already, and reports the
+     * end of the request. Returns false if it was done already, in which case the outcome should
+     * be dropped.
+     */
+    private boolean release(int httpCode) {
+      synchronized (this) {
+        if (!accepted || released) {
+          return false;
+        }
+        released = true;
+      }
+      dispatcher.finished();
+      // Time spent waiting for a dispatcher thread or the rate limiter says how busy this client
+      // is rather than how fast the API is, so it is left out of the latency.
+      long waitingNanos = timing.getNanos(RequestTiming.Phase.QUEUE)
+          + timing.getNanos(RequestTiming.Phase.RATE_LIMIT);
+      requestListener.onRequestEnd(endpoint, httpCode,
+          Math.max(System.nanoTime() - startNanos - waitingNanos, 0));
+      return true;
+    }
+
+    /**
+     * Called as each attempt's response body is finished with. Only the final one completes the
+     * request's timing.
+     */
+    void responseBodyDone() {
+      timing.endPhase(RequestTiming.Phase.BODY);
+      if (finalHttpCode >= 0) {
+        reportTiming(finalHttpCode);
+      }
+    }
+
+    private void reportTiming(int httpCode) {
+      timing.finished(httpCode, attempts, System.nanoTime() - startNanos);
+      requestListener.onRequestTiming(timing);
+      if (slowRequestNanos >= 0 && timing.getTotalNanos() >= slowRequestNanos) {
+        logger.warning("Slow request: " + timing);
+      }
+    }
+
+    private Request buildRequest(String token) {
+      Request.Builder requestBuilder = new Request.Builder()
+          .tag(this)
+          .header(AUTHORIZATION, BEARER + token)
+          .url(baseUrl + urlPart);
+      switch (method) {
+        case PUT:
+          requestBuilder.put(body);
+          break;
+        case POST:
+          requestBuilder.post(body);
+          break;
+        case DELETE:
+          requestBuilder.delete(body);
+          break;
+        default: break;
+      }
+      return requestBuilder.build();
+    }
+
+    /**
+     * Handles the outcome of one attempt. If the server rejects the token with a 401, e.g.
+     * because it was revoked before its expected expiry, the token is invalidated and the request
+     * reissued once straight away. Failures the retry policy covers go back to the dispatcher to
+     * be run again after a backoff; a 429 also pauses the rate limiter, if any, for everyone.
+     */
+    private class Attempt implements Callback {
+      private String token;
+
+      Attempt(String token) {
+        this.token = token;
+      }
+
+      @Override
+      public void onFailure(Request request, IOException e) {
+        retryOrFail(request, e);
+      }
+
+      @Override
+      public void onResponse(Response response) throws IOException {
+        if (response.code() == HTTP_UNAUTHORIZED && !reauthorized && !canceled) {
+          reauthorize(response);
+          return;
+        }
+        long delayMillis = canceled ? -1 : retryPolicy.delayAfterResponse(attempts,
+            response.code(), response.header(RETRY_AFTER), idempotent);
+        if (delayMillis < 0) {
+          if (!release(response.code())) {
+            response.body().close();
+            return;
+          }
+          finalHttpCode = response.code();
+          callback.onResponse(response);
+          return;
+        }
+        response.body().close();
+        if (response.code() == HTTP_TOO_MANY_REQUESTS && rateLimiter != null) {
+          rateLimiter.pause(delayMillis);
+        }
+        retryStats.recordRetry(endpoint);
+        resubmit(delayMillis);
+      }
+
+      private void reauthorize(Response response) throws IOException {
+        response.body().close();
+        Request retry;
+        try {
+          authProvider.invalidateToken(token);
+          timing.mark(System.nanoTime());
+          token = authProvider.getToken();
+          timing.endPhase(RequestTiming.Phase.TOKEN);
+          retry = buildRequest(token);
+        } catch (IOException e) {
+          fail(response.request(), e);
+          return;
+        }
+        reauthorized = true;
+        enqueue(retry, this);
+      }
+    }
+  }
+
+  /**
+   * Marks the end of an attempt's wait in OkHttp's dispatcher, and lets the socket factories time
+   * connection set-up for it while OkHttp connects on this thread. Requests are tagged with their
+   * {@link AuthTask}.
+   */
+  private class CallTimer implements Interceptor {
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      if (!(chain.request().tag() instanceof AuthTask)) {
+        return chain.proceed(chain.request());
+      }
+      RequestTiming timing = ((AuthTask) chain.request().tag()).timing;
+      timing.callStarted();
+      try {
+        return chain.proceed(chain.request());
+      } finally {
+        timing.callEnded();
+      }
+    }
+  }
+
+  /**
+   * Times each attempt from the connection being ready to the response headers arriving, and on
+   * to its body being finished with. Also reports the size of the request and response bodies as
+   * they cross the network, i.e. before the response is decompressed. Bodies are counted as they
+   * are written and read, since most are streamed and of unknown length.
+   */
+  private class NetworkObserver implements Interceptor {
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      Request request = chain.request();
+      if (!(request.tag() instanceof AuthTask)) {
+        return chain.proceed(request);
+      }
+      AuthTask task = (AuthTask) request.tag();
+      task.timing.connectionReady();
+      ByteCount count = new ByteCount(task);
+      if (request.body() != null) {
+        request = request.newBuilder()
+            .method(request.method(), new CountingRequestBody(request.body(), count))
+            .build();
+      }
+      Response response = chain.proceed(request);
+      task.timing.endPhase(RequestTiming.Phase.TTFB);
+      return response.newBuilder().body(new CountingResponseBody(response.body(), count)).build();
+    }
+  }
+
+  private class ByteCount {
+    private final AuthTask task;
+    private long bytesSent;
+    private long bytesReceived;
+    private boolean reported;
+
+    ByteCount(AuthTask task) {
+      this.task = task;
+    }
+
+    // Reading and closing happen on whichever thread consumes the body, one at a time.
+    void report() {
+      if (!reported) {
+        reported = true;
+        requestListener.onBytesTransferred(task.endpoint, bytesSent, bytesReceived);
+        task.responseBodyDone();
+      }
+    }
+  }
+
+  private static class CountingRequestBody extends RequestBody {
+    private final RequestBody delegate;
+    private final ByteCount count;
+
+    CountingRequestBody(RequestBody delegate, ByteCount count) {
+      this.delegate = delegate;
+      this.count = count;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+      return delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      BufferedSink counting = Okio.buffer(new ForwardingSink(sink) {
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+          super.write(source, byteCount);
+          count.bytesSent += byteCount;
+        }
+      });
+      delegate.writeTo(counting);
+      counting.emit();
+    }
+  }
+
+  private static class CountingResponseBody extends ResponseBody {
+    private final ResponseBody delegate;
+    private final ByteCount count;
+    private BufferedSource source;
+
+    CountingResponseBody(ResponseBody delegate, ByteCount count) {
+      this.delegate = delegate;
+      this.count = count;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+      return delegate.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() throws IOException {
+      if (source == null) {
+        source = Okio.buffer(new ForwardingSource(delegate.source()) {
+          @Override
+          public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read == -1) {
+              count.report();
+            } else {
+              count.bytesReceived += read;
+            }
+            return read;
+          }
+
+          @Override
+          public void close() throws IOException {
+            count.report();
+            super.close();
+          }
+        });
+      }
+      return source;
+    }
+  }
+}
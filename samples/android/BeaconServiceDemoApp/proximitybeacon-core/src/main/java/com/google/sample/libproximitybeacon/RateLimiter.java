@@ -0,0 +1,95 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that spaces requests out to stay under the API's quota.
+ *
+ * <p>The bucket holds up to {@code burst} permits and refills at {@code permitsPerSecond}; each
+ * request takes one. {@link #reserve} takes it straight away, running the bucket into debt if need
+ * be, and says how long to hold the request back, so a caller can schedule the request for later
+ * instead of tying up a thread. When the server answers 429 anyway, {@link #pause} holds every
+ * request back for the delay the server asked for, rather than letting the other requests in
+ * flight discover the same thing one at a time.
+ *
+ * <p>Clients don't use one unless given one. Quota is per project, so share one limiter between
+ * all clients for a project.
+ */
+public class RateLimiter {
+  private final double permitsPerNano;
+  private final double maxPermits;
+
+  // All guarded by this.
+  private double permits;
+  // When permits were last added, or while paused, when they will start to be again.
+  private long refilledAtNanos;
+
+  public RateLimiter(double permitsPerSecond, int burst) {
+    if (!(permitsPerSecond > 0) || burst < 1) {
+      throw new IllegalArgumentException("Invalid rate limit");
+    }
+    this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.maxPermits = burst;
+    this.permits = burst;
+    this.refilledAtNanos = System.nanoTime();
+  }
+
+  /**
+   * Takes a permit without blocking. Returns how long the caller should wait before using it, in
+   * nanoseconds; 0 if it may go ahead now.
+   */
+  public synchronized long reserve() {
+    long now = System.nanoTime();
+    refill(now);
+    permits -= 1;
+    // While paused the bucket doesn't start refilling until the pause is over.
+    long waitNanos = Math.max(0, refilledAtNanos - now);
+    if (permits < 0) {
+      waitNanos += (long) Math.ceil(-permits / permitsPerNano);
+    }
+    return waitNanos;
+  }
+
+  /**
+   * Takes a permit, blocking until it may be used. Returns the time spent waiting, in
+   * nanoseconds. Only for callers with a thread of their own to block.
+   */
+  public long acquire() throws InterruptedException {
+    long waitNanos = reserve();
+    TimeUnit.NANOSECONDS.sleep(waitNanos);
+    return waitNanos;
+  }
+
+  /**
+   * Empties the bucket and lets nothing through for {@code delayMillis}. Permits already
+   * reserved stay owed, so they are paid back once the pause is over.
+   */
+  public synchronized void pause(long delayMillis) {
+    long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    if (until - refilledAtNanos > 0) {
+      refilledAtNanos = until;
+    }
+    permits = Math.min(permits, 0);
+  }
+
+  private void refill(long now) {
+    if (now - refilledAtNanos > 0) {
+      permits = Math.min(maxPermits, permits + (now - refilledAtNanos) * permitsPerNano);
+      refilledAtNanos = now;
+    }
+  }
+}
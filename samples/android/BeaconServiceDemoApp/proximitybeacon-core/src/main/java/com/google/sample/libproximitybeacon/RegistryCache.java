@@ -0,0 +1,186 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded in-memory cache of beacon records and attachment lists, keyed by beacon name.
+ *
+ * <p>Entries expire after a fixed TTL, and once the cache holds {@code maxEntries} of a kind the
+ * least recently used is evicted. Lookups that failed because the beacon is unregistered (404) or
+ * belongs to someone else (403) are cached too, for a shorter time, so a beacon that is sighted
+ * over and over doesn't cost a request each time. {@link ProximityBeaconClient} keeps entries in
+ * step with its own successful writes; changes made elsewhere show up once entries expire.
+ */
+public class RegistryCache {
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+  public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final int HTTP_FORBIDDEN = 403;
+  private static final int HTTP_NOT_FOUND = 404;
+
+  /**
+   * A cached result: either a value or the error the server returned for it.
+   */
+  static final class Entry<V> {
+    final V value;
+    final ApiException error;
+    final long expiresAtNanos;
+
+    Entry(V value, ApiException error, long expiresAtNanos) {
+      this.value = value;
+      this.error = error;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+
+  private final Map<String, Entry<BeaconRecord>> beacons;  // guarded by this
+  private final Map<String, Entry<List<Attachment>>> attachments;  // guarded by this
+  private long generation;  // guarded by this
+  private long hitCount;  // guarded by this
+  private long missCount;  // guarded by this
+  private long evictionCount;  // guarded by this
+
+  public RegistryCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS);
+  }
+
+  public RegistryCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+    this.beacons = newLruMap();
+    this.attachments = newLruMap();
+  }
+
+  private <V> Map<String, Entry<V>> newLruMap() {
+    // Inside the subclass a bare Entry would resolve to the inherited Map.Entry.
+    return new LinkedHashMap<String, RegistryCache.Entry<V>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, RegistryCache.Entry<V>> eldest) {
+        if (size() > maxEntries) {
+          evictionCount++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  synchronized Entry<BeaconRecord> getBeacon(String beaconName) {
+    return lookup(beacons, beaconName);
+  }
+
+  synchronized Entry<List<Attachment>> getAttachments(String beaconName) {
+    return lookup(attachments, beaconName);
+  }
+
+  /**
+   * The current generation. Pass it back to the put methods so that a response to a request
+   * that started before an invalidation is not cached over it.
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  synchronized void putBeacon(String beaconName, BeaconRecord beacon, long startGeneration) {
+    if (startGeneration == generation) {
+      beacons.put(beaconName, new Entry<>(beacon, null, System.nanoTime() + ttlNanos));
+    }
+  }
+
+  /**
+   * Caches a failed beacon lookup if it failed for a reason that will still hold next time.
+   */
+  synchronized void putBeaconError(String beaconName, ApiException e, long startGeneration) {
+    if (startGeneration == generation
+        && (e.getHttpCode() == HTTP_NOT_FOUND || e.getHttpCode() == HTTP_FORBIDDEN)) {
+      beacons.put(beaconName,
+          new Entry<BeaconRecord>(null, e, System.nanoTime() + negativeTtlNanos));
+    }
+  }
+
+  synchronized void putAttachments(String beaconName, List<Attachment> list,
+                                   long startGeneration) {
+    if (startGeneration == generation) {
+      attachments.put(beaconName, new Entry<>(list, null, System.nanoTime() + ttlNanos));
+    }
+  }
+
+  /**
+   * Records a successful write of {@code beacon}, replacing whatever was cached for it.
+   */
+  synchronized void updateBeacon(String beaconName, BeaconRecord beacon) {
+    generation++;
+    beacons.put(beaconName, new Entry<>(beacon, null, System.nanoTime() + ttlNanos));
+  }
+
+  synchronized void invalidateBeacon(String beaconName) {
+    generation++;
+    beacons.remove(beaconName);
+  }
+
+  synchronized void invalidateAttachments(String beaconName) {
+    generation++;
+    attachments.remove(beaconName);
+  }
+
+  public synchronized void clear() {
+    generation++;
+    beacons.clear();
+    attachments.clear();
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * The number of entries dropped to stay within {@code maxEntries}. Expired entries are not
+   * counted here; they show up as misses.
+   */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  private <V> Entry<V> lookup(Map<String, Entry<V>> map, String key) {
+    Entry<V> entry = map.get(key);
+    if (entry != null && System.nanoTime() - entry.expiresAtNanos >= 0) {
+      map.remove(key);
+      entry = null;
+    }
+    if (entry == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    return entry;
+  }
+}
@@ -0,0 +1,410 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An on-disk record of beacons resolved against the registry, so that a fresh process can show
+ * each sighted beacon's last known state before the network has answered.
+ *
+ * <p>The file is an 8 byte header (magic, format version) followed by length-prefixed records,
+ * each holding a beacon's fields and the time it was fetched. Writes only ever append; the last
+ * record for a beacon name wins, and superseded ones are dropped when {@link #load} finds they
+ * outnumber the live ones. A reader skips any trailing bytes of a record it doesn't understand,
+ * so new fields can be added at the end without bumping the version. A record cut short by a
+ * crash mid-write is truncated away on the next load.
+ *
+ * <p>{@link #load} maps the file and indexes each record's offset by a hash of its name's bytes,
+ * so nothing is decoded or allocated per record; {@link #get} decodes a single record on demand.
+ * Loading and appending do disk I/O, so call them off the main thread.
+ */
+public class RegistrySnapshot implements Closeable {
+  private static final int MAGIC = 0x50425253;  // "PBRS"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int FLAG_HAS_LAT_LNG = 1;
+
+  private static final int MIN_TABLE_SIZE = 64;
+
+  // Below this many records a rewrite isn't worth doing, however many are superseded.
+  private static final int MIN_RECORDS_TO_COMPACT = 1024;
+
+  /**
+   * A beacon as last seen, and when.
+   */
+  public static final class Entry {
+    private final BeaconRecord beacon;
+    private final long fetchedAtMillis;
+
+    public Entry(BeaconRecord beacon, long fetchedAtMillis) {
+      this.beacon = beacon;
+      this.fetchedAtMillis = fetchedAtMillis;
+    }
+
+    public BeaconRecord getBeacon() {
+      return beacon;
+    }
+
+    public long getFetchedAtMillis() {
+      return fetchedAtMillis;
+    }
+  }
+
+  private final File file;
+
+  // All guarded by this.
+  private boolean loaded;
+  private ByteBuffer mapped;
+  // An open-addressing table of mapped records: name hash, and payload offset (0 when empty).
+  private int[] hashes = new int[MIN_TABLE_SIZE];
+  private int[] starts = new int[MIN_TABLE_SIZE];
+  private int mappedCount;
+  private final Map<String, Entry> appended = new HashMap<>();
+  private int recordCount;
+  private DataOutputStream out;
+
+  public RegistrySnapshot(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Maps and indexes the file, starting a new one if it is missing or in an unknown format. Does
+   * nothing if already loaded.
+   */
+  public synchronized void load() throws IOException {
+    if (loaded) {
+      return;
+    }
+    if (file.length() < HEADER_SIZE) {
+      reset();
+      return;
+    }
+    boolean recognized;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      // Check the header before mapping anything, so that a file about to be replaced by reset()
+      // is never mapped.
+      recognized = raf.readInt() == MAGIC && raf.readInt() == VERSION;
+      if (recognized) {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mapped = buffer;
+        int validLength = index(buffer, channel.size());
+        if (validLength < buffer.limit()) {
+          buffer.limit(validLength);
+          channel.truncate(validLength);
+        }
+      }
+    }
+    if (!recognized) {
+      reset();
+      return;
+    }
+    loaded = true;
+    if (recordCount >= MIN_RECORDS_TO_COMPACT && recordCount > 2 * mappedCount) {
+      compact();
+    }
+  }
+
+  // Records the offset of each record's payload, returning the length of the well-formed prefix.
+  private int index(ByteBuffer buffer, long fileSize) {
+    // Size the table for records of about 128 bytes up front so it rarely has to grow.
+    resizeTable(Math.max(MIN_TABLE_SIZE, Integer.highestOneBit((int) (fileSize / 64)) * 2));
+    int pos = HEADER_SIZE;
+    while (pos + 4 <= buffer.limit()) {
+      int length = buffer.getInt(pos);
+      int start = pos + 4;
+      if (length < 4 || length > buffer.limit() - start) {
+        break;
+      }
+      int nameLength = buffer.getInt(start);
+      if (nameLength < 0 || nameLength > length - 4) {
+        break;
+      }
+      int hash = hash(buffer, start + 4, nameLength);
+      int slot = find(hash, buffer, start + 4, nameLength);
+      if (starts[slot] == 0) {
+        hashes[slot] = hash;
+        mappedCount++;
+      }
+      starts[slot] = start;
+      if (mappedCount * 2 > starts.length) {
+        resizeTable(starts.length * 2);
+      }
+      recordCount++;
+      pos = start + length;
+    }
+    return pos;
+  }
+
+  // Returns the slot holding the record named by the given bytes, or the empty slot where it
+  // would go.
+  private int find(int hash, ByteBuffer name, int nameStart, int nameLength) {
+    int mask = starts.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      if (starts[slot] == 0
+          || (hashes[slot] == hash && nameEquals(starts[slot], name, nameStart, nameLength))) {
+        return slot;
+      }
+    }
+  }
+
+  private boolean nameEquals(int start, ByteBuffer name, int nameStart, int nameLength) {
+    if (mapped.getInt(start) != nameLength) {
+      return false;
+    }
+    for (int i = 0; i < nameLength; i++) {
+      if (mapped.get(start + 4 + i) != name.get(nameStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void resizeTable(int size) {
+    int[] oldHashes = hashes;
+    int[] oldStarts = starts;
+    hashes = new int[size];
+    starts = new int[size];
+    for (int i = 0; i < oldStarts.length; i++) {
+      if (oldStarts[i] != 0) {
+        int slot = oldHashes[i] & (size - 1);
+        while (starts[slot] != 0) {
+          slot = (slot + 1) & (size - 1);
+        }
+        hashes[slot] = oldHashes[i];
+        starts[slot] = oldStarts[i];
+      }
+    }
+  }
+
+  private static int hash(ByteBuffer buffer, int start, int length) {
+    int h = 0;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + buffer.get(start + i);
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private int findMapped(String beaconName) {
+    if (mapped == null) {
+      return -1;
+    }
+    ByteBuffer name = ByteBuffer.wrap(beaconName.getBytes(UTF_8));
+    int slot = find(hash(name, 0, name.limit()), name, 0, name.limit());
+    return starts[slot] == 0 ? -1 : slot;
+  }
+
+  /**
+   * Returns the last recorded state of {@code beaconName}, or null if there is none or the
+   * snapshot hasn't been loaded.
+   */
+  public synchronized Entry get(String beaconName) {
+    Entry entry = appended.get(beaconName);
+    if (entry != null) {
+      return entry;
+    }
+    int slot = findMapped(beaconName);
+    if (slot < 0) {
+      return null;
+    }
+    int start = starts[slot];
+    ByteBuffer record = slice(mapped, start, mapped.getInt(start - 4));
+    try {
+      return decode(record);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The number of distinct beacons in the snapshot.
+   */
+  public synchronized int size() {
+    int size = mappedCount;
+    for (String beaconName : appended.keySet()) {
+      if (findMapped(beaconName) < 0) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Records {@code beacon} as fetched at {@code fetchedAtMillis}, loading the snapshot first if
+   * need be. The beacon must have a name.
+   */
+  public synchronized void append(BeaconRecord beacon, long fetchedAtMillis) throws IOException {
+    load();
+    if (out == null) {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+    byte[] payload = encode(beacon, fetchedAtMillis);
+    out.writeInt(payload.length);
+    out.write(payload);
+    out.flush();
+    appended.put(beacon.getBeaconName(), new Entry(beacon, fetchedAtMillis));
+    recordCount++;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  // Rewrites the file with only the latest record for each beacon, then maps the result.
+  private void compact() throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream tmpOut =
+             new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      tmpOut.writeInt(MAGIC);
+      tmpOut.writeInt(VERSION);
+      for (int start : starts) {
+        if (start == 0) {
+          continue;
+        }
+        int length = mapped.getInt(start - 4);
+        byte[] record = new byte[4 + length];
+        ByteBuffer source = mapped.duplicate();
+        source.position(start - 4);
+        source.get(record);
+        tmpOut.write(record);
+      }
+    }
+    if (!tmp.renameTo(file)) {
+      throw new IOException("Couldn't replace " + file);
+    }
+    clearIndex();
+    loaded = false;
+    load();
+  }
+
+  // Starts an empty snapshot in place of whatever was there.
+  private void reset() throws IOException {
+    try (DataOutputStream header = new DataOutputStream(new FileOutputStream(file))) {
+      header.writeInt(MAGIC);
+      header.writeInt(VERSION);
+    }
+    clearIndex();
+    loaded = true;
+  }
+
+  private void clearIndex() {
+    hashes = new int[MIN_TABLE_SIZE];
+    starts = new int[MIN_TABLE_SIZE];
+    mappedCount = 0;
+    recordCount = 0;
+    mapped = null;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int start, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(start);
+    slice.limit(start + length);
+    return slice;
+  }
+
+  private static byte[] encode(BeaconRecord beacon, long fetchedAtMillis) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    DataOutputStream record = new DataOutputStream(bytes);
+    // The name comes first so that load() can index without decoding anything else.
+    writeString(record, beacon.getBeaconName());
+    record.writeLong(fetchedAtMillis);
+    writeString(record, beacon.getType());
+    writeBytes(record, beacon.getId());
+    writeString(record, beacon.getStatus());
+    writeString(record, beacon.getPlaceId());
+    if (beacon.getLatitude() != null && beacon.getLongitude() != null) {
+      record.writeByte(FLAG_HAS_LAT_LNG);
+      record.writeDouble(beacon.getLatitude());
+      record.writeDouble(beacon.getLongitude());
+    } else {
+      record.writeByte(0);
+    }
+    writeString(record, beacon.getExpectedStability());
+    writeString(record, beacon.getDescription());
+    return bytes.toByteArray();
+  }
+
+  private static Entry decode(ByteBuffer record) {
+    String beaconName = readString(record);
+    long fetchedAtMillis = record.getLong();
+    String type = readString(record);
+    byte[] id = readBytes(record);
+    String status = readString(record);
+    String placeId = readString(record);
+    Double latitude = null;
+    Double longitude = null;
+    if ((record.get() & FLAG_HAS_LAT_LNG) != 0) {
+      latitude = record.getDouble();
+      longitude = record.getDouble();
+    }
+    String expectedStability = readString(record);
+    String description = readString(record);
+    BeaconRecord beacon = new BeaconRecord(beaconName, type, id, status, placeId, latitude,
+        longitude, expectedStability, description);
+    return new Entry(beacon, fetchedAtMillis);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    writeBytes(out, s == null ? null : s.getBytes(UTF_8));
+  }
+
+  // A length of -1 stands for null.
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = readBytes(buffer);
+    return bytes == null ? null : new String(bytes, UTF_8);
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.squareup.okhttp.Dispatcher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules API requests on a private thread pool and bounds how many may be outstanding.
+ *
+ * <p>{@code AsyncTask.execute()} funnels every task in the process through one serial executor,
+ * so a request would otherwise wait behind unrelated work. Here the preparation step of a request
+ * (fetching a token, building the {@link com.squareup.okhttp.Request}) runs on up to
+ * {@code maxRequests} threads, and the network step is limited by an OkHttp {@link Dispatcher}
+ * configured with the same overall limit plus a per-host limit. Once {@code maxRequests +
+ * maxQueuedRequests} requests are outstanding, new ones are refused rather than queued.
+ *
+ * <p>One dispatcher may be shared by any number of {@link ProximityBeaconClient} instances; the
+ * limits then apply to all of them together.
+ */
+public class RequestDispatcher {
+  public static final int DEFAULT_MAX_REQUESTS = 16;
+  public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 8;
+  public static final int DEFAULT_MAX_QUEUED_REQUESTS = 512;
+
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private final int maxOutstanding;
+  private final ThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor retryTimer;
+  private final Dispatcher httpDispatcher;
+  private final AtomicInteger outstanding = new AtomicInteger();
+  // Tasks waiting out a retry delay, so that a cancelled one can be taken off the timer.
+  private final Map<Runnable, ScheduledFuture<?>> pendingRetries = new HashMap<>();
+
+  public RequestDispatcher() {
+    this(DEFAULT_MAX_REQUESTS, DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_MAX_QUEUED_REQUESTS);
+  }
+
+  public RequestDispatcher(int maxRequests, int maxRequestsPerHost, int maxQueuedRequests) {
+    if (maxRequests < 1 || maxRequestsPerHost < 1 || maxQueuedRequests < 0) {
+      throw new IllegalArgumentException("Invalid dispatcher limits");
+    }
+    this.maxOutstanding = maxRequests + maxQueuedRequests;
+    this.executor = new ThreadPoolExecutor(maxRequests, maxRequests,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ProximityBeacon #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    this.executor.allowCoreThreadTimeOut(true);
+    this.retryTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "ProximityBeacon retry");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.retryTimer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    this.retryTimer.allowCoreThreadTimeOut(true);
+    this.retryTimer.setRemoveOnCancelPolicy(true);
+    this.httpDispatcher = new Dispatcher();
+    this.httpDispatcher.setMaxRequests(maxRequests);
+    this.httpDispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+  }
+
+  /**
+   * The number of requests that have been accepted by {@link #submit} and not yet finished.
+   */
+  public int getOutstandingRequests() {
+    return outstanding.get();
+  }
+
+  Dispatcher getHttpDispatcher() {
+    return httpDispatcher;
+  }
+
+  /**
+   * Runs {@code task} on the dispatcher's pool, or returns false without running it if the
+   * dispatcher is full. An accepted task must call {@link #finished()} exactly once when its
+   * request completes, however it completes.
+   */
+  boolean submit(Runnable task) {
+    if (outstanding.incrementAndGet() > maxOutstanding) {
+      outstanding.decrementAndGet();
+      return false;
+    }
+    executor.execute(task);
+    return true;
+  }
+
+  /**
+   * Runs an already accepted {@code task} on the dispatcher's pool again after {@code delayMillis},
+   * e.g. to retry its request. The task keeps its place among the outstanding requests meanwhile.
+   */
+  void resubmit(final Runnable task, long delayMillis) {
+    if (delayMillis <= 0) {
+      executor.execute(task);
+      return;
+    }
+    // Whichever of the timer and withdraw() removes the entry first decides whether the task
+    // runs. The lock keeps the timer from firing before the entry is there.
+    synchronized (pendingRetries) {
+      pendingRetries.put(task, retryTimer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          ScheduledFuture<?> retry;
+          synchronized (pendingRetries) {
+            retry = pendingRetries.remove(task);
+          }
+          if (retry != null) {
+            executor.execute(task);
+          }
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  /**
+   * Takes an accepted {@code task} that is still waiting for a thread or for its retry delay off
+   * the queue, so a cancelled request doesn't tie up a thread only to find out it was cancelled.
+   * Returns false if the task is already running or done.
+   */
+  boolean withdraw(Runnable task) {
+    ScheduledFuture<?> retry;
+    synchronized (pendingRetries) {
+      retry = pendingRetries.remove(task);
+    }
+    if (retry != null) {
+      retry.cancel(false);
+      return true;
+    }
+    return executor.remove(task);
+  }
+
+  void finished() {
+    outstanding.decrementAndGet();
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+/**
+ * Hears about every API request a {@link ProximityBeaconClient} makes, e.g. to collect metrics.
+ * Endpoints are named after the REST methods, e.g. {@code beacons.get}. Methods are called on
+ * whichever thread the request happens to be on, often several at once, so they must be quick
+ * and thread-safe. {@link RequestMetrics} is the implementation clients use by default.
+ */
+public interface RequestListener {
+
+  /**
+   * A request has been made. It may wait for a dispatcher slot, a token or the rate limiter
+   * before it goes out.
+   */
+  void onRequestStart(String endpoint);
+
+  /**
+   * A request has finished, after any retries. {@code httpCode} is the status of the response
+   * handed to the caller, or 0 if there was none, and {@code latencyNanos} is the time since
+   * {@link #onRequestStart} less any spent waiting for a dispatcher thread or the rate limiter.
+   */
+  void onRequestEnd(String endpoint, int httpCode, long latencyNanos);
+
+  /**
+   * The size on the wire of one attempt's request and response bodies, reported once the
+   * response body has been read or closed. Retries report their own attempts.
+   */
+  void onBytesTransferred(String endpoint, long bytesSent, long bytesReceived);
+
+  /**
+   * Where a finished request spent its time, summed over its attempts. Reported once the final
+   * response body has been read or closed, or straight away if the request failed, so a caller
+   * that never touches the body never gets one. Cancelled requests don't report one.
+   */
+  void onRequestTiming(RequestTiming timing);
+
+}
@@ -0,0 +1,221 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link RequestListener} that keeps, per endpoint, a {@link LatencyHistogram}, the bytes sent
+ * and received, a count of each status code, the number of requests in flight and the mean time
+ * spent in each {@link RequestTiming.Phase}. Everything is recorded with atomic counters, so it
+ * can stay on in production. Status code 0 counts requests that got no response at all.
+ */
+public class RequestMetrics implements RequestListener {
+  private static final int MAX_STATUS_CODE = 599;
+
+  private static final class Counters {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicLong bytesSent = new AtomicLong();
+    final AtomicLong bytesReceived = new AtomicLong();
+    final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS_CODE + 1);
+    final AtomicLong timed = new AtomicLong();
+    final AtomicLongArray phaseNanos = new AtomicLongArray(RequestTiming.Phase.values().length);
+  }
+
+  private final ConcurrentMap<String, Counters> endpoints = new ConcurrentHashMap<>();
+
+  @Override
+  public void onRequestStart(String endpoint) {
+    counters(endpoint).inFlight.incrementAndGet();
+  }
+
+  @Override
+  public void onRequestEnd(String endpoint, int httpCode, long latencyNanos) {
+    Counters counters = counters(endpoint);
+    counters.inFlight.decrementAndGet();
+    counters.latency.record(latencyNanos);
+    if (httpCode >= 0 && httpCode <= MAX_STATUS_CODE) {
+      counters.statusCounts.incrementAndGet(httpCode);
+    }
+  }
+
+  @Override
+  public void onBytesTransferred(String endpoint, long bytesSent, long bytesReceived) {
+    Counters counters = counters(endpoint);
+    counters.bytesSent.addAndGet(bytesSent);
+    counters.bytesReceived.addAndGet(bytesReceived);
+  }
+
+  @Override
+  public void onRequestTiming(RequestTiming timing) {
+    Counters counters = counters(timing.getEndpoint());
+    for (RequestTiming.Phase phase : RequestTiming.Phase.values()) {
+      counters.phaseNanos.addAndGet(phase.ordinal(), timing.getNanos(phase));
+    }
+    counters.timed.incrementAndGet();
+  }
+
+  /**
+   * The endpoints that have been called at least once.
+   */
+  public Set<String> getEndpoints() {
+    return Collections.unmodifiableSet(endpoints.keySet());
+  }
+
+  /**
+   * The latencies of finished requests to {@code endpoint}, or null if it hasn't been called.
+   */
+  public LatencyHistogram getLatency(String endpoint) {
+    Counters counters = endpoints.get(endpoint);
+    return counters == null ? null : counters.latency;
+  }
+
+  public int getInFlight(String endpoint) {
+    Counters counters = endpoints.get(endpoint);
+    return counters == null ? 0 : counters.inFlight.get();
+  }
+
+  public long getBytesSent(String endpoint) {
+    Counters counters = endpoints.get(endpoint);
+    return counters == null ? 0 : counters.bytesSent.get();
+  }
+
+  public long getBytesReceived(String endpoint) {
+    Counters counters = endpoints.get(endpoint);
+    return counters == null ? 0 : counters.bytesReceived.get();
+  }
+
+  /**
+   * The mean time requests to {@code endpoint} spent in {@code phase}, over those whose timing
+   * has been reported.
+   */
+  public long getMeanPhaseMicros(String endpoint, RequestTiming.Phase phase) {
+    Counters counters = endpoints.get(endpoint);
+    if (counters == null || counters.timed.get() == 0) {
+      return 0;
+    }
+    return counters.phaseNanos.get(phase.ordinal()) / counters.timed.get() / 1000;
+  }
+
+  /**
+   * The number of finished requests to {@code endpoint} by status code, in code order, leaving
+   * out codes never seen.
+   */
+  public Map<Integer, Long> getStatusCounts(String endpoint) {
+    Map<Integer, Long> statusCounts = new LinkedHashMap<>();
+    Counters counters = endpoints.get(endpoint);
+    if (counters != null) {
+      for (int code = 0; code <= MAX_STATUS_CODE; code++) {
+        long n = counters.statusCounts.get(code);
+        if (n > 0) {
+          statusCounts.put(code, n);
+        }
+      }
+    }
+    return statusCounts;
+  }
+
+  /**
+   * One line per endpoint, for logs and bug reports, e.g.
+   * {@code beacons.get count=120 inFlight=0 p50=84.2ms p95=190.1ms p99=402.0ms max=510.3ms
+   * sent=0 received=61440 status={200=118, 404=2}}.
+   */
+  public String toText() {
+    StringBuilder text = new StringBuilder();
+    for (String endpoint : new TreeSet<>(endpoints.keySet())) {
+      LatencyHistogram latency = getLatency(endpoint);
+      text.append(String.format(Locale.US,
+          "%s count=%d inFlight=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms sent=%d"
+              + " received=%d status=%s%n",
+          endpoint, latency.getCount(), getInFlight(endpoint),
+          millis(latency.getPercentileMicros(50)), millis(latency.getPercentileMicros(95)),
+          millis(latency.getPercentileMicros(99)), millis(latency.getMaxMicros()),
+          getBytesSent(endpoint), getBytesReceived(endpoint), getStatusCounts(endpoint)));
+    }
+    return text.toString();
+  }
+
+  /**
+   * The same figures as a JSON object keyed by endpoint, for shipping to a metrics backend,
+   * plus the mean time per phase. Latencies are in microseconds.
+   */
+  public String toJson() {
+    StringWriter out = new StringWriter();
+    try (JsonWriter writer = new JsonWriter(out)) {
+      writer.beginObject();
+      for (String endpoint : new TreeSet<>(endpoints.keySet())) {
+        LatencyHistogram latency = getLatency(endpoint);
+        writer.name(endpoint).beginObject();
+        writer.name("count").value(latency.getCount());
+        writer.name("inFlight").value(getInFlight(endpoint));
+        writer.name("latencyMicros").beginObject()
+            .name("p50").value(latency.getPercentileMicros(50))
+            .name("p95").value(latency.getPercentileMicros(95))
+            .name("p99").value(latency.getPercentileMicros(99))
+            .name("max").value(latency.getMaxMicros())
+            .name("mean").value(latency.getMeanMicros())
+            .endObject();
+        writer.name("bytesSent").value(getBytesSent(endpoint));
+        writer.name("bytesReceived").value(getBytesReceived(endpoint));
+        writer.name("status").beginObject();
+        for (Map.Entry<Integer, Long> entry : getStatusCounts(endpoint).entrySet()) {
+          writer.name(String.valueOf(entry.getKey())).value(entry.getValue());
+        }
+        writer.endObject();
+        writer.name("phaseMeanMicros").beginObject();
+        for (RequestTiming.Phase phase : RequestTiming.Phase.values()) {
+          writer.name(phase.name()).value(getMeanPhaseMicros(endpoint, phase));
+        }
+        writer.endObject();
+        writer.endObject();
+      }
+      writer.endObject();
+    } catch (IOException e) {
+      throw new AssertionError(e);  // StringWriter doesn't throw
+    }
+    return out.toString();
+  }
+
+  private static double millis(long micros) {
+    return micros / 1000.0;
+  }
+
+  private Counters counters(String endpoint) {
+    Counters counters = endpoints.get(endpoint);
+    if (counters == null) {
+      Counters created = new Counters();
+      counters = endpoints.putIfAbsent(endpoint, created);
+      if (counters == null) {
+        counters = created;
+      }
+    }
+    return counters;
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The outstanding work of one scan session or screen, cancelled together when it ends. Every
+ * call made through a {@link ProximityBeaconClient} is added to the client's scope until it
+ * completes, and anything else {@link Cancellable}, e.g. an image download, can be added too.
+ *
+ * <p>A scope is cancelled once and for all: work added afterwards is cancelled straight away, so
+ * a late callback from the old session can't start anything new. Start the next session with a
+ * new scope.
+ */
+public class RequestScope implements Cancellable {
+  private Set<Cancellable> handles = new LinkedHashSet<>();  // guarded by this; null once cancelled
+
+  /**
+   * Adds {@code handle} to the scope and returns it. If the scope has been cancelled, the handle
+   * is cancelled instead.
+   */
+  public <T extends Cancellable> T add(T handle) {
+    synchronized (this) {
+      if (handles != null) {
+        handles.add(handle);
+        return handle;
+      }
+    }
+    handle.cancel();
+    return handle;
+  }
+
+  /**
+   * Forgets {@code handle}, e.g. because it has finished.
+   */
+  public synchronized void remove(Cancellable handle) {
+    if (handles != null) {
+      handles.remove(handle);
+    }
+  }
+
+  /**
+   * Cancels everything in the scope, oldest first.
+   */
+  @Override
+  public void cancel() {
+    List<Cancellable> toCancel;
+    synchronized (this) {
+      if (handles == null) {
+        return;
+      }
+      toCancel = new ArrayList<>(handles);
+      handles = null;
+    }
+    for (Cancellable handle : toCancel) {
+      handle.cancel();
+    }
+  }
+
+  public synchronized boolean isCancelled() {
+    return handles == null;
+  }
+
+  /**
+   * The number of handles added and not yet finished or cancelled.
+   */
+  public synchronized int getOutstandingCount() {
+    return handles == null ? 0 : handles.size();
+  }
+}
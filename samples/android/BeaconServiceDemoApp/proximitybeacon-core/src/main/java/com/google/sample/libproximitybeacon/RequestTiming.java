@@ -0,0 +1,178 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.Locale;
+
+/**
+ * Where the time went for one API request, phase by phase, summed over all its attempts. The
+ * network phases are only non-zero for attempts that opened a new connection, since a pooled
+ * connection has already done its DNS lookup and handshakes.
+ */
+public final class RequestTiming {
+
+  public enum Phase {
+    /** Waiting for a {@link RequestDispatcher} thread. */
+    QUEUE,
+    /** Waiting on the {@link RateLimiter}. */
+    RATE_LIMIT,
+    /** Getting an access token from the {@link AuthProvider}. */
+    TOKEN,
+    /** Waiting for OkHttp's dispatcher to start the call, e.g. behind its per-host limit. */
+    DISPATCH,
+    /** Resolving the host and choosing a route, up to opening a socket. */
+    DNS,
+    /** The TCP connect. */
+    CONNECT,
+    /** The TLS handshake and certificate checks. */
+    TLS,
+    /** Sending the request and waiting for the response headers. */
+    TTFB,
+    /** Reading the response body, including any hop to the thread that reads it. */
+    BODY,
+    /** Waiting out retry backoff. */
+    BACKOFF
+  }
+
+  private static final Phase[] PHASES = Phase.values();
+
+  // Socket factories see connections being set up but not the request they are for, so the
+  // timing of the call OkHttp is connecting for is published to them on its thread.
+  private static final ThreadLocal<RequestTiming> connecting = new ThreadLocal<>();
+
+  private final String endpoint;
+  // Phases are timed one after another as a request moves between threads, each hand-off going
+  // through an executor or OkHttp's dispatcher, so these need no further synchronization.
+  private final long[] phaseNanos = new long[PHASES.length];
+  private long totalNanos;
+  private int attempts;
+  private int httpCode;
+  // When the phase under way began, and while connecting, which phase that is.
+  private long markNanos;
+  private Phase connectPhase;
+
+  RequestTiming(String endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public long getNanos(Phase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  /**
+   * The time from the request being made until it finished, including reading the body.
+   */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * The status of the final response, or 0 if there was none.
+   */
+  public int getHttpCode() {
+    return httpCode;
+  }
+
+  /**
+   * E.g. {@code beacons.get 812.3ms status=200 attempts=1 queue=0.1 rate_limit=0.0 token=2.3
+   * dispatch=0.1 dns=35.2 connect=40.1 tls=120.4 ttfb=600.2 body=14.0 backoff=0.0}, all in
+   * milliseconds.
+   */
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder(String.format(Locale.US,
+        "%s %.1fms status=%d attempts=%d", endpoint, totalNanos / 1e6, httpCode, attempts));
+    for (Phase phase : PHASES) {
+      text.append(String.format(Locale.US, " %s=%.1f",
+          phase.name().toLowerCase(Locale.US), phaseNanos[phase.ordinal()] / 1e6));
+    }
+    return text.toString();
+  }
+
+  void add(Phase phase, long nanos) {
+    phaseNanos[phase.ordinal()] += nanos;
+  }
+
+  /**
+   * Starts the clock on whatever phase comes next at {@code nanos}, which may be in the future,
+   * e.g. once a backoff has elapsed.
+   */
+  void mark(long nanos) {
+    markNanos = nanos;
+  }
+
+  /**
+   * Ends the phase that began at the last mark, and starts the next one.
+   */
+  void endPhase(Phase phase) {
+    long now = System.nanoTime();
+    add(phase, Math.max(now - markNanos, 0));
+    markNanos = now;
+  }
+
+  /**
+   * OkHttp has started the call on this thread and may now look for, or open, a connection.
+   */
+  void callStarted() {
+    endPhase(Phase.DISPATCH);
+    connectPhase = Phase.DNS;
+    connecting.set(this);
+  }
+
+  /**
+   * A connection is ready for the request to be sent on. If it was pooled, the time since the
+   * call started is counted as route selection.
+   */
+  void connectionReady() {
+    if (connectPhase != null) {
+      endPhase(connectPhase);
+      connectPhase = null;
+    }
+  }
+
+  void callEnded() {
+    connecting.remove();
+  }
+
+  static void socketCreated() {
+    RequestTiming timing = connecting.get();
+    if (timing != null && timing.connectPhase != null) {
+      timing.endPhase(timing.connectPhase);
+      timing.connectPhase = Phase.CONNECT;
+    }
+  }
+
+  static void handshakeStarted() {
+    RequestTiming timing = connecting.get();
+    if (timing != null && timing.connectPhase != null) {
+      timing.endPhase(timing.connectPhase);
+      timing.connectPhase = Phase.TLS;
+    }
+  }
+
+  void finished(int httpCode, int attempts, long totalNanos) {
+    this.httpCode = httpCode;
+    this.attempts = attempts;
+    this.totalNanos = totalNanos;
+  }
+}
@@ -0,0 +1,28 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+/**
+ * Receives the decoded result of a request, or the reason it failed. Methods are invoked on the
+ * {@link java.util.concurrent.Executor} passed with the request; decoding has already happened on
+ * a background thread by then.
+ */
+public interface ResultCallback<T> {
+
+  void onSuccess(T result);
+
+  void onFailure(ApiException e);
+
+}
@@ -0,0 +1,141 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether and when a failed request is retried.
+ *
+ * <p>A 429 is always retried, since the server turned the request away without acting on it.
+ * Network failures and 500, 502, 503 and 504 responses are retried only for idempotent methods,
+ * where a request that did get through does no harm the second time. The delay before retry
+ * {@code n} (counting from 0) is drawn uniformly from {@code [0, min(maxBackoff, initialBackoff *
+ * 2^n))} so that clients which failed together don't retry together, and is never less than a
+ * {@code Retry-After} the server sent. A {@code Retry-After} longer than {@code maxRetryAfter}
+ * ends retrying, as do {@code maxAttempts} attempts in all.
+ */
+public class RetryPolicy {
+  public static final RetryPolicy DEFAULT =
+      new RetryPolicy(4, 500, TimeUnit.SECONDS.toMillis(30), TimeUnit.SECONDS.toMillis(60));
+
+  /** Makes every request exactly once. */
+  public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private static final int HTTP_INTERNAL_ERROR = 500;
+  private static final int HTTP_BAD_GATEWAY = 502;
+  private static final int HTTP_UNAVAILABLE = 503;
+  private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final long maxRetryAfterMillis;
+
+  public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+                     long maxRetryAfterMillis) {
+    if (maxAttempts < 1 || initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+      throw new IllegalArgumentException("Invalid retry policy");
+    }
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    this.maxRetryAfterMillis = maxRetryAfterMillis;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Returns how long to wait before retrying a request that got {@code httpCode}, or -1 not to.
+   *
+   * @param attempt the number of attempts made so far, at least 1
+   * @param retryAfter the response's {@code Retry-After} header, or null
+   */
+  long delayAfterResponse(int attempt, int httpCode, String retryAfter, boolean idempotent) {
+    if (attempt >= maxAttempts) {
+      return -1;
+    }
+    switch (httpCode) {
+      case HTTP_TOO_MANY_REQUESTS:
+        break;
+      case HTTP_INTERNAL_ERROR:
+      case HTTP_BAD_GATEWAY:
+      case HTTP_UNAVAILABLE:
+      case HTTP_GATEWAY_TIMEOUT:
+        if (!idempotent) {
+          return -1;
+        }
+        break;
+      default:
+        return -1;
+    }
+    long backoff = backoffMillis(attempt);
+    long serverDelay = parseRetryAfter(retryAfter, System.currentTimeMillis());
+    if (serverDelay > maxRetryAfterMillis) {
+      return -1;
+    }
+    return Math.max(backoff, serverDelay);
+  }
+
+  /**
+   * Returns how long to wait before retrying a request that failed without a response, or -1
+   * not to.
+   */
+  long delayAfterFailure(int attempt, boolean idempotent) {
+    if (attempt >= maxAttempts || !idempotent) {
+      return -1;
+    }
+    return backoffMillis(attempt);
+  }
+
+  private long backoffMillis(int attempt) {
+    long ceiling = initialBackoffMillis << Math.min(attempt - 1, 30);
+    if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+      ceiling = maxBackoffMillis;
+    }
+    return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling);
+  }
+
+  /**
+   * Parses a {@code Retry-After} value, either delay-seconds or an HTTP-date, into milliseconds
+   * from {@code nowMillis}. Returns 0 if it is absent or unreadable.
+   */
+  static long parseRetryAfter(String value, long nowMillis) {
+    if (value == null) {
+      return 0;
+    }
+    value = value.trim();
+    try {
+      return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+    } catch (NumberFormatException e) {
+      // Not delay-seconds; try an HTTP-date.
+    }
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      return Math.max(0, format.parse(value).getTime() - nowMillis);
+    } catch (ParseException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-endpoint counts of retried requests and of time spent waiting on the {@link RateLimiter}.
+ * Endpoints are named after the REST methods, e.g. {@code beacons.get}.
+ */
+public class RetryStats {
+  private static final class Counters {
+    final AtomicLong retries = new AtomicLong();
+    final AtomicLong limiterWaitNanos = new AtomicLong();
+  }
+
+  private final ConcurrentMap<String, Counters> endpoints = new ConcurrentHashMap<>();
+
+  /**
+   * The endpoints that have had at least one request retried or held back by the limiter.
+   * Endpoints whose requests all went through first time are left out; {@link RequestMetrics}
+   * lists every endpoint called.
+   */
+  public Set<String> getEndpoints() {
+    return Collections.unmodifiableSet(endpoints.keySet());
+  }
+
+  public long getRetryCount(String endpoint) {
+    Counters counters = endpoints.get(endpoint);
+    return counters == null ? 0 : counters.retries.get();
+  }
+
+  public long getLimiterWaitMillis(String endpoint) {
+    Counters counters = endpoints.get(endpoint);
+    return counters == null ? 0 : TimeUnit.NANOSECONDS.toMillis(counters.limiterWaitNanos.get());
+  }
+
+  void recordRetry(String endpoint) {
+    counters(endpoint).retries.incrementAndGet();
+  }
+
+  void recordLimiterWait(String endpoint, long waitNanos) {
+    counters(endpoint).limiterWaitNanos.addAndGet(waitNanos);
+  }
+
+  private Counters counters(String endpoint) {
+    Counters counters = endpoints.get(endpoint);
+    if (counters == null) {
+      Counters created = new Counters();
+      counters = endpoints.putIfAbsent(endpoint, created);
+      if (counters == null) {
+        counters = created;
+      }
+    }
+    return counters;
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collapses identical idempotent requests that are in flight at the same time into one network
+ * call. The first caller for a key makes the call; callers that arrive before it completes are
+ * attached to it, and the response is fanned out to all of them. Each gets its own copy of the
+ * body, so every callback may consume it independently. A caller that loses interest can
+ * {@link #leave}; the call itself is only cancelled once every caller has.
+ */
+class SingleFlight {
+  private final Map<String, FanOut> inFlight = new HashMap<>();  // guarded by this
+  private long requestCount;  // guarded by this
+  private long collapsedCount;  // guarded by this
+
+  /**
+   * Registers {@code callback} for the response to {@code key}. If no call for the key is in
+   * flight, returns the callback the caller must pass to the call it now makes. Otherwise
+   * returns null: the callback has been attached to the existing call and nothing else should
+   * be done.
+   */
+  synchronized FanOut join(String key, Callback callback) {
+    requestCount++;
+    FanOut flight = inFlight.get(key);
+    if (flight != null) {
+      flight.callbacks.add(callback);
+      collapsedCount++;
+      return null;
+    }
+    flight = new FanOut(key);
+    flight.callbacks.add(callback);
+    inFlight.put(key, flight);
+    return flight;
+  }
+
+  /**
+   * Detaches {@code callback} from the call for {@code key}, so it won't be invoked. If no
+   * callbacks remain, the call is cancelled and forgotten, and the next request for the key
+   * starts afresh.
+   */
+  void leave(String key, Callback callback) {
+    Cancellable canceler;
+    synchronized (this) {
+      FanOut flight = inFlight.get(key);
+      if (flight == null || !flight.callbacks.remove(callback) || !flight.callbacks.isEmpty()) {
+        return;
+      }
+      inFlight.remove(key);
+      flight.abandoned = true;
+      canceler = flight.canceler;
+    }
+    if (canceler != null) {
+      canceler.cancel();
+    }
+  }
+
+  synchronized long getRequestCount() {
+    return requestCount;
+  }
+
+  synchronized long getCollapsedCount() {
+    return collapsedCount;
+  }
+
+  private synchronized List<Callback> complete(FanOut flight) {
+    // An abandoned flight's key may already belong to a newer one.
+    if (inFlight.get(flight.key) == flight) {
+      inFlight.remove(flight.key);
+    }
+    List<Callback> callbacks = new ArrayList<>(flight.callbacks);
+    flight.callbacks.clear();
+    return callbacks;
+  }
+
+  /**
+   * The callback for the one call actually made for a key.
+   */
+  class FanOut implements Callback {
+    private final String key;
+    private final List<Callback> callbacks = new ArrayList<>();  // guarded by SingleFlight.this
+    private Cancellable canceler;  // guarded by SingleFlight.this
+    private boolean abandoned;  // guarded by SingleFlight.this
+
+    FanOut(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Sets what cancels the call once every caller has left, running it at once if they already
+     * have.
+     */
+    void setCanceler(Cancellable canceler) {
+      synchronized (SingleFlight.this) {
+        if (!abandoned) {
+          this.canceler = canceler;
+          return;
+        }
+      }
+      canceler.cancel();
+    }
+
+    @Override
+    public void onFailure(Request request, IOException e) {
+      for (Callback callback : complete(this)) {
+        callback.onFailure(request, e);
+      }
+    }
+
+    @Override
+    public void onResponse(Response response) throws IOException {
+      List<Callback> callbacks = complete(this);
+      if (callbacks.isEmpty()) {
+        response.body().close();
+        return;
+      }
+      if (callbacks.size() == 1) {
+        callbacks.get(0).onResponse(response);
+        return;
+      }
+      MediaType contentType = response.body().contentType();
+      byte[] body;
+      try {
+        body = response.body().bytes();
+      } catch (IOException e) {
+        for (Callback callback : callbacks) {
+          callback.onFailure(response.request(), e);
+        }
+        return;
+      }
+      for (Callback callback : callbacks) {
+        Response copy = response.newBuilder()
+            .body(ResponseBody.create(contentType, body))
+            .build();
+        try {
+          callback.onResponse(copy);
+        } catch (IOException e) {
+          callback.onFailure(response.request(), e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+/**
+ * Passes socket creation through to another factory, noting for {@link RequestTiming} when a new
+ * connection starts its TCP connect. Wrappers around the same factory are equal, so OkHttp still
+ * pools connections across clients that wrap it separately.
+ */
+class TimingSocketFactory extends SocketFactory {
+  private final SocketFactory delegate;
+
+  TimingSocketFactory(SocketFactory delegate) {
+    this.delegate = delegate;
+  }
+
+  static SocketFactory wrap(SocketFactory factory) {
+    if (factory instanceof TimingSocketFactory) {
+      return factory;
+    }
+    return new TimingSocketFactory(factory != null ? factory : SocketFactory.getDefault());
+  }
+
+  @Override
+  public Socket createSocket() throws IOException {
+    RequestTiming.socketCreated();
+    return delegate.createSocket();
+  }
+
+  @Override
+  public Socket createSocket(String host, int port) throws IOException {
+    RequestTiming.socketCreated();
+    return delegate.createSocket(host, port);
+  }
+
+  @Override
+  public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+      throws IOException {
+    RequestTiming.socketCreated();
+    return delegate.createSocket(host, port, localHost, localPort);
+  }
+
+  @Override
+  public Socket createSocket(InetAddress host, int port) throws IOException {
+    RequestTiming.socketCreated();
+    return delegate.createSocket(host, port);
+  }
+
+  @Override
+  public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                             int localPort) throws IOException {
+    RequestTiming.socketCreated();
+    return delegate.createSocket(address, port, localAddress, localPort);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof TimingSocketFactory
+        && delegate.equals(((TimingSocketFactory) o).delegate);
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Passes TLS socket creation through to another factory, noting for {@link RequestTiming} when a
+ * new connection starts its handshake. Wrappers around the same factory are equal, so OkHttp
+ * still pools connections across clients that wrap it separately.
+ */
+class TimingSslSocketFactory extends SSLSocketFactory {
+  // Created once, like OkHttp's own default, so that every client shares its TLS session cache.
+  private static SSLSocketFactory systemDefault;
+
+  private final SSLSocketFactory delegate;
+
+  TimingSslSocketFactory(SSLSocketFactory delegate) {
+    this.delegate = delegate;
+  }
+
+  static SSLSocketFactory wrap(SSLSocketFactory factory) {
+    if (factory instanceof TimingSslSocketFactory) {
+      return factory;
+    }
+    return new TimingSslSocketFactory(factory != null ? factory : systemDefault());
+  }
+
+  private static synchronized SSLSocketFactory systemDefault() {
+    if (systemDefault == null) {
+      try {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+        systemDefault = sslContext.getSocketFactory();
+      } catch (GeneralSecurityException e) {
+        throw new AssertionError(e);  // The system has no TLS. Just give up.
+      }
+    }
+    return systemDefault;
+  }
+
+  @Override
+  public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+      throws IOException {
+    RequestTiming.handshakeStarted();
+    return delegate.createSocket(s, host, port, autoClose);
+  }
+
+  @Override
+  public Socket createSocket() throws IOException {
+    return delegate.createSocket();
+  }
+
+  @Override
+  public Socket createSocket(String host, int port) throws IOException {
+    return delegate.createSocket(host, port);
+  }
+
+  @Override
+  public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+      throws IOException {
+    return delegate.createSocket(host, port, localHost, localPort);
+  }
+
+  @Override
+  public Socket createSocket(InetAddress host, int port) throws IOException {
+    return delegate.createSocket(host, port);
+  }
+
+  @Override
+  public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                             int localPort) throws IOException {
+    return delegate.createSocket(address, port, localAddress, localPort);
+  }
+
+  @Override
+  public String[] getDefaultCipherSuites() {
+    return delegate.getDefaultCipherSuites();
+  }
+
+  @Override
+  public String[] getSupportedCipherSuites() {
+    return delegate.getSupportedCipherSuites();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof TimingSslSocketFactory
+        && delegate.equals(((TimingSslSocketFactory) o).delegate);
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+}
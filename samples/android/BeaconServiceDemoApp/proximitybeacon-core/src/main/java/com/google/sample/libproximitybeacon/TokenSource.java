@@ -0,0 +1,31 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import java.io.IOException;
+
+/**
+ * Fetches fresh access tokens for a single account. Calls may block on network or IPC.
+ */
+public interface TokenSource {
+
+  AccessToken fetchToken() throws IOException;
+
+  /**
+   * Drops {@code token} from any cache the source keeps so the next fetch returns a new one.
+   */
+  void clearToken(String token) throws IOException;
+
+}
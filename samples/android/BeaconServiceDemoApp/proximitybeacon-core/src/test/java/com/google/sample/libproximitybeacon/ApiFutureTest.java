@@ -0,0 +1,386 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chains {@link ApiFuture}s by hand for how results, failures and cancellation pass between
+ * them, and against the fake server for the calls behind them.
+ */
+public class ApiFutureTest {
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private static final ApiFuture.Function<Integer, Integer> DOUBLE =
+      new ApiFuture.Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer value) {
+          return value * 2;
+        }
+      };
+
+  private static final ApiFuture.Combiner<Integer, Integer, Integer> SUM =
+      new ApiFuture.Combiner<Integer, Integer, Integer>() {
+        @Override
+        public Integer combine(Integer a, Integer b) {
+          return a + b;
+        }
+      };
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void thenApplyMapsTheResult() throws Exception {
+    ApiFuture<Integer> source = new ApiFuture<>();
+    ApiFuture<Integer> doubled = source.thenApply(DOUBLE);
+    assertFalse(doubled.isDone());
+
+    source.complete(21);
+
+    assertEquals(42, (int) doubled.get());
+  }
+
+  @Test
+  public void thenApplyPassesOnAFailure() throws Exception {
+    ApiFuture<Integer> source = new ApiFuture<>();
+    ApiFuture<Integer> doubled = source.thenApply(DOUBLE);
+    ApiException error = new ApiException(404, "NOT_FOUND", "Not found");
+
+    source.fail(error);
+
+    assertSame(error, failureOf(doubled));
+  }
+
+  @Test
+  public void thenComposeWaitsForTheSecondFuture() throws Exception {
+    ApiFuture<Integer> first = new ApiFuture<>();
+    final ApiFuture<Integer> second = new ApiFuture<>();
+    ApiFuture<Integer> composed =
+        first.thenCompose(new ApiFuture.Function<Integer, ApiFuture<Integer>>() {
+          @Override
+          public ApiFuture<Integer> apply(Integer value) {
+            return second;
+          }
+        });
+
+    first.complete(1);
+    assertFalse(composed.isDone());
+    second.complete(2);
+
+    assertEquals(2, (int) composed.get());
+  }
+
+  @Test
+  public void cancellingThenComposeCancelsTheSecondFuture() {
+    ApiFuture<Integer> first = new ApiFuture<>();
+    final ApiFuture<Integer> second = new ApiFuture<>();
+    ApiFuture<Integer> composed =
+        first.thenCompose(new ApiFuture.Function<Integer, ApiFuture<Integer>>() {
+          @Override
+          public ApiFuture<Integer> apply(Integer value) {
+            return second;
+          }
+        });
+    first.complete(1);
+
+    composed.cancel();
+
+    assertTrue(composed.isCancelled());
+    assertTrue(second.isCancelled());
+  }
+
+  @Test
+  public void thenCombineWaitsForBoth() throws Exception {
+    ApiFuture<Integer> a = new ApiFuture<>();
+    ApiFuture<Integer> b = new ApiFuture<>();
+    ApiFuture<Integer> sum = a.thenCombine(b, SUM);
+
+    a.complete(1);
+    assertFalse(sum.isDone());
+    b.complete(2);
+
+    assertEquals(3, (int) sum.get());
+  }
+
+  @Test
+  public void thenCombineFailsWithTheFirstFailure() throws Exception {
+    ApiFuture<Integer> a = new ApiFuture<>();
+    ApiFuture<Integer> b = new ApiFuture<>();
+    ApiFuture<Integer> sum = a.thenCombine(b, SUM);
+    ApiException error = new ApiException(503, "UNAVAILABLE", "Unavailable");
+
+    b.fail(error);
+
+    assertSame(error, failureOf(sum));
+  }
+
+  @Test
+  public void allOfSucceedsOnceEveryFutureHas() throws Exception {
+    ApiFuture<Integer> a = new ApiFuture<>();
+    ApiFuture<Integer> b = new ApiFuture<>();
+    ApiFuture<Void> all = ApiFuture.allOf(a, b);
+
+    b.complete(2);
+    assertFalse(all.isDone());
+    a.complete(1);
+
+    all.get();
+    assertEquals(1, (int) a.getResult());
+    assertEquals(2, (int) b.getResult());
+  }
+
+  @Test
+  public void allOfFailsAsSoonAsOneFails() throws Exception {
+    ApiFuture<Integer> a = new ApiFuture<>();
+    ApiFuture<Integer> b = new ApiFuture<>();
+    ApiFuture<Void> all = ApiFuture.allOf(a, b);
+    ApiException error = new ApiException(403, "PERMISSION_DENIED", "Forbidden");
+
+    a.fail(error);
+
+    assertSame(error, failureOf(all));
+  }
+
+  @Test
+  public void cancellingTheOnlyDependentCancelsTheSource() {
+    ApiFuture<Integer> source = new ApiFuture<>();
+    ApiFuture<Integer> doubled = source.thenApply(DOUBLE);
+
+    doubled.cancel();
+
+    assertTrue(source.isCancelled());
+  }
+
+  @Test
+  public void sharedSourceOutlivesOneCancelledDependent() throws Exception {
+    ApiFuture<Integer> source = new ApiFuture<>();
+    ApiFuture<Integer> doubled = source.thenApply(DOUBLE);
+    ApiFuture<Integer> sum = source.thenCombine(ApiFuture.completed(1), SUM);
+
+    doubled.cancel();
+    assertFalse(source.isCancelled());
+
+    source.complete(2);
+    assertEquals(3, (int) sum.get());
+  }
+
+  @Test
+  public void sharedSourceIsCancelledWithItsLastDependent() {
+    ApiFuture<Integer> source = new ApiFuture<>();
+    ApiFuture<Integer> other = new ApiFuture<>();
+    ApiFuture<Integer> doubled = source.thenApply(DOUBLE);
+    ApiFuture<Void> all = ApiFuture.allOf(source, other);
+
+    doubled.cancel();
+    assertFalse(source.isCancelled());
+    all.cancel();
+
+    assertTrue(source.isCancelled());
+    assertTrue(other.isCancelled());
+  }
+
+  @Test
+  public void callbackKeepsTheSourceAlive() {
+    ApiFuture<Integer> source = new ApiFuture<>();
+    source.addCallback(new ResultCallback<Integer>() {
+      @Override
+      public void onSuccess(Integer result) {
+      }
+
+      @Override
+      public void onFailure(ApiException e) {
+      }
+    }, DIRECT);
+    ApiFuture<Integer> doubled = source.thenApply(DOUBLE);
+
+    doubled.cancel();
+
+    assertTrue(doubled.isCancelled());
+    assertFalse(source.isCancelled());
+  }
+
+  @Test(timeout = 10000)
+  public void cancelAbortsTheCall() throws Exception {
+    FaultModel slow = new FaultModel.Builder().setLatency(5000, 0).build();
+    String name = startServer(slow, 1).get(0);
+    RequestDispatcher dispatcher = new RequestDispatcher();
+    ProximityBeaconClient client = new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .setDispatcher(dispatcher)
+        .build();
+    ApiFuture<BeaconRecord> future = client.getBeacon(name);
+    Thread.sleep(200);
+    assertEquals(1, dispatcher.getOutstandingRequests());
+
+    long start = System.nanoTime();
+    future.cancel();
+
+    assertTrue(future.isCancelled());
+    assertEquals(0, client.getScope().getOutstandingCount());
+    // The dispatcher only lets go of a call once OkHttp gives it up, which it would not do for
+    // another five seconds by itself.
+    while (dispatcher.getOutstandingRequests() > 0) {
+      Thread.sleep(10);
+    }
+    assertTrue("Took " + elapsedMillis(start) + "ms", elapsedMillis(start) < 2000);
+  }
+
+  @Test(timeout = 10000)
+  public void combinedCallsRunTogether() throws Exception {
+    FaultModel slow = new FaultModel.Builder().setLatency(200, 0).build();
+    List<String> names = startServer(slow, 2);
+    ProximityBeaconClient client = new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+    // Warm up the connection pool so that only the calls themselves are timed.
+    client.listNamespaces().get();
+
+    long start = System.nanoTime();
+    List<String> descriptions = client.getBeacon(names.get(0)).thenCombine(
+        client.getBeacon(names.get(1)),
+        new ApiFuture.Combiner<BeaconRecord, BeaconRecord, List<String>>() {
+          @Override
+          public List<String> combine(BeaconRecord a, BeaconRecord b) {
+            return Arrays.asList(a.getDescription(), b.getDescription());
+          }
+        }).get();
+    long elapsed = elapsedMillis(start);
+
+    assertEquals(Arrays.asList("Test beacon #0", "Test beacon #1"), descriptions);
+    // Both at once, not one after the other.
+    assertTrue("Took " + elapsed + "ms", elapsed >= 200 && elapsed < 300);
+  }
+
+  @Test
+  public void statusChangesThroughTheClient() throws Exception {
+    String name = startServer(new FaultModel.Builder().build(), 1).get(0);
+    ProximityBeaconClient client = new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+
+    client.deactivateBeacon(name).get();
+    assertEquals("INACTIVE", client.getBeacon(name).get().getStatus());
+    client.activateBeacon(name).get();
+    assertEquals("ACTIVE", client.getBeacon(name).get().getStatus());
+    client.decommissionBeacon(name).get();
+    assertEquals("DECOMMISSIONED", client.getBeacon(name).get().getStatus());
+
+    try {
+      client.activateBeacon(name).get();
+      fail("Decommissioned beacon was activated");
+    } catch (ExecutionException expected) {
+      assertEquals(400, ((ApiException) expected.getCause()).getHttpCode());
+    }
+  }
+
+  @Test
+  public void observedBeaconsCarryTheirAttachments() throws Exception {
+    List<String> names = startServer(new FaultModel.Builder().build(), 2);
+    ProximityBeaconClient client = new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+    Attachment attachment = client.createAttachment(names.get(0), new JSONObject()
+        .put("namespacedType", "ns/type")
+        .put("data", JsonCodec.base64Encode(new byte[] {1, 2, 3})))
+        .get();
+    client.deactivateBeacon(names.get(1)).get();
+
+    List<ObservedBeacon> observed = client.getForObserved(observation(0, 1), "api-key").get();
+
+    // Inactive beacons aren't reported.
+    assertEquals(1, observed.size());
+    ObservedBeacon beacon = observed.get(0);
+    assertEquals(names.get(0), beacon.getBeaconName());
+    assertEquals("EDDYSTONE", beacon.getType());
+    assertEquals("Test beacon #0", beacon.getDescription());
+    assertEquals(1, beacon.getAttachments().size());
+    assertEquals("ns/type", beacon.getAttachments().get(0).getNamespacedType());
+    assertTrue(Arrays.equals(new byte[] {1, 2, 3}, beacon.getAttachments().get(0).getData()));
+
+    client.deleteAttachment(attachment.getAttachmentName()).get();
+    assertTrue(client.listAttachments(names.get(0)).get().isEmpty());
+    assertTrue(client.getForObserved(observation(0), "api-key").get().get(0)
+        .getAttachments().isEmpty());
+  }
+
+  private List<String> startServer(FaultModel faultModel, int beacons) throws IOException {
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(faultModel).build().start();
+    return TestClients.putBeacons(server.getRegistry(), beacons);
+  }
+
+  // A getforobserved request for the beacons TestClients.putBeacons gave these numbers.
+  private static JSONObject observation(int... beacons) throws Exception {
+    JSONArray observations = new JSONArray();
+    for (int n : beacons) {
+      byte[] id = new byte[16];
+      id[14] = (byte) (n >>> 8);
+      id[15] = (byte) n;
+      observations.put(new JSONObject().put("advertisedId", new JSONObject()
+          .put("type", "EDDYSTONE")
+          .put("id", JsonCodec.base64Encode(id))));
+    }
+    return new JSONObject()
+        .put("observations", observations)
+        .put("namespacedTypes", new JSONArray().put("*/*"));
+  }
+
+  private static ApiException failureOf(ApiFuture<?> future) throws InterruptedException {
+    try {
+      future.get();
+      fail("Failed future succeeded");
+      return null;
+    } catch (ExecutionException e) {
+      return (ApiException) e.getCause();
+    } catch (CancellationException e) {
+      throw new AssertionError("Failed future was cancelled");
+    }
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
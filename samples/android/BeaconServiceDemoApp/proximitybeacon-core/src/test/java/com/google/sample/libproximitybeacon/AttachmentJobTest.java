@@ -0,0 +1,163 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes and purges attachments across a fleet on the fake server with {@link AttachmentJob}.
+ */
+public class AttachmentJobTest {
+  private static final String JSON_TYPE = "fake-project/json";
+  private static final String TEXT_TYPE = "fake-project/text";
+  private static final byte[] V1 = "{\"version\":1}".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] V2 = "{\"version\":2}".getBytes(StandardCharsets.UTF_8);
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void pushCreatesAnAttachmentOnEveryBeacon() throws Exception {
+    List<String> names = startServer(FaultModel.NONE, 20);
+
+    AttachmentJob.Report report =
+        AttachmentJob.forBeacons(newClient(), names).push(JSON_TYPE, V1, null);
+
+    assertEquals(20, report.getSucceeded());
+    assertTrue(report.getFailures().isEmpty());
+    for (String name : names) {
+      List<Attachment> attachments = listAttachments(name);
+      assertEquals(1, attachments.size());
+      assertEquals(JSON_TYPE, attachments.get(0).getNamespacedType());
+      assertArrayEquals(V1, attachments.get(0).getData());
+    }
+  }
+
+  @Test
+  public void pushReplacesAttachmentsOfTheDeletedType() throws Exception {
+    List<String> names = startServer(FaultModel.NONE, 20);
+    AttachmentJob.forBeacons(newClient(), names).push(JSON_TYPE, V1, null);
+
+    AttachmentJob.Report report =
+        AttachmentJob.forBeacons(newClient(), names).push(JSON_TYPE, V2, JSON_TYPE);
+
+    assertEquals(20, report.getSucceeded());
+    assertEquals(20, report.getDeleted());
+    for (String name : names) {
+      List<Attachment> attachments = listAttachments(name);
+      assertEquals(1, attachments.size());
+      assertArrayEquals(V2, attachments.get(0).getData());
+    }
+  }
+
+  @Test
+  public void purgeDeletesOnlyTheGivenType() throws Exception {
+    List<String> names = startServer(FaultModel.NONE, 20);
+    AttachmentJob.forBeacons(newClient(), names).push(JSON_TYPE, V1, null);
+    AttachmentJob.forBeacons(newClient(), names).push(TEXT_TYPE, V1, null);
+
+    AttachmentJob.Report report = AttachmentJob.forBeacons(newClient(), names).purge(JSON_TYPE);
+
+    assertEquals(20, report.getSucceeded());
+    assertEquals(20, report.getDeleted());
+    for (String name : names) {
+      List<Attachment> attachments = listAttachments(name);
+      assertEquals(1, attachments.size());
+      assertEquals(TEXT_TYPE, attachments.get(0).getNamespacedType());
+    }
+  }
+
+  @Test
+  public void queryJobWalksEveryMatchAndReportsProgress() throws Exception {
+    startServer(FaultModel.NONE, 30);
+    final AtomicInteger lastCompleted = new AtomicInteger();
+
+    AttachmentJob.Report report = AttachmentJob.forQuery(newClient(), "status:active")
+        .setListener(new AttachmentJob.Listener() {
+          @Override
+          public void onProgress(int completed, int failed) {
+            lastCompleted.set(Math.max(lastCompleted.get(), completed));
+          }
+        })
+        .push(JSON_TYPE, V1, null);
+
+    assertEquals(30, report.getSucceeded());
+    assertEquals(30, lastCompleted.get());
+  }
+
+  @Test
+  public void failuresAreReportedPerBeacon() throws Exception {
+    List<String> names = new ArrayList<>(startServer(FaultModel.NONE, 5));
+    String missing = "beacons/3!ffffffffffffffffffffffffffffffff";
+    names.add(2, missing);
+
+    AttachmentJob.Report report =
+        AttachmentJob.forBeacons(newClient(), names).push(JSON_TYPE, V1, null);
+
+    assertEquals(5, report.getSucceeded());
+    assertEquals(1, report.getFailures().size());
+    assertEquals(404, report.getFailures().get(missing).getHttpCode());
+  }
+
+  @Test
+  public void limitsBeaconsInFlight() throws Exception {
+    List<String> names = startServer(new FaultModel.Builder().setLatency(100, 0).build(), 16);
+
+    AttachmentJob.Report report = AttachmentJob.forBeacons(newClient(), names)
+        .setMaxInFlight(4)
+        .push(JSON_TYPE, V1, null);
+
+    // Four at a time, in four rounds.
+    assertEquals(16, report.getSucceeded());
+    assertTrue("Took " + report.getElapsedMillis() + "ms", report.getElapsedMillis() >= 400);
+  }
+
+  private List<String> startServer(FaultModel faultModel, int beacons) throws IOException {
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(faultModel).build().start();
+    return TestClients.putBeacons(server.getRegistry(), beacons);
+  }
+
+  private ProximityBeaconClient newClient() {
+    return new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+  }
+
+  // Asks a fresh client, so that nothing comes from a cache.
+  private List<Attachment> listAttachments(String beaconName) throws Exception {
+    return newClient().listAttachments(beaconName).get(10, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks a multi-page fleet on the fake server with a {@link BeaconCursor}.
+ */
+public class BeaconCursorTest {
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void walksEveryPage() throws Exception {
+    startServer(FaultModel.NONE, 250);
+    BeaconCursor cursor = new BeaconCursor(newClient(), null, 40);
+
+    Set<String> names = new HashSet<>();
+    BeaconRecord beacon;
+    while ((beacon = cursor.next()) != null) {
+      assertTrue("Listed twice: " + beacon.getBeaconName(), names.add(beacon.getBeaconName()));
+      assertNotNull(server.getRegistry().getBeacon(beacon.getBeaconName()));
+    }
+
+    assertEquals(250, names.size());
+    assertEquals(250, cursor.getTotalCount());
+    // Seven pages, the last one short, and no request past it.
+    assertEquals(7, server.getRequestCount());
+    assertNull(cursor.next());
+  }
+
+  @Test
+  public void passesTheQueryOnEveryPage() throws Exception {
+    startServer(FaultModel.NONE, 250);
+    BeaconCursor cursor = new BeaconCursor(newClient(), "status:active", 20);
+
+    int count = 0;
+    BeaconRecord beacon;
+    while ((beacon = cursor.next()) != null) {
+      assertEquals("ACTIVE", beacon.getStatus());
+      count++;
+    }
+
+    assertEquals(cursor.getTotalCount(), count);
+    assertTrue(count > 20 && count < 250);
+  }
+
+  @Test
+  public void prefetchesOnlyTheNextPage() throws Exception {
+    startServer(new FaultModel.Builder().setLatency(100, 0).build(), 50);
+    BeaconCursor cursor = new BeaconCursor(newClient(), null, 10);
+
+    assertNotNull(cursor.next());
+    Thread.sleep(300);
+
+    // The second page was asked for as soon as the first arrived, and nothing after it.
+    assertEquals(2, server.getRequestCount());
+    for (int i = 1; i < 10; i++) {
+      assertNotNull(cursor.next());
+    }
+    long start = System.nanoTime();
+    assertNotNull(cursor.next());
+    // Already there, so no wait for the server.
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+    cursor.close();
+  }
+
+  @Test
+  public void emptyFleetEndsAtOnce() throws Exception {
+    startServer(FaultModel.NONE, 0);
+    BeaconCursor cursor = new BeaconCursor(newClient(), null);
+
+    assertNull(cursor.next());
+    assertEquals(0, cursor.getTotalCount());
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  public void pageErrorsAreThrown() throws Exception {
+    startServer(new FaultModel.Builder().setErrorRate(1.0, 403).build(), 50);
+    BeaconCursor cursor = new BeaconCursor(newClient(), null, 10);
+
+    try {
+      cursor.next();
+      fail("Failed page wasn't reported");
+    } catch (ApiException e) {
+      assertEquals(403, e.getHttpCode());
+    }
+  }
+
+  private void startServer(FaultModel faultModel, int fleetSize) throws IOException {
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(faultModel).build().start();
+    server.getRegistry().seedFleet(fleetSize, 1);
+  }
+
+  private ProximityBeaconClient newClient() {
+    return new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+  }
+}
@@ -0,0 +1,287 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FakeRegistry;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds beacon names through a {@link BeaconLookupPipeline} backed by a fake server that takes a
+ * fixed time to answer, counting the lookups the pipeline has outstanding at once.
+ */
+public class BeaconLookupPipelineTest {
+  private static final long LATENCY_MILLIS = 100;
+
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void limitsLookupsInFlight() throws Exception {
+    List<String> names = startServer(LATENCY_MILLIS, 12);
+    CountingClient client = newClient(new RequestScope());
+
+    LookupReport report = BeaconLookupPipeline.resolveAll(client, names, 3);
+
+    assertEquals(12, report.getResolved().size());
+    assertEquals(3, client.getPeakInFlight());
+    // Three at a time, in four rounds.
+    assertTrue("Took " + report.getElapsedMillis() + "ms",
+        report.getElapsedMillis() >= 4 * LATENCY_MILLIS);
+  }
+
+  @Test
+  public void duplicatesAreLookedUpOnce() throws Exception {
+    List<String> names = startServer(0, 3);
+    CountingClient client = newClient(new RequestScope());
+    List<String> withDuplicates = new ArrayList<>(names);
+    withDuplicates.addAll(names);
+    withDuplicates.add(names.get(0));
+
+    LookupReport report = BeaconLookupPipeline.resolveAll(client, withDuplicates, 2);
+
+    assertEquals(3, report.getResolved().size());
+    assertEquals(3, client.getRequested().size());
+    assertEquals(new HashSet<>(names), new HashSet<>(client.getRequested()));
+    assertEquals(3, server.getRequestCount());
+  }
+
+  @Test
+  public void submitRefusesANameItHasSeen() throws Exception {
+    List<String> names = startServer(0, 1);
+    RecordingListener listener = new RecordingListener(1);
+    BeaconLookupPipeline pipeline =
+        new BeaconLookupPipeline(newClient(new RequestScope()), DIRECT, listener);
+
+    assertTrue(pipeline.submit(names.get(0)));
+    assertFalse(pipeline.submit(names.get(0)));
+
+    listener.await();
+    // Even once the first lookup has finished.
+    assertFalse(pipeline.submit(names.get(0)));
+    assertEquals(0, pipeline.getPendingCount());
+  }
+
+  @Test
+  public void resultsArriveInCompletionOrder() throws Exception {
+    List<String> names = startServer(LATENCY_MILLIS, 2);
+    CountingClient client = newClient(new RequestScope());
+    String slow = names.get(0);
+    String cached = names.get(1);
+    client.getBeacon(cached).get(10, TimeUnit.SECONDS);
+    RecordingListener listener = new RecordingListener(2);
+    BeaconLookupPipeline pipeline = new BeaconLookupPipeline(client, 2, DIRECT, listener);
+
+    pipeline.submit(slow);
+    pipeline.submit(cached);
+    listener.await();
+
+    assertEquals(Arrays.asList(cached, slow), listener.order);
+  }
+
+  @Test
+  public void lookupsThatFailAtOnceDoNotRecurse() throws Exception {
+    // Once the scope is cancelled every lookup fails inside getBeacon, so if the pump recursed,
+    // each waiting lookup would be started one level deeper in the stack than the last.
+    String slow = startServer(5000, 1).get(0);
+    RequestScope scope = new RequestScope();
+    int waiting = 1000;
+    RecordingListener listener = new RecordingListener(waiting + 1);
+    BeaconLookupPipeline pipeline =
+        new BeaconLookupPipeline(newClient(scope), 1, DIRECT, listener);
+    pipeline.submit(slow);
+    for (int i = 1; i <= waiting; i++) {
+      pipeline.submit(FakeRegistry.beaconName("EDDYSTONE", id(i)));
+    }
+
+    scope.cancel();
+
+    listener.await();
+    assertEquals(waiting + 1, listener.canceled);
+    assertTrue("Stack grew from " + listener.minDepth + " to " + listener.maxDepth + " frames",
+        listener.maxDepth - listener.minDepth < 20);
+    assertEquals(0, pipeline.getPendingCount());
+  }
+
+  @Test
+  public void resolveAllReportsEveryOutcome() throws Exception {
+    List<String> names = new ArrayList<>(startServer(LATENCY_MILLIS, 6));
+    String missing = FakeRegistry.beaconName("EDDYSTONE", id(0xffff));
+    names.add(missing);
+
+    LookupReport report =
+        BeaconLookupPipeline.resolveAll(newClient(new RequestScope()), names, 4);
+
+    assertEquals(6, report.getResolved().size());
+    assertEquals(Collections.singleton(missing), report.getFailures().keySet());
+    assertEquals(404, report.getFailures().get(missing).getHttpCode());
+    assertTrue("Mean " + report.getMeanLatencyMillis() + "ms",
+        report.getMeanLatencyMillis() >= LATENCY_MILLIS);
+    assertTrue(report.getMaxLatencyMillis() >= report.getMeanLatencyMillis());
+    assertTrue(report.getElapsedMillis() >= report.getMaxLatencyMillis());
+  }
+
+  @Test
+  public void cancelledLookupsAreReportedAsFailures() throws Exception {
+    List<String> names = startServer(5000, 3);
+    RequestScope scope = new RequestScope();
+    RecordingListener listener = new RecordingListener(3);
+    BeaconLookupPipeline pipeline = new BeaconLookupPipeline(newClient(scope), 2, DIRECT, listener);
+    for (String name : names) {
+      pipeline.submit(name);
+    }
+
+    // Two in flight and one waiting for a slot.
+    Thread.sleep(200);
+    scope.cancel();
+
+    listener.await();
+    assertEquals(3, listener.canceled);
+    assertEquals(0, pipeline.getPendingCount());
+  }
+
+  private List<String> startServer(long latencyMillis, int beacons) throws IOException {
+    FaultModel faultModel = new FaultModel.Builder().setLatency(latencyMillis, 0).build();
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(faultModel).build().start();
+    return TestClients.putBeacons(server.getRegistry(), beacons);
+  }
+
+  private CountingClient newClient(RequestScope scope) {
+    return new CountingClient(new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .setScope(scope));
+  }
+
+  // The Eddystone UID that TestClients.putBeacons gives beacon n.
+  private static byte[] id(int n) {
+    byte[] id = new byte[16];
+    id[14] = (byte) (n >>> 8);
+    id[15] = (byte) n;
+    return id;
+  }
+
+  /**
+   * Counts the lookups the pipeline has outstanding, from the call to their result.
+   */
+  private static class CountingClient extends ProximityBeaconClient {
+    private final List<String> requested = new ArrayList<>();  // guarded by this
+    private int inFlight;  // guarded by this
+    private int peakInFlight;  // guarded by this
+
+    CountingClient(Builder builder) {
+      super(builder);
+    }
+
+    @Override
+    public Cancellable getBeacon(final ResultCallback<BeaconRecord> callback, Executor executor,
+                                 String beaconName) {
+      synchronized (this) {
+        requested.add(beaconName);
+        inFlight++;
+        peakInFlight = Math.max(peakInFlight, inFlight);
+      }
+      return super.getBeacon(new ResultCallback<BeaconRecord>() {
+        @Override
+        public void onSuccess(BeaconRecord result) {
+          finished();
+          callback.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(ApiException e) {
+          finished();
+          callback.onFailure(e);
+        }
+      }, executor, beaconName);
+    }
+
+    synchronized List<String> getRequested() {
+      return new ArrayList<>(requested);
+    }
+
+    synchronized int getPeakInFlight() {
+      return peakInFlight;
+    }
+
+    private synchronized void finished() {
+      inFlight--;
+    }
+  }
+
+  private static class RecordingListener implements BeaconLookupPipeline.Listener {
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    volatile int canceled;
+    volatile int minDepth = Integer.MAX_VALUE;
+    volatile int maxDepth;
+
+    private final CountDownLatch done;
+
+    RecordingListener(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Override
+    public void onResolved(String beaconName, BeaconRecord beacon, long latencyMillis) {
+      order.add(beaconName);
+      done.countDown();
+    }
+
+    @Override
+    public synchronized void onFailed(String beaconName, ApiException e, long latencyMillis) {
+      if (e.isCanceled()) {
+        canceled++;
+      }
+      int depth = Thread.currentThread().getStackTrace().length;
+      minDepth = Math.min(minDepth, depth);
+      maxDepth = Math.max(maxDepth, depth);
+      order.add(beaconName);
+      done.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue("Lookups didn't finish", done.await(10, TimeUnit.SECONDS));
+    }
+  }
+}
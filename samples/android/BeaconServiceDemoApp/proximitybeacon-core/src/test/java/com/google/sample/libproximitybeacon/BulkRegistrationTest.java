@@ -0,0 +1,179 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import okio.ByteString;
+
+/**
+ * Runs {@link BulkRegistration} against the fake server and checks the results it writes.
+ */
+public class BulkRegistrationTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void registersEveryRow() throws Exception {
+    startServer(FaultModel.NONE);
+    StringWriter results = new StringWriter();
+
+    BulkRegistration.Report report = new BulkRegistration(newClient())
+        .run(csv(50), results, null);
+
+    assertEquals(50, report.getRegistered());
+    assertEquals(0, report.getFailed());
+    assertEquals(50, server.getRegistry().getBeaconCount());
+    Map<String, Integer> outcomes = countOutcomes(results.toString());
+    assertEquals(Integer.valueOf(50), outcomes.get("REGISTERED"));
+    assertEquals(1, outcomes.size());
+  }
+
+  @Test
+  public void reportsBeaconsAlreadyRegistered() throws Exception {
+    startServer(FaultModel.NONE);
+    TestClients.putBeacons(server.getRegistry(), 5);
+    StringWriter results = new StringWriter();
+
+    BulkRegistration.Report report = new BulkRegistration(newClient())
+        .run(csv(10), results, null);
+
+    assertEquals(5, report.getRegistered());
+    assertEquals(5, report.getAlreadyRegistered());
+    assertEquals(Integer.valueOf(5), countOutcomes(results.toString()).get("EXISTS"));
+  }
+
+  @Test
+  public void invalidRowsAreRecordedAndSkipped() throws Exception {
+    startServer(FaultModel.NONE);
+    String input = "id,description\n"
+        + String.format("%032x,First\n", 0)
+        + "not,enough,fields,here\n"
+        + String.format("%032x,Third\n", 2);
+    StringWriter results = new StringWriter();
+
+    BulkRegistration.Report report = new BulkRegistration(newClient())
+        .run(new CsvBeaconSource(new StringReader(input)), results, null);
+
+    assertEquals(2, report.getRegistered());
+    assertEquals(1, report.getInvalid());
+    assertTrue(("\n" + results).contains("\n1,INVALID,,"));
+  }
+
+  @Test
+  public void readsNdjson() throws Exception {
+    startServer(FaultModel.NONE);
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 5; i++) {
+      byte[] id = new byte[16];
+      id[15] = (byte) i;
+      input.append("{\"advertisedId\":{\"type\":\"EDDYSTONE\",\"id\":\"")
+          .append(ByteString.of(id).base64()).append("\"},\"status\":\"ACTIVE\"}\n");
+    }
+    input.append("{not json\n");
+
+    BulkRegistration.Report report = new BulkRegistration(newClient()).run(
+        new NdjsonBeaconSource(new StringReader(input.toString())), new StringWriter(), null);
+
+    assertEquals(5, report.getRegistered());
+    assertEquals(1, report.getInvalid());
+  }
+
+  @Test
+  public void resumesFromTheCheckpoint() throws Exception {
+    startServer(FaultModel.NONE);
+    File checkpoint = new File(folder.getRoot(), "checkpoint");
+    Files.write(checkpoint.toPath(), "6\n".getBytes(StandardCharsets.UTF_8));
+    StringWriter results = new StringWriter();
+
+    BulkRegistration.Report report = new BulkRegistration(newClient())
+        .run(csv(10), results, checkpoint);
+
+    assertEquals(6, report.getFirstRow());
+    assertEquals(4, report.getRegistered());
+    assertEquals(4, server.getRegistry().getBeaconCount());
+    assertTrue(("\n" + results).contains("\n6,REGISTERED,"));
+    assertEquals("10\n",
+        new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void limitsRegistrationsInFlight() throws Exception {
+    startServer(new FaultModel.Builder().setLatency(100, 0).build());
+
+    BulkRegistration.Report report = new BulkRegistration(newClient(), 4)
+        .run(csv(16), new StringWriter(), null);
+
+    // Four at a time, in four rounds.
+    assertEquals(16, report.getRegistered());
+    assertTrue("Took " + report.getElapsedMillis() + "ms", report.getElapsedMillis() >= 400);
+  }
+
+  private void startServer(FaultModel faultModel) throws IOException {
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(faultModel).build().start();
+  }
+
+  private ProximityBeaconClient newClient() {
+    return new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+  }
+
+  // Rows for the first count of the Eddystone UIDs that TestClients.putBeacons uses.
+  private static BeaconSource csv(int count) {
+    StringBuilder csv = new StringBuilder("id,description\n");
+    for (int i = 0; i < count; i++) {
+      csv.append(String.format("%032x,Beacon #%d\n", i, i));
+    }
+    return new CsvBeaconSource(new StringReader(csv.toString()));
+  }
+
+  private static Map<String, Integer> countOutcomes(String results) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (String line : results.split("\n")) {
+      String outcome = line.split(",")[1];
+      Integer count = counts.get(outcome);
+      counts.put(outcome, count == null ? 1 : count + 1);
+    }
+    return counts;
+  }
+}
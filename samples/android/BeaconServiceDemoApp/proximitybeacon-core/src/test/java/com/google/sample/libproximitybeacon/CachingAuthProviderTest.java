@@ -0,0 +1,254 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out tokens from a fake {@link TokenSource} on a clock the test controls, and checks when
+ * {@link CachingAuthProvider} goes back to the source for a new one.
+ */
+public class CachingAuthProviderTest {
+  private static final long MINUTE = 60 * 1000;
+  private static final long MARGIN = 5 * MINUTE;
+  private static final long LIFETIME = 60 * MINUTE;
+
+  private final FakeTokenSource source = new FakeTokenSource();
+  private final QueuedExecutor refreshExecutor = new QueuedExecutor();
+  private final TestAuthProvider provider = new TestAuthProvider(source, refreshExecutor);
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void cachesTheTokenUntilTheRefreshMargin() throws IOException {
+    assertEquals("token-1", provider.getToken());
+    provider.now = LIFETIME - MARGIN - 1;
+    assertEquals("token-1", provider.getToken());
+
+    assertEquals(1, source.fetches);
+    assertTrue(refreshExecutor.tasks.isEmpty());
+  }
+
+  @Test
+  public void concurrentCallersShareOneFetch() throws Exception {
+    source.blockFetches();
+    final List<String> tokens = Collections.synchronizedList(new ArrayList<String>());
+    List<Thread> callers = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      Thread caller = new Thread() {
+        @Override
+        public void run() {
+          try {
+            tokens.add(provider.getToken());
+          } catch (IOException e) {
+            tokens.add(e.toString());
+          }
+        }
+      };
+      caller.start();
+      callers.add(caller);
+    }
+    assertTrue(source.fetchStarted.await(5, TimeUnit.SECONDS));
+    // Give the other callers time to find the fetch in flight.
+    Thread.sleep(100);
+    source.releaseFetches();
+    for (Thread caller : callers) {
+      caller.join(5000);
+    }
+
+    assertEquals(1, source.fetches);
+    assertEquals(Collections.nCopies(8, "token-1"), tokens);
+  }
+
+  @Test
+  public void refreshesInTheBackgroundInsideTheMargin() throws IOException {
+    provider.getToken();
+    provider.now = LIFETIME - MARGIN + 1;
+
+    // Still valid, so it comes back at once while a replacement is fetched.
+    assertEquals("token-1", provider.getToken());
+    assertEquals("token-1", provider.getToken());
+    assertEquals(1, source.fetches);
+    assertEquals(1, refreshExecutor.tasks.size());
+
+    refreshExecutor.runAll();
+
+    assertEquals(2, source.fetches);
+    assertEquals("token-2", provider.getToken());
+  }
+
+  @Test
+  public void expiredTokenIsFetchedOnTheCallingThread() throws IOException {
+    provider.getToken();
+    provider.now = LIFETIME;
+
+    assertEquals("token-2", provider.getToken());
+    assertTrue(refreshExecutor.tasks.isEmpty());
+  }
+
+  @Test
+  public void failedFetchIsThrownAndTriedAgainNextTime() throws IOException {
+    source.failNext = true;
+    try {
+      provider.getToken();
+      fail("Fetch should have failed");
+    } catch (IOException expected) {
+      assertEquals("No network", expected.getMessage());
+    }
+
+    assertEquals("token-2", provider.getToken());
+  }
+
+  @Test
+  public void invalidateDropsOnlyTheRejectedToken() throws IOException {
+    provider.getToken();
+
+    provider.invalidateToken("someone-elses-token");
+    assertEquals("token-1", provider.getToken());
+
+    provider.invalidateToken("token-1");
+    assertEquals("token-2", provider.getToken());
+    assertEquals(Arrays.asList("someone-elses-token", "token-1"), source.cleared);
+  }
+
+  @Test
+  public void unauthorizedRequestIsRetriedOnceWithANewToken() throws Exception {
+    server = new FakeProximityBeaconServer.Builder()
+        .setFaultModel(new FaultModel.Builder().setErrorRate(1, 401).build())
+        .build()
+        .start();
+    String name = TestClients.putBeacons(server.getRegistry(), 1).get(0);
+    ProximityBeaconClient client =
+        new ProximityBeaconClient.Builder(provider)
+            .setBaseUrl(server.getBaseUrl())
+            .build();
+
+    try {
+      client.getBeacon(name).get(10, TimeUnit.SECONDS);
+      fail("Every request is rejected");
+    } catch (ExecutionException e) {
+      assertEquals(401, ((ApiException) e.getCause()).getHttpCode());
+    }
+
+    assertEquals(2, server.getRequestCount());
+    assertEquals(2, source.fetches);
+    assertEquals(Collections.singletonList("token-1"), source.cleared);
+  }
+
+  /**
+   * Reads the time from a field instead of the system clock.
+   */
+  private static class TestAuthProvider extends CachingAuthProvider {
+    volatile long now;
+
+    TestAuthProvider(TokenSource source, Executor refreshExecutor) {
+      super(source, MARGIN, refreshExecutor);
+    }
+
+    @Override
+    long currentTimeMillis() {
+      return now;
+    }
+  }
+
+  /**
+   * Issues "token-1", "token-2" and so on, each valid for an hour from time zero.
+   */
+  private static class FakeTokenSource implements TokenSource {
+    final CountDownLatch fetchStarted = new CountDownLatch(1);
+    final List<String> cleared = Collections.synchronizedList(new ArrayList<String>());
+    int fetches;  // guarded by this
+    boolean failNext;
+
+    private CountDownLatch release;
+
+    void blockFetches() {
+      release = new CountDownLatch(1);
+    }
+
+    void releaseFetches() {
+      release.countDown();
+    }
+
+    @Override
+    public AccessToken fetchToken() throws IOException {
+      fetchStarted.countDown();
+      if (release != null) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      synchronized (this) {
+        fetches++;
+        if (failNext) {
+          failNext = false;
+          throw new IOException("No network");
+        }
+        return new AccessToken("token-" + fetches, LIFETIME);
+      }
+    }
+
+    @Override
+    public void clearToken(String token) {
+      cleared.add(token);
+    }
+  }
+
+  /**
+   * Holds background refreshes until the test runs them.
+   */
+  private static class QueuedExecutor implements Executor {
+    final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      for (Runnable task : tasks) {
+        task.run();
+      }
+      tasks.clear();
+    }
+  }
+}
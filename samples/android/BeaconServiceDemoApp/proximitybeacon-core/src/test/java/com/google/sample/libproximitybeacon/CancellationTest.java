@@ -0,0 +1,195 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cancels requests that the blocking helpers are waiting on, against a fake server slow enough
+ * that none of them would finish by themselves during the test.
+ */
+public class CancellationTest {
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void cancelledFutureFailsItsCallback() {
+    ApiFuture<BeaconRecord> future = new ApiFuture<>();
+    final AtomicReference<ApiException> failure = new AtomicReference<>();
+    future.addCallback(new ResultCallback<BeaconRecord>() {
+      @Override
+      public void onSuccess(BeaconRecord result) {
+        fail("Cancelled future succeeded");
+      }
+
+      @Override
+      public void onFailure(ApiException e) {
+        failure.set(e);
+      }
+    }, DIRECT);
+
+    future.cancel();
+
+    assertTrue(failure.get().isCanceled());
+  }
+
+  @Test(timeout = 10000)
+  public void cancellingTheScopeWakesResolveAll() throws Exception {
+    List<String> names = startSlowServer(10);
+    ProximityBeaconClient client = newClient();
+    cancelLater(client.getScope());
+
+    long start = System.nanoTime();
+    // Fewer in flight than names, so most lookups are failed by the scope before they start.
+    LookupReport report = BeaconLookupPipeline.resolveAll(client, names, 2);
+
+    assertTrue(elapsedMillis(start) < 2000);
+    assertEquals(0, report.getResolved().size());
+    assertEquals(names.size(), report.getFailures().size());
+    for (ApiException e : report.getFailures().values()) {
+      assertTrue(e.isCanceled());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void closingACursorWakesNext() throws Exception {
+    startSlowServer(3);
+    final BeaconCursor cursor = new BeaconCursor(newClient(), null);
+    cancelLater(new Cancellable() {
+      @Override
+      public void cancel() {
+        cursor.close();
+      }
+    });
+
+    long start = System.nanoTime();
+    assertNull(cursor.next());
+    assertTrue(elapsedMillis(start) < 2000);
+    assertNull(cursor.next());
+  }
+
+  @Test(timeout = 10000)
+  public void cancelledRegistrationKeepsItsCheckpoint() throws Exception {
+    startSlowServer(0);
+    ProximityBeaconClient client = newClient();
+    StringBuilder csv = new StringBuilder("id,description\n");
+    for (int i = 0; i < 10; i++) {
+      csv.append(String.format("%032x,Beacon #%d\n", i, i));
+    }
+    File checkpoint = new File(folder.getRoot(), "checkpoint");
+    cancelLater(client.getScope());
+
+    long start = System.nanoTime();
+    try {
+      new BulkRegistration(client, 2).run(
+          new CsvBeaconSource(new StringReader(csv.toString())), new StringWriter(), checkpoint);
+      fail("Cancelled registration returned");
+    } catch (CancellationException expected) {
+      // Expected.
+    }
+
+    assertTrue(elapsedMillis(start) < 2000);
+    // Nothing finished, so a later run starts again from the first row.
+    assertEquals("0\n",
+        new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8));
+  }
+
+  @Test(timeout = 10000)
+  public void cancelledAttachmentJobThrows() throws Exception {
+    List<String> names = startSlowServer(10);
+    ProximityBeaconClient client = newClient();
+    cancelLater(client.getScope());
+
+    long start = System.nanoTime();
+    try {
+      AttachmentJob.forBeacons(client, names).setMaxInFlight(2)
+          .push("ns/type", new byte[] {1}, null);
+      fail("Cancelled job returned");
+    } catch (ApiException e) {
+      assertTrue(e.isCanceled());
+    }
+    assertTrue(elapsedMillis(start) < 2000);
+  }
+
+  // Every request takes five seconds to answer.
+  private List<String> startSlowServer(int beacons) throws IOException {
+    FaultModel slow = new FaultModel.Builder().setLatency(5000, 0).build();
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(slow).build().start();
+    return TestClients.putBeacons(server.getRegistry(), beacons);
+  }
+
+  private ProximityBeaconClient newClient() {
+    return new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+  }
+
+  private static void cancelLater(final Cancellable handle) {
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          return;
+        }
+        handle.cancel();
+      }
+    }).start();
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.SocketFactory;
+
+/**
+ * Counts the connections clients open to the fake server, to check that clients sharing a pool
+ * reuse them. The fake server speaks plain HTTP/1.1, so this covers pooling but not TLS session
+ * resumption or HTTP/2 multiplexing.
+ */
+public class ConnectionReuseTest {
+  private final CountingSocketFactory sockets = new CountingSocketFactory();
+  private OkHttpClient template;
+  private FakeProximityBeaconServer server;
+  private List<String> names;
+
+  @Before
+  public void setUp() throws IOException {
+    template = new OkHttpClient();
+    template.setSocketFactory(sockets);
+    template.setConnectionPool(new ConnectionPool(5, TimeUnit.MINUTES.toMillis(1)));
+  }
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void clientsSharingAPoolReuseOneConnection() throws Exception {
+    startServer(FaultModel.NONE, 20);
+    RequestDispatcher dispatcher = new RequestDispatcher();
+    ProximityBeaconClient first = newClient(dispatcher).build();
+    ProximityBeaconClient second = newClient(dispatcher).build();
+
+    for (int i = 0; i < names.size(); i++) {
+      (i % 2 == 0 ? first : second).getBeacon(names.get(i)).get(10, TimeUnit.SECONDS);
+    }
+
+    assertEquals(1, sockets.getCount());
+  }
+
+  @Test
+  public void clientsWithPoolsOfTheirOwnConnectSeparately() throws Exception {
+    startServer(FaultModel.NONE, 20);
+    RequestDispatcher dispatcher = new RequestDispatcher();
+    ProximityBeaconClient first = newClient(dispatcher)
+        .setConnectionPool(new ConnectionPool(5, TimeUnit.MINUTES.toMillis(1)))
+        .build();
+    ProximityBeaconClient second = newClient(dispatcher)
+        .setConnectionPool(new ConnectionPool(5, TimeUnit.MINUTES.toMillis(1)))
+        .build();
+
+    for (int i = 0; i < names.size(); i++) {
+      (i % 2 == 0 ? first : second).getBeacon(names.get(i)).get(10, TimeUnit.SECONDS);
+    }
+
+    assertEquals(2, sockets.getCount());
+  }
+
+  @Test
+  public void concurrentRequestsReuseConnectionsUpToTheHostLimit() throws Exception {
+    startServer(new FaultModel.Builder().setLatency(50, 0).build(), 64);
+    ProximityBeaconClient client = newClient(new RequestDispatcher(16, 4, 512)).build();
+
+    getAll(client, names.subList(0, 32));
+    int firstRound = sockets.getCount();
+    getAll(client, names.subList(32, 64));
+
+    // Never more than four at once, and the second round finds them all idle in the pool.
+    assertTrue("Opened " + firstRound, firstRound <= 4);
+    assertEquals(firstRound, sockets.getCount());
+  }
+
+  private void startServer(FaultModel faultModel, int beacons) throws IOException {
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(faultModel).build().start();
+    names = TestClients.putBeacons(server.getRegistry(), beacons);
+  }
+
+  private ProximityBeaconClient.Builder newClient(RequestDispatcher dispatcher) {
+    return new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .setDispatcher(dispatcher)
+        .setHttpClient(template);
+  }
+
+  private static void getAll(ProximityBeaconClient client, List<String> names) throws Exception {
+    List<ApiFuture<BeaconRecord>> futures = new ArrayList<>();
+    for (String name : names) {
+      futures.add(client.getBeacon(name));
+    }
+    for (ApiFuture<BeaconRecord> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  private static class CountingSocketFactory extends SocketFactory {
+    private final SocketFactory delegate = SocketFactory.getDefault();
+    private final AtomicInteger count = new AtomicInteger();
+
+    int getCount() {
+      return count.get();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+      count.incrementAndGet();
+      return delegate.createSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+      count.incrementAndGet();
+      return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+        throws IOException {
+      count.incrementAndGet();
+      return delegate.createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+      count.incrementAndGet();
+      return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                               int localPort) throws IOException {
+      count.incrementAndGet();
+      return delegate.createSocket(address, port, localAddress, localPort);
+    }
+  }
+}
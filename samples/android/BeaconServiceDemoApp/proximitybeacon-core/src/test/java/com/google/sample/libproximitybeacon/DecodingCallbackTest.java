@@ -0,0 +1,84 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.ResponseBody;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the errors {@link DecodingCallback} hands on when a call fails before it has a response.
+ */
+public class DecodingCallbackTest {
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private static final ResponseDecoder<String> STRING = new ResponseDecoder<String>() {
+    @Override
+    public String decode(ResponseBody body) throws IOException {
+      return body.string();
+    }
+  };
+
+  private final AtomicReference<ApiException> failure = new AtomicReference<>();
+  private final DecodingCallback<String> callback =
+      new DecodingCallback<>(STRING, DIRECT, new ResultCallback<String>() {
+        @Override
+        public void onSuccess(String result) {
+          fail("Failed call succeeded");
+        }
+
+        @Override
+        public void onFailure(ApiException e) {
+          failure.set(e);
+        }
+      });
+
+  @Test
+  public void failureNamesTheRequest() {
+    IOException cause = new IOException("Connection reset");
+    Request request = new Request.Builder().url("https://example.com/v1beta1/beacons").build();
+
+    callback.onFailure(request, cause);
+
+    assertTrue(failure.get().getMessage(),
+        failure.get().getMessage().contains("https://example.com/v1beta1/beacons"));
+    assertSame(cause, failure.get().getCause());
+  }
+
+  @Test
+  public void failureWithoutARequest() {
+    IOException cause = new IOException("Too many outstanding requests");
+
+    callback.onFailure(null, cause);
+
+    assertEquals("Failed request", failure.get().getMessage());
+    assertSame(cause, failure.get().getCause());
+  }
+}
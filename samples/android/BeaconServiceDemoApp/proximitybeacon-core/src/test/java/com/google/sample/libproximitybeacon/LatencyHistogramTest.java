@@ -0,0 +1,144 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks {@link LatencyHistogram}'s bucket layout and the figures it reads back from it.
+ */
+public class LatencyHistogramTest {
+  // 2^32 - 1 microseconds, about 72 minutes.
+  private static final long MAX_MICROS = (1L << 32) - 1;
+
+  @Test
+  public void bucketsTileTheRangeWithoutGaps() {
+    int last = LatencyHistogram.bucketOf(MAX_MICROS);
+    for (int bucket = 0; bucket <= last; bucket++) {
+      long top = LatencyHistogram.highestValueIn(bucket);
+      assertEquals("Top of bucket " + bucket, bucket, LatencyHistogram.bucketOf(top));
+      if (bucket < last) {
+        assertEquals("After bucket " + bucket, bucket + 1, LatencyHistogram.bucketOf(top + 1));
+      }
+    }
+    assertEquals(MAX_MICROS, LatencyHistogram.highestValueIn(last));
+  }
+
+  @Test
+  public void smallValuesGetABucketEach() {
+    for (long micros = 0; micros < 64; micros++) {
+      assertEquals(micros, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(micros)));
+    }
+    // From 64 up, buckets start to cover more than one value.
+    assertEquals(64, LatencyHistogram.bucketOf(64));
+    assertEquals(64, LatencyHistogram.bucketOf(65));
+    assertEquals(65, LatencyHistogram.bucketOf(66));
+  }
+
+  @Test
+  public void bucketsAreWithinThreePercent() {
+    for (long micros = 64; micros < MAX_MICROS; micros = micros * 3 / 2 + 7) {
+      long top = LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(micros));
+      assertTrue(micros + " rounds to " + top, top >= micros && top - micros <= micros / 32);
+    }
+  }
+
+  @Test
+  public void emptyHistogramReadsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMeanMicros());
+    assertEquals(0, histogram.getMaxMicros());
+    assertEquals(0, histogram.getPercentileMicros(99));
+  }
+
+  @Test
+  public void percentilesOfExactValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int micros = 1; micros <= 50; micros++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+
+    assertEquals(50, histogram.getCount());
+    assertEquals(1, histogram.getPercentileMicros(0));
+    assertEquals(25, histogram.getPercentileMicros(50));
+    assertEquals(48, histogram.getPercentileMicros(95));
+    assertEquals(50, histogram.getPercentileMicros(100));
+    assertEquals(50, histogram.getMaxMicros());
+    assertEquals(25, histogram.getMeanMicros());
+  }
+
+  @Test
+  public void percentileRoundsUpToTheTopOfItsBucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(20));
+
+    // 10000us shares a bucket with values up to 10239us...
+    assertEquals(10239, histogram.getPercentileMicros(50));
+    // ...but a percentile is never reported above the largest value recorded.
+    assertEquals(20000, histogram.getPercentileMicros(99));
+    assertEquals(20000, histogram.getMaxMicros());
+    assertEquals(15000, histogram.getMeanMicros());
+  }
+
+  @Test
+  public void outOfRangeValuesAreClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(TimeUnit.HOURS.toNanos(2));
+
+    assertEquals(2, histogram.getCount());
+    assertEquals(0, histogram.getPercentileMicros(50));
+    assertEquals(MAX_MICROS, histogram.getPercentileMicros(100));
+    assertEquals(MAX_MICROS, histogram.getMaxMicros());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void percentileAboveOneHundredIsRejected() {
+    new LatencyHistogram().getPercentileMicros(100.5);
+  }
+
+  @Test
+  public void concurrentRecordingLosesNothing() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i % 1000 + offset));
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(40000, histogram.getCount());
+    assertEquals(1002, histogram.getMaxMicros());
+    assertEquals(1002, histogram.getPercentileMicros(100));
+  }
+}
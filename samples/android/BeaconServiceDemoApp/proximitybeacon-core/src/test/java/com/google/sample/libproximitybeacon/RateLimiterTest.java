@@ -0,0 +1,69 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void burstGoesThroughWithoutWaiting() {
+    RateLimiter limiter = new RateLimiter(1, 3);
+    assertEquals(0, limiter.reserve());
+    assertEquals(0, limiter.reserve());
+    assertEquals(0, limiter.reserve());
+  }
+
+  @Test
+  public void reservationsBeyondTheBurstAreSpacedOut() {
+    RateLimiter limiter = new RateLimiter(10, 1);
+    assertEquals(0, limiter.reserve());
+    long first = limiter.reserve();
+    long second = limiter.reserve();
+    assertWithin(first, SECOND / 10);
+    assertWithin(second, 2 * SECOND / 10);
+  }
+
+  @Test
+  public void pauseHoldsBackTheNextReservation() {
+    RateLimiter limiter = new RateLimiter(1000, 100);
+    limiter.pause(2000);
+    // Then the bucket starts refilling from empty.
+    assertWithin(limiter.reserve(), 2 * SECOND + SECOND / 1000);
+  }
+
+  @Test
+  public void pauseKeepsPermitsAlreadyOwed() {
+    RateLimiter limiter = new RateLimiter(10, 1);
+    limiter.reserve();
+    limiter.reserve();  // owed: usable 100ms from now
+    limiter.pause(1000);
+    // Behind the pause and the permit already owed.
+    assertWithin(limiter.reserve(), SECOND + 2 * SECOND / 10);
+  }
+
+  // Allows for time passing between the limiter's clock reads and the test's.
+  private static void assertWithin(long actualNanos, long expectedNanos) {
+    long slack = TimeUnit.MILLISECONDS.toNanos(50);
+    assertTrue("Expected about " + expectedNanos + "ns but was " + actualNanos,
+        actualNanos <= expectedNanos && actualNanos > expectedNanos - slack);
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs clients with and without a {@link RateLimiter} against the fake server.
+ */
+public class RateLimitingTest {
+  private static final String GET = "beacons.get";
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void requestsAreNotRateLimitedByDefault() throws Exception {
+    List<String> names = startServer(FaultModel.NONE, 300);
+    RequestMetrics metrics = new RequestMetrics();
+    ProximityBeaconClient client = newClient(new RequestDispatcher(), metrics, null);
+
+    long start = System.nanoTime();
+    awaitAll(getAll(client, names));
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // At 20 requests a second, as a built-in limiter once allowed, this took 15s.
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 5000);
+    assertEquals(0, client.getRetryStats().getLimiterWaitMillis(GET));
+    // Nothing was retried or held back, so no endpoint has counters.
+    assertTrue(client.getRetryStats().getEndpoints().isEmpty());
+    assertEquals(0, metrics.getMeanPhaseMicros(GET, RequestTiming.Phase.RATE_LIMIT));
+    assertEquals(300, metrics.getLatency(GET).getCount());
+  }
+
+  @Test
+  public void limitedRequestsDoNotHoldDispatcherThreads() throws Exception {
+    List<String> names = startServer(FaultModel.NONE, 4);
+    // One thread: a request blocked on the limiter would keep every other one waiting.
+    RequestDispatcher dispatcher = new RequestDispatcher(1, 1, 16);
+    ProximityBeaconClient limited =
+        newClient(dispatcher, new RequestMetrics(), new RateLimiter(2, 1));
+    ProximityBeaconClient unlimited = newClient(dispatcher, new RequestMetrics(), null);
+
+    long start = System.nanoTime();
+    List<ApiFuture<BeaconRecord>> held = getAll(limited, names.subList(0, 3));
+    unlimited.getBeacon(names.get(3)).get(10, TimeUnit.SECONDS);
+    long unlimitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertTrue("Took " + unlimitedMillis + "ms", unlimitedMillis < 400);
+    assertFalse(held.get(2).isDone());
+    awaitAll(held);
+    long limitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Took " + limitedMillis + "ms", limitedMillis >= 900);
+  }
+
+  @Test
+  public void latencyLeavesOutLimiterWait() throws Exception {
+    List<String> names = startServer(FaultModel.NONE, 5);
+    RequestMetrics metrics = new RequestMetrics();
+    ProximityBeaconClient client =
+        newClient(new RequestDispatcher(), metrics, new RateLimiter(5, 1));
+
+    awaitAll(getAll(client, names));
+
+    // The last request waited 800ms for its permit; the fake server answers at once.
+    assertTrue(client.getRetryStats().getLimiterWaitMillis(GET) >= 1500);
+    assertTrue(metrics.getMeanPhaseMicros(GET, RequestTiming.Phase.RATE_LIMIT) >= 300000);
+    long maxLatencyMillis = TimeUnit.MICROSECONDS.toMillis(metrics.getLatency(GET).getMaxMicros());
+    assertTrue("Max latency " + maxLatencyMillis + "ms", maxLatencyMillis < 400);
+  }
+
+  @Test
+  public void throttledRequestsAreRetriedWithoutALimiter() throws Exception {
+    List<String> names = startServer(throttling(), 10);
+    ProximityBeaconClient client = newClient(new RequestDispatcher(), new RequestMetrics(), null);
+
+    awaitAll(getAll(client, names));
+
+    assertTrue(client.getRetryStats().getRetryCount(GET) > 0);
+    assertTrue(server.getRequestCount() > names.size());
+  }
+
+  @Test
+  public void throttledRequestsPauseTheLimiter() throws Exception {
+    List<String> names = startServer(throttling(), 10);
+    // One at a time, so that after a 429 the next request reaches the limiter while it is paused.
+    ProximityBeaconClient client = newClient(new RequestDispatcher(1, 1, 512),
+        new RequestMetrics(), new RateLimiter(1000, 100));
+
+    awaitAll(getAll(client, names));
+
+    assertTrue(client.getRetryStats().getRetryCount(GET) > 0);
+    // Requests after a 429 waited out the server's Retry-After in the limiter.
+    assertTrue(client.getRetryStats().getLimiterWaitMillis(GET) > 0);
+  }
+
+  private List<String> startServer(FaultModel faultModel, int beacons) throws IOException {
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(faultModel).build().start();
+    return TestClients.putBeacons(server.getRegistry(), beacons);
+  }
+
+  // Turns away about a third of requests with a 429 asking for a one second wait.
+  private static FaultModel throttling() {
+    return new FaultModel.Builder().setThrottleRate(0.3, 1).setSeed(7).build();
+  }
+
+  private ProximityBeaconClient newClient(RequestDispatcher dispatcher, RequestMetrics metrics,
+                                          RateLimiter rateLimiter) {
+    return new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .setDispatcher(dispatcher)
+        .setRequestListener(metrics)
+        .setRateLimiter(rateLimiter)
+        .setRetryPolicy(new RetryPolicy(10, 10, 100, TimeUnit.SECONDS.toMillis(5)))
+        .build();
+  }
+
+  private static List<ApiFuture<BeaconRecord>> getAll(ProximityBeaconClient client,
+                                                      List<String> names) {
+    List<ApiFuture<BeaconRecord>> futures = new ArrayList<>();
+    for (String name : names) {
+      futures.add(client.getBeacon(name));
+    }
+    return futures;
+  }
+
+  private static void awaitAll(List<ApiFuture<BeaconRecord>> futures) throws Exception {
+    for (ApiFuture<BeaconRecord> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives {@link RegistryCache} directly for expiry, eviction and the generation guard, and
+ * through a client against the fake server for what it saves.
+ */
+public class RegistryCacheTest {
+  private static final String A = "beacons/3!0000000000000000000000000000000a";
+  private static final String B = "beacons/3!0000000000000000000000000000000b";
+  private static final String C = "beacons/3!0000000000000000000000000000000c";
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void entriesExpireAfterTheTtl() throws Exception {
+    RegistryCache cache = new RegistryCache(10, 100, 50);
+    BeaconRecord beacon = beacon(A, "first");
+    cache.putBeacon(A, beacon, cache.getGeneration());
+
+    assertSame(beacon, cache.getBeacon(A).value);
+    Thread.sleep(150);
+    assertNull(cache.getBeacon(A));
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    // Expiry isn't eviction.
+    assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntryIsEvicted() {
+    RegistryCache cache = new RegistryCache(2, 60000, 60000);
+    cache.putBeacon(A, beacon(A, "a"), cache.getGeneration());
+    cache.putBeacon(B, beacon(B, "b"), cache.getGeneration());
+    // Reading A makes B the eldest.
+    cache.getBeacon(A);
+
+    cache.putBeacon(C, beacon(C, "c"), cache.getGeneration());
+
+    assertNotNull(cache.getBeacon(A));
+    assertNull(cache.getBeacon(B));
+    assertNotNull(cache.getBeacon(C));
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void beaconsAndAttachmentsAreBoundedSeparately() {
+    RegistryCache cache = new RegistryCache(1, 60000, 60000);
+    cache.putBeacon(A, beacon(A, "a"), cache.getGeneration());
+    cache.putAttachments(A, Collections.<Attachment>emptyList(), cache.getGeneration());
+
+    assertNotNull(cache.getBeacon(A));
+    assertNotNull(cache.getAttachments(A));
+    assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void onlyNotFoundAndForbiddenAreCached() {
+    RegistryCache cache = new RegistryCache(10, 60000, 60000);
+    long generation = cache.getGeneration();
+
+    cache.putBeaconError(A, new ApiException(404, "NOT_FOUND", "Not found"), generation);
+    cache.putBeaconError(B, new ApiException(403, "PERMISSION_DENIED", "Forbidden"), generation);
+    cache.putBeaconError(C, new ApiException(503, "UNAVAILABLE", "Unavailable"), generation);
+    cache.putBeaconError("beacons/3!ff", new ApiException("Failed request", null), generation);
+
+    assertEquals(404, cache.getBeacon(A).error.getHttpCode());
+    assertNull(cache.getBeacon(A).value);
+    assertEquals(403, cache.getBeacon(B).error.getHttpCode());
+    assertNull(cache.getBeacon(C));
+    assertNull(cache.getBeacon("beacons/3!ff"));
+  }
+
+  @Test
+  public void errorsExpireSoonerThanValues() throws Exception {
+    RegistryCache cache = new RegistryCache(10, 60000, 100);
+    cache.putBeacon(A, beacon(A, "a"), cache.getGeneration());
+    cache.putBeaconError(B, new ApiException(404, "NOT_FOUND", "Not found"),
+        cache.getGeneration());
+
+    Thread.sleep(150);
+
+    assertNotNull(cache.getBeacon(A));
+    assertNull(cache.getBeacon(B));
+  }
+
+  @Test
+  public void staleResponseDoesNotOverwriteAWrite() {
+    RegistryCache cache = new RegistryCache();
+    // A lookup starts...
+    long generation = cache.getGeneration();
+    // ...the beacon is written before it comes back...
+    BeaconRecord written = beacon(A, "written");
+    cache.updateBeacon(A, written);
+    // ...and then the old state arrives.
+    cache.putBeacon(A, beacon(A, "stale"), generation);
+    cache.putBeaconError(A, new ApiException(404, "NOT_FOUND", "Not found"), generation);
+
+    assertSame(written, cache.getBeacon(A).value);
+  }
+
+  @Test
+  public void staleResponseDoesNotRefillAnInvalidatedEntry() {
+    RegistryCache cache = new RegistryCache();
+    long beforeBeaconWrite = cache.getGeneration();
+    cache.invalidateBeacon(A);
+    cache.putBeacon(A, beacon(A, "stale"), beforeBeaconWrite);
+    assertNull(cache.getBeacon(A));
+
+    long beforeAttachmentWrite = cache.getGeneration();
+    cache.invalidateAttachments(A);
+    cache.putAttachments(A, Collections.<Attachment>emptyList(), beforeAttachmentWrite);
+    assertNull(cache.getAttachments(A));
+
+    long beforeClear = cache.getGeneration();
+    cache.clear();
+    cache.putBeacon(B, beacon(B, "stale"), beforeClear);
+    assertNull(cache.getBeacon(B));
+
+    // A lookup that starts after the write is cached as usual.
+    cache.putBeacon(B, beacon(B, "fresh"), cache.getGeneration());
+    assertNotNull(cache.getBeacon(B));
+  }
+
+  @Test
+  public void clientServesRepeatLookupsFromTheCache() throws Exception {
+    server = new FakeProximityBeaconServer.Builder().build().start();
+    List<String> names = TestClients.putBeacons(server.getRegistry(), 1);
+    String missing = "beacons/3!ffffffffffffffffffffffffffffffff";
+    ProximityBeaconClient client = new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+
+    for (int i = 0; i < 3; i++) {
+      client.getBeacon(names.get(0)).get(10, TimeUnit.SECONDS);
+      try {
+        client.getBeacon(missing).get(10, TimeUnit.SECONDS);
+        fail("Unregistered beacon was found");
+      } catch (ExecutionException expected) {
+        assertEquals(404, ((ApiException) expected.getCause()).getHttpCode());
+      }
+    }
+
+    assertEquals(2, server.getRequestCount());
+    assertEquals(4, client.getRegistryCache().getHitCount());
+    assertEquals(2, client.getRegistryCache().getMissCount());
+  }
+
+  private static BeaconRecord beacon(String name, String description) {
+    return new BeaconRecord(name, "EDDYSTONE", new byte[16], "ACTIVE", null, null, null, null,
+        description);
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class RegistrySnapshotTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void appendedRecordsSurviveReload() throws IOException {
+    File file = tmp.newFile();
+    try (RegistrySnapshot snapshot = new RegistrySnapshot(file)) {
+      snapshot.append(beacon("beacons/3!01", "ACTIVE"), 1000);
+      snapshot.append(beacon("beacons/3!02", "INACTIVE"), 2000);
+      snapshot.append(beacon("beacons/3!01", "DECOMMISSIONED"), 3000);
+    }
+
+    RegistrySnapshot reloaded = new RegistrySnapshot(file);
+    reloaded.load();
+    assertEquals(2, reloaded.size());
+    RegistrySnapshot.Entry entry = reloaded.get("beacons/3!01");
+    assertEquals("DECOMMISSIONED", entry.getBeacon().getStatus());
+    assertEquals(3000, entry.getFetchedAtMillis());
+    assertEquals(12.5, entry.getBeacon().getLatitude(), 0);
+    assertEquals("INACTIVE", reloaded.get("beacons/3!02").getBeacon().getStatus());
+    assertNull(reloaded.get("beacons/3!03"));
+  }
+
+  @Test
+  public void truncatedTailIsDroppedAndFileRepaired() throws IOException {
+    File file = tmp.newFile();
+    try (RegistrySnapshot snapshot = new RegistrySnapshot(file)) {
+      snapshot.append(beacon("beacons/3!01", "ACTIVE"), 1000);
+      snapshot.append(beacon("beacons/3!02", "ACTIVE"), 2000);
+    }
+    long fullLength = file.length();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(fullLength - 5);
+    }
+
+    RegistrySnapshot reloaded = new RegistrySnapshot(file);
+    reloaded.load();
+    assertEquals(1, reloaded.size());
+    assertNotNull(reloaded.get("beacons/3!01"));
+    assertNull(reloaded.get("beacons/3!02"));
+    assertTrue(file.length() < fullLength - 5);
+
+    // Appends after the repair land on a record boundary.
+    reloaded.append(beacon("beacons/3!03", "ACTIVE"), 3000);
+    reloaded.close();
+    RegistrySnapshot again = new RegistrySnapshot(file);
+    again.load();
+    assertEquals(2, again.size());
+    assertEquals(3000, again.get("beacons/3!03").getFetchedAtMillis());
+  }
+
+  @Test
+  public void unknownTrailingFieldsAreSkipped() throws IOException {
+    File file = tmp.newFile();
+    try (RegistrySnapshot snapshot = new RegistrySnapshot(file)) {
+      snapshot.append(beacon("beacons/3!01", "ACTIVE"), 1000);
+    }
+    // Rewrite the record as a newer writer would, with extra bytes after the known fields.
+    byte[] old = Files.readAllBytes(file.toPath());
+    ByteBuffer in = ByteBuffer.wrap(old);
+    int header = 8;
+    int length = in.getInt(header);
+    byte[] extra = {1, 2, 3, 4, 5, 6, 7};
+    ByteBuffer out = ByteBuffer.allocate(old.length + extra.length);
+    out.put(old, 0, header);
+    out.putInt(length + extra.length);
+    out.put(old, header + 4, length);
+    out.put(extra);
+    Files.write(file.toPath(), out.array());
+
+    try (RegistrySnapshot reloaded = new RegistrySnapshot(file)) {
+      reloaded.load();
+      RegistrySnapshot.Entry entry = reloaded.get("beacons/3!01");
+      assertEquals("ACTIVE", entry.getBeacon().getStatus());
+      assertEquals("A description", entry.getBeacon().getDescription());
+
+      // A record written after the extended one is still found.
+      reloaded.append(beacon("beacons/3!02", "ACTIVE"), 2000);
+    }
+    RegistrySnapshot again = new RegistrySnapshot(file);
+    again.load();
+    assertEquals(2, again.size());
+    assertEquals(1000, again.get("beacons/3!01").getFetchedAtMillis());
+  }
+
+  @Test
+  public void unknownFormatStartsAfresh() throws IOException {
+    File file = tmp.newFile();
+    Files.write(file.toPath(), "not a snapshot at all".getBytes("UTF-8"));
+
+    try (RegistrySnapshot snapshot = new RegistrySnapshot(file)) {
+      snapshot.load();
+      assertEquals(0, snapshot.size());
+      snapshot.append(beacon("beacons/3!01", "ACTIVE"), 1000);
+    }
+    RegistrySnapshot reloaded = new RegistrySnapshot(file);
+    reloaded.load();
+    assertEquals(1, reloaded.size());
+  }
+
+  @Test
+  public void supersededRecordsAreCompactedAway() throws IOException {
+    File file = tmp.newFile();
+    int beacons = 10;
+    int rounds = 300;
+    try (RegistrySnapshot snapshot = new RegistrySnapshot(file)) {
+      for (int round = 0; round < rounds; round++) {
+        for (int i = 0; i < beacons; i++) {
+          snapshot.append(beacon("beacons/3!" + i, "ACTIVE"), round);
+        }
+      }
+    }
+    long uncompactedLength = file.length();
+
+    RegistrySnapshot reloaded = new RegistrySnapshot(file);
+    reloaded.load();
+    assertEquals(beacons, reloaded.size());
+    for (int i = 0; i < beacons; i++) {
+      assertEquals(rounds - 1, reloaded.get("beacons/3!" + i).getFetchedAtMillis());
+    }
+    assertTrue(file.length() * (rounds / 2) < uncompactedLength);
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+  }
+
+  private static BeaconRecord beacon(String beaconName, String status) {
+    return new BeaconRecord(beaconName, "EDDYSTONE", new byte[] {1, 2, 3, 4}, status,
+        "ChIJ-place", 12.5, -3.25, "STABLE", "A description");
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks how a {@link RequestDispatcher} limits and shares concurrency, against a fake server that
+ * takes a fixed time to answer each request. RequestDispatcherBenchmark reports the resulting
+ * throughput in requests per second.
+ */
+public class RequestDispatcherTest {
+  private static final long LATENCY_MILLIS = 200;
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void requestsRunConcurrently() throws Exception {
+    List<String> names = startServer(16);
+
+    long serialMillis = timeAll(newClient(new RequestDispatcher(1, 1, 512)), names.subList(0, 8));
+    long concurrentMillis = timeAll(newClient(new RequestDispatcher()), names.subList(8, 16));
+
+    // One at a time, eight requests take 1.6s; all at once, about as long as one.
+    assertTrue("Serial took " + serialMillis + "ms", serialMillis >= 8 * LATENCY_MILLIS);
+    assertTrue("Concurrent took " + concurrentMillis + "ms",
+        concurrentMillis < 3 * LATENCY_MILLIS);
+  }
+
+  @Test
+  public void perHostLimitBoundsConcurrency() throws Exception {
+    List<String> names = startServer(8);
+
+    long millis = timeAll(newClient(new RequestDispatcher(16, 2, 512)), names);
+
+    // Two at a time, in four rounds.
+    assertTrue("Took " + millis + "ms", millis >= 4 * LATENCY_MILLIS);
+    assertTrue("Took " + millis + "ms", millis < 8 * LATENCY_MILLIS);
+  }
+
+  @Test
+  public void fullDispatcherRefusesRequests() throws Exception {
+    List<String> names = startServer(3);
+    RequestDispatcher dispatcher = new RequestDispatcher(1, 1, 1);
+    ProximityBeaconClient client = newClient(dispatcher);
+
+    ApiFuture<BeaconRecord> running = client.getBeacon(names.get(0));
+    ApiFuture<BeaconRecord> queued = client.getBeacon(names.get(1));
+    ApiFuture<BeaconRecord> refused = client.getBeacon(names.get(2));
+
+    try {
+      refused.get(1, TimeUnit.SECONDS);
+      fail("Request beyond the queue was accepted");
+    } catch (ExecutionException expected) {
+      assertEquals(0, ((ApiException) expected.getCause()).getHttpCode());
+    }
+    running.get(10, TimeUnit.SECONDS);
+    queued.get(10, TimeUnit.SECONDS);
+    assertEquals(0, dispatcher.getOutstandingRequests());
+    assertEquals(2, server.getRequestCount());
+  }
+
+  @Test
+  public void clientsSharingADispatcherShareItsLimits() throws Exception {
+    List<String> names = startServer(4);
+    RequestDispatcher dispatcher = new RequestDispatcher(1, 1, 512);
+    ProximityBeaconClient first = newClient(dispatcher);
+    ProximityBeaconClient second = newClient(dispatcher);
+
+    long start = System.nanoTime();
+    List<ApiFuture<BeaconRecord>> futures = new ArrayList<>();
+    for (int i = 0; i < names.size(); i++) {
+      futures.add((i % 2 == 0 ? first : second).getBeacon(names.get(i)));
+    }
+    for (ApiFuture<BeaconRecord> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertTrue("Took " + millis + "ms", millis >= 4 * LATENCY_MILLIS);
+  }
+
+  private List<String> startServer(int beacons) throws IOException {
+    FaultModel slow = new FaultModel.Builder().setLatency(LATENCY_MILLIS, 0).build();
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(slow).build().start();
+    return TestClients.putBeacons(server.getRegistry(), beacons);
+  }
+
+  private ProximityBeaconClient newClient(RequestDispatcher dispatcher) {
+    return new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .setDispatcher(dispatcher)
+        .build();
+  }
+
+  // Looks up every name at once and returns how long it took for all of them to come back.
+  private static long timeAll(ProximityBeaconClient client, List<String> names)
+      throws Exception {
+    long start = System.nanoTime();
+    List<ApiFuture<BeaconRecord>> futures = new ArrayList<>();
+    for (String name : names) {
+      futures.add(client.getBeacon(name));
+    }
+    for (ApiFuture<BeaconRecord> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds {@link RequestMetrics} listener events by hand and reads back its counters and dumps.
+ */
+public class RequestMetricsTest {
+  private final RequestMetrics metrics = new RequestMetrics();
+
+  @Test
+  public void countsStatusCodesAndBytes() {
+    request("beacons.get", 200, 10);
+    request("beacons.get", 404, 20);
+    request("beacons.get", 200, 30);
+    // No response at all.
+    request("beacons.get", 0, 40);
+    metrics.onBytesTransferred("beacons.get", 0, 1000);
+    metrics.onBytesTransferred("beacons.get", 50, 24);
+
+    Map<Integer, Long> expected = new LinkedHashMap<>();
+    expected.put(0, 1L);
+    expected.put(200, 2L);
+    expected.put(404, 1L);
+    assertEquals(expected, metrics.getStatusCounts("beacons.get"));
+    // In code order.
+    assertEquals(Arrays.asList(0, 200, 404),
+        Arrays.asList(metrics.getStatusCounts("beacons.get").keySet().toArray()));
+    assertEquals(50, metrics.getBytesSent("beacons.get"));
+    assertEquals(1024, metrics.getBytesReceived("beacons.get"));
+    assertEquals(4, metrics.getLatency("beacons.get").getCount());
+    assertEquals(40000, metrics.getLatency("beacons.get").getMaxMicros());
+  }
+
+  @Test
+  public void tracksRequestsInFlight() {
+    metrics.onRequestStart("beacons.list");
+    metrics.onRequestStart("beacons.list");
+    assertEquals(2, metrics.getInFlight("beacons.list"));
+
+    metrics.onRequestEnd("beacons.list", 200, TimeUnit.MILLISECONDS.toNanos(5));
+
+    assertEquals(1, metrics.getInFlight("beacons.list"));
+    assertEquals(1, metrics.getLatency("beacons.list").getCount());
+  }
+
+  @Test
+  public void statusCodesOutOfRangeStillCountTheLatency() {
+    request("beacons.get", 600, 10);
+    request("beacons.get", -1, 10);
+
+    assertTrue(metrics.getStatusCounts("beacons.get").isEmpty());
+    assertEquals(2, metrics.getLatency("beacons.get").getCount());
+  }
+
+  @Test
+  public void endpointsAreKeptApart() {
+    request("beacons.get", 200, 10);
+    request("namespaces.list", 500, 10);
+
+    assertEquals(new HashSet<>(Arrays.asList("beacons.get", "namespaces.list")),
+        metrics.getEndpoints());
+    assertEquals(1, (long) metrics.getStatusCounts("beacons.get").get(200));
+    assertNull(metrics.getStatusCounts("beacons.get").get(500));
+  }
+
+  @Test
+  public void uncalledEndpointReadsEmpty() {
+    assertNull(metrics.getLatency("beacons.get"));
+    assertEquals(0, metrics.getInFlight("beacons.get"));
+    assertEquals(0, metrics.getBytesSent("beacons.get"));
+    assertTrue(metrics.getStatusCounts("beacons.get").isEmpty());
+    assertEquals(0, metrics.getMeanPhaseMicros("beacons.get", RequestTiming.Phase.TTFB));
+    assertEquals("", metrics.toText());
+    assertEquals("{}", metrics.toJson());
+  }
+
+  @Test
+  public void averagesPhasesOverTimedRequests() {
+    metrics.onRequestTiming(timing("beacons.get", RequestTiming.Phase.TTFB, 2));
+    metrics.onRequestTiming(timing("beacons.get", RequestTiming.Phase.TTFB, 4));
+    metrics.onRequestTiming(timing("beacons.get", RequestTiming.Phase.CONNECT, 3));
+
+    assertEquals(2000, metrics.getMeanPhaseMicros("beacons.get", RequestTiming.Phase.TTFB));
+    assertEquals(1000, metrics.getMeanPhaseMicros("beacons.get", RequestTiming.Phase.CONNECT));
+    assertEquals(0, metrics.getMeanPhaseMicros("beacons.get", RequestTiming.Phase.TLS));
+  }
+
+  @Test
+  public void textHasALinePerEndpointInNameOrder() {
+    request("namespaces.list", 200, 5);
+    request("beacons.get", 200, 10);
+    request("beacons.get", 404, 20);
+    metrics.onBytesTransferred("beacons.get", 100, 2048);
+
+    assertEquals(String.format(
+        "beacons.get count=2 inFlight=0 p50=10.2ms p95=20.0ms p99=20.0ms max=20.0ms sent=100"
+            + " received=2048 status={200=1, 404=1}%n"
+            + "namespaces.list count=1 inFlight=0 p50=5.0ms p95=5.0ms p99=5.0ms max=5.0ms sent=0"
+            + " received=0 status={200=1}%n"),
+        metrics.toText());
+  }
+
+  @Test
+  public void jsonHasTheSameFigures() throws Exception {
+    request("beacons.get", 200, 10);
+    request("beacons.get", 404, 20);
+    metrics.onBytesTransferred("beacons.get", 100, 2048);
+    metrics.onRequestTiming(timing("beacons.get", RequestTiming.Phase.TTFB, 8));
+
+    JSONObject endpoint = new JSONObject(metrics.toJson()).getJSONObject("beacons.get");
+
+    assertEquals(2, endpoint.getLong("count"));
+    assertEquals(0, endpoint.getInt("inFlight"));
+    JSONObject latency = endpoint.getJSONObject("latencyMicros");
+    assertEquals(10239, latency.getLong("p50"));
+    assertEquals(20000, latency.getLong("p95"));
+    assertEquals(20000, latency.getLong("p99"));
+    assertEquals(20000, latency.getLong("max"));
+    assertEquals(15000, latency.getLong("mean"));
+    assertEquals(100, endpoint.getLong("bytesSent"));
+    assertEquals(2048, endpoint.getLong("bytesReceived"));
+    JSONObject status = endpoint.getJSONObject("status");
+    assertEquals(2, status.length());
+    assertEquals(1, status.getLong("200"));
+    assertEquals(1, status.getLong("404"));
+    JSONObject phases = endpoint.getJSONObject("phaseMeanMicros");
+    assertEquals(RequestTiming.Phase.values().length, phases.length());
+    assertEquals(8000, phases.getLong("TTFB"));
+    assertEquals(0, phases.getLong("QUEUE"));
+  }
+
+  private void request(String endpoint, int httpCode, long latencyMillis) {
+    metrics.onRequestStart(endpoint);
+    metrics.onRequestEnd(endpoint, httpCode, TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+  }
+
+  private static RequestTiming timing(String endpoint, RequestTiming.Phase phase, long millis) {
+    RequestTiming timing = new RequestTiming(endpoint);
+    timing.add(phase, TimeUnit.MILLISECONDS.toNanos(millis));
+    return timing;
+  }
+}
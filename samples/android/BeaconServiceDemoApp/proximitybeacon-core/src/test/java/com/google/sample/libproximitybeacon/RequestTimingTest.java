@@ -0,0 +1,230 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Checks the phases {@link RequestTiming} splits a request into. The fake server speaks plain
+ * HTTP, so the TLS phase is checked by driving the socket factories by hand on a connected
+ * socket, the way OkHttp does when it opens an HTTPS connection.
+ */
+public class RequestTimingTest {
+  private static final long LATENCY_MILLIS = 100;
+  private static final long CONNECT_MILLIS = 50;
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void newConnectionIsTimedPhaseByPhase() throws Exception {
+    String name = startServer(1).get(0);
+    TimingListener listener = new TimingListener();
+    ProximityBeaconClient client = newClient(listener);
+
+    client.getBeacon(name).get(10, TimeUnit.SECONDS);
+    RequestTiming timing = listener.next();
+
+    assertEquals("beacons.get", timing.getEndpoint());
+    assertEquals(200, timing.getHttpCode());
+    assertEquals(1, timing.getAttempts());
+    assertTrue(timing.toString(), timing.getNanos(RequestTiming.Phase.DNS) > 0);
+    assertTrue(timing.toString(),
+        timing.getNanos(RequestTiming.Phase.CONNECT) >= millisToNanos(CONNECT_MILLIS));
+    assertEquals(timing.toString(), 0, timing.getNanos(RequestTiming.Phase.TLS));
+    assertTrue(timing.toString(),
+        timing.getNanos(RequestTiming.Phase.TTFB) >= millisToNanos(LATENCY_MILLIS));
+    assertTrue(timing.toString(), timing.getTotalNanos() >= timing.getNanos(
+        RequestTiming.Phase.CONNECT) + timing.getNanos(RequestTiming.Phase.TTFB));
+  }
+
+  @Test
+  public void reusedConnectionSpendsNoTimeConnecting() throws Exception {
+    List<String> names = startServer(2);
+    TimingListener listener = new TimingListener();
+    ProximityBeaconClient client = newClient(listener);
+    client.getBeacon(names.get(0)).get(10, TimeUnit.SECONDS);
+    listener.next();
+
+    client.getBeacon(names.get(1)).get(10, TimeUnit.SECONDS);
+    RequestTiming timing = listener.next();
+
+    assertEquals(timing.toString(), 0, timing.getNanos(RequestTiming.Phase.CONNECT));
+    assertEquals(timing.toString(), 0, timing.getNanos(RequestTiming.Phase.TLS));
+    // Taking the connection from the pool is quick, but still counted as route selection.
+    assertTrue(timing.toString(),
+        timing.getNanos(RequestTiming.Phase.DNS) < millisToNanos(CONNECT_MILLIS));
+    assertTrue(timing.toString(),
+        timing.getNanos(RequestTiming.Phase.TTFB) >= millisToNanos(LATENCY_MILLIS));
+  }
+
+  @Test
+  public void socketFactoriesMarkTheConnectAndHandshake() throws Exception {
+    startServer(0);
+    SocketFactory sockets = TimingSocketFactory.wrap(SocketFactory.getDefault());
+    SSLSocketFactory sslSockets =
+        TimingSslSocketFactory.wrap((SSLSocketFactory) SSLSocketFactory.getDefault());
+    RequestTiming timing = new RequestTiming("beacons.get");
+    timing.mark(System.nanoTime());
+
+    timing.callStarted();
+    Thread.sleep(20);
+    Socket socket = sockets.createSocket();
+    socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+    Thread.sleep(30);
+    Socket tls = sslSockets.createSocket(socket, "localhost", server.getPort(), true);
+    Thread.sleep(40);
+    timing.connectionReady();
+    timing.callEnded();
+    tls.close();
+
+    assertTrue(timing.toString(), timing.getNanos(RequestTiming.Phase.DNS) >= millisToNanos(20));
+    assertTrue(timing.toString(),
+        timing.getNanos(RequestTiming.Phase.CONNECT) >= millisToNanos(30));
+    assertTrue(timing.toString(), timing.getNanos(RequestTiming.Phase.TLS) >= millisToNanos(40));
+  }
+
+  @Test
+  public void socketsOutsideACallAreNotTimed() throws Exception {
+    RequestTiming timing = new RequestTiming("beacons.get");
+    timing.mark(System.nanoTime());
+    timing.callStarted();
+    timing.connectionReady();
+    timing.callEnded();
+    long dns = timing.getNanos(RequestTiming.Phase.DNS);
+
+    TimingSocketFactory.wrap(SocketFactory.getDefault()).createSocket().close();
+
+    assertEquals(dns, timing.getNanos(RequestTiming.Phase.DNS));
+    assertEquals(0, timing.getNanos(RequestTiming.Phase.CONNECT));
+  }
+
+  private List<String> startServer(int beacons) throws IOException {
+    FaultModel faultModel = new FaultModel.Builder().setLatency(LATENCY_MILLIS, 0).build();
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(faultModel).build().start();
+    return TestClients.putBeacons(server.getRegistry(), beacons);
+  }
+
+  // A client with a pool of its own, whose sockets take CONNECT_MILLIS longer to connect.
+  private ProximityBeaconClient newClient(RequestListener listener) {
+    OkHttpClient template = new OkHttpClient();
+    template.setSocketFactory(new SlowSocketFactory());
+    template.setConnectionPool(new ConnectionPool(5, TimeUnit.MINUTES.toMillis(1)));
+    return new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .setHttpClient(template)
+        .setRequestListener(listener)
+        .build();
+  }
+
+  private static long millisToNanos(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * Delays handing out each unconnected socket, which OkHttp then connects, so the delay lands
+   * in the connect phase.
+   */
+  private static class SlowSocketFactory extends SocketFactory {
+    private final SocketFactory delegate = SocketFactory.getDefault();
+
+    @Override
+    public Socket createSocket() throws IOException {
+      try {
+        Thread.sleep(CONNECT_MILLIS);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return delegate.createSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+      return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+        throws IOException {
+      return delegate.createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+      return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                               int localPort) throws IOException {
+      return delegate.createSocket(address, port, localAddress, localPort);
+    }
+  }
+
+  private static class TimingListener implements RequestListener {
+    private final BlockingQueue<RequestTiming> timings = new LinkedBlockingQueue<>();
+
+    @Override
+    public void onRequestStart(String endpoint) {
+    }
+
+    @Override
+    public void onRequestEnd(String endpoint, int httpCode, long latencyNanos) {
+    }
+
+    @Override
+    public void onBytesTransferred(String endpoint, long bytesSent, long bytesReceived) {
+    }
+
+    @Override
+    public void onRequestTiming(RequestTiming timing) {
+      timings.add(timing);
+    }
+
+    RequestTiming next() throws InterruptedException {
+      RequestTiming timing = timings.poll(10, TimeUnit.SECONDS);
+      assertNotNull("No timing reported", timing);
+      return timing;
+    }
+  }
+}
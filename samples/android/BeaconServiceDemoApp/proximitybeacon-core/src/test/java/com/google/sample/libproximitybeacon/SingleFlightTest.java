@@ -0,0 +1,229 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sample.libproximitybeacon.fake.FakeProximityBeaconServer;
+import com.google.sample.libproximitybeacon.fake.FaultModel;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that identical GETs in flight together share one call, both against the fake server and
+ * with responses handed straight to {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+  private static final String KEY = "beacons/3!00000000000000000000000000000001";
+  private static final Request REQUEST =
+      new Request.Builder().url("https://example.com/v1beta1/" + KEY).build();
+  private static final String JSON = "{\"beaconName\":\"" + KEY + "\"}";
+
+  private FakeProximityBeaconServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void concurrentIdenticalGetsReachTheServerOnce() throws Exception {
+    FaultModel slow = new FaultModel.Builder().setLatency(200, 0).build();
+    server = new FakeProximityBeaconServer.Builder().setFaultModel(slow).build().start();
+    String name = TestClients.putBeacons(server.getRegistry(), 1).get(0);
+    ProximityBeaconClient client = new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+    RecordingCallback callback = new RecordingCallback(10);
+
+    for (int i = 0; i < 10; i++) {
+      client.getBeacon(callback, name);
+    }
+    callback.await();
+
+    assertEquals(1, server.getRequestCount());
+    assertEquals(10, client.getGetRequestCount());
+    assertEquals(9, client.getCollapsedRequestCount());
+    // Every caller read the whole body for itself.
+    assertEquals(10, callback.bodies.size());
+    assertEquals(1, new HashSet<>(callback.bodies).size());
+    assertTrue(callback.bodies.get(0), callback.bodies.get(0).contains(name));
+  }
+
+  @Test
+  public void getsAfterTheCallCompletesGoToTheServerAgain() throws Exception {
+    server = new FakeProximityBeaconServer.Builder().build().start();
+    String name = TestClients.putBeacons(server.getRegistry(), 1).get(0);
+    ProximityBeaconClient client = new ProximityBeaconClient.Builder(TestClients.AUTH)
+        .setBaseUrl(server.getBaseUrl())
+        .build();
+
+    for (int i = 0; i < 3; i++) {
+      RecordingCallback callback = new RecordingCallback(1);
+      client.getBeacon(callback, name);
+      callback.await();
+    }
+
+    assertEquals(3, server.getRequestCount());
+    assertEquals(0, client.getCollapsedRequestCount());
+  }
+
+  @Test
+  public void eachJoinerGetsItsOwnBody() throws IOException {
+    SingleFlight flights = new SingleFlight();
+    List<RecordingCallback> callbacks = new ArrayList<>();
+    SingleFlight.FanOut leader = null;
+    for (int i = 0; i < 3; i++) {
+      RecordingCallback callback = new RecordingCallback(1);
+      SingleFlight.FanOut joined = flights.join(KEY, callback);
+      if (i == 0) {
+        leader = joined;
+      } else {
+        assertNull(joined);
+      }
+      callbacks.add(callback);
+    }
+
+    leader.onResponse(response(JSON));
+
+    for (RecordingCallback callback : callbacks) {
+      assertEquals(Collections.singletonList(JSON), callback.bodies);
+    }
+    assertEquals(3, flights.getRequestCount());
+    assertEquals(2, flights.getCollapsedCount());
+  }
+
+  @Test
+  public void differentKeysAreNotCollapsed() {
+    SingleFlight flights = new SingleFlight();
+
+    assertNotNull(flights.join(KEY, new RecordingCallback(1)));
+    assertNotNull(flights.join(KEY + "/attachments", new RecordingCallback(1)));
+
+    assertEquals(0, flights.getCollapsedCount());
+  }
+
+  @Test
+  public void failureReachesEveryJoiner() {
+    SingleFlight flights = new SingleFlight();
+    RecordingCallback first = new RecordingCallback(1);
+    RecordingCallback second = new RecordingCallback(1);
+    SingleFlight.FanOut leader = flights.join(KEY, first);
+    flights.join(KEY, second);
+
+    leader.onFailure(REQUEST, new IOException("Connection reset"));
+
+    assertEquals(1, first.failures.size());
+    assertEquals(1, second.failures.size());
+    // The key is free for the next caller.
+    assertNotNull(flights.join(KEY, new RecordingCallback(1)));
+  }
+
+  @Test
+  public void callIsCancelledOnlyOnceEveryJoinerHasLeft() throws IOException {
+    SingleFlight flights = new SingleFlight();
+    RecordingCallback first = new RecordingCallback(1);
+    RecordingCallback second = new RecordingCallback(1);
+    SingleFlight.FanOut leader = flights.join(KEY, first);
+    flights.join(KEY, second);
+    final int[] cancels = new int[1];
+    leader.setCanceler(new Cancellable() {
+      @Override
+      public void cancel() {
+        cancels[0]++;
+      }
+    });
+
+    flights.leave(KEY, first);
+    assertEquals(0, cancels[0]);
+
+    leader.onResponse(response(JSON));
+    assertTrue(first.bodies.isEmpty());
+    assertEquals(Collections.singletonList(JSON), second.bodies);
+
+    RecordingCallback third = new RecordingCallback(1);
+    SingleFlight.FanOut next = flights.join(KEY, third);
+    final int[] nextCancels = new int[1];
+    next.setCanceler(new Cancellable() {
+      @Override
+      public void cancel() {
+        nextCancels[0]++;
+      }
+    });
+    flights.leave(KEY, third);
+    assertEquals(1, nextCancels[0]);
+    assertEquals(0, cancels[0]);
+  }
+
+  private static Response response(String json) {
+    return new Response.Builder()
+        .request(REQUEST)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .body(ResponseBody.create(MediaType.parse("application/json; charset=UTF-8"), json))
+        .build();
+  }
+
+  /**
+   * Reads each body it is given in full, so that a body shared between callers would come up
+   * empty or closed for all but one of them.
+   */
+  private static class RecordingCallback implements Callback {
+    final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    final List<IOException> failures = Collections.synchronizedList(new ArrayList<IOException>());
+
+    private final CountDownLatch done;
+
+    RecordingCallback(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    @Override
+    public void onFailure(Request request, IOException e) {
+      failures.add(e);
+      done.countDown();
+    }
+
+    @Override
+    public void onResponse(Response response) throws IOException {
+      bodies.add(response.body().string());
+      done.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue("Calls didn't finish", done.await(10, TimeUnit.SECONDS));
+    }
+  }
+}
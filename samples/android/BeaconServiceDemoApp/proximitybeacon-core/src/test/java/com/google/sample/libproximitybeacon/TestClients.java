@@ -0,0 +1,56 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon;
+
+import com.google.sample.libproximitybeacon.fake.FakeRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared set-up for tests that run a client against the fake server.
+ */
+final class TestClients {
+  static final AuthProvider AUTH = new AuthProvider() {
+    @Override
+    public String getToken() {
+      return "test-token";
+    }
+
+    @Override
+    public void invalidateToken(String token) {
+    }
+  };
+
+  private TestClients() {
+  }
+
+  /**
+   * Adds {@code count} active Eddystone beacons to {@code registry} and returns their names.
+   */
+  static List<String> putBeacons(FakeRegistry registry, int count) {
+    List<String> names = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] id = new byte[16];
+      id[14] = (byte) (i >>> 8);
+      id[15] = (byte) i;
+      BeaconRecord beacon = new BeaconRecord(null, "EDDYSTONE", id, "ACTIVE", null, null, null,
+          null, "Test beacon #" + i);
+      registry.putBeacon(beacon);
+      names.add(FakeRegistry.beaconName("EDDYSTONE", id));
+    }
+    return names;
+  }
+}
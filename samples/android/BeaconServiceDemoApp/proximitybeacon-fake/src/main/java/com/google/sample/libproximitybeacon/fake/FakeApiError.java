@@ -0,0 +1,70 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon.fake;
+
+/**
+ * An error response, in the shape of the API's standard error body: an HTTP status, a canonical
+ * status name and a message.
+ */
+class FakeApiError extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  static final int BAD_REQUEST = 400;
+  static final int UNAUTHORIZED = 401;
+  static final int NOT_FOUND = 404;
+  static final int CONFLICT = 409;
+  static final int TOO_MANY_REQUESTS = 429;
+
+  final int httpCode;
+  final String status;
+
+  FakeApiError(int httpCode, String status, String message) {
+    super(message);
+    this.httpCode = httpCode;
+    this.status = status;
+  }
+
+  static FakeApiError invalidArgument(String message) {
+    return new FakeApiError(BAD_REQUEST, "INVALID_ARGUMENT", message);
+  }
+
+  static FakeApiError failedPrecondition(String message) {
+    return new FakeApiError(BAD_REQUEST, "FAILED_PRECONDITION", message);
+  }
+
+  static FakeApiError notFound(String message) {
+    return new FakeApiError(NOT_FOUND, "NOT_FOUND", message);
+  }
+
+  static FakeApiError alreadyExists(String message) {
+    return new FakeApiError(CONFLICT, "ALREADY_EXISTS", message);
+  }
+
+  /**
+   * The error for a failure injected by a {@link FaultModel}.
+   */
+  static FakeApiError injected(int httpCode) {
+    switch (httpCode) {
+      case TOO_MANY_REQUESTS:
+        return new FakeApiError(httpCode, "RESOURCE_EXHAUSTED", "Quota exceeded");
+      case 503:
+        return new FakeApiError(httpCode, "UNAVAILABLE", "The service is currently unavailable");
+      case 504:
+        return new FakeApiError(httpCode, "DEADLINE_EXCEEDED", "Deadline exceeded");
+      default:
+        return new FakeApiError(httpCode, "INTERNAL", "Internal error encountered");
+    }
+  }
+}
@@ -0,0 +1,255 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon.fake;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.sample.libproximitybeacon.Attachment;
+import com.google.sample.libproximitybeacon.BeaconRecord;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes v1beta1 requests to a {@link FakeRegistry}, after holding and possibly failing them as
+ * the {@link FaultModel} says. Unknown paths and methods get a 404, as from the real API.
+ */
+class FakeApiHandler implements HttpHandler {
+  static final String PREFIX = "/v1beta1/";
+
+  private static final String BEACONS = "beacons/";
+  private static final String ATTACHMENTS = "/attachments";
+
+  private final FakeRegistry registry;
+  private final FaultModel faultModel;
+  private final AtomicLong requestCount = new AtomicLong();
+
+  FakeApiHandler(FakeRegistry registry, FaultModel faultModel) {
+    this.registry = registry;
+    this.faultModel = faultModel;
+  }
+
+  long getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    requestCount.incrementAndGet();
+    try {
+      long latencyMillis = faultModel.nextLatencyMillis();
+      if (latencyMillis > 0) {
+        Thread.sleep(latencyMillis);
+      }
+      int failure = faultModel.nextFailure();
+      if (failure == FakeApiError.TOO_MANY_REQUESTS) {
+        exchange.getResponseHeaders().set("Retry-After",
+            String.valueOf(faultModel.getRetryAfterSeconds()));
+      }
+      if (failure != 0) {
+        throw FakeApiError.injected(failure);
+      }
+      String path = exchange.getRequestURI().getPath().substring(PREFIX.length());
+      Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+      if (!authorized(exchange, path, query)) {
+        throw new FakeApiError(FakeApiError.UNAUTHORIZED, "UNAUTHENTICATED",
+            "Request is missing required authentication credential.");
+      }
+      route(exchange, exchange.getRequestMethod(), path, query);
+    } catch (FakeApiError e) {
+      respondWithError(exchange, e);
+    } catch (InterruptedException e) {
+      // The server is shutting down.
+      Thread.currentThread().interrupt();
+      exchange.close();
+    } catch (RuntimeException e) {
+      // Malformed request bodies surface from the JSON reader as unchecked exceptions.
+      respondWithError(exchange,
+          FakeApiError.invalidArgument("Invalid JSON payload received. " + e.getMessage()));
+    }
+  }
+
+  // getforobserved is called with an API key; everything else with an OAuth token.
+  private static boolean authorized(HttpExchange exchange, String path,
+                                    Map<String, String> query) {
+    if (path.equals("beaconinfo:getforobserved") && query.get("key") != null) {
+      return true;
+    }
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    return authorization != null && authorization.startsWith("Bearer ")
+        && authorization.length() > "Bearer ".length();
+  }
+
+  private void route(HttpExchange exchange, String method, String path,
+                     Map<String, String> query) throws IOException {
+    StringWriter body = new StringWriter();
+    JsonWriter writer = new JsonWriter(body);
+    if (path.equals("namespaces") && method.equals("GET")) {
+      FakeJson.writeNamespaces(writer, registry.getNamespaces());
+    } else if (path.equals("beaconinfo:getforobserved") && method.equals("POST")) {
+      getForObserved(exchange, writer);
+    } else if (path.equals("beacons") && method.equals("GET")) {
+      FakeJson.writeBeaconPage(writer, registry.list(query.get("q"),
+          parseInt(query.get("pageSize")), query.get("pageToken")));
+    } else if (path.equals("beacons:register") && method.equals("POST")) {
+      FakeJson.writeBeacon(writer, registry.register(FakeJson.readBeacon(reader(exchange))));
+    } else if (path.startsWith(BEACONS)) {
+      int end = BEACONS.length();
+      while (end < path.length() && path.charAt(end) != '/' && path.charAt(end) != ':') {
+        end++;
+      }
+      beacon(exchange, writer, method, path.substring(0, end), path.substring(end), query);
+    } else {
+      throw notFound(method, path);
+    }
+    writer.flush();
+    respond(exchange, 200, body.toString());
+  }
+
+  // A request on one beacon or its sub-resources; rest is what follows the beacon's name.
+  private void beacon(HttpExchange exchange, JsonWriter writer, String method, String beaconName,
+                      String rest, Map<String, String> query) throws IOException {
+    String namespacedType = query.get("namespacedType");
+    if (rest.isEmpty() && method.equals("GET")) {
+      FakeJson.writeBeacon(writer, registry.get(beaconName));
+    } else if (rest.isEmpty() && method.equals("PUT")) {
+      FakeJson.writeBeacon(writer,
+          registry.update(beaconName, FakeJson.readBeacon(reader(exchange))));
+    } else if (rest.equals(":activate") && method.equals("POST")) {
+      registry.activate(beaconName);
+      writer.beginObject().endObject();
+    } else if (rest.equals(":deactivate") && method.equals("POST")) {
+      registry.deactivate(beaconName);
+      writer.beginObject().endObject();
+    } else if (rest.equals(":decommission") && method.equals("POST")) {
+      registry.decommission(beaconName);
+      writer.beginObject().endObject();
+    } else if (rest.equals(ATTACHMENTS) && method.equals("GET")) {
+      FakeJson.writeAttachments(writer, registry.listAttachments(beaconName, namespacedType));
+    } else if (rest.equals(ATTACHMENTS) && method.equals("POST")) {
+      Attachment attachment = FakeJson.readAttachment(reader(exchange));
+      FakeJson.writeAttachment(writer, registry.createAttachment(beaconName,
+          attachment.getNamespacedType(), attachment.getData()));
+    } else if (rest.equals(ATTACHMENTS + ":batchDelete") && method.equals("POST")) {
+      FakeJson.writeNumDeleted(writer,
+          registry.batchDeleteAttachments(beaconName, namespacedType));
+    } else if (rest.startsWith(ATTACHMENTS + "/") && method.equals("DELETE")) {
+      registry.deleteAttachment(beaconName + rest);
+      writer.beginObject().endObject();
+    } else if (rest.equals("/diagnostics") && method.equals("GET")) {
+      FakeJson.writeDiagnostics(writer, registry.getDiagnostics(beaconName));
+    } else {
+      throw notFound(method, beaconName + rest);
+    }
+  }
+
+  private void getForObserved(HttpExchange exchange, JsonWriter writer) throws IOException {
+    List<String> namespacedTypes = new ArrayList<>();
+    List<FakeJson.AdvertisedId> observed =
+        FakeJson.readObservations(reader(exchange), namespacedTypes);
+    if (observed.isEmpty()) {
+      throw FakeApiError.invalidArgument("At least one observation is required");
+    }
+    List<BeaconRecord> beacons = new ArrayList<>();
+    List<List<Attachment>> attachments = new ArrayList<>();
+    for (FakeJson.AdvertisedId advertisedId : observed) {
+      BeaconRecord beacon = registry.observe(advertisedId.type, advertisedId.id);
+      if (beacon == null) {
+        continue;
+      }
+      List<Attachment> matching = new ArrayList<>();
+      for (String namespacedType : namespacedTypes) {
+        for (Attachment attachment :
+            registry.listAttachments(beacon.getBeaconName(), namespacedType)) {
+          if (!matching.contains(attachment)) {
+            matching.add(attachment);
+          }
+        }
+      }
+      beacons.add(beacon);
+      attachments.add(matching);
+    }
+    FakeJson.writeObserved(writer, beacons, attachments);
+  }
+
+  private static FakeApiError notFound(String method, String path) {
+    return FakeApiError.notFound("No handler for " + method + " " + PREFIX + path);
+  }
+
+  private static JsonReader reader(HttpExchange exchange) {
+    return new JsonReader(
+        new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+  }
+
+  private static void respondWithError(HttpExchange exchange, FakeApiError error)
+      throws IOException {
+    StringWriter body = new StringWriter();
+    JsonWriter writer = new JsonWriter(body);
+    FakeJson.writeError(writer, error);
+    writer.flush();
+    respond(exchange, error.httpCode, body.toString());
+  }
+
+  private static void respond(HttpExchange exchange, int code, String json) throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(code, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+  private static Map<String, String> parseQuery(String rawQuery) {
+    Map<String, String> params = new HashMap<>();
+    if (rawQuery == null) {
+      return params;
+    }
+    try {
+      for (String pair : rawQuery.split("&")) {
+        int eq = pair.indexOf('=');
+        if (eq > 0) {
+          params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+              URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+    return params;
+  }
+
+  private static int parseInt(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw FakeApiError.invalidArgument("Invalid integer value: " + value);
+    }
+  }
+}
@@ -0,0 +1,348 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon.fake;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.sample.libproximitybeacon.Attachment;
+import com.google.sample.libproximitybeacon.BeaconPage;
+import com.google.sample.libproximitybeacon.BeaconRecord;
+import com.google.sample.libproximitybeacon.Diagnostics;
+import com.google.sample.libproximitybeacon.Namespace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.ByteString;
+
+/**
+ * The fake's side of the wire format: resources as the API writes them, including output-only
+ * fields, and request bodies as the API reads them.
+ */
+class FakeJson {
+  private FakeJson() {}  // static functions only
+
+  static void writeBeacon(JsonWriter writer, BeaconRecord beacon) throws IOException {
+    writer.beginObject();
+    writer.name("beaconName").value(beacon.getBeaconName());
+    writeAdvertisedId(writer, beacon.getType(), beacon.getId());
+    writer.name("status").value(beacon.getStatus());
+    if (beacon.getPlaceId() != null) {
+      writer.name("placeId").value(beacon.getPlaceId());
+    }
+    if (beacon.getLatitude() != null && beacon.getLongitude() != null) {
+      writer.name("latLng").beginObject()
+          .name("latitude").value(beacon.getLatitude().doubleValue())
+          .name("longitude").value(beacon.getLongitude().doubleValue())
+          .endObject();
+    }
+    if (beacon.getExpectedStability() != null) {
+      writer.name("expectedStability").value(beacon.getExpectedStability());
+    }
+    if (beacon.getDescription() != null) {
+      writer.name("description").value(beacon.getDescription());
+    }
+    writer.endObject();
+  }
+
+  static void writeAdvertisedId(JsonWriter writer, String type, byte[] id) throws IOException {
+    writer.name("advertisedId").beginObject()
+        .name("type").value(type)
+        .name("id").value(ByteString.of(id).base64())
+        .endObject();
+  }
+
+  static void writeBeaconPage(JsonWriter writer, BeaconPage page) throws IOException {
+    writer.beginObject();
+    // Like the API, leave out empty arrays and the token of the last page.
+    if (!page.getBeacons().isEmpty()) {
+      writer.name("beacons").beginArray();
+      for (BeaconRecord beacon : page.getBeacons()) {
+        writeBeacon(writer, beacon);
+      }
+      writer.endArray();
+    }
+    if (page.getNextPageToken() != null) {
+      writer.name("nextPageToken").value(page.getNextPageToken());
+    }
+    // int64 fields are written as strings.
+    writer.name("totalCount").value(String.valueOf(page.getTotalCount()));
+    writer.endObject();
+  }
+
+  static void writeAttachment(JsonWriter writer, Attachment attachment) throws IOException {
+    writer.beginObject()
+        .name("attachmentName").value(attachment.getAttachmentName())
+        .name("namespacedType").value(attachment.getNamespacedType())
+        .name("data").value(ByteString.of(attachment.getData()).base64())
+        .endObject();
+  }
+
+  static void writeAttachments(JsonWriter writer, List<Attachment> attachments)
+      throws IOException {
+    writer.beginObject();
+    if (!attachments.isEmpty()) {
+      writer.name("attachments").beginArray();
+      for (Attachment attachment : attachments) {
+        writeAttachment(writer, attachment);
+      }
+      writer.endArray();
+    }
+    writer.endObject();
+  }
+
+  static void writeDiagnostics(JsonWriter writer, Diagnostics diagnostics) throws IOException {
+    writer.beginObject().name("diagnostics").beginArray().beginObject();
+    writer.name("beaconName").value(diagnostics.getBeaconName());
+    String date = diagnostics.getEstimatedLowBatteryDate();
+    if (date != null) {
+      // Held as yyyy-MM-dd; the API sends a Date message.
+      String[] parts = date.split("-");
+      writer.name("estimatedLowBatteryDate").beginObject()
+          .name("year").value(Integer.parseInt(parts[0]))
+          .name("month").value(Integer.parseInt(parts[1]))
+          .name("day").value(Integer.parseInt(parts[2]))
+          .endObject();
+    }
+    if (!diagnostics.getAlerts().isEmpty()) {
+      writer.name("alerts").beginArray();
+      for (String alert : diagnostics.getAlerts()) {
+        writer.value(alert);
+      }
+      writer.endArray();
+    }
+    writer.endObject().endArray().endObject();
+  }
+
+  static void writeNamespaces(JsonWriter writer, List<Namespace> namespaces) throws IOException {
+    writer.beginObject().name("namespaces").beginArray();
+    for (Namespace namespace : namespaces) {
+      writer.beginObject().name("namespaceName").value(namespace.getNamespaceName());
+      if (namespace.getServingVisibility() != null) {
+        writer.name("servingVisibility").value(namespace.getServingVisibility());
+      }
+      writer.endObject();
+    }
+    writer.endArray().endObject();
+  }
+
+  static void writeNumDeleted(JsonWriter writer, int numDeleted) throws IOException {
+    writer.beginObject();
+    if (numDeleted > 0) {
+      writer.name("numDeleted").value(numDeleted);
+    }
+    writer.endObject();
+  }
+
+  /**
+   * Writes a getforobserved response: each observed beacon with its description and the
+   * attachments matching the request's namespaced types.
+   */
+  static void writeObserved(JsonWriter writer, List<BeaconRecord> beacons,
+                            List<List<Attachment>> attachments) throws IOException {
+    writer.beginObject();
+    if (!beacons.isEmpty()) {
+      writer.name("beacons").beginArray();
+      for (int i = 0; i < beacons.size(); i++) {
+        BeaconRecord beacon = beacons.get(i);
+        writer.beginObject();
+        writeAdvertisedId(writer, beacon.getType(), beacon.getId());
+        writer.name("beaconName").value(beacon.getBeaconName());
+        if (beacon.getDescription() != null) {
+          writer.name("description").value(beacon.getDescription());
+        }
+        if (!attachments.get(i).isEmpty()) {
+          writer.name("attachments").beginArray();
+          for (Attachment attachment : attachments.get(i)) {
+            writer.beginObject()
+                .name("namespacedType").value(attachment.getNamespacedType())
+                .name("data").value(ByteString.of(attachment.getData()).base64())
+                .endObject();
+          }
+          writer.endArray();
+        }
+        writer.endObject();
+      }
+      writer.endArray();
+    }
+    writer.endObject();
+  }
+
+  static void writeError(JsonWriter writer, FakeApiError error) throws IOException {
+    writer.beginObject().name("error").beginObject()
+        .name("code").value(error.httpCode)
+        .name("message").value(error.getMessage())
+        .name("status").value(error.status)
+        .endObject().endObject();
+  }
+
+  /**
+   * Reads a beacon from a register or update request. Output-only fields are ignored.
+   */
+  static BeaconRecord readBeacon(JsonReader reader) throws IOException {
+    String type = null;
+    byte[] id = null;
+    String status = null;
+    String placeId = null;
+    Double latitude = null;
+    Double longitude = null;
+    String expectedStability = null;
+    String description = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue();
+        continue;
+      }
+      switch (name) {
+        case "advertisedId":
+          AdvertisedId advertisedId = readAdvertisedId(reader);
+          type = advertisedId.type;
+          id = advertisedId.id;
+          break;
+        case "status":
+          status = reader.nextString();
+          break;
+        case "placeId":
+          placeId = reader.nextString();
+          break;
+        case "latLng":
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals("latitude")) {
+              latitude = reader.nextDouble();
+            } else if (field.equals("longitude")) {
+              longitude = reader.nextDouble();
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+          break;
+        case "expectedStability":
+          expectedStability = reader.nextString();
+          break;
+        case "description":
+          description = reader.nextString();
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return new BeaconRecord(null, type, id, status, placeId, latitude, longitude,
+        expectedStability, description);
+  }
+
+  /**
+   * Reads the namespaced type and data of an attachment create request.
+   */
+  static Attachment readAttachment(JsonReader reader) throws IOException {
+    String namespacedType = null;
+    byte[] data = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("namespacedType") && reader.peek() == JsonToken.STRING) {
+        namespacedType = reader.nextString();
+      } else if (name.equals("data") && reader.peek() == JsonToken.STRING) {
+        data = base64Decode(reader.nextString());
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new Attachment(null, namespacedType, data);
+  }
+
+  /**
+   * Reads a getforobserved request into the advertised IDs of its observations, adding the
+   * requested attachment types to {@code namespacedTypes}.
+   */
+  static List<AdvertisedId> readObservations(JsonReader reader, List<String> namespacedTypes)
+      throws IOException {
+    List<AdvertisedId> observed = new ArrayList<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String field = reader.nextName();
+      if (field.equals("namespacedTypes") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          namespacedTypes.add(reader.nextString());
+        }
+        reader.endArray();
+        continue;
+      }
+      if (!field.equals("observations")) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginArray();
+      while (reader.hasNext()) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          if (reader.nextName().equals("advertisedId")) {
+            observed.add(readAdvertisedId(reader));
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+      }
+      reader.endArray();
+    }
+    reader.endObject();
+    return observed;
+  }
+
+  private static AdvertisedId readAdvertisedId(JsonReader reader) throws IOException {
+    AdvertisedId advertisedId = new AdvertisedId();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("type")) {
+        advertisedId.type = reader.nextString();
+      } else if (name.equals("id")) {
+        advertisedId.id = base64Decode(reader.nextString());
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (advertisedId.type == null || advertisedId.id == null) {
+      throw FakeApiError.invalidArgument("advertisedId needs a type and an id");
+    }
+    return advertisedId;
+  }
+
+  // Accepts the URL-safe alphabet too, and rejects anything that isn't base64 at all.
+  private static byte[] base64Decode(String s) {
+    ByteString bytes = ByteString.decodeBase64(s);
+    if (bytes == null) {
+      throw FakeApiError.invalidArgument("Invalid base64 value");
+    }
+    return bytes.toByteArray();
+  }
+
+  static class AdvertisedId {
+    String type;
+    byte[] id;
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon.fake;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An in-process stand-in for the Proximity Beacon API's v1beta1 REST surface, for integration
+ * and load tests that shouldn't touch a real project or spend its quota. It serves beacons,
+ * attachments, diagnostics, namespaces and getforobserved from a {@link FakeRegistry} over plain
+ * HTTP on the loopback interface, using the JDK's built-in server, so it runs on any JVM.
+ *
+ * <p>Point a client at it with {@code ProximityBeaconClient.Builder.setBaseUrl(getBaseUrl())}.
+ * Any bearer token is accepted. A {@link FaultModel} adds latency and injected failures.
+ */
+public class FakeProximityBeaconServer {
+  private final FakeRegistry registry;
+  private final FakeApiHandler handler;
+  private final int requestedPort;
+  private final int threads;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  private FakeProximityBeaconServer(Builder builder) {
+    this.registry = builder.registry != null ? builder.registry : new FakeRegistry();
+    this.handler = new FakeApiHandler(registry, builder.faultModel);
+    this.requestedPort = builder.port;
+    this.threads = builder.threads;
+  }
+
+  /**
+   * Binds the port and starts serving. Requests are handled concurrently, up to the configured
+   * number of threads; that also bounds how many injected delays can overlap.
+   */
+  public synchronized FakeProximityBeaconServer start() throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("Already started");
+    }
+    server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort), threads);
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.createContext(FakeApiHandler.PREFIX, handler);
+    server.start();
+    return this;
+  }
+
+  /**
+   * Stops serving. Requests still in progress are abandoned.
+   */
+  public synchronized void shutdown() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+    }
+  }
+
+  public synchronized int getPort() {
+    if (server == null) {
+      throw new IllegalStateException("Not started");
+    }
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * The URL to hand to a client in place of the production endpoint, ending in
+   * {@code /v1beta1/}.
+   */
+  public String getBaseUrl() {
+    return "http://127.0.0.1:" + getPort() + FakeApiHandler.PREFIX;
+  }
+
+  public FakeRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * How many requests have arrived since the server started, including failed ones.
+   */
+  public long getRequestCount() {
+    return handler.getRequestCount();
+  }
+
+  /**
+   * Serves a seeded fleet until killed: {@code [port] [fleetSize]}, defaulting to 8080 and
+   * 100,000 beacons.
+   */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    int fleetSize = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    FakeRegistry registry = new FakeRegistry();
+    registry.seedFleet(fleetSize, 1);
+    FakeProximityBeaconServer server = new Builder()
+        .setPort(port)
+        .setRegistry(registry)
+        .build()
+        .start();
+    System.out.println("Serving " + registry.getBeaconCount() + " beacons at "
+        + server.getBaseUrl());
+  }
+
+  public static final class Builder {
+    private int port = 0;
+    private int threads = 64;
+    private FaultModel faultModel = FaultModel.NONE;
+    private FakeRegistry registry;
+
+    /**
+     * The port to listen on; 0, the default, picks a free one.
+     */
+    public Builder setPort(int port) {
+      this.port = port;
+      return this;
+    }
+
+    public Builder setThreads(int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException("threads must be positive");
+      }
+      this.threads = threads;
+      return this;
+    }
+
+    public Builder setFaultModel(FaultModel faultModel) {
+      this.faultModel = faultModel;
+      return this;
+    }
+
+    /**
+     * Serves {@code registry} rather than a new, empty one, e.g. one already seeded with
+     * {@link FakeRegistry#seedFleet}.
+     */
+    public Builder setRegistry(FakeRegistry registry) {
+      this.registry = registry;
+      return this;
+    }
+
+    public FakeProximityBeaconServer build() {
+      return new FakeProximityBeaconServer(this);
+    }
+  }
+}
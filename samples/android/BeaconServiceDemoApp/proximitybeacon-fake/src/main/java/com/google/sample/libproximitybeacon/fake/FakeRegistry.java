@@ -0,0 +1,427 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon.fake;
+
+import com.google.sample.libproximitybeacon.Attachment;
+import com.google.sample.libproximitybeacon.BeaconPage;
+import com.google.sample.libproximitybeacon.BeaconRecord;
+import com.google.sample.libproximitybeacon.Diagnostics;
+import com.google.sample.libproximitybeacon.Namespace;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.ByteString;
+
+/**
+ * The state behind a {@link FakeProximityBeaconServer}: one project's beacons, their attachments
+ * and diagnostics, and its namespaces. Reads never block; writes are serialized, which is plenty
+ * for a test fleet.
+ *
+ * <p>Beacons are kept in name order, so listing pages through them with a cursor rather than an
+ * offset, and holding a seeded fleet of 100,000 costs a few tens of megabytes.
+ */
+public class FakeRegistry {
+  public static final String DEFAULT_NAMESPACE = "namespaces/fake-project";
+
+  private static final String STATUS_ACTIVE = "ACTIVE";
+  private static final String STATUS_INACTIVE = "INACTIVE";
+  private static final String STATUS_DECOMMISSIONED = "DECOMMISSIONED";
+
+  private static final int DEFAULT_PAGE_SIZE = 20;
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  private final NavigableMap<String, BeaconRecord> beacons = new ConcurrentSkipListMap<>();
+  private final Map<String, List<Attachment>> attachments = new ConcurrentHashMap<>();
+  private final Map<String, Diagnostics> diagnostics = new ConcurrentHashMap<>();
+  private final List<Namespace> namespaces = new CopyOnWriteArrayList<>();
+  private final AtomicLong nextAttachmentId = new AtomicLong(1);
+
+  public FakeRegistry() {
+    namespaces.add(new Namespace(DEFAULT_NAMESPACE, "UNLISTED"));
+  }
+
+  /**
+   * The API's name for a beacon, e.g. {@code beacons/3!00112233445566778899aabbccddeeff} for an
+   * Eddystone UID.
+   */
+  public static String beaconName(String type, byte[] id) {
+    int typeCode;
+    switch (type) {
+      case "IBEACON":
+        typeCode = 1;
+        break;
+      case "EDDYSTONE":
+        typeCode = 3;
+        break;
+      case "EDDYSTONE_EID":
+        typeCode = 4;
+        break;
+      case "ALTBEACON":
+        typeCode = 5;
+        break;
+      default:
+        throw FakeApiError.invalidArgument("Unknown advertised ID type " + type);
+    }
+    return "beacons/" + typeCode + "!" + ByteString.of(id).hex();
+  }
+
+  /**
+   * Adds {@code count} registered beacons, the same ones for the same {@code seed}: mostly
+   * active Eddystone UIDs with a location, the rest iBeacons and AltBeacons, inactive or
+   * decommissioned. One in ten has an attachment in the default namespace, and one in twenty
+   * reports a low battery.
+   */
+  public void seedFleet(int count, long seed) {
+    Random random = new Random(seed);
+    byte[] namespaceId = new byte[10];
+    random.nextBytes(namespaceId);
+    for (int i = 0; i < count; i++) {
+      String type;
+      byte[] id;
+      int kind = random.nextInt(20);
+      if (kind < 18) {
+        type = "EDDYSTONE";
+        id = new byte[16];
+        System.arraycopy(namespaceId, 0, id, 0, namespaceId.length);
+        writeInstance(id, 10, i);
+      } else {
+        type = kind == 18 ? "IBEACON" : "ALTBEACON";
+        id = new byte[20];
+        random.nextBytes(id);
+        writeInstance(id, 14, i);
+      }
+      int roll = random.nextInt(100);
+      String status = roll < 85 ? STATUS_ACTIVE : roll < 95 ? STATUS_INACTIVE
+          : STATUS_DECOMMISSIONED;
+      String name = beaconName(type, id);
+      beacons.put(name, new BeaconRecord(name, type, id, status, null,
+          37.4 + random.nextDouble(), -122.6 + random.nextDouble(),
+          random.nextBoolean() ? "STABLE" : "PORTABLE", "Fake beacon #" + i));
+      if (i % 10 == 0) {
+        createAttachment(name, "fake-project/json",
+            ("{\"beacon\":" + i + "}").getBytes(StandardCharsets.UTF_8));
+      }
+      if (i % 20 == 0) {
+        diagnostics.put(name, new Diagnostics(name,
+            String.format(Locale.US, "2016-%02d-%02d", 1 + random.nextInt(12),
+                1 + random.nextInt(28)),
+            Collections.singletonList("LOW_BATTERY")));
+      }
+    }
+  }
+
+  // The low bytes of the ID are the beacon's index in the fleet, so that every ID is distinct.
+  private static void writeInstance(byte[] id, int offset, int index) {
+    for (int i = id.length - 1; i >= offset; i--) {
+      id[i] = (byte) index;
+      index >>>= 8;
+    }
+  }
+
+  /**
+   * Adds or replaces {@code beacon}, named after its advertised ID.
+   */
+  public void putBeacon(BeaconRecord beacon) {
+    String name = beaconName(beacon.getType(), beacon.getId());
+    beacons.put(name, withName(beacon, name, beacon.getStatus()));
+  }
+
+  /**
+   * The beacon called {@code beaconName}, or null if there is none.
+   */
+  public BeaconRecord getBeacon(String beaconName) {
+    return beacons.get(beaconName);
+  }
+
+  public int getBeaconCount() {
+    return beacons.size();
+  }
+
+  public void putDiagnostics(Diagnostics beaconDiagnostics) {
+    diagnostics.put(beaconDiagnostics.getBeaconName(), beaconDiagnostics);
+  }
+
+  public void addNamespace(Namespace namespace) {
+    namespaces.add(namespace);
+  }
+
+  BeaconRecord get(String beaconName) {
+    BeaconRecord beacon = beacons.get(beaconName);
+    if (beacon == null) {
+      throw FakeApiError.notFound("Requested entity was not found.");
+    }
+    return beacon;
+  }
+
+  /**
+   * A page of the beacons matching {@code query}, which may filter on {@code status:},
+   * {@code type:} and {@code description:}. The page token is the name of the last beacon on the
+   * previous page.
+   */
+  BeaconPage list(String query, int pageSize, String pageToken) {
+    BeaconFilter filter = new BeaconFilter(query);
+    if (pageSize <= 0) {
+      pageSize = DEFAULT_PAGE_SIZE;
+    }
+    pageSize = Math.min(pageSize, MAX_PAGE_SIZE);
+    Map<String, BeaconRecord> rest = beacons;
+    if (pageToken != null) {
+      ByteString after = ByteString.decodeBase64(pageToken);
+      if (after == null) {
+        throw FakeApiError.invalidArgument("Invalid page token");
+      }
+      rest = beacons.tailMap(after.utf8(), false);
+    }
+    List<BeaconRecord> page = new ArrayList<>();
+    String last = null;
+    boolean more = false;
+    for (BeaconRecord beacon : rest.values()) {
+      if (!filter.matches(beacon)) {
+        continue;
+      }
+      if (page.size() == pageSize) {
+        more = true;
+        break;
+      }
+      page.add(beacon);
+      last = beacon.getBeaconName();
+    }
+    String nextPageToken = more ? ByteString.encodeUtf8(last).base64() : null;
+    return new BeaconPage(page, nextPageToken, filter.isEmpty() ? beacons.size() : count(filter));
+  }
+
+  private long count(BeaconFilter filter) {
+    long count = 0;
+    for (BeaconRecord beacon : beacons.values()) {
+      if (filter.matches(beacon)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  synchronized BeaconRecord register(BeaconRecord beacon) {
+    if (beacon.getType() == null || beacon.getId() == null) {
+      throw FakeApiError.invalidArgument("advertisedId is required");
+    }
+    String name = beaconName(beacon.getType(), beacon.getId());
+    if (beacons.containsKey(name)) {
+      throw FakeApiError.alreadyExists("Beacon " + name + " is already registered");
+    }
+    String status = beacon.getStatus() == null
+        || beacon.getStatus().equals(BeaconRecord.STATUS_UNSPECIFIED)
+        ? STATUS_ACTIVE : beacon.getStatus();
+    BeaconRecord registered = withName(beacon, name, status);
+    beacons.put(name, registered);
+    return registered;
+  }
+
+  /**
+   * Replaces the beacon's mutable fields. Its advertised ID can't change, and neither can its
+   * status, which has its own methods.
+   */
+  synchronized BeaconRecord update(String beaconName, BeaconRecord beacon) {
+    BeaconRecord current = get(beaconName);
+    BeaconRecord updated = new BeaconRecord(beaconName, current.getType(), current.getId(),
+        current.getStatus(), beacon.getPlaceId(), beacon.getLatitude(), beacon.getLongitude(),
+        beacon.getExpectedStability(), beacon.getDescription());
+    beacons.put(beaconName, updated);
+    return updated;
+  }
+
+  synchronized void activate(String beaconName) {
+    setStatus(beaconName, STATUS_ACTIVE);
+  }
+
+  synchronized void deactivate(String beaconName) {
+    setStatus(beaconName, STATUS_INACTIVE);
+  }
+
+  synchronized void decommission(String beaconName) {
+    setStatus(beaconName, STATUS_DECOMMISSIONED);
+  }
+
+  private void setStatus(String beaconName, String status) {
+    BeaconRecord current = get(beaconName);
+    if (current.getStatus().equals(STATUS_DECOMMISSIONED)) {
+      throw FakeApiError.failedPrecondition("Beacon " + beaconName + " is decommissioned");
+    }
+    beacons.put(beaconName, withName(current, beaconName, status));
+  }
+
+  /**
+   * The beacon's attachments whose type matches {@code namespacedType}, which may use a
+   * {@code *} wildcard for the namespace, the type or both.
+   */
+  List<Attachment> listAttachments(String beaconName, String namespacedType) {
+    get(beaconName);
+    List<Attachment> matching = new ArrayList<>();
+    List<Attachment> all = attachments.get(beaconName);
+    if (all != null) {
+      for (Attachment attachment : all) {
+        if (typeMatches(namespacedType, attachment.getNamespacedType())) {
+          matching.add(attachment);
+        }
+      }
+    }
+    return matching;
+  }
+
+  Attachment createAttachment(String beaconName, String namespacedType, byte[] data) {
+    get(beaconName);
+    if (namespacedType == null || namespacedType.indexOf('/') < 0 || data == null) {
+      throw FakeApiError.invalidArgument("namespacedType and data are required");
+    }
+    Attachment attachment = new Attachment(
+        beaconName + "/attachments/" + nextAttachmentId.getAndIncrement(), namespacedType, data);
+    synchronized (this) {
+      List<Attachment> list = attachments.get(beaconName);
+      if (list == null) {
+        list = new CopyOnWriteArrayList<>();
+        attachments.put(beaconName, list);
+      }
+      list.add(attachment);
+    }
+    return attachment;
+  }
+
+  synchronized void deleteAttachment(String attachmentName) {
+    int end = attachmentName.indexOf("/attachments/");
+    List<Attachment> list = end < 0 ? null : attachments.get(attachmentName.substring(0, end));
+    if (list != null) {
+      for (Attachment attachment : list) {
+        if (attachment.getAttachmentName().equals(attachmentName)) {
+          list.remove(attachment);
+          return;
+        }
+      }
+    }
+    throw FakeApiError.notFound("Requested entity was not found.");
+  }
+
+  synchronized int batchDeleteAttachments(String beaconName, String namespacedType) {
+    List<Attachment> doomed = listAttachments(beaconName, namespacedType);
+    List<Attachment> list = attachments.get(beaconName);
+    if (list != null) {
+      list.removeAll(doomed);
+    }
+    return doomed.size();
+  }
+
+  /**
+   * The beacon's diagnostics; a beacon with nothing to report gets an entry with no alerts.
+   */
+  Diagnostics getDiagnostics(String beaconName) {
+    get(beaconName);
+    Diagnostics found = diagnostics.get(beaconName);
+    return found != null ? found
+        : new Diagnostics(beaconName, null, Collections.<String>emptyList());
+  }
+
+  List<Namespace> getNamespaces() {
+    return namespaces;
+  }
+
+  /**
+   * The beacon advertising {@code id}, if it is registered and active, as getforobserved only
+   * reports those.
+   */
+  BeaconRecord observe(String type, byte[] id) {
+    BeaconRecord beacon = beacons.get(beaconName(type, id));
+    return beacon != null && beacon.getStatus().equals(STATUS_ACTIVE) ? beacon : null;
+  }
+
+  private static BeaconRecord withName(BeaconRecord beacon, String name, String status) {
+    return new BeaconRecord(name, beacon.getType(), beacon.getId(), status, beacon.getPlaceId(),
+        beacon.getLatitude(), beacon.getLongitude(), beacon.getExpectedStability(),
+        beacon.getDescription());
+  }
+
+  static boolean typeMatches(String pattern, String namespacedType) {
+    if (pattern == null || pattern.equals("*/*")) {
+      return true;
+    }
+    int slash = pattern.indexOf('/');
+    int typeSlash = namespacedType.indexOf('/');
+    if (slash < 0 || typeSlash < 0) {
+      return pattern.equals(namespacedType);
+    }
+    String namespace = pattern.substring(0, slash);
+    String type = pattern.substring(slash + 1);
+    return (namespace.equals("*") || namespace.equals(namespacedType.substring(0, typeSlash)))
+        && (type.equals("*") || type.equals(namespacedType.substring(typeSlash + 1)));
+  }
+
+  /**
+   * The subset of the list query language the fake understands: space-separated
+   * {@code field:value} terms, all of which must match. Values may be quoted.
+   */
+  private static class BeaconFilter {
+    private String status;
+    private String type;
+    private String description;
+
+    BeaconFilter(String query) {
+      if (query == null) {
+        return;
+      }
+      for (String term : query.trim().split("\\s+(?=\\w+:)")) {
+        if (term.isEmpty()) {
+          continue;
+        }
+        int colon = term.indexOf(':');
+        if (colon < 0) {
+          throw FakeApiError.invalidArgument("Unsupported query term " + term);
+        }
+        String value = term.substring(colon + 1).replace("\"", "");
+        switch (term.substring(0, colon)) {
+          case "status":
+            status = value.toUpperCase(Locale.US);
+            break;
+          case "type":
+            type = value.toUpperCase(Locale.US);
+            break;
+          case "description":
+            description = value;
+            break;
+          default:
+            throw FakeApiError.invalidArgument("Unsupported query field " + term);
+        }
+      }
+    }
+
+    boolean isEmpty() {
+      return status == null && type == null && description == null;
+    }
+
+    boolean matches(BeaconRecord beacon) {
+      return (status == null || status.equals(beacon.getStatus()))
+          && (type == null || type.equals(beacon.getType()))
+          && (description == null || (beacon.getDescription() != null
+              && beacon.getDescription().contains(description)));
+    }
+  }
+}
@@ -0,0 +1,162 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sample.libproximitybeacon.fake;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * How a {@link FakeProximityBeaconServer} misbehaves: how long each request takes and how often
+ * it fails. Latency is a base delay plus uniform jitter, with an occasional much slower tail
+ * request. Failures are either server errors or 429s carrying a Retry-After, and are decided
+ * before a request touches the registry, so a failed write never half-happens.
+ *
+ * <p>Draws come from a {@link Random} seeded from {@link Builder#setSeed}, so a single-threaded
+ * run sees the same sequence every time.
+ */
+public final class FaultModel {
+
+  /**
+   * Answers every request at once and never fails.
+   */
+  public static final FaultModel NONE = new Builder().build();
+
+  private final long baseLatencyMillis;
+  private final long jitterMillis;
+  private final double tailProbability;
+  private final long tailLatencyMillis;
+  private final double errorRate;
+  private final int[] errorCodes;
+  private final double throttleRate;
+  private final int retryAfterSeconds;
+  private final Random random;
+
+  private FaultModel(Builder builder) {
+    this.baseLatencyMillis = builder.baseLatencyMillis;
+    this.jitterMillis = builder.jitterMillis;
+    this.tailProbability = builder.tailProbability;
+    this.tailLatencyMillis = builder.tailLatencyMillis;
+    this.errorRate = builder.errorRate;
+    this.errorCodes = builder.errorCodes.clone();
+    this.throttleRate = builder.throttleRate;
+    this.retryAfterSeconds = builder.retryAfterSeconds;
+    this.random = new Random(builder.seed);
+  }
+
+  /**
+   * How long to hold the next request before answering it.
+   */
+  long nextLatencyMillis() {
+    long latency = baseLatencyMillis;
+    if (jitterMillis > 0) {
+      latency += (long) (random.nextDouble() * jitterMillis);
+    }
+    if (tailProbability > 0 && random.nextDouble() < tailProbability) {
+      latency += tailLatencyMillis;
+    }
+    return latency;
+  }
+
+  /**
+   * The status to fail the next request with, or 0 to serve it.
+   */
+  int nextFailure() {
+    double draw = random.nextDouble();
+    if (draw < throttleRate) {
+      return FakeApiError.TOO_MANY_REQUESTS;
+    }
+    if (draw < throttleRate + errorRate) {
+      return errorCodes[random.nextInt(errorCodes.length)];
+    }
+    return 0;
+  }
+
+  int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  @Override
+  public String toString() {
+    return "FaultModel{latency=" + baseLatencyMillis + "+" + jitterMillis + "ms, tail="
+        + tailProbability + "@" + tailLatencyMillis + "ms, errors=" + errorRate + " of "
+        + Arrays.toString(errorCodes) + ", throttled=" + throttleRate + "}";
+  }
+
+  public static final class Builder {
+    private long baseLatencyMillis;
+    private long jitterMillis;
+    private double tailProbability;
+    private long tailLatencyMillis;
+    private double errorRate;
+    private int[] errorCodes = {500, 503};
+    private double throttleRate;
+    private int retryAfterSeconds = 1;
+    private long seed = 1;
+
+    /**
+     * Holds each request for {@code baseMillis} plus up to {@code jitterMillis} more, chosen
+     * uniformly.
+     */
+    public Builder setLatency(long baseMillis, long jitterMillis) {
+      this.baseLatencyMillis = baseMillis;
+      this.jitterMillis = jitterMillis;
+      return this;
+    }
+
+    /**
+     * Holds a fraction {@code probability} of requests for {@code extraMillis} longer, to give
+     * the latency distribution a tail.
+     */
+    public Builder setTail(double probability, long extraMillis) {
+      this.tailProbability = probability;
+      this.tailLatencyMillis = extraMillis;
+      return this;
+    }
+
+    /**
+     * Fails a fraction {@code rate} of requests with one of {@code httpCodes}, chosen uniformly;
+     * 500 and 503 by default.
+     */
+    public Builder setErrorRate(double rate, int... httpCodes) {
+      if (httpCodes.length > 0) {
+        this.errorCodes = httpCodes.clone();
+      }
+      this.errorRate = rate;
+      return this;
+    }
+
+    /**
+     * Rejects a fraction {@code rate} of requests with a 429 that asks the client to wait
+     * {@code retryAfterSeconds}.
+     */
+    public Builder setThrottleRate(double rate, int retryAfterSeconds) {
+      this.throttleRate = rate;
+      this.retryAfterSeconds = retryAfterSeconds;
+      return this;
+    }
+
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public FaultModel build() {
+      if (errorRate < 0 || throttleRate < 0 || errorRate + throttleRate > 1) {
+        throw new IllegalArgumentException("Failure rates must add up to between 0 and 1");
+      }
+      return new FaultModel(this);
+    }
+  }
+}